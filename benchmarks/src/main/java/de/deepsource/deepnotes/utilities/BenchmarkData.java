@@ -0,0 +1,122 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.deepsource.deepnotes.models.Stroke;
+
+/**
+ * Creates the data the benchmarks work on. Everything is generated from a
+ * fixed seed, so every run measures the same data.
+ */
+final class BenchmarkData {
+
+	/**
+	 * The seed of all generated data.
+	 */
+	static final long SEED = 20111024L;
+
+	/**
+	 * The width of the page the strokes are drawn on.
+	 */
+	static final int PAGE_WIDTH = 480;
+
+	/**
+	 * The height of the page the strokes are drawn on.
+	 */
+	static final int PAGE_HEIGHT = 800;
+
+	/**
+	 * The largest distance between two points of a stroke, about what a
+	 * quick finger moves between two touch events.
+	 */
+	private static final float MAX_STEP = 12f;
+
+	/**
+	 * The time between two points of a stroke in milliseconds.
+	 */
+	private static final int POINT_INTERVAL = 16;
+
+	/**
+	 * Utility classes should not have public or default constructor.
+	 */
+	private BenchmarkData() {
+		// empty
+	}
+
+	/**
+	 * Creates strokes as they are drawn: random walks with timestamps and
+	 * pressure.
+	 *
+	 * @param count
+	 *            The number of strokes.
+	 * @param points
+	 *            The number of points of every stroke.
+	 *
+	 * @return The strokes.
+	 */
+	static List<Stroke> strokes(final int count, final int points) {
+		final Random random = new Random(SEED);
+		final List<Stroke> strokes = new ArrayList<Stroke>(count);
+
+		for (int i = 0; i < count; i++) {
+			final Stroke stroke = new Stroke(0xff000000 | random.nextInt(),
+					2f + random.nextInt(3) * 4f, points);
+
+			float x = random.nextFloat() * PAGE_WIDTH;
+			float y = random.nextFloat() * PAGE_HEIGHT;
+			long time = 1000L * i;
+
+			for (int p = 0; p < points; p++) {
+				stroke.addPoint(x, y, time, 0.5f + random.nextFloat() / 2);
+
+				x = clamp(x + (random.nextFloat() * 2 - 1) * MAX_STEP,
+						PAGE_WIDTH);
+				y = clamp(y + (random.nextFloat() * 2 - 1) * MAX_STEP,
+						PAGE_HEIGHT);
+				time += POINT_INTERVAL;
+			}
+
+			strokes.add(stroke);
+		}
+
+		return strokes;
+	}
+
+	/**
+	 * Creates random bytes, for sections that are not decoded.
+	 *
+	 * @param length
+	 *            The number of bytes.
+	 *
+	 * @return The bytes.
+	 */
+	static byte[] bytes(final int length) {
+		final byte[] bytes = new byte[length];
+		new Random(SEED).nextBytes(bytes);
+
+		return bytes;
+	}
+
+	/**
+	 * Keeps a coordinate on the page.
+	 *
+	 * @param value
+	 *            The coordinate.
+	 * @param max
+	 *            The size of the page.
+	 *
+	 * @return The coordinate within [0, max].
+	 */
+	private static float clamp(final float value, final int max) {
+		return Math.max(0f, Math.min(max, value));
+	}
+}
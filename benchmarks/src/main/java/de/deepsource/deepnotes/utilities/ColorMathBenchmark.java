@@ -0,0 +1,102 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the color math of {@link ColorMath}, which runs for every move
+ * on the color picker.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms256m", "-Xmx256m" })
+@State(Scope.Thread)
+public class ColorMathBenchmark {
+
+	/**
+	 * The colors of the color picker.
+	 */
+	private static final int[] COLORS = new int[] { 0xFFFF0000, 0xFFFF00FF,
+			0xFF0000FF, 0xFF00FFFF, 0xFF00FF00, 0xFFFFFF00, 0xFFFF0000 };
+
+	/**
+	 * The number of values converted per invocation.
+	 */
+	private static final int COUNT = 256;
+
+	/**
+	 * The positions on the color wheel.
+	 */
+	private final float[] units = new float[COUNT];
+
+	/**
+	 * The colors to rotate.
+	 */
+	private final int[] colors = new int[COUNT];
+
+	/**
+	 * The angles to rotate the colors by.
+	 */
+	private final float[] angles = new float[COUNT];
+
+	@Setup
+	public void setUp() {
+		final Random random = new Random(BenchmarkData.SEED);
+
+		for (int i = 0; i < COUNT; i++) {
+			units[i] = random.nextFloat();
+			colors[i] = random.nextInt();
+			angles[i] = (random.nextFloat() * 2 - 1) * (float) Math.PI;
+		}
+	}
+
+	/**
+	 * Interpolates the colors of the color wheel.
+	 *
+	 * @return The combined colors.
+	 */
+	@Benchmark
+	public int interpColor() {
+		int result = 0;
+		for (int i = 0; i < COUNT; i++) {
+			result ^= ColorMath.interpColor(COLORS, units[i]);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Rotates the hue of colors.
+	 *
+	 * @return The combined colors.
+	 */
+	@Benchmark
+	public int rotateColor() {
+		int result = 0;
+		for (int i = 0; i < COUNT; i++) {
+			result ^= ColorMath.rotateColor(colors[i], angles[i]);
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.deepsource.deepnotes.models.Stroke;
+
+/**
+ * Measures collecting the {@link DirtyRegion} of the points delivered by the
+ * touch events of a stroke, which runs for every point drawn. Both ways to
+ * collect it return the number of pixels drawn again, so the saving of the
+ * tight bounds can be compared, too.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms256m", "-Xmx256m" })
+@State(Scope.Thread)
+public class DirtyRegionBenchmark {
+
+	/**
+	 * The number of strokes drawn per invocation.
+	 */
+	private static final int STROKE_COUNT = 50;
+
+	/**
+	 * The number of points of every stroke.
+	 */
+	private static final int POINT_COUNT = 200;
+
+	/**
+	 * The distance the region extended beyond the points, before the DrawView
+	 * used the bounds of the curves.
+	 */
+	private static final float PADDED_OFFSET = 50f;
+
+	/**
+	 * The margin the DrawView adds to half the width of the line for
+	 * anti-aliasing.
+	 */
+	private static final float ANTI_ALIAS_MARGIN = 2f;
+
+	/**
+	 * The number of points a touch event delivers, the region is invalidated
+	 * once per event.
+	 */
+	@Param({ "1", "4" })
+	public int pointsPerEvent;
+
+	/**
+	 * The strokes to draw.
+	 */
+	private List<Stroke> strokes;
+
+	/**
+	 * The region being collected.
+	 */
+	private final DirtyRegion region = new DirtyRegion();
+
+	@Setup
+	public void setUp() {
+		strokes = BenchmarkData.strokes(STROKE_COUNT, POINT_COUNT);
+	}
+
+	/**
+	 * Collects the regions of all touch events of the strokes, every segment
+	 * padded by a fixed offset.
+	 *
+	 * @return The number of pixels that would be drawn again.
+	 */
+	@Benchmark
+	public long collectPadded() {
+		return collect(false);
+	}
+
+	/**
+	 * Collects the regions of all touch events of the strokes from the bounds
+	 * of the curves and the width of the lines, like the DrawView does.
+	 *
+	 * @return The number of pixels that would be drawn again.
+	 */
+	@Benchmark
+	public long collectTight() {
+		return collect(true);
+	}
+
+	/**
+	 * Collects the regions of all touch events of the strokes.
+	 *
+	 * @param tight
+	 *            Whether to use the bounds of the curves instead of padding
+	 *            the segments.
+	 *
+	 * @return The number of pixels that would be drawn again.
+	 */
+	private long collect(final boolean tight) {
+		long pixels = 0;
+
+		for (Stroke stroke : strokes) {
+			final float margin = stroke.getWidth() / 2 + ANTI_ALIAS_MARGIN;
+			float lastX = stroke.getX(0);
+			float lastY = stroke.getY(0);
+			float endX = lastX;
+			float endY = lastY;
+
+			final int size = stroke.size();
+			for (int i = 1; i < size; i++) {
+				final float x = stroke.getX(i);
+				final float y = stroke.getY(i);
+				final float midX = (x + lastX) / 2;
+				final float midY = (y + lastY) / 2;
+
+				if (tight) {
+					region.addQuad(endX, endY, lastX, lastY, midX, midY, margin);
+				} else {
+					region.addSegment(lastX, lastY, x, y, PADDED_OFFSET);
+				}
+
+				lastX = x;
+				lastY = y;
+				endX = midX;
+				endY = midY;
+
+				if (i % pointsPerEvent == 0 || i == size - 1) {
+					pixels += region.getArea(BenchmarkData.PAGE_WIDTH,
+							BenchmarkData.PAGE_HEIGHT);
+					region.setEmpty();
+				}
+			}
+		}
+
+		return pixels;
+	}
+}
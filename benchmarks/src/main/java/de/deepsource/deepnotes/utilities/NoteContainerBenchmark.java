@@ -0,0 +1,133 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures opening a note file and reading its sections with
+ * {@link NoteContainer}, which runs whenever a note is opened, shown in the
+ * list or shared. Saving is not measured, it is dominated by syncing the file
+ * to the disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms256m", "-Xmx256m" })
+@State(Scope.Thread)
+public class NoteContainerBenchmark {
+
+	/**
+	 * The number of strokes of every page.
+	 */
+	private static final int STROKE_COUNT = 20;
+
+	/**
+	 * The number of points of every stroke.
+	 */
+	private static final int POINT_COUNT = 50;
+
+	/**
+	 * The size of the background of every page.
+	 */
+	private static final int BACKGROUND_SIZE = 64 * 1024;
+
+	/**
+	 * The size of the thumbnail of the note.
+	 */
+	private static final int THUMBNAIL_SIZE = 8 * 1024;
+
+	/**
+	 * The number of pages of the note.
+	 */
+	@Param({ "3", "20" })
+	public int pageCount;
+
+	/**
+	 * The note file.
+	 */
+	private File file;
+
+	@Setup
+	public void setUp() throws IOException {
+		final ByteArrayOutputStream strokes = new ByteArrayOutputStream();
+		StrokeCodec.write(strokes, BenchmarkData.strokes(STROKE_COUNT,
+				POINT_COUNT));
+
+		file = File.createTempFile("benchmark", ".note");
+		if (!file.delete()) {
+			throw new IOException("failed to delete " + file);
+		}
+
+		final NoteContainer.Editor editor = NoteContainer.edit(file);
+		editor.put(NoteContainer.SECTION_THUMBNAIL, 0,
+				BenchmarkData.bytes(THUMBNAIL_SIZE));
+
+		for (int page = 0; page < pageCount; page++) {
+			editor.put(NoteContainer.SECTION_STROKES, page,
+					strokes.toByteArray());
+			editor.put(NoteContainer.SECTION_BACKGROUND, page,
+					BenchmarkData.bytes(BACKGROUND_SIZE));
+		}
+
+		editor.setPageCount(pageCount);
+		if (!editor.commit()) {
+			throw new IOException("failed to write " + file);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (!file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+
+	/**
+	 * Opens the note, like the index does to read the thumbnail.
+	 *
+	 * @return The number of pages.
+	 */
+	@Benchmark
+	public int open() {
+		return NoteContainer.open(file).getPageCount();
+	}
+
+	/**
+	 * Opens the note and reads the strokes of every page, like sharing does.
+	 *
+	 * @param blackhole
+	 *            Consumes the sections.
+	 */
+	@Benchmark
+	public void readStrokes(final Blackhole blackhole) {
+		final NoteContainer note = NoteContainer.open(file);
+
+		for (int page = 0; page < pageCount; page++) {
+			blackhole.consume(note.read(NoteContainer.SECTION_STROKES, page));
+		}
+	}
+}
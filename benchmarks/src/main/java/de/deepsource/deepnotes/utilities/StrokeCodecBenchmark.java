@@ -0,0 +1,99 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.deepsource.deepnotes.models.Stroke;
+
+/**
+ * Measures encoding and decoding the strokes of a page with
+ * {@link StrokeCodec}, which runs on every save and every page load.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms256m", "-Xmx256m" })
+@State(Scope.Thread)
+public class StrokeCodecBenchmark {
+
+	/**
+	 * The number of points of every stroke.
+	 */
+	private static final int POINT_COUNT = 50;
+
+	/**
+	 * The number of strokes of the page.
+	 */
+	@Param({ "10", "200" })
+	public int strokeCount;
+
+	/**
+	 * The strokes to encode.
+	 */
+	private List<Stroke> strokes;
+
+	/**
+	 * The encoded strokes to decode.
+	 */
+	private byte[] encoded;
+
+	@Setup
+	public void setUp() throws IOException {
+		strokes = BenchmarkData.strokes(strokeCount, POINT_COUNT);
+		encoded = write();
+	}
+
+	/**
+	 * Encodes the strokes.
+	 *
+	 * @return The encoded strokes.
+	 *
+	 * @throws IOException
+	 *             Never, the strokes are encoded in memory.
+	 */
+	@Benchmark
+	public byte[] write() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(
+				encoded == null ? 32 : encoded.length);
+		StrokeCodec.write(out, strokes);
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes the strokes.
+	 *
+	 * @return The decoded strokes.
+	 *
+	 * @throws IOException
+	 *             Never, the strokes are decoded from memory.
+	 */
+	@Benchmark
+	public List<Stroke> read() throws IOException {
+		return StrokeCodec.read(new ByteArrayInputStream(encoded),
+				encoded.length);
+	}
+}
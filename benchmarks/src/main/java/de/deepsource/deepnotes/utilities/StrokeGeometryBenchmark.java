@@ -0,0 +1,140 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.deepsource.deepnotes.models.Stroke;
+
+/**
+ * Measures the bezier smoothing of {@link StrokeGeometry}, which runs for
+ * every point drawn and for every stroke of a page that is rendered.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms256m", "-Xmx256m" })
+@State(Scope.Thread)
+public class StrokeGeometryBenchmark {
+
+	/**
+	 * The number of strokes smoothed per invocation.
+	 */
+	private static final int STROKE_COUNT = 50;
+
+	/**
+	 * Passes the segments to a {@link Blackhole}, so they are not optimized
+	 * away.
+	 */
+	private static final class SinkBuilder implements
+			StrokeGeometry.PathBuilder {
+
+		/**
+		 * The Blackhole of the current invocation.
+		 */
+		private Blackhole sink;
+
+		@Override
+		public void moveTo(final float x, final float y) {
+			sink.consume(x);
+			sink.consume(y);
+		}
+
+		@Override
+		public void quadTo(final float x1, final float y1, final float x2,
+				final float y2) {
+			sink.consume(x1);
+			sink.consume(y1);
+			sink.consume(x2);
+			sink.consume(y2);
+		}
+
+		@Override
+		public void lineTo(final float x, final float y) {
+			sink.consume(x);
+			sink.consume(y);
+		}
+	}
+
+	/**
+	 * The number of points of every stroke.
+	 */
+	@Param({ "20", "200" })
+	public int points;
+
+	/**
+	 * The strokes to smooth.
+	 */
+	private List<Stroke> strokes;
+
+	/**
+	 * Receives the segments.
+	 */
+	private final SinkBuilder builder = new SinkBuilder();
+
+	@Setup
+	public void setUp() {
+		strokes = BenchmarkData.strokes(STROKE_COUNT, points);
+	}
+
+	/**
+	 * Smoothes whole strokes, like the {@link StrokeRenderer} does.
+	 *
+	 * @param blackhole
+	 *            Consumes the segments.
+	 */
+	@Benchmark
+	public void smooth(final Blackhole blackhole) {
+		builder.sink = blackhole;
+
+		for (Stroke stroke : strokes) {
+			StrokeGeometry.smooth(stroke, builder);
+		}
+	}
+
+	/**
+	 * Smoothes the strokes point by point, like the DrawView does while a
+	 * stroke is drawn.
+	 *
+	 * @param blackhole
+	 *            Consumes the segments.
+	 */
+	@Benchmark
+	public void continuePath(final Blackhole blackhole) {
+		builder.sink = blackhole;
+
+		for (Stroke stroke : strokes) {
+			float lastX = stroke.getX(0);
+			float lastY = stroke.getY(0);
+
+			final int size = stroke.size();
+			for (int i = 1; i < size; i++) {
+				final float x = stroke.getX(i);
+				final float y = stroke.getY(i);
+				StrokeGeometry.continuePath(builder, lastX, lastY, x, y);
+				lastX = x;
+				lastY = y;
+			}
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Checks that a {@link Stroke} keeps its points, timestamps, pressure and
+ * bounds while it grows, and rejects points that break its invariants.
+ */
+public class StrokeTest {
+
+	/**
+	 * The time of the first point of timed strokes.
+	 */
+	private static final long START = 1300000000000L;
+
+	@Test
+	public void growsPastInitialCapacity() {
+		final Stroke stroke = new Stroke(0xFF000000, 2f);
+		for (int i = 0; i < 100; i++) {
+			stroke.addPoint(i, -i);
+		}
+
+		assertEquals(100, stroke.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, stroke.getX(i), 0f);
+			assertEquals(-i, stroke.getY(i), 0f);
+			assertEquals(0L, stroke.getTime(i));
+			assertEquals(1f, stroke.getPressure(i), 0f);
+		}
+		assertFalse(stroke.hasTimestamps());
+	}
+
+	@Test
+	public void growsTimedPointsPastCapacity() {
+		final Stroke stroke = new Stroke(0xFF000000, 2f, 0);
+		for (int i = 0; i < 100; i++) {
+			stroke.addPoint(i, i, START + i * 8, i / 100f);
+		}
+
+		assertEquals(100, stroke.size());
+		assertTrue(stroke.hasTimestamps());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, stroke.getX(i), 0f);
+			assertEquals(START + i * 8, stroke.getTime(i));
+			assertEquals(i / 100f, stroke.getPressure(i), 0f);
+		}
+	}
+
+	@Test
+	public void keepsEqualTimes() {
+		final Stroke stroke = new Stroke(0xFF000000, 2f);
+		stroke.addPoint(0f, 0f, START, 0.5f);
+		stroke.addPoint(1f, 1f, START, 0.5f);
+
+		assertEquals(START, stroke.getTime(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNegativeWidth() {
+		new Stroke(0xFF000000, -1f);
+	}
+
+	@Test
+	public void rejectsDecreasingTime() {
+		final Stroke stroke = new Stroke(0xFF000000, 2f);
+		stroke.addPoint(0f, 0f, START, 0.5f);
+		stroke.addPoint(1f, 1f, START + 10, 0.5f);
+
+		try {
+			stroke.addPoint(2f, 2f, START + 9, 0.5f);
+			fail("a decreasing time was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		try {
+			stroke.addPoint(2f, 2f, START - 1, 0.5f);
+			fail("a time before the first point was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		assertEquals(2, stroke.size());
+	}
+
+	@Test
+	public void rejectsTimeTooFarFromStart() {
+		final Stroke stroke = new Stroke(0xFF000000, 2f);
+		stroke.addPoint(0f, 0f, START, 0.5f);
+
+		try {
+			stroke.addPoint(1f, 1f, START + Integer.MAX_VALUE + 1L, 0.5f);
+			fail("a time too far from the first point was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		stroke.addPoint(1f, 1f, START + Integer.MAX_VALUE, 0.5f);
+		assertEquals(START + Integer.MAX_VALUE, stroke.getTime(1));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsUntimedPointInTimedStroke() {
+		final Stroke stroke = new Stroke(0xFF000000, 2f);
+		stroke.addPoint(0f, 0f, START, 0.5f);
+		stroke.addPoint(1f, 1f);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsTimedPointInUntimedStroke() {
+		final Stroke stroke = new Stroke(0xFF000000, 2f);
+		stroke.addPoint(0f, 0f);
+		stroke.addPoint(1f, 1f, START, 0.5f);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void rejectsIndexPastSize() {
+		final Stroke stroke = new Stroke(0xFF000000, 2f);
+		stroke.addPoint(0f, 0f);
+		stroke.getX(1);
+	}
+
+	@Test
+	public void tracksBounds() {
+		final Stroke stroke = new Stroke(0xFF000000, 2f);
+		stroke.addPoint(10f, 20f);
+
+		assertBounds(stroke, 10f, 20f, 10f, 20f);
+
+		stroke.addPoint(-5f, 40f);
+		stroke.addPoint(30f, -15f);
+		stroke.addPoint(0f, 0f);
+
+		assertBounds(stroke, -5f, -15f, 30f, 40f);
+	}
+
+	@Test
+	public void hitTestFindsPoints() {
+		final Stroke stroke = new Stroke(0xFF000000, 4f);
+		stroke.addPoint(0f, 0f);
+		stroke.addPoint(100f, 0f);
+
+		// on a point, and within half the width plus tolerance of one
+		assertTrue(stroke.hitTest(0f, 0f, 0f));
+		assertTrue(stroke.hitTest(100f, 2f, 0f));
+		assertTrue(stroke.hitTest(103f, 4f, 3f));
+
+		// just out of reach
+		assertFalse(stroke.hitTest(100f, 2.5f, 0f));
+		assertFalse(stroke.hitTest(106f, 0f, 3f));
+
+		// inside the bounds but far from both points
+		assertFalse(stroke.hitTest(50f, 0f, 1f));
+	}
+
+	@Test
+	public void hitTestMissesEmptyStroke() {
+		assertFalse(new Stroke(0xFF000000, 4f).hitTest(0f, 0f, 10f));
+	}
+
+	/**
+	 * Checks the bounds of a stroke.
+	 *
+	 * @param stroke
+	 *            The stroke.
+	 * @param left
+	 *            The expected left bound.
+	 * @param top
+	 *            The expected top bound.
+	 * @param right
+	 *            The expected right bound.
+	 * @param bottom
+	 *            The expected bottom bound.
+	 */
+	private static void assertBounds(final Stroke stroke, final float left,
+			final float top, final float right, final float bottom) {
+		assertEquals(left, stroke.getLeft(), 0f);
+		assertEquals(top, stroke.getTop(), 0f);
+		assertEquals(right, stroke.getRight(), 0f);
+		assertEquals(bottom, stroke.getBottom(), 0f);
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that a file written with {@link AtomicFile} has either its old or
+ * its new content, whenever the write is stopped.
+ */
+public class AtomicFileTest {
+
+	/**
+	 * The old content of the file.
+	 */
+	private static final byte[] OLD = data(4096, 1);
+
+	/**
+	 * The new content of the file.
+	 */
+	private static final byte[] NEW = data(8192, 2);
+
+	/**
+	 * Holds the files.
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * The file that is replaced.
+	 */
+	private File file;
+
+	/**
+	 * The temporary file the new content is written to.
+	 */
+	private File temp;
+
+	@Before
+	public void setUp() throws IOException {
+		file = new File(folder.getRoot(), "page.png");
+		temp = new File(file + AtomicFile.TEMP_SUFFIX);
+		AtomicFile.write(file, OLD);
+	}
+
+	@Test
+	public void replacesContent() throws IOException {
+		AtomicFile.write(file, NEW);
+
+		assertArrayEquals(NEW, read(file));
+		assertFalse(temp.exists());
+	}
+
+	@Test
+	public void createsMissingFile() throws IOException {
+		final File created = new File(folder.getRoot(), "new.png");
+		AtomicFile.write(created, NEW);
+
+		assertArrayEquals(NEW, read(created));
+	}
+
+	@Test
+	public void failedWriteKeepsOldContent() {
+		try {
+			AtomicFile.write(file, new AtomicFile.Writer() {
+				@Override
+				public void write(final OutputStream out) throws IOException {
+					out.write(NEW, 0, NEW.length / 2);
+					throw new IOException("disk full");
+				}
+			});
+			fail("the write did not fail");
+		} catch (IOException e) {
+			// expected
+		}
+
+		assertArrayEquals(OLD, read(file));
+		assertFalse(temp.exists());
+	}
+
+	@Test
+	public void crashWhileWritingKeepsOldContent() throws IOException {
+		try {
+			AtomicFile.write(file, new AtomicFile.Writer() {
+				@Override
+				public void write(final OutputStream out) throws IOException {
+					out.write(NEW, 0, NEW.length / 2);
+					throw new IllegalStateException("crashed");
+				}
+			});
+			fail("the write did not fail");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		assertArrayEquals(OLD, read(file));
+		assertFalse(temp.exists());
+	}
+
+	@Test
+	public void killWhileWritingKeepsOldContent() throws IOException {
+		// a kill runs no cleanup, half of the new content stays behind
+		final FileOutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(NEW, 0, NEW.length / 2);
+		} finally {
+			out.close();
+		}
+
+		assertArrayEquals(OLD, read(file));
+
+		// the next write replaces the leftover
+		AtomicFile.write(file, NEW);
+		assertArrayEquals(NEW, read(file));
+		assertFalse(temp.exists());
+	}
+
+	@Test
+	public void leftoverLongerThanNewContentIsReplaced() throws IOException {
+		final FileOutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(data(3 * NEW.length, 3));
+		} finally {
+			out.close();
+		}
+
+		AtomicFile.write(file, NEW);
+		assertEquals(NEW.length, file.length());
+		assertArrayEquals(NEW, read(file));
+	}
+
+	/**
+	 * Reads a whole file.
+	 *
+	 * @param source
+	 *            The file.
+	 *
+	 * @return The content.
+	 */
+	private static byte[] read(final File source) {
+		try {
+			final RandomAccessFile raf = new RandomAccessFile(source, "r");
+			try {
+				final byte[] data = new byte[(int) raf.length()];
+				raf.readFully(data);
+				return data;
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Creates file content that differs between writes.
+	 *
+	 * @param length
+	 *            The length.
+	 * @param seed
+	 *            Makes the content differ.
+	 *
+	 * @return The content.
+	 */
+	private static byte[] data(final int length, final int seed) {
+		final byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (i * 31 + seed);
+		}
+
+		return data;
+	}
+}
@@ -0,0 +1,385 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that a {@link NoteContainer} always shows the last committed save,
+ * whatever happened to the file while or after it was written.
+ */
+public class NoteContainerTest {
+
+	/**
+	 * The offset of the header slot of the first save, after magic and
+	 * version. Saves use the slots in turns.
+	 */
+	private static final int FIRST_SLOT = 8 + 32;
+
+	/**
+	 * The offset of the header slot of the second save.
+	 */
+	private static final int SECOND_SLOT = 8;
+
+	/**
+	 * The number of bytes of a slot covered by the slot checksum.
+	 */
+	private static final int SLOT_DATA_SIZE = 24;
+
+	/**
+	 * The content of the first save.
+	 */
+	private static final byte[] FIRST = data(100, 1);
+
+	/**
+	 * The content of the second save.
+	 */
+	private static final byte[] SECOND = data(200, 2);
+
+	/**
+	 * Holds the note files.
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * The note file.
+	 */
+	private File file;
+
+	@Before
+	public void setUp() {
+		file = new File(folder.getRoot(), "note");
+	}
+
+	@Test
+	public void readsLastSave() throws IOException {
+		save(FIRST);
+		save(SECOND);
+
+		assertThumbnail(SECOND);
+	}
+
+	@Test
+	public void tornSlotFallsBackToOlderSave() throws IOException {
+		save(FIRST);
+		save(SECOND);
+
+		// one flipped bit in the index offset of the newer slot
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(SECOND_SLOT + 12);
+			final int b = raf.read();
+			raf.seek(SECOND_SLOT + 12);
+			raf.write(b ^ 1);
+		} finally {
+			raf.close();
+		}
+
+		assertThumbnail(FIRST);
+	}
+
+	@Test
+	public void halfWrittenSlotFallsBackToOlderSave() throws IOException {
+		save(FIRST);
+		save(SECOND);
+
+		// the second half of the newer slot never reached the disk
+		overwrite(SECOND_SLOT + 16, new byte[16]);
+
+		assertThumbnail(FIRST);
+	}
+
+	@Test
+	public void truncatedIndexFallsBackToOlderSave() throws IOException {
+		save(FIRST);
+		save(SECOND);
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(raf.length() - 3);
+		} finally {
+			raf.close();
+		}
+
+		assertThumbnail(FIRST);
+
+		// the next save continues from the older one
+		save(SECOND);
+		assertThumbnail(SECOND);
+	}
+
+	@Test
+	public void extentBehindIndexFallsBackToOlderSave() throws IOException {
+		save(FIRST);
+		save(SECOND);
+
+		// an index with valid checksums whose section reaches past the end
+		final ByteBuffer slot = ByteBuffer.wrap(read(SECOND_SLOT, 32));
+		final long indexOffset = slot.getLong(8);
+		final int indexLength = slot.getInt(16);
+
+		final ByteBuffer index = ByteBuffer
+				.wrap(read(indexOffset, indexLength));
+		final int count = index.getInt(0);
+		for (int i = 0; i < count; i++) {
+			final int entry = 4 + i * 17;
+			if (index.get(entry) == NoteContainer.SECTION_THUMBNAIL) {
+				index.putInt(entry + 13, Integer.MAX_VALUE / 2);
+			}
+		}
+		overwrite(indexOffset, index.array());
+
+		slot.putInt(20, crc(index.array(), indexLength));
+		slot.putInt(SLOT_DATA_SIZE, crc(slot.array(), SLOT_DATA_SIZE));
+		overwrite(SECOND_SLOT, slot.array());
+
+		assertThumbnail(FIRST);
+	}
+
+	@Test
+	public void firstSaveTornLeavesEmptyNote() throws IOException {
+		save(FIRST);
+
+		overwrite(FIRST_SLOT + 16, new byte[16]);
+
+		final NoteContainer note = NoteContainer.open(file);
+		assertNotNull(note);
+		assertFalse(note.has(NoteContainer.SECTION_THUMBNAIL, 0));
+	}
+
+	@Test
+	public void abortKeepsCommittedSave() throws IOException {
+		save(FIRST);
+		final long length = file.length();
+
+		final NoteContainer.Editor editor = NoteContainer.edit(file);
+		editor.put(NoteContainer.SECTION_THUMBNAIL, 0, SECOND);
+		editor.put(NoteContainer.SECTION_BACKGROUND, 1, SECOND);
+		editor.abort();
+
+		assertEquals(length, file.length());
+		assertThumbnail(FIRST);
+		assertFalse(NoteContainer.open(file).has(
+				NoteContainer.SECTION_BACKGROUND, 1));
+	}
+
+	@Test
+	public void uncommittedTailIsTruncatedOnReopen() throws IOException {
+		save(FIRST);
+		final long length = file.length();
+
+		// sections of a save that was killed before it committed
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(length);
+			raf.write(SECOND);
+			raf.write(SECOND);
+		} finally {
+			raf.close();
+		}
+
+		assertThumbnail(FIRST);
+
+		NoteContainer.edit(file).abort();
+		assertEquals(length, file.length());
+
+		save(SECOND);
+		assertThumbnail(SECOND);
+	}
+
+	@Test
+	public void appendedExtentsAreReadInOrder() throws IOException {
+		NoteContainer.Editor editor = NoteContainer.edit(file);
+		editor.put(NoteContainer.SECTION_STROKES, 0, FIRST);
+		assertTrue(editor.commit());
+
+		editor = NoteContainer.edit(file);
+		editor.append(NoteContainer.SECTION_STROKES, 0, SECOND);
+		assertTrue(editor.commit());
+
+		final byte[] expected = Arrays.copyOf(FIRST, FIRST.length
+				+ SECOND.length);
+		System.arraycopy(SECOND, 0, expected, FIRST.length, SECOND.length);
+
+		final NoteContainer note = NoteContainer.open(file);
+		assertArrayEquals(expected, note.read(NoteContainer.SECTION_STROKES,
+				0));
+		assertEquals(-1L, note.getOffset(NoteContainer.SECTION_STROKES, 0));
+	}
+
+	@Test
+	public void compactInterruptedBeforeRenameKeepsNote() throws IOException {
+		save(FIRST);
+
+		// a rewrite that was killed before the rename, maybe half written
+		final File temp = new File(file + ".tmp");
+		final RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		try {
+			raf.write(SECOND);
+		} finally {
+			raf.close();
+		}
+
+		assertThumbnail(FIRST);
+
+		// the next rewrite replaces the leftover
+		final byte[] large = data(300 * 1024, 3);
+		save(large);
+		save(large);
+		save(SECOND);
+
+		assertFalse(temp.exists());
+		assertTrue(file.length() < large.length);
+		assertThumbnail(SECOND);
+	}
+
+	@Test
+	public void compactKeepsOpenSnapshots() throws IOException {
+		final byte[] large = data(300 * 1024, 3);
+		save(large);
+		save(large);
+
+		final NoteContainer old = NoteContainer.open(file);
+		save(SECOND);
+
+		assertTrue(file.length() < large.length);
+		assertArrayEquals(large, old.read(NoteContainer.SECTION_THUMBNAIL, 0));
+		assertThumbnail(SECOND);
+	}
+
+	/**
+	 * Commits a thumbnail.
+	 *
+	 * @param thumbnail
+	 *            The thumbnail.
+	 *
+	 * @throws IOException
+	 *             If the note file could not be opened.
+	 */
+	private void save(final byte[] thumbnail) throws IOException {
+		final NoteContainer.Editor editor = NoteContainer.edit(file);
+		editor.put(NoteContainer.SECTION_THUMBNAIL, 0, thumbnail);
+		editor.setPageCount(3);
+		assertTrue(editor.commit());
+	}
+
+	/**
+	 * Checks the thumbnail a new snapshot of the note file reads.
+	 *
+	 * @param expected
+	 *            The thumbnail.
+	 */
+	private void assertThumbnail(final byte[] expected) {
+		final NoteContainer note = NoteContainer.open(file);
+		assertNotNull(note);
+		assertArrayEquals(expected, note.read(NoteContainer.SECTION_THUMBNAIL,
+				0));
+		assertEquals(3, note.getPageCount());
+	}
+
+	/**
+	 * Reads bytes of the note file.
+	 *
+	 * @param offset
+	 *            Where to start.
+	 * @param length
+	 *            The number of bytes.
+	 *
+	 * @return The bytes.
+	 *
+	 * @throws IOException
+	 *             If the file could not be read.
+	 */
+	private byte[] read(final long offset, final int length)
+			throws IOException {
+		final byte[] data = new byte[length];
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			raf.seek(offset);
+			raf.readFully(data);
+		} finally {
+			raf.close();
+		}
+
+		return data;
+	}
+
+	/**
+	 * Overwrites bytes of the note file.
+	 *
+	 * @param offset
+	 *            Where to start.
+	 * @param data
+	 *            The new bytes.
+	 *
+	 * @throws IOException
+	 *             If the file could not be written.
+	 */
+	private void overwrite(final long offset, final byte[] data)
+			throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(offset);
+			raf.write(data);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Creates section content that differs between saves.
+	 *
+	 * @param length
+	 *            The length.
+	 * @param seed
+	 *            Makes the content differ.
+	 *
+	 * @return The content.
+	 */
+	private static byte[] data(final int length, final int seed) {
+		final byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (i * 31 + seed);
+		}
+
+		return data;
+	}
+
+	/**
+	 * Calculates a checksum like the note file does.
+	 *
+	 * @param data
+	 *            The data.
+	 * @param length
+	 *            The number of checksummed bytes from the start.
+	 *
+	 * @return The CRC32 of the bytes.
+	 */
+	private static int crc(final byte[] data, final int length) {
+		final CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		return (int) crc.getValue();
+	}
+}
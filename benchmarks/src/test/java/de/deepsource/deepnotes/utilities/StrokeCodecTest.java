@@ -0,0 +1,474 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.deepsource.deepnotes.models.Stroke;
+
+/**
+ * Checks that {@link StrokeCodec} reads what it wrote, reads the older
+ * versions, and reports damaged data instead of crashing.
+ */
+public class StrokeCodecTest {
+
+	/**
+	 * Identifies a stroke file ("DNSK").
+	 */
+	private static final int MAGIC = 0x444E534B;
+
+	/**
+	 * The color of the strokes.
+	 */
+	private static final int COLOR = 0xFF112233;
+
+	@Test
+	public void roundTripsCurrentVersion() throws IOException {
+		final List<Stroke> strokes = Arrays.asList(timedStroke(0f, 50),
+				plainStroke(100f, 3), new Stroke(COLOR, 1f));
+
+		final List<Stroke> read = new ArrayList<Stroke>();
+		assertTrue(read(encode(strokes), read));
+		assertStrokes(strokes, read);
+	}
+
+	@Test
+	public void readsVersion2() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final DataOutputStream data = header(out, 2);
+		writeVarInt(data, 2);
+		writeStrokeHeader(data, 3f, true, 2);
+		data.writeLong(1000L);
+		writePoint(data, 8, 16);
+		writeVarInt(data, 0);
+		data.writeByte(128);
+		writePoint(data, 8, 0);
+		writeVarInt(data, 5);
+		data.writeByte(64);
+		writeStrokeHeader(data, 2f, false, 1);
+		writePoint(data, -8, 0);
+
+		final List<Stroke> read = new ArrayList<Stroke>();
+		assertFalse(read(out.toByteArray(), read));
+
+		assertEquals(2, read.size());
+		final Stroke timed = read.get(0);
+		assertEquals(3f, timed.getWidth(), 0f);
+		assertEquals(2f, timed.getX(1), 0f);
+		assertEquals(2f, timed.getY(1), 0f);
+		assertEquals(1005L, timed.getTime(1));
+		assertEquals(0.5f, timed.getPressure(1), 0f);
+		assertFalse(read.get(1).hasTimestamps());
+		assertEquals(-1f, read.get(1).getX(0), 0f);
+	}
+
+	@Test
+	public void readsVersion1() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final DataOutputStream data = header(out, 1);
+		writeVarInt(data, 1);
+		data.writeInt(COLOR);
+		writeVarInt(data, 4 * 16);
+		writeVarInt(data, 2);
+		writePoint(data, 80, 40);
+		writePoint(data, 8, -8);
+
+		final List<Stroke> read = new ArrayList<Stroke>();
+		assertFalse(read(out.toByteArray(), read));
+
+		assertEquals(1, read.size());
+		final Stroke stroke = read.get(0);
+		assertEquals(COLOR, stroke.getColor());
+		assertEquals(4f, stroke.getWidth(), 0f);
+		assertEquals(11f, stroke.getX(1), 0f);
+		assertEquals(4f, stroke.getY(1), 0f);
+		assertFalse(stroke.hasTimestamps());
+	}
+
+	@Test
+	public void readsAppendedChunks() throws IOException {
+		final List<Stroke> first = Arrays.asList(timedStroke(0f, 40));
+		final List<Stroke> second = Arrays.asList(plainStroke(10f, 5),
+				timedStroke(20f, 3));
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StrokeCodec.write(out, first);
+		StrokeCodec.append(out, second);
+
+		final List<Stroke> read = new ArrayList<Stroke>();
+		assertTrue(read(out.toByteArray(), read));
+
+		final List<Stroke> expected = new ArrayList<Stroke>(first);
+		expected.addAll(second);
+		assertStrokes(expected, read);
+	}
+
+	@Test
+	public void dropsCutOffLastChunk() throws IOException {
+		final List<Stroke> first = Arrays.asList(timedStroke(0f, 40));
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StrokeCodec.write(out, first);
+		final int complete = out.size();
+		StrokeCodec.append(out, Arrays.asList(timedStroke(5f, 40)));
+
+		for (int cut = complete + 1; cut < out.size(); cut++) {
+			final List<Stroke> read = new ArrayList<Stroke>();
+			assertFalse(read(Arrays.copyOf(out.toByteArray(), cut), read));
+			assertStrokes(first, read);
+		}
+	}
+
+	@Test
+	public void readsStreamsThatDoNotTellWhatIsLeft() throws IOException {
+		final List<Stroke> strokes = Arrays.asList(timedStroke(0f, 100));
+		final byte[] encoded = encode(strokes);
+
+		final InputStream in = new FilterInputStream(new ByteArrayInputStream(
+				encoded)) {
+			@Override
+			public int available() {
+				return 0;
+			}
+		};
+
+		final List<Stroke> read = new ArrayList<Stroke>();
+		assertTrue(StrokeCodec.read(in, encoded.length, read));
+		assertStrokes(strokes, read);
+	}
+
+	@Test
+	public void rejectsNegativeWidth() {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			final DataOutputStream data = header(out, StrokeCodec.VERSION);
+			writeVarInt(data, 1);
+			data.writeInt(COLOR);
+			writeVarInt(data, -16);
+			data.writeByte(0);
+			writeVarInt(data, 0);
+		} catch (IOException e) {
+			fail();
+		}
+
+		assertDamaged(out.toByteArray());
+	}
+
+	@Test
+	public void rejectsNegativePointCount() {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			final DataOutputStream data = header(out, StrokeCodec.VERSION);
+			writeVarInt(data, 1);
+			writeStrokeHeader(data, 1f, false, -1);
+		} catch (IOException e) {
+			fail();
+		}
+
+		assertDamaged(out.toByteArray());
+	}
+
+	@Test
+	public void dropsChunkWithMorePointsThanBytes() throws IOException {
+		final List<Stroke> first = Arrays.asList(plainStroke(0f, 4));
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StrokeCodec.write(out, first);
+		final DataOutputStream data = new DataOutputStream(out);
+		writeVarInt(data, 1);
+		writeStrokeHeader(data, 1f, false, Integer.MAX_VALUE);
+		writePoint(data, 8, 8);
+
+		final List<Stroke> read = new ArrayList<Stroke>();
+		assertFalse(read(out.toByteArray(), read));
+		assertStrokes(first, read);
+	}
+
+	@Test
+	public void rejectsNegativeTimeDelta() {
+		assertDamaged(timedFile(-5));
+	}
+
+	@Test
+	public void rejectsTimeBeyondStroke() {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			final DataOutputStream data = header(out, StrokeCodec.VERSION);
+			writeVarInt(data, 1);
+			writeStrokeHeader(data, 1f, true, 3);
+			data.writeLong(0L);
+			for (int i = 0; i < 3; i++) {
+				writePoint(data, 0, 0);
+				writeVarInt(data, i == 0 ? 0 : Integer.MAX_VALUE);
+				data.writeByte(128);
+			}
+		} catch (IOException e) {
+			fail();
+		}
+
+		assertDamaged(out.toByteArray());
+	}
+
+	@Test
+	public void readsLargeTimeDelta() throws IOException {
+		final List<Stroke> read = new ArrayList<Stroke>();
+		assertTrue(read(timedFile(Integer.MAX_VALUE), read));
+		assertEquals(1000L + Integer.MAX_VALUE, read.get(0).getTime(1));
+	}
+
+	/**
+	 * Encodes strokes in the current version.
+	 *
+	 * @param strokes
+	 *            The strokes.
+	 *
+	 * @return The stroke file.
+	 *
+	 * @throws IOException
+	 *             Never, the strokes are written to memory.
+	 */
+	private static byte[] encode(final List<Stroke> strokes)
+			throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StrokeCodec.write(out, strokes);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reads a stroke file.
+	 *
+	 * @param encoded
+	 *            The stroke file.
+	 * @param strokes
+	 *            The list the strokes will be added to.
+	 *
+	 * @return Whether strokes can be appended to the file.
+	 *
+	 * @throws IOException
+	 *             If the file is damaged.
+	 */
+	private static boolean read(final byte[] encoded,
+			final List<Stroke> strokes) throws IOException {
+		return StrokeCodec.read(new ByteArrayInputStream(encoded),
+				encoded.length, strokes);
+	}
+
+	/**
+	 * Checks that reading a stroke file is reported as failed.
+	 *
+	 * @param encoded
+	 *            The damaged stroke file.
+	 */
+	private static void assertDamaged(final byte[] encoded) {
+		try {
+			read(encoded, new ArrayList<Stroke>());
+			fail("damaged strokes were read");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Creates a stroke file of the current version with one timed stroke of
+	 * two points.
+	 *
+	 * @param delta
+	 *            The time between the points.
+	 *
+	 * @return The stroke file.
+	 */
+	private static byte[] timedFile(final int delta) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			final DataOutputStream data = header(out, StrokeCodec.VERSION);
+			writeVarInt(data, 1);
+			writeStrokeHeader(data, 1f, true, 2);
+			data.writeLong(1000L);
+			writePoint(data, 0, 0);
+			writeVarInt(data, 0);
+			data.writeByte(128);
+			writePoint(data, 8, 8);
+			writeVarInt(data, delta);
+			data.writeByte(128);
+		} catch (IOException e) {
+			fail();
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Creates a stroke with time and pressure, with values the codec stores
+	 * exactly.
+	 *
+	 * @param offset
+	 *            Moves the stroke.
+	 * @param points
+	 *            The number of points.
+	 *
+	 * @return The stroke.
+	 */
+	private static Stroke timedStroke(final float offset, final int points) {
+		final Stroke stroke = new Stroke(COLOR, 2.5f);
+		for (int i = 0; i < points; i++) {
+			stroke.addPoint(offset + i * 0.5f, offset - i * 0.125f,
+					1300000000000L + i * 16, (i % 128) / 128f);
+		}
+
+		return stroke;
+	}
+
+	/**
+	 * Creates a stroke without time and pressure.
+	 *
+	 * @param offset
+	 *            Moves the stroke.
+	 * @param points
+	 *            The number of points.
+	 *
+	 * @return The stroke.
+	 */
+	private static Stroke plainStroke(final float offset, final int points) {
+		final Stroke stroke = new Stroke(0xFF000000, 6f);
+		for (int i = 0; i < points; i++) {
+			stroke.addPoint(offset - i * 3f, offset + i * 0.25f);
+		}
+
+		return stroke;
+	}
+
+	/**
+	 * Checks that strokes were read as they were written.
+	 *
+	 * @param expected
+	 *            The written strokes.
+	 * @param actual
+	 *            The read strokes.
+	 */
+	private static void assertStrokes(final List<Stroke> expected,
+			final List<Stroke> actual) {
+		assertEquals(expected.size(), actual.size());
+
+		for (int s = 0; s < expected.size(); s++) {
+			final Stroke want = expected.get(s);
+			final Stroke got = actual.get(s);
+			assertEquals(want.getColor(), got.getColor());
+			assertEquals(want.getWidth(), got.getWidth(), 0f);
+			assertEquals(want.hasTimestamps(), got.hasTimestamps());
+			assertEquals(want.size(), got.size());
+
+			for (int i = 0; i < want.size(); i++) {
+				assertEquals(want.getX(i), got.getX(i), 0f);
+				assertEquals(want.getY(i), got.getY(i), 0f);
+				assertEquals(want.getTime(i), got.getTime(i));
+				assertEquals(want.getPressure(i), got.getPressure(i), 0f);
+			}
+		}
+	}
+
+	/**
+	 * Writes the header of a stroke file.
+	 *
+	 * @param out
+	 *            The stream to write to.
+	 * @param version
+	 *            The version of the file.
+	 *
+	 * @return The stream to write the chunks to.
+	 *
+	 * @throws IOException
+	 *             Never, the file is written to memory.
+	 */
+	private static DataOutputStream header(final ByteArrayOutputStream out,
+			final int version) throws IOException {
+		final DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeByte(version);
+		return data;
+	}
+
+	/**
+	 * Writes the fields of a stroke before its points, for version 2 and
+	 * later.
+	 *
+	 * @param data
+	 *            The stream to write to.
+	 * @param width
+	 *            The width of the stroke.
+	 * @param timed
+	 *            Whether the points carry time and pressure.
+	 * @param points
+	 *            The number of points.
+	 *
+	 * @throws IOException
+	 *             Never, the file is written to memory.
+	 */
+	private static void writeStrokeHeader(final DataOutputStream data,
+			final float width, final boolean timed, final int points)
+			throws IOException {
+		data.writeInt(COLOR);
+		writeVarInt(data, Math.round(width * 16));
+		data.writeByte(timed ? 1 : 0);
+		writeVarInt(data, points);
+	}
+
+	/**
+	 * Writes the coordinates of a point.
+	 *
+	 * @param data
+	 *            The stream to write to.
+	 * @param dx
+	 *            The x delta in 1/8 pixel.
+	 * @param dy
+	 *            The y delta in 1/8 pixel.
+	 *
+	 * @throws IOException
+	 *             Never, the file is written to memory.
+	 */
+	private static void writePoint(final DataOutputStream data, final int dx,
+			final int dy) throws IOException {
+		writeVarInt(data, (dx << 1) ^ (dx >> 31));
+		writeVarInt(data, (dy << 1) ^ (dy >> 31));
+	}
+
+	/**
+	 * Writes an integer using 7 bits per byte, like the codec does.
+	 *
+	 * @param data
+	 *            The stream to write to.
+	 * @param value
+	 *            The value.
+	 *
+	 * @throws IOException
+	 *             Never, the file is written to memory.
+	 */
+	private static void writeVarInt(final DataOutputStream data,
+			final int value) throws IOException {
+		int remaining = value;
+		while ((remaining & ~0x7F) != 0) {
+			data.writeByte((remaining & 0x7F) | 0x80);
+			remaining >>>= 7;
+		}
+		data.writeByte(remaining);
+	}
+}
@@ -7,11 +7,22 @@
 
 package de.deepsource.deepnotes.activities;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -21,10 +32,8 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.ResolveInfo;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.net.Uri;
 import android.os.AsyncTask;
@@ -37,14 +46,28 @@ import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.ViewFlipper;
 import de.deepsource.deepnotes.R;
 import de.deepsource.deepnotes.application.Deepnotes;
 import de.deepsource.deepnotes.dialogs.ColorPickerDialog;
+import de.deepsource.deepnotes.models.NotePage;
+import de.deepsource.deepnotes.models.PageContent;
+import de.deepsource.deepnotes.models.Stroke;
+import de.deepsource.deepnotes.utilities.BitmapPool;
+import de.deepsource.deepnotes.utilities.FrameTracer;
 import de.deepsource.deepnotes.utilities.IOManager;
+import de.deepsource.deepnotes.utilities.Metrics;
+import de.deepsource.deepnotes.utilities.NoteContainer;
+import de.deepsource.deepnotes.utilities.NoteIndex;
+import de.deepsource.deepnotes.utilities.PageLoader;
+import de.deepsource.deepnotes.utilities.PagePrefetcher;
+import de.deepsource.deepnotes.utilities.StrokeCodec;
+import de.deepsource.deepnotes.utilities.StrokeRenderer;
 import de.deepsource.deepnotes.views.DrawView;
 import de.deepsource.deepnotes.views.DrawView.DrawViewListener;
+import de.deepsource.deepnotes.views.PageLayer;
 
 /**
  * This activity enables the draw view and forwards important events to
@@ -54,7 +77,37 @@ import de.deepsource.deepnotes.views.DrawView.DrawViewListener;
  * @author Jan Pretzel (jan.pretzel@deepsource.de)
  */
 public class DrawActivity extends Activity implements
-		ColorPickerDialog.OnColorChangedListener, DrawViewListener {
+		ColorPickerDialog.OnColorChangedListener, DrawViewListener,
+		PagePrefetcher.PageSource {
+
+	/**
+	 * The time it takes to read a page from storage.
+	 */
+	private static final Metrics.Histogram LOAD_TIMER = Metrics
+			.timer("page.load");
+
+	/**
+	 * The time it takes to show another page.
+	 */
+	private static final Metrics.Histogram FLIP_TIMER = Metrics
+			.timer("page.flip");
+
+	/**
+	 * The time it takes to save a note.
+	 */
+	private static final Metrics.Histogram SAVE_TIMER = Metrics.timer("save");
+
+	/**
+	 * The time it takes to create the thumbnail of a note.
+	 */
+	private static final Metrics.Histogram THUMBNAIL_TIMER = Metrics
+			.timer("save.thumbnail");
+
+	/**
+	 * The number of bytes of a compressed thumbnail.
+	 */
+	private static final Metrics.Histogram THUMBNAIL_BYTES = Metrics
+			.histogram("save.thumbnail.bytes");
 
 	/**
 	 * Custom request code to identify the <i>image pick from gallery</i>.
@@ -87,15 +140,44 @@ public class DrawActivity extends Activity implements
 	private transient DrawView currentDrawView;
 
 	/**
-	 * This {@link ViewGroup} holds the {@link DrawView}-objects.
+	 * This {@link ViewGroup} holds the {@link DrawView}-objects. There are
+	 * only {@link Deepnotes#DRAWVIEW_COUNT} of them, the pages of the note are
+	 * bound to them when they are shown.
 	 */
 	private transient ViewFlipper viewFlipper;
 
+	/**
+	 * The pages of the note. Only the pages bound to a {@link DrawView} hold
+	 * Bitmaps, all others are kept on disk.
+	 */
+	private transient List<NotePage> pages;
+
+	/**
+	 * The position of the displayed page in {@link DrawActivity#pages}.
+	 */
+	private int currentPage = 0;
+
+	/**
+	 * Loads the neighbours of the displayed page in the background.
+	 */
+	private transient PagePrefetcher prefetcher;
+
+	/**
+	 * Traces the time from touches to frames of all {@link DrawView}s.
+	 */
+	private final transient FrameTracer frameTracer = new FrameTracer();
+
 	/**
 	 * The name of the note used in the file system.
 	 */
 	private transient String fileName;
 
+	/**
+	 * The saved note, read by {@link DrawActivity#load(int)} on the
+	 * prefetcher thread. Null if the note was not saved yet.
+	 */
+	private transient volatile NoteContainer note;
+
 	/**
 	 * Holds the current color and pen-width.
 	 */
@@ -143,30 +225,56 @@ public class DrawActivity extends Activity implements
 			fileName = bundle.getString(Deepnotes.SAVED_NOTE_NAME);
 		}
 
-		currentDrawView = new DrawView(weakThis.get(), this);
-		viewFlipper.addView(currentDrawView);
-		loadNotePage(currentDrawView, viewFlipper.getDisplayedChild());
+		// saved notes may have more pages than new ones
+		int pageCount = Deepnotes.NOTEPAGE_COUNT;
+		if (fileName != null) {
+			// notes of older versions are stored in several files
+			IOManager.convertNote(this, fileName);
+
+			note = NoteContainer.open(IOManager.getNoteFile(this, fileName));
+			if (note != null) {
+				pageCount = note.getPageCount();
+			}
+		}
+
+		pages = new ArrayList<NotePage>(pageCount);
+		for (int i = 0; i < pageCount; i++) {
+			pages.add(new NotePage(i));
+		}
+
+		// the DrawViews are reused for all pages, only one is displayed, so
+		// they share the layer they draw frames from
+		final PageLayer pageLayer = new PageLayer();
+		for (int i = 0; i < Deepnotes.DRAWVIEW_COUNT; i++) {
+			final DrawView drawView = new DrawView(weakThis.get(), this);
+			drawView.setFrameTracer(frameTracer);
+			drawView.setPageLayer(pageLayer);
+			viewFlipper.addView(drawView);
+		}
+
+		frameTracer.setOverlay((TextView) findViewById(R.id.frameOverlay));
+
+		currentDrawView = (DrawView) viewFlipper.getCurrentView();
+		loadNotePage(currentDrawView, currentPage);
 
 		// set the default paint color
 		setCurrentPaint(Color.BLACK);
 
-		// add some more DrawViews,
-		viewFlipper.addView(new DrawView(weakThis.get(), this));
-		viewFlipper.addView(new DrawView(weakThis.get(), this));
+		// get the neighbours ready for the first page flip
+		prefetcher = new PagePrefetcher(this);
+		updatePageWindow();
 	}
 
 	/**
 	 * Loads a specific note page, in other words it's background and foreground
-	 * bitmaps. To do so it checks if there is a saved image for the foreground
-	 * and loads it, otherwise an empty Bitmap is created. In both situations
-	 * the saved Paths will be drawn to one of the two Bitmaps. For the
-	 * background it first checks if there is something to load from cache, if
-	 * not it checks if there is a saved file to load.
+	 * bitmaps, by reading it with {@link DrawActivity#load(int)} and handing
+	 * it to the {@link DrawView} with
+	 * {@link DrawActivity#applyNotePage(DrawView, PageContent)}.
 	 *
 	 * @param drawView
 	 *            The {@link DrawView} to load.
 	 * @param position
-	 *            The position in the {@link DrawActivity#viewFlipper}.
+	 *            The position of the page in the note.
 	 */
 	// Author: Jan Pretzel
 	private void loadNotePage(final DrawView drawView,
@@ -176,95 +284,126 @@ public class DrawActivity extends Activity implements
 			throw new IllegalArgumentException();
 		}
 
-		if (position < 0 || position >= viewFlipper.getChildCount()) {
+		if (position < 0 || position >= pages.size()) {
 			Log.e(Deepnotes.APP_NAME, "position is out of bounds");
 			throw new IllegalArgumentException();
 		}
 
-		final File notePath = new File(getFilesDir(), fileName + "/");
-		boolean loaded = false;
+		applyNotePage(drawView, load(position));
+	}
+
+	/**
+	 * Reads a specific note page from storage. It checks if there is a saved
+	 * image for the foreground and saved strokes. For the background it first
+	 * checks if there is something to load from cache, if not it checks if
+	 * there is a saved file to load. This method only touches files, so it is
+	 * safe to call it from a background thread.
+	 *
+	 * @param position
+	 *            The position of the page in the note.
+	 *
+	 * @return The content of the page.
+	 */
+	@Override
+	public final PageContent load(final int position) {
+		final long start = Metrics.start();
+		final int width = Deepnotes.getViewportWidth();
+		final int height = Deepnotes.getViewportHeight();
+		final NoteContainer saved = note;
+
+		Bitmap foreground = null;
+		List<Stroke> strokes = null;
+		boolean appendable = false;
 
 		// load saved page if there is one
-		if (fileName != null && notePath.exists()) {
-			final String notePathString = notePath.toString() + "/" + position
-					+ Deepnotes.PNG_SUFFIX;
-			Bitmap note = null;
-
-			final File noteFile = new File(notePathString);
-			if (noteFile.exists()) {
-				note = BitmapFactory.decodeFile(notePathString);
-				drawView.setBitmap(note.copy(Bitmap.Config.ARGB_8888, true));
-				loaded = true;
+		if (saved != null) {
+			if (saved.has(NoteContainer.SECTION_RASTER, position)) {
+				foreground = PageLoader.decode(saved.read(
+						NoteContainer.SECTION_RASTER, position), width, height);
+			}
+
+			if (saved.has(NoteContainer.SECTION_STROKES, position)) {
+				strokes = new ArrayList<Stroke>();
+				appendable = IOManager.readStrokes(saved, position, strokes);
 			}
 		}
 
 		// set background if one exists
 		// first check cached files
 		boolean modified = false;
-		File file = new File(getCacheDir() + "/" + position
+		Bitmap background = null;
+		final File file = new File(getCacheDir() + "/" + position
 				+ Deepnotes.JPG_SUFFIX);
-		String path = null;
-		Bitmap bitmap = null;
 
 		if (file.exists()) {
-			path = file.getPath();
+			background = PageLoader.decode(file.getPath(), width, height);
 			modified = true;
-		} else {
+		} else if (saved != null
+				&& saved.has(NoteContainer.SECTION_BACKGROUND, position)) {
 			// check if there is a saved background
-			file = new File(notePath.toString() + "/background_" + position
-					+ Deepnotes.JPG_SUFFIX);
-
-			if (file.exists()) {
-				path = file.getPath();
-			}
+			background = PageLoader.decode(saved.read(
+					NoteContainer.SECTION_BACKGROUND, position), width, height);
 		}
 
-		if (path != null) {
-			bitmap = BitmapFactory.decodeFile(path);
-			drawView.setBackgroundBitmap(
-					bitmap.copy(Bitmap.Config.ARGB_8888, true), modified);
-		}
+		LOAD_TIMER.stop(start);
 
-		if (loaded) {
-			drawView.redraw();
-			return;
-		}
-
-		// else the page is empty
-		drawView.setBitmap(Bitmap.createBitmap(Deepnotes.getViewportWidth(),
-				Deepnotes.getViewportHeight(), Bitmap.Config.ARGB_8888));
-		drawView.redraw();
+		return new PageContent(position, foreground, background, modified,
+				strokes, appendable);
 	}
 
 	/**
-	 * Reloads a given note page of the note. The background will not be
-	 * reloaded!
+	 * Binds a page read by {@link DrawActivity#load(int)} to a
+	 * {@link DrawView}. If there is no saved foreground an empty Bitmap is
+	 * used. Saved strokes are loaded once per page. In both situations the
+	 * strokes will be drawn to the foreground. Pages that were cleared only
+	 * take a newly imported background.
 	 *
-	 * @param index
-	 *            The index of the page that will be reloaded.
+	 * @param drawView
+	 *            The {@link DrawView} to load.
+	 * @param content
+	 *            The content of the page.
 	 */
-	// Author: Jan Pretzel
-	private void reloadNotePage(final int index) {
-		if (index < 0 || index >= viewFlipper.getChildCount()) {
-			Log.e(Deepnotes.APP_NAME, "index is out of bounds");
-			throw new IllegalArgumentException();
+	private void applyNotePage(final DrawView drawView,
+			final PageContent content) {
+		final NotePage page = pages.get(content.getPosition());
+		final boolean cleared = page.isCleared();
+		drawView.bindPage(page);
+
+		Bitmap foreground = content.takeForeground();
+		if (foreground != null && cleared) {
+			BitmapPool.release(foreground);
+			foreground = null;
 		}
 
-		final File notePath = new File(getFilesDir(), fileName + "/");
-
-		if (notePath.exists()) {
-			final String notePathString = notePath.toString();
-			final DrawView reloadView = (DrawView) viewFlipper
-					.getChildAt(index);
+		if (foreground != null) {
+			drawView.setBitmap(foreground, true);
+		} else {
+			drawView.setBitmap(BitmapPool.acquire(Deepnotes.getViewportWidth(),
+					Deepnotes.getViewportHeight(), Bitmap.Config.ARGB_8888),
+					false);
+		}
 
-			final File noteFile = new File(notePathString + "/" + index
-					+ Deepnotes.PNG_SUFFIX);
-			if (noteFile.exists()) {
-				final Bitmap note = BitmapFactory.decodeFile(notePathString
-						+ "/" + index + Deepnotes.PNG_SUFFIX);
-				reloadView.loadBitmap(note);
+		// saved strokes are kept by the page once they are loaded, even if
+		// there were none, else strokes saved later would be loaded twice
+		if (!page.isStrokesLoaded()) {
+			if (content.getStrokes() != null) {
+				page.loadStrokes(content.getStrokes(),
+						content.isStrokesAppendable());
+			} else {
+				page.loadStrokes(new ArrayList<Stroke>(), false);
 			}
 		}
+
+		final Bitmap background = content.takeBackground();
+		if (background != null && (!cleared || content.isBackgroundModified())) {
+			drawView.setBackgroundBitmap(background,
+					content.isBackgroundModified());
+		} else {
+			BitmapPool.release(background);
+		}
+
+		drawView.redraw();
+		drawView.invalidate();
 	}
 
 	// Author: Sebastian Ullrich
@@ -385,12 +524,18 @@ public class DrawActivity extends Activity implements
 			handled = true;
 			break;
 
-		// Pen Width Thin Picked
+		// Undo Picked
 		case R.id.draw_menu_undo:
 			currentDrawView.undo();
 			handled = true;
 			break;
 
+		// Redo Picked
+		case R.id.draw_menu_redo:
+			currentDrawView.redo();
+			handled = true;
+			break;
+
 		// Page Forward
 		case R.id.draw_menu_forward:
 			showNextDrawView();
@@ -403,13 +548,19 @@ public class DrawActivity extends Activity implements
 			handled = true;
 			break;
 
+		// Add Page
+		case R.id.draw_menu_addpage:
+			addPage();
+			handled = true;
+			break;
+
 		// Clear Page
 		case R.id.draw_menu_clear:
-			currentDrawView.clearView(false);
+			currentDrawView.clearView();
 
 			// delete cached background if there is one
-			final File file = new File(getCacheDir() + "/"
-					+ viewFlipper.getDisplayedChild() + Deepnotes.JPG_SUFFIX);
+			final File file = new File(getCacheDir() + "/" + currentPage
+					+ Deepnotes.JPG_SUFFIX);
 			if (file.exists() && !file.delete()) {
 				Log.e(Deepnotes.APP_NAME, Deepnotes.ERROR_FILE);
 			}
@@ -459,7 +610,7 @@ public class DrawActivity extends Activity implements
 	 */
 	// Author: Sebastian Ullrich
 	public final void showNextDrawView() {
-		showPage(PAGE_FORWARD);
+		showPage((currentPage + 1) % pages.size());
 	}
 
 	/**
@@ -468,80 +619,196 @@ public class DrawActivity extends Activity implements
 	 */
 	// Author: Sebastian Ullrich
 	public final void showPreviousDrawView() {
-		showPage(PAGE_BACKWARD);
+		showPage((currentPage + pages.size() - 1) % pages.size());
 	}
 
 	/**
-	 * Identifier for at page forward flip.
+	 * Adds an empty page to the end of the note and shows it. Empty pages are
+	 * not saved, so they are gone when the note is opened again.
 	 */
-	private static final boolean PAGE_FORWARD = true;
+	private void addPage() {
+		if (pages.size() >= Deepnotes.MAX_NOTEPAGE_COUNT) {
+			Toast.makeText(getApplicationContext(), R.string.max_pages,
+					Toast.LENGTH_SHORT).show();
+			return;
+		}
 
-	/**
-	 * Identifier for at page backward flip.
-	 */
-	private static final boolean PAGE_BACKWARD = false;
+		pages.add(new NotePage(pages.size()));
+		showPage(pages.size() - 1);
+	}
 
 	/**
-	 * Shows the next page of the note depending on the direction. To save
-	 * memory the current page will be cached and it's Bitmaps recycled before
-	 * we load the new displayed note.
+	 * Shows a page of the note. If the page is not bound to a
+	 * {@link DrawView} already, a {@link DrawView} holding a page outside the
+	 * new window is recycled, after caching it's background, and the page is
+	 * bound to it. Usually the page was prefetched, so this only swaps in
+	 * Bitmaps that are ready.
 	 *
-	 * @param direction
-	 *            The page flip direction. Expects
-	 *            {@link DrawActivity#PAGE_FORWARD} or
-	 *            {@link DrawActivity#PAGE_BACKWARD}
+	 * @param position
+	 *            The position of the page to show.
 	 */
 	// Author: Jan Pretzel
 	// Author: Sebastian Ullrich
-	private void showPage(final boolean direction) {
-		final Paint tempPaint = ((DrawView) viewFlipper.getCurrentView())
-				.getPaint();
-		showPageToast(direction);
+	private void showPage(final int position) {
+		final long flipStart = Metrics.start();
+		final Paint tempPaint = currentDrawView.getPaint();
+		showPageToast(position);
 
-		saveDrawingCache();
-		currentDrawView.recycle();
+		if (position == currentPage) {
+			return;
+		}
 
-		if (direction == PAGE_FORWARD) {
-			viewFlipper.showNext();
-		} else {
-			viewFlipper.showPrevious();
+		currentPage = position;
+
+		DrawView drawView = findDrawView(position);
+		if (drawView == null) {
+			drawView = findFreeDrawView();
+			releaseDrawView(drawView);
 		}
 
-		currentDrawView = (DrawView) viewFlipper.getCurrentView();
-		loadNotePage(currentDrawView, viewFlipper.getDisplayedChild());
+		viewFlipper.setDisplayedChild(viewFlipper.indexOfChild(drawView));
+
+		currentDrawView = drawView;
+		if (!currentDrawView.isLoaded()) {
+			applyNotePage(currentDrawView, prefetcher.take(position));
+		}
 		currentDrawView.setPaint(tempPaint);
+
+		// only the displayed page keeps undo checkpoints
+		final int count = viewFlipper.getChildCount();
+		for (int i = 0; i < count; i++) {
+			final DrawView child = (DrawView) viewFlipper.getChildAt(i);
+			if (child != currentDrawView) {
+				child.trimCheckpoints();
+			}
+		}
+
+		updatePageWindow();
+
+		FLIP_TIMER.stop(flipStart);
 	}
 
 	/**
-	 * Will queue a toast message with the current page number.
+	 * Looks for the {@link DrawView} a page is bound to.
+	 *
+	 * @param position
+	 *            The position of the page in the note.
 	 *
-	 * @param direction
-	 *            The page flip direction. Expects
-	 *            {@link DrawActivity#PAGE_FORWARD} or
-	 *            {@link DrawActivity#PAGE_BACKWARD}
+	 * @return The {@link DrawView}, or null if the page is not bound.
 	 */
-	// Author: Sebastian Ullrich
-	private void showPageToast(final boolean direction) {
-		final int currentPage = viewFlipper.getDisplayedChild() + 1;
-		final int size = viewFlipper.getChildCount();
+	private DrawView findDrawView(final int position) {
+		final int count = viewFlipper.getChildCount();
+		for (int i = 0; i < count; i++) {
+			final DrawView drawView = (DrawView) viewFlipper.getChildAt(i);
+			final NotePage page = drawView.getPage();
+			if (page != null && page.getPosition() == position) {
+				return drawView;
+			}
+		}
 
-		String msg;
+		return null;
+	}
 
-		if (direction == PAGE_FORWARD) {
-			// show next page
-			if (currentPage == size) {
-				msg = "1";
-			} else {
-				msg = String.valueOf(currentPage + 1);
+	/**
+	 * Looks for a {@link DrawView} that is not displayed and preferably holds
+	 * no page of the window around {@link DrawActivity#currentPage}.
+	 *
+	 * @return The {@link DrawView}.
+	 */
+	private DrawView findFreeDrawView() {
+		final Set<Integer> window = getPageWindow();
+		final int count = viewFlipper.getChildCount();
+		DrawView free = null;
+
+		for (int i = 0; i < count; i++) {
+			final DrawView drawView = (DrawView) viewFlipper.getChildAt(i);
+			if (drawView == currentDrawView) {
+				continue;
 			}
-		} else {
-			if (currentPage == 1) {
-				msg = String.valueOf(size);
-			} else {
-				msg = String.valueOf(currentPage - 1);
+
+			final NotePage page = drawView.getPage();
+			if (page == null
+					|| !window.contains(Integer.valueOf(page.getPosition()))) {
+				return drawView;
+			}
+
+			free = drawView;
+		}
+
+		return free;
+	}
+
+	/**
+	 * Unbinds the page of a {@link DrawView}, after writing its background to
+	 * the drawing cache, and gives its Bitmaps back to the pool.
+	 *
+	 * @param drawView
+	 *            The {@link DrawView} to release.
+	 */
+	private void releaseDrawView(final DrawView drawView) {
+		if (drawView.getPage() != null) {
+			saveDrawingCache(drawView);
+			drawView.bindPage(null);
+		}
+
+		drawView.recycle();
+	}
+
+	/**
+	 * Returns the positions of the displayed page and its neighbours in the
+	 * ring of pages. Only those pages keep their Bitmaps.
+	 *
+	 * @return The positions of the pages in the note.
+	 */
+	private Set<Integer> getPageWindow() {
+		final int count = pages.size();
+
+		final Set<Integer> window = new HashSet<Integer>();
+		window.add(Integer.valueOf(currentPage));
+		window.add(Integer.valueOf((currentPage + 1) % count));
+		window.add(Integer.valueOf((currentPage + count - 1) % count));
+
+		return window;
+	}
+
+	/**
+	 * Releases the {@link DrawView}s holding pages that left the window
+	 * around the displayed page, and starts prefetching the pages of the
+	 * window that are not bound to a {@link DrawView}.
+	 */
+	private void updatePageWindow() {
+		final Set<Integer> window = getPageWindow();
+		final int count = viewFlipper.getChildCount();
+
+		for (int i = 0; i < count; i++) {
+			final DrawView drawView = (DrawView) viewFlipper.getChildAt(i);
+			final NotePage page = drawView.getPage();
+
+			if (page != null
+					&& !window.contains(Integer.valueOf(page.getPosition()))) {
+				releaseDrawView(drawView);
+			}
+		}
+
+		for (Integer position : window) {
+			if (findDrawView(position.intValue()) == null) {
+				prefetcher.prefetch(position.intValue());
 			}
 		}
 
+		prefetcher.retain(window);
+	}
+
+	/**
+	 * Will queue a toast message with the number of the shown page.
+	 *
+	 * @param position
+	 *            The position of the shown page.
+	 */
+	// Author: Sebastian Ullrich
+	private void showPageToast(final int position) {
+		final String msg = (position + 1) + "/" + pages.size();
+
 		Toast.makeText(this.getApplicationContext(), msg, Toast.LENGTH_SHORT)
 				.show();
 	}
@@ -735,26 +1002,51 @@ public class DrawActivity extends Activity implements
 	}
 
 	/**
-	 * Saves the currently displayed note to the drawing cache. Drawing cache is
+	 * Saves the background of a page to the drawing cache. Drawing cache is
 	 * located in the internal storage of the application, and cannot be read by
 	 * other applications.
+	 *
+	 * @param drawView
+	 *            The {@link DrawView} of the page.
 	 */
 	// Author: Jan Pretzel
-	private void saveDrawingCache() {
-		if (currentDrawView.isBgModified()) {
+	private void saveDrawingCache(final DrawView drawView) {
+		final NotePage page = drawView.getPage();
+		if (page.isBgModified() && drawView.getBackgroundBitmap() != null) {
 			String cachePath = getCacheDir().toString();
 			final File file = new File(cachePath);
 			file.mkdirs();
 
-			cachePath += "/" + viewFlipper.getDisplayedChild()
-					+ Deepnotes.JPG_SUFFIX;
-			final Bitmap bitmap = currentDrawView.getBackgroundBitmap();
+			cachePath += "/" + page.getPosition() + Deepnotes.JPG_SUFFIX;
+			final Bitmap bitmap = drawView.getBackgroundBitmap();
 
 			IOManager.writeFile(bitmap, cachePath, Bitmap.CompressFormat.JPEG,
 					Deepnotes.JPG_QUALITY);
 		}
 	}
 
+	/**
+	 * Will be called when the Activity leaves the foreground, the metrics
+	 * gathered so far and the report of the {@link FrameTracer} session are
+	 * exported then.
+	 */
+	@Override
+	protected final void onPause() {
+		super.onPause();
+		frameTracer.endSession();
+		Metrics.export();
+	}
+
+	/**
+	 * Will be called when the Activity comes to the foreground, a new
+	 * session of the {@link FrameTracer} begins then.
+	 */
+	@Override
+	protected final void onResume() {
+		super.onResume();
+		frameTracer.beginSession();
+	}
+
 	/**
 	 * Will be called before the Activity is destroyed. We will need to clear
 	 * the drawing cache here and make sure the Bitmaps can get garbage
@@ -763,6 +1055,7 @@ public class DrawActivity extends Activity implements
 	// Author: Jan Pretzel
 	@Override
 	protected final void onDestroy() {
+		prefetcher.shutdown();
 		clearDrawingCache();
 
 		// THIS IS IMPORTANT
@@ -774,6 +1067,8 @@ public class DrawActivity extends Activity implements
 			clearView.recycle();
 		}
 
+		BitmapPool.clear();
+
 		super.onDestroy();
 	}
 
@@ -800,17 +1095,6 @@ public class DrawActivity extends Activity implements
 		saveStateChanged = true;
 	}
 
-	/**
-	 * When a {@link DrawView} undid something we need to call
-	 * {@link DrawActivity#reloadNotePage(int)} for the currently displayed
-	 * {@link DrawView}.
-	 */
-	// Author: Jan Pretzel
-	@Override
-	public final void undone() {
-		reloadNotePage(viewFlipper.getDisplayedChild());
-	}
-
 	/**
 	 * Getter for {@link DrawActivity#currentPaint}.
 	 *
@@ -857,14 +1141,14 @@ public class DrawActivity extends Activity implements
 	/**
 	 * An AsyncTask to save the current note, it's backgrounds and a thumbnail.
 	 * While working this task will show a ProgressDialog telling the user that
-	 * it is saving at the moment. To write the files to the storage, it uses
-	 * {@link IOManager#writeFile(Bitmap, String, android.graphics.Bitmap.CompressFormat, int)}
-	 * . Thumbnails will be saved in a subfolder called 'thumbnail'. Fore- and
-	 * backgrounds will be saved to a subfolder with the
-	 * {@link DrawActivity#fileName} as name. Foregrounds will be saved as
-	 * PNG-files to enable transparency and names will be numbered from 0 - 3.
-	 * Backgrounds will be saved as JPG-files and have the same name as the
-	 * foreground with 'background_' as prefix.
+	 * it is saving at the moment. Everything is saved to the
+	 * {@link NoteContainer} of the note: the thumbnail, the strokes of every
+	 * page (see {@link de.deepsource.deepnotes.utilities.StrokeCodec}) and
+	 * the backgrounds as JPEG. Rasters of older notes are kept as base of the
+	 * page until the page is cleared. The sections are encoded in parallel and
+	 * committed at once, so either the whole note is saved or nothing. The
+	 * Bitmaps of the DrawViews are copied on the UI thread before, as a page
+	 * flip while saving gives them back to the {@link BitmapPool}.
 	 *
 	 * @author Jan Pretzel (jan.pretzel@deepsource.de)
 	 */
@@ -892,6 +1176,158 @@ public class DrawActivity extends Activity implements
 		 */
 		private final DrawActivity activity;
 
+		/**
+		 * A section of the note to save.
+		 */
+		private static final class Section {
+
+			/**
+			 * Describes the section, to report it if it fails.
+			 */
+			private final String name;
+
+			/**
+			 * The type of the section, see {@link NoteContainer}.
+			 */
+			private final int type;
+
+			/**
+			 * The position of the page.
+			 */
+			private final int page;
+
+			/**
+			 * Whether to append to the saved section or to replace it.
+			 */
+			private final boolean append;
+
+			/**
+			 * Encodes the section.
+			 */
+			private final Callable<byte[]> encoder;
+
+			/**
+			 * Constructor.
+			 *
+			 * @param sectionName
+			 *            Describes the section.
+			 * @param sectionType
+			 *            The type of the section.
+			 * @param sectionPage
+			 *            The position of the page.
+			 * @param sectionAppend
+			 *            Whether to append to the saved section.
+			 * @param sectionEncoder
+			 *            Encodes the section.
+			 */
+			private Section(final String sectionName, final int sectionType,
+					final int sectionPage, final boolean sectionAppend,
+					final Callable<byte[]> sectionEncoder) {
+				name = sectionName;
+				type = sectionType;
+				page = sectionPage;
+				append = sectionAppend;
+				encoder = sectionEncoder;
+			}
+		}
+
+		/**
+		 * The state of a page when the save started, taken on the UI thread,
+		 * so the page can be changed while it is saved.
+		 */
+		private static final class PageSnapshot {
+
+			/**
+			 * The page.
+			 */
+			private final NotePage page;
+
+			/**
+			 * Whether the foreground was modified.
+			 */
+			private final boolean modified;
+
+			/**
+			 * Whether the background was modified.
+			 */
+			private final boolean bgModified;
+
+			/**
+			 * Whether the page was cleared.
+			 */
+			private final boolean cleared;
+
+			/**
+			 * Whether the files of the page should be deleted.
+			 */
+			private final boolean deleted;
+
+			/**
+			 * The number of strokes saved already, see
+			 * {@link NotePage#getSavedCount()}.
+			 */
+			private final int savedCount;
+
+			/**
+			 * A copy of the strokes, or null if they were not loaded.
+			 */
+			private final List<Stroke> strokes;
+
+			/**
+			 * Constructor, takes the snapshot.
+			 *
+			 * @param notePage
+			 *            The page.
+			 */
+			private PageSnapshot(final NotePage notePage) {
+				page = notePage;
+				modified = notePage.isModified();
+				bgModified = notePage.isBgModified();
+				cleared = notePage.isCleared();
+				deleted = notePage.deleteStatus();
+				savedCount = notePage.getSavedCount();
+
+				if (notePage.isStrokesLoaded()) {
+					strokes = notePage.snapshotStrokes();
+				} else {
+					strokes = null;
+				}
+			}
+		}
+
+		/**
+		 * The pages of the note when the save started.
+		 */
+		private final List<PageSnapshot> snapshots = new ArrayList<PageSnapshot>();
+
+		/**
+		 * Changes to the pages that must only be made once the save is
+		 * committed, on the UI thread.
+		 */
+		private final List<Runnable> committed = new ArrayList<Runnable>();
+
+		/**
+		 * The sections that are saved.
+		 */
+		private final List<Section> sections = new ArrayList<Section>();
+
+		/**
+		 * The sections that could not be saved.
+		 */
+		private final List<String> failed = new ArrayList<String>();
+
+		/**
+		 * The thumbnail of the first page, drawn on the UI thread if the page
+		 * is bound to a {@link DrawView}, else null.
+		 */
+		private Bitmap thumbnail;
+
+		/**
+		 * Copies of the modified backgrounds of the pages bound to a
+		 * {@link DrawView}, by the position of the page.
+		 */
+		private final Map<Integer, Bitmap> backgrounds = new HashMap<Integer, Bitmap>();
+
 		/**
 		 * Constructor.
 		 *
@@ -935,79 +1371,219 @@ public class DrawActivity extends Activity implements
 		@Override
 		protected Void doInBackground(final Void... params) {
 
+			final long saveStart = Metrics.start();
+			final File noteFile = IOManager.getNoteFile(activity,
+					activity.fileName);
+
+			NoteContainer.Editor editor = null;
+			try {
+				editor = NoteContainer.edit(noteFile);
+			} catch (IOException e) {
+				Log.e(Deepnotes.APP_NAME, "failed to open " + noteFile);
+				failed.add(noteFile.toString());
+				return null;
+			}
+
 			// save thumbnail
-			String savePath = activity.getFilesDir() + Deepnotes.SAVE_THUMBNAIL;
-			File file = new File(savePath);
+			final PageSnapshot firstPage = snapshots.get(0);
+			if ((firstPage.modified || firstPage.bgModified)
+					|| firstPage.deleted
+					|| !editor.has(NoteContainer.SECTION_THUMBNAIL, 0)) {
+				sections.add(new Section("thumbnail",
+						NoteContainer.SECTION_THUMBNAIL, 0, false,
+						new Callable<byte[]>() {
+							@Override
+							public byte[] call() {
+								final long thumbnailStart = Metrics.start();
+								final Bitmap bitmap = thumbnail != null ? thumbnail
+										: createThumbnail();
+								final byte[] data = IOManager.compress(bitmap,
+										Bitmap.CompressFormat.JPEG,
+										Deepnotes.JPG_QUALITY);
+								if (data != null) {
+									THUMBNAIL_BYTES.record(data.length);
+								}
+								if (bitmap != thumbnail) {
+									BitmapPool.release(bitmap);
+								}
+								THUMBNAIL_TIMER.stop(thumbnailStart);
+
+								return data;
+							}
+						}));
+			}
 
-			// Creates the directory named by this abstract pathname,
-			// including any necessary but nonexistent parent directories.
-			file.mkdirs();
+			// save note pages with separate backgrounds, pages that are not
+			// bound to a DrawView don't need to be loaded, their strokes are
+			// kept by the page and their background in the drawing cache
+			for (final PageSnapshot toSave : snapshots) {
+				final int i = toSave.page.getPosition();
+
+				if (toSave.modified && toSave.strokes != null) {
+					final boolean append = toSave.savedCount >= 0
+							&& editor.has(NoteContainer.SECTION_STROKES, i);
+					sections.add(new Section("strokes of page " + i,
+							NoteContainer.SECTION_STROKES, i, append,
+							saveStrokes(toSave, append)));
+
+					// the raster and background of an older note were
+					// cleared, so they are no longer the base of this page
+					if (toSave.cleared) {
+						editor.remove(NoteContainer.SECTION_RASTER, i);
+						if (!toSave.bgModified) {
+							editor.remove(NoteContainer.SECTION_BACKGROUND, i);
+						}
+					}
 
-			Bitmap bitmap = null;
-			DrawView toSave = (DrawView) activity.viewFlipper.getChildAt(0);
-			activity.loadNotePage(toSave, 0);
+					committed.add(new Runnable() {
+						@Override
+						public void run() {
+							toSave.page.strokesSaved(toSave.strokes.size());
+						}
+					});
+				}
 
-			if ((toSave.isModified() || toSave.isBgModified())
-					|| toSave.deleteStatus()) {
-				bitmap = createThumbnail();
+				if (toSave.bgModified) {
+					sections.add(new Section("background of page " + i,
+							NoteContainer.SECTION_BACKGROUND, i, false,
+							saveBackground(toSave.page)));
+					committed.add(new Runnable() {
+						@Override
+						public void run() {
+							toSave.page.backgroundSaved();
+						}
+					});
+				}
 
-				IOManager.writeFile(bitmap, savePath + activity.fileName
-						+ Deepnotes.JPG_SUFFIX, Bitmap.CompressFormat.JPEG,
-						Deepnotes.JPG_QUALITY);
+				// check for delete status, the flags of the page are reset
+				// already
+				if (toSave.deleted) {
+					editor.remove(NoteContainer.SECTION_RASTER, i);
+					editor.remove(NoteContainer.SECTION_STROKES, i);
+					editor.remove(NoteContainer.SECTION_BACKGROUND, i);
+				}
 			}
 
-			// save note pages with separate backgrounds
-			savePath = activity.getFilesDir() + "/" + activity.fileName + "/";
-			file = new File(savePath);
+			editor.setPageCount(snapshots.size());
 
-			for (int i = 0; i < activity.viewFlipper.getChildCount(); i++) {
-				toSave = (DrawView) activity.viewFlipper.getChildAt(i);
-				activity.loadNotePage(toSave, i);
-
-				if (toSave.isModified()) {
-					// first saved note page will create a sub folder
-					file.mkdirs();
+			final ExecutorService executor = Executors.newFixedThreadPool(Math
+					.max(1, Math.min(Deepnotes.SAVE_THREAD_COUNT, Runtime
+							.getRuntime().availableProcessors())));
+			final List<Future<byte[]>> results = new ArrayList<Future<byte[]>>(
+					sections.size());
+			for (Section section : sections) {
+				results.add(executor.submit(section.encoder));
+			}
 
-					// save note
-					bitmap = toSave.getBitmap();
+			// sections are encoded in parallel, but written one after another
+			for (int j = 0; j < results.size(); j++) {
+				final Section section = sections.get(j);
+				byte[] data = null;
+				try {
+					data = results.get(j).get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					Log.e(Deepnotes.APP_NAME, "failed to save section.", e);
+				}
 
-					IOManager.writeFile(bitmap, savePath + i
-							+ Deepnotes.PNG_SUFFIX, Bitmap.CompressFormat.PNG,
-							Deepnotes.PNG_QUALITY);
+				// nothing will be committed anyway
+				if (data != null && failed.isEmpty()) {
+					try {
+						if (section.append) {
+							editor.append(section.type, section.page, data);
+						} else {
+							editor.put(section.type, section.page, data);
+						}
+					} catch (IOException e) {
+						data = null;
+					}
+				}
 
-					toSave.setModified(false);
+				if (data == null) {
+					Log.e(Deepnotes.APP_NAME, "failed to save " + section.name);
+					failed.add(section.name);
 				}
+			}
 
-				if (toSave.isBgModified()) {
-					// save background
-					bitmap = toSave.getBackgroundBitmap();
+			executor.shutdown();
 
-					IOManager.writeFile(bitmap, savePath + "background_" + i
-							+ Deepnotes.JPG_SUFFIX, Bitmap.CompressFormat.JPEG,
-							Deepnotes.JPG_QUALITY);
+			// either all sections are saved or none
+			if (!failed.isEmpty()) {
+				editor.abort();
+			} else if (!editor.commit()) {
+				failed.add(noteFile.toString());
+			} else {
+				// pages are read from the saved note from now on
+				activity.note = NoteContainer.open(noteFile);
+				NoteIndex.update(activity, activity.fileName, activity.note);
+			}
 
-					toSave.setBgModified(false);
-				}
+			SAVE_TIMER.stop(saveStart);
 
-				File toDelete = null;
-				// check for delete status
-				if (toSave.deleteStatus()) {
-					toDelete = new File(savePath + i + Deepnotes.PNG_SUFFIX);
-					if (!toDelete.delete()) {
-						Log.e(Deepnotes.APP_NAME, Deepnotes.ERROR_FILE);
-					}
-					toSave.setModified(false);
+			return null;
+		}
 
-					toDelete = new File(savePath + "background_" + i
-							+ Deepnotes.JPG_SUFFIX);
-					if (!toDelete.delete()) {
-						Log.e(Deepnotes.APP_NAME, Deepnotes.ERROR_FILE);
+		/**
+		 * Creates a task that encodes the strokes of a page. Only the strokes
+		 * drawn since the last save are encoded to be appended, unless saved
+		 * strokes were undone. The strokes are taken from the snapshot, so
+		 * strokes drawn while saving are saved next time.
+		 *
+		 * @param toSave
+		 *            The page to save.
+		 * @param append
+		 *            Whether to encode the new strokes only.
+		 *
+		 * @return The task.
+		 */
+		private Callable<byte[]> saveStrokes(final PageSnapshot toSave,
+				final boolean append) {
+			return new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					final List<Stroke> strokes = toSave.strokes;
+					final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+					if (append) {
+						StrokeCodec.append(out, strokes.subList(
+								toSave.savedCount, strokes.size()));
+					} else {
+						StrokeCodec.write(out, strokes);
 					}
-					toSave.setBgModified(false);
+
+					return out.toByteArray();
 				}
-			}
+			};
+		}
 
-			return null;
+		/**
+		 * Creates a task that encodes the background of a page. Backgrounds of
+		 * pages that were not bound to a {@link DrawView} when the save
+		 * started are taken from the drawing cache.
+		 *
+		 * @param toSave
+		 *            The page to save.
+		 *
+		 * @return The task.
+		 */
+		private Callable<byte[]> saveBackground(final NotePage toSave) {
+			final Bitmap background = backgrounds.get(Integer.valueOf(toSave
+					.getPosition()));
+
+			return new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					if (background != null) {
+						return IOManager.compress(background,
+								Bitmap.CompressFormat.JPEG,
+								Deepnotes.JPG_QUALITY);
+					}
+
+					return IOManager.readFile(new File(activity.getCacheDir()
+							+ "/" + toSave.getPosition() + Deepnotes.JPG_SUFFIX));
+				}
+			};
 		}
 
 		/**
@@ -1019,6 +1595,66 @@ public class DrawActivity extends Activity implements
 			dialog.setMessage(activity.getString(R.string.saving_note));
 			dialog.show();
 			super.onPreExecute();
+
+			// the pages can be changed while saving, so the state to save is
+			// taken now
+			for (NotePage page : activity.pages) {
+				snapshots.add(new PageSnapshot(page));
+			}
+
+			// the Bitmaps of the DrawViews may be reused by another page
+			// while saving, so the parts to save are copied now
+			final DrawView first = activity.findDrawView(0);
+			if (first != null && first.isLoaded()) {
+				thumbnail = createThumbnail(first.getBitmap(),
+						first.getBackgroundBitmap());
+			}
+
+			for (NotePage page : activity.pages) {
+				final DrawView drawView = activity.findDrawView(page
+						.getPosition());
+				if (page.isBgModified() && drawView != null
+						&& drawView.getBackgroundBitmap() != null) {
+					backgrounds.put(Integer.valueOf(page.getPosition()),
+							copy(drawView.getBackgroundBitmap()));
+				}
+			}
+		}
+
+		/**
+		 * Copies a Bitmap into one taken from the {@link BitmapPool}.
+		 *
+		 * @param bitmap
+		 *            The Bitmap to copy.
+		 *
+		 * @return The copy, give it back to the {@link BitmapPool} when it
+		 *         was written.
+		 */
+		private static Bitmap copy(final Bitmap bitmap) {
+			Bitmap.Config config = bitmap.getConfig();
+			if (config == null) {
+				config = Bitmap.Config.ARGB_8888;
+			}
+
+			final Bitmap copy = BitmapPool.acquire(bitmap.getWidth(),
+					bitmap.getHeight(), config);
+			new Canvas(copy).drawBitmap(bitmap, 0f, 0f, null);
+
+			return copy;
+		}
+
+		/**
+		 * Gives the copied Bitmaps back to the {@link BitmapPool}, once
+		 * nothing is encoded anymore.
+		 */
+		private void releaseCopies() {
+			BitmapPool.release(thumbnail);
+			thumbnail = null;
+
+			for (Bitmap background : backgrounds.values()) {
+				BitmapPool.release(background);
+			}
+			backgrounds.clear();
 		}
 
 		/**
@@ -1032,12 +1668,27 @@ public class DrawActivity extends Activity implements
 		// Author: Jan Pretzel
 		@Override
 		protected void onPostExecute(final Void result) {
+			releaseCopies();
+
+			if (failed.isEmpty()) {
+				for (Runnable change : committed) {
+					change.run();
+				}
+			}
+
 			if (dialog.isShowing()) {
 				dialog.dismiss();
 			}
 
 			super.onPostExecute(result);
 
+			// keep saveStateChanged, so the user can try again
+			if (!failed.isEmpty()) {
+				Toast.makeText(activity.getApplicationContext(),
+						R.string.save_failed, Toast.LENGTH_LONG).show();
+				return;
+			}
+
 			// reset saveStateChanged
 			activity.saveStateChanged = false;
 
@@ -1058,53 +1709,112 @@ public class DrawActivity extends Activity implements
 
 		/**
 		 * Calculates a thumbnail representing the note. The first page of the
-		 * note (empty or not) will be scaled by 0.5 to save memory.
+		 * note (empty or not) will be scaled down by
+		 * {@link Deepnotes#THUMBNAIL_SAMPLE_SIZE} to save memory. If the first
+		 * page is bound to a {@link DrawView}, the thumbnail was drawn before
+		 * the save started, see
+		 * {@link SaveNote#createThumbnail(Bitmap, Bitmap)}. Else the page is
+		 * read from storage and rendered straight at thumbnail size: images
+		 * are decoded downsampled and strokes are drawn scaled, so no full
+		 * size Bitmaps are needed at all.
 		 *
-		 * @return The thumbnail as Bitmap.
+		 * @return The thumbnail as Bitmap, give it back to the
+		 *         {@link BitmapPool} when it was written.
 		 */
 		// Author: Jan Pretzel
 		private Bitmap createThumbnail() {
-			// get first page of the note
-			final DrawView drawView = (DrawView) activity.viewFlipper
-					.getChildAt(0);
-			final Bitmap firstPage = drawView.getBitmap();
+			final PageSnapshot page = snapshots.get(0);
+			final NoteContainer saved = activity.note;
+			final int sampleSize = Deepnotes.THUMBNAIL_SAMPLE_SIZE;
+
+			final Bitmap thumbnail = BitmapPool.acquire(
+					Deepnotes.getViewportWidth() / sampleSize,
+					Deepnotes.getViewportHeight() / sampleSize,
+					Bitmap.Config.ARGB_8888);
+			final Canvas canvas = new Canvas(thumbnail);
+
+			// cached backgrounds were changed, saved ones are gone when the
+			// page was cleared
+			Bitmap background = null;
+			final File file = new File(activity.getCacheDir() + "/0"
+					+ Deepnotes.JPG_SUFFIX);
+
+			if (file.exists()) {
+				background = PageLoader.decodeSampled(file.getPath(), sampleSize);
+			} else if (!page.cleared && saved != null
+					&& saved.has(NoteContainer.SECTION_BACKGROUND, 0)) {
+				background = PageLoader.decodeSampled(saved.read(
+						NoteContainer.SECTION_BACKGROUND, 0), sampleSize);
+			}
+
+			if (background != null) {
+				canvas.drawBitmap(background, 0f, 0f, null);
+				background.recycle();
+			} else {
+				canvas.drawColor(Color.WHITE);
+			}
+
+			// older notes have a saved raster
+			if (!page.cleared && saved != null
+					&& saved.has(NoteContainer.SECTION_RASTER, 0)) {
+				final Bitmap raster = PageLoader.decodeSampled(saved.read(
+						NoteContainer.SECTION_RASTER, 0), sampleSize);
+
+				if (raster != null) {
+					canvas.drawBitmap(raster, 0f, 0f, null);
+					raster.recycle();
+				}
+			}
 
-			// scale factor = 0.5
-			final float scale = 0.5f;
+			canvas.scale(1f / sampleSize, 1f / sampleSize);
 
-			// create matrix
-			final Matrix matirx = new Matrix();
-			matirx.postScale(scale, scale);
+			if (page.strokes != null) {
+				StrokeRenderer.draw(canvas, page.strokes);
+			} else if (saved != null
+					&& saved.has(NoteContainer.SECTION_STROKES, 0)) {
+				final List<Stroke> strokes = new ArrayList<Stroke>();
+				IOManager.readStrokes(saved, 0, strokes);
+				StrokeRenderer.draw(canvas, strokes);
+			}
 
-			final int width = firstPage.getWidth();
-			final int height = firstPage.getHeight();
+			return thumbnail;
+		}
 
-			// create scaled bitmaps
-			final Bitmap firstPageScaled = Bitmap.createBitmap(firstPage, 0, 0,
-					width, height, matirx, true);
+		/**
+		 * Scales a page and it's background into a thumbnail.
+		 *
+		 * @param firstPage
+		 *            The foreground of the page.
+		 * @param firstBackground
+		 *            The background of the page, or null.
+		 *
+		 * @return The thumbnail as Bitmap, give it back to the
+		 *         {@link BitmapPool} when it was written.
+		 */
+		// Author: Jan Pretzel
+		private Bitmap createThumbnail(final Bitmap firstPage,
+				final Bitmap firstBackground) {
+			final float scale = 1f / Deepnotes.THUMBNAIL_SAMPLE_SIZE;
 
-			Canvas pageAndBackground;
-			Bitmap firstBGScaled;
+			final Bitmap thumbnail = BitmapPool.acquire(
+					(int) (firstPage.getWidth() * scale),
+					(int) (firstPage.getHeight() * scale),
+					Bitmap.Config.ARGB_8888);
+			final Canvas pageAndBackground = new Canvas(thumbnail);
+			pageAndBackground.scale(scale, scale);
 
-			if (drawView.isBgModified()) {
-				final Bitmap firstBackground = drawView.getBackgroundBitmap();
-				firstBGScaled = Bitmap.createBitmap(firstBackground, 0, 0,
-						width, height, matirx, true);
-				pageAndBackground = new Canvas(firstBGScaled);
+			final Paint filter = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+			if (firstBackground != null) {
+				pageAndBackground.drawBitmap(firstBackground, 0f, 0f, filter);
 			} else {
-				firstBGScaled = Bitmap.createBitmap((int) (width * scale),
-						(int) (height * scale), Bitmap.Config.ARGB_8888);
-				pageAndBackground = new Canvas(firstBGScaled);
 				pageAndBackground.drawColor(Color.WHITE);
 			}
 
 			// combine both bitmaps
-			pageAndBackground.drawBitmap(firstPageScaled, 0f, 0f, null);
-
-			// free unused Bitmap
-			firstPageScaled.recycle();
+			pageAndBackground.drawBitmap(firstPage, 0f, 0f, filter);
 
-			return firstBGScaled;
+			return thumbnail;
 		}
 	}
 
@@ -7,18 +7,21 @@
 
 package de.deepsource.deepnotes.activities;
 
-import java.io.File;
 import java.lang.ref.WeakReference;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 
 import android.app.Activity;
+import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.ApplicationInfo;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.LayoutInflater;
@@ -29,7 +32,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.GridView;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
@@ -39,6 +42,9 @@ import de.deepsource.deepnotes.R;
 import de.deepsource.deepnotes.application.Deepnotes;
 import de.deepsource.deepnotes.models.Note;
 import de.deepsource.deepnotes.utilities.IOManager;
+import de.deepsource.deepnotes.utilities.Metrics;
+import de.deepsource.deepnotes.utilities.NoteIndex;
+import de.deepsource.deepnotes.utilities.ThumbnailLoader;
 
 /**
  * This activity handles the main window of the application.
@@ -48,19 +54,41 @@ import de.deepsource.deepnotes.utilities.IOManager;
 public class MainActivity extends Activity {
 
     /**
-	 * Contains all Note objects for the stored notes.
+	 * The Bridge between the GridView and the data (notes).
 	 */
-	private List<Note> notes;
+	private NotesAdapter notesAdapter;
 
 	/**
-	 * The Bridge between the GridView and the data (notes).
+	 * Loads the notes in the background, null once they are shown.
 	 */
-	private NotesAdapter notesAdapter;
+	private LoadNotes loadNotesTask;
 
 	/**
-	 * The maximum number of notes that can be created.
+	 * Applies saved and deleted notes to the NotesAdapter, so the notes don't
+	 * need to be loaded again.
 	 */
-	private static final int MAX_NOTES = 50;
+	private final NoteIndex.ChangeListener indexListener = new NoteIndex.ChangeListener() {
+
+		@Override
+		public void onNoteSaved(final NoteIndex.Entry entry) {
+			runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					notesAdapter.put(entry);
+				}
+			});
+		}
+
+		@Override
+		public void onNoteRemoved(final String noteName) {
+			runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					notesAdapter.remove(noteName);
+				}
+			});
+		}
+	};
 
 	// Author: Jan Pretzel
 	@Override
@@ -68,15 +96,22 @@ public class MainActivity extends Activity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
 
-        notes = new ArrayList<Note>();
         notesAdapter = new NotesAdapter(getApplicationContext(),
-        		R.layout.note_item, R.id.fileName, notes);
+        		R.layout.note_item);
 
         final GridView notesView = (GridView) findViewById(R.id.notesView);
 
         registerForContextMenu(notesView);
         notesView.setAdapter(notesAdapter);
 
+        // adb shell am start -n de.deepsource.deepnotes/.activities.MainActivity
+        //     --ez enableMetrics true
+        // only debug builds accept it, the export is world readable
+        if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0
+        		&& getIntent().getBooleanExtra(Deepnotes.ENABLE_METRICS, false)) {
+        	Metrics.setEnabled(true);
+        }
+
         notesView.setOnItemClickListener(
         		new OnItemClickListener() {
 
@@ -92,34 +127,36 @@ public class MainActivity extends Activity {
 								DrawActivity.class);
 						intent.putExtra(
 								Deepnotes.SAVED_NOTE_NAME,
-								notes.get(position).getFileName());
+								notesAdapter.getItem(position).getFileName());
 
 						startActivity(intent);
 					}
 				});
+
+        // listen first, so no change gets lost while loading
+        NoteIndex.addChangeListener(indexListener);
+
+        loadNotesTask = new LoadNotes(this);
+        loadNotesTask.execute();
 	}
 
-	/**
-	 * Loads all saved notes.
-	 */
 	// Author: Jan Pretzel
-	public final void loadNotes() {
-		final File notePath = new File(getFilesDir() + Deepnotes.SAVE_THUMBNAIL);
-
-		if (notePath.exists()) {
-			final File[] notePages = notePath.listFiles();
+	@Override
+	protected final void onPause() {
+		super.onPause();
+		Metrics.export();
+	}
 
-			// sort this array in reverse order (newest first)
-			// this is needed, because listFiles() documentation says:
-			// "There is no guarantee that the name strings in the resulting
-			// array will appear in any specific order; they are not, in
-			// particular, guaranteed to appear in alphabetical order."
-			Arrays.sort(notePages, Collections.reverseOrder());
+	@Override
+	protected final void onDestroy() {
+		NoteIndex.removeChangeListener(indexListener);
 
-			for (File note : notePages) {
-				notesAdapter.add(new Note(getApplicationContext(), note.getName()));
-			}
+		if (loadNotesTask != null) {
+			loadNotesTask.detach();
+			loadNotesTask = null;
 		}
+
+		super.onDestroy();
 	}
 
 	// Author: Jan Pretzel
@@ -142,16 +179,9 @@ public class MainActivity extends Activity {
 
 		switch (item.getItemId()) {
 		case R.id.main_menu_addnote:
-			if (notes.size() < MAX_NOTES) {
-				final Intent intent = new Intent(getApplicationContext(),
-						DrawActivity.class);
-				startActivity(intent);
-			} else {
-				Toast.makeText(
-						getApplicationContext(),
-						R.string.max_notes,
-						Toast.LENGTH_SHORT).show();
-			}
+			final Intent intent = new Intent(getApplicationContext(),
+					DrawActivity.class);
+			startActivity(intent);
 
 			handled = true;
 			break;
@@ -195,10 +225,9 @@ public class MainActivity extends Activity {
 
 		switch (item.getItemId()) {
 		case R.id.main_contextmenu_removenote:
-			if (IOManager.deleteNote(getApplicationContext(), notes.get(index).getFileName())) {
-				notes.remove(index);
-				notesAdapter.notifyDataSetChanged();
-			} else {
+			// on success the NotesAdapter is told by the index
+			if (!IOManager.deleteNote(getApplicationContext(),
+					notesAdapter.getItem(index).getFileName())) {
 				Toast.makeText(
 						getApplicationContext(),
 						R.string.delete_exception,
@@ -210,7 +239,8 @@ public class MainActivity extends Activity {
 
 		case R.id.main_contextmenu_sendnote:
 			final WeakReference<MainActivity> weakActivity = new WeakReference<MainActivity>(this);
-			IOManager.shareNote(weakActivity.get(), notes.get(index).getFileName());
+			IOManager.shareNote(weakActivity.get(),
+					notesAdapter.getItem(index).getFileName());
 			handled = true;
 			break;
 
@@ -221,67 +251,239 @@ public class MainActivity extends Activity {
 		return handled;
 	}
 
-	// Author: Jan Pretzel
-	@Override
-	protected final void onResume() {
-		super.onResume();
-		loadNotes();
-	}
+	/**
+	 * Converts notes of older versions, which are stored in several files,
+	 * and loads the notes afterwards. Only the index is opened, notes are
+	 * read from it when they are shown. Converting and building the index
+	 * again when it is missing or broken can take a while, so both are done
+	 * in the background while a ProgressDialog is shown.
+	 */
+	private static class LoadNotes extends
+			AsyncTask<Void, Void, NoteIndex.Listing> {
 
-	// Author: Jan Pretzel
-	@Override
-	protected final void onPause() {
-		// recycle notes to free up memory
-		final int count = notes.size();
-		for (int i = 0; i < count; i++) {
-			notes.get(i).recycle();
+		/**
+		 * The ProgressDialog that will be shown while loading.
+		 */
+		private final ProgressDialog dialog;
+
+		/**
+		 * The MainActivity showing the notes.
+		 */
+		private final MainActivity activity;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param mActivity
+		 *            The MainActivity showing the notes.
+		 */
+		public LoadNotes(final MainActivity mActivity) {
+			super();
+
+			if (mActivity == null) {
+				Log.e(Deepnotes.APP_NAME, "mActivity must not be null");
+				throw new IllegalArgumentException();
+			}
+
+			dialog = new ProgressDialog(mActivity);
+			activity = mActivity;
 		}
 
-		// and get rid of references
-		notesAdapter.clear();
+		/**
+		 * Stops showing the progress, the MainActivity is destroyed. The notes
+		 * are still converted and indexed, but not shown.
+		 */
+		public void detach() {
+			cancel(false);
 
-		super.onPause();
+			if (dialog.isShowing()) {
+				dialog.dismiss();
+			}
+		}
+
+		@Override
+		protected void onPreExecute() {
+			dialog.setMessage(activity.getString(R.string.loading_notes));
+			dialog.setCancelable(false);
+			dialog.show();
+			super.onPreExecute();
+		}
+
+		@Override
+		protected NoteIndex.Listing doInBackground(final Void... params) {
+			final Context context = activity.getApplicationContext();
+			IOManager.convertNotes(context);
+			return NoteIndex.open(context);
+		}
+
+		@Override
+		protected void onPostExecute(final NoteIndex.Listing result) {
+			activity.loadNotesTask = null;
+			activity.notesAdapter.setListing(result);
+
+			if (dialog.isShowing()) {
+				dialog.dismiss();
+			}
+
+			super.onPostExecute(result);
+		}
 	}
 
 	/**
-	 * The NotesAdapter handles the notes for the GridView.
+	 * The NotesAdapter handles the notes for the GridView. It reads them from
+	 * a {@link NoteIndex.Listing} when they are shown, so only the notes on
+	 * screen are held in memory, their thumbnails are loaded by the
+	 * {@link ThumbnailLoader}.
 	 *
 	 * @author Jan Pretzel (jan.pretzel@deepsource.de)
 	 */
-	private static class NotesAdapter extends ArrayAdapter<Note> {
+	private static class NotesAdapter extends BaseAdapter {
+
+		/**
+		 * The Context in which the adapter is created.
+		 */
+		private final Context context;
 
 		/**
 		 * The resource id of the layout to be used.
 		 */
 		private final int layoutRes;
 
+		/**
+		 * The width thumbnails are shown at in pixels.
+		 */
+		private final int thumbnailWidth;
+
+		/**
+		 * The height thumbnails are shown at in pixels.
+		 */
+		private final int thumbnailHeight;
+
+		/**
+		 * Formats the dates the notes were created.
+		 */
+		private final DateFormat dateFormat;
+
+		/**
+		 * The notes, or null before they are loaded.
+		 */
+		private NoteIndex.Listing listing;
+
+		/**
+		 * Notes saved or deleted while the notes were loaded, they might have
+		 * been missed by the listing.
+		 */
+		private final List<Runnable> pendingChanges = new ArrayList<Runnable>();
+
 		/**
 		 * Constructor.
 		 *
-		 * @param context The Context in which the class is created.
+		 * @param adapterContext The Context in which the class is created.
 		 * @param resource The resource id of the layout to be used.
-		 * @param textViewResId The resource id of the TextView to be used.
-		 * @param objects The data being used to feed the AdapterView.
 		 */
 		// Author: Jan Pretzel
-		public NotesAdapter(final Context context, final int resource,
-				final int textViewResId, final List<Note> objects) {
-			super(context, resource, textViewResId, objects);
+		public NotesAdapter(final Context adapterContext, final int resource) {
+			this.context = adapterContext;
 			this.layoutRes = resource;
+			this.thumbnailWidth = adapterContext.getResources()
+					.getDimensionPixelSize(R.dimen.note_thumbnail_width);
+			this.thumbnailHeight = adapterContext.getResources()
+					.getDimensionPixelSize(R.dimen.note_thumbnail_height);
+			this.dateFormat = new SimpleDateFormat(
+					adapterContext.getString(R.string.date_time_format));
+		}
+
+		/**
+		 * Shows other notes.
+		 *
+		 * @param notes The notes to show.
+		 */
+		public void setListing(final NoteIndex.Listing notes) {
+			listing = notes;
+
+			for (Runnable change : pendingChanges) {
+				change.run();
+			}
+			pendingChanges.clear();
+
+			notifyDataSetChanged();
+		}
+
+		/**
+		 * Shows a saved note, at it's old position or as a new note.
+		 *
+		 * @param entry The new entry of the note.
+		 */
+		public void put(final NoteIndex.Entry entry) {
+			if (listing == null) {
+				pendingChanges.add(new Runnable() {
+					@Override
+					public void run() {
+						listing.put(entry);
+					}
+				});
+				return;
+			}
+
+			listing.put(entry);
+			notifyDataSetChanged();
+		}
+
+		/**
+		 * Stops showing a deleted note.
+		 *
+		 * @param noteName The name of the note.
+		 */
+		public void remove(final String noteName) {
+			if (listing == null) {
+				pendingChanges.add(new Runnable() {
+					@Override
+					public void run() {
+						listing.remove(noteName);
+					}
+				});
+				return;
+			}
+
+			listing.remove(noteName);
+			notifyDataSetChanged();
 		}
 
 		// Author: Jan Pretzel
 		@Override
-		public View getView(final int position, final View convertView, final ViewGroup parent) {
-			super.getView(position, convertView, parent);
+		public int getCount() {
+			if (listing == null) {
+				return 0;
+			}
+
+			return listing.getCount();
+		}
+
+		@Override
+		public Note getItem(final int position) {
+			return new Note(listing.get(position), dateFormat);
+		}
+
+		@Override
+		public long getItemId(final int position) {
+			return listing.get(position).getCreated();
+		}
+
+		@Override
+		public boolean hasStableIds() {
+			return true;
+		}
 
+		// Author: Jan Pretzel
+		@Override
+		public View getView(final int position, final View convertView, final ViewGroup parent) {
 			LinearLayout noteView;
 			final Note note = getItem(position);
 
 			if (convertView == null) {
-				noteView = new LinearLayout(getContext());
+				noteView = new LinearLayout(context);
 				final String inflater = Context.LAYOUT_INFLATER_SERVICE;
-				final LayoutInflater layoutInflater = (LayoutInflater) getContext().
+				final LayoutInflater layoutInflater = (LayoutInflater) context.
 						getSystemService(inflater);
 				layoutInflater.inflate(layoutRes, noteView, true);
 			} else {
@@ -292,7 +494,8 @@ public class MainActivity extends Activity {
 			final ImageView noteImage = (ImageView) noteView.findViewById(R.id.noteImage);
 
 			fileName.setText(note.getCreated());
-			noteImage.setImageBitmap(note.getThumbnail());
+			ThumbnailLoader.load(context, note.getEntry(), noteImage,
+					thumbnailWidth, thumbnailHeight);
 
 			return noteView;
 		}
@@ -29,6 +29,11 @@ public class Deepnotes extends Application {
 	 */
 	public static final String SAVE_THUMBNAIL = "/thumbnail/";
 
+	/**
+	 * Identifier for the sub folder, where notes will be saved.
+	 */
+	public static final String SAVE_NOTES = "/notes/";
+
 	/**
 	 * Identifier for the sub folder, where cached files will be saved.
 	 * We cannot use getExternalCacheDir() because it's not supported in
@@ -36,11 +41,36 @@ public class Deepnotes extends Application {
 	 */
 	public static final String SAVE_CACHE = "/deepnotes/.cache/";
 
+	/**
+	 * Identifier for the sub folder of the cache folder, where exported pages
+	 * of shared notes will be saved.
+	 */
+	public static final String SAVE_SHARED_PAGES = "/share/";
+
+	/**
+	 * Identifier for the file, where a snapshot of the
+	 * {@link de.deepsource.deepnotes.utilities.Metrics} will be saved.
+	 */
+	public static final String SAVE_METRICS = "/deepnotes/metrics.txt";
+
+	/**
+	 * Identifier for the file, where the reports of the
+	 * {@link de.deepsource.deepnotes.utilities.FrameTracer} will be appended.
+	 */
+	public static final String SAVE_FRAME_REPORT = "/deepnotes/frames.txt";
+
 	/**
 	 * Identifier for a note's name send with an intent.
 	 */
 	public static final String SAVED_NOTE_NAME = "savedNoteName";
 
+	/**
+	 * Identifier for an intent extra, which makes MainActivity enable the
+	 * {@link de.deepsource.deepnotes.utilities.Metrics}. Only debuggable builds
+	 * accept it.
+	 */
+	public static final String ENABLE_METRICS = "enableMetrics";
+
 	/**
 	 * Identifier for an error message when a file could not be created.
 	 */
@@ -61,6 +91,11 @@ public class Deepnotes extends Application {
 	 */
 	public static final String JPG_SUFFIX = ".jpg";
 
+	/**
+	 * Identifier for the pdf suffix.
+	 */
+	public static final String PDF_SUFFIX = ".pdf";
+
 	/**
 	 * Identifier for the quality used for pngs.
 	 */
@@ -71,6 +106,16 @@ public class Deepnotes extends Application {
 	 */
 	public static final String PNG_SUFFIX = ".png";
 
+	/**
+	 * Identifier for the suffix of stroke files.
+	 */
+	public static final String STROKE_SUFFIX = ".strokes";
+
+	/**
+	 * Identifier for the suffix of note files.
+	 */
+	public static final String NOTE_SUFFIX = ".note";
+
 	/**
 	 * The width of the device.
 	 */
@@ -82,10 +127,75 @@ public class Deepnotes extends Application {
 	private static int viewportHeight;
 
 	/**
-	 * Identifier for the number of pages per note.
+	 * Identifier for the number of pages a new note starts with.
 	 */
 	public static final int NOTEPAGE_COUNT = 3;
 
+	/**
+	 * Identifier for the maximum number of pages per note.
+	 */
+	public static final int MAX_NOTEPAGE_COUNT = 500;
+
+	/**
+	 * Identifier for the number of DrawViews, in other words the number of
+	 * pages holding Bitmaps at the same time. Memory use does not depend on
+	 * the number of pages of a note.
+	 */
+	public static final int DRAWVIEW_COUNT = 3;
+
+	/**
+	 * Identifier for the maximum number of threads writing the files of a
+	 * note in parallel. Fewer are used on devices with fewer cores.
+	 */
+	public static final int SAVE_THREAD_COUNT = 4;
+
+	/**
+	 * Identifier for the number of strokes between two undo checkpoints.
+	 */
+	public static final int UNDO_CHECKPOINT_INTERVAL = 10;
+
+	/**
+	 * Identifier for the part of the heap the undo checkpoints of the
+	 * displayed page may use, see {@link Deepnotes#getUndoMemoryBudget()}.
+	 * A 24MB heap holds two full screen bitmaps of a 480x800 device, a 48MB
+	 * heap two of a 1280x800 device.
+	 */
+	public static final int UNDO_MEMORY_SHARE = 6;
+
+	/**
+	 * Identifier for the part of the heap free Bitmaps in the
+	 * {@link de.deepsource.deepnotes.utilities.BitmapPool} may use, see
+	 * {@link Deepnotes#getBitmapPoolBudget()}. Together with the Bitmaps of
+	 * the {@link Deepnotes#DRAWVIEW_COUNT} pages, their shared layer and the
+	 * undo checkpoints, about 18MB of a 24MB heap on a 480x800 device.
+	 */
+	public static final int BITMAP_POOL_SHARE = 8;
+
+	/**
+	 * Identifier for the factor the first page of a note is scaled down by
+	 * for it's thumbnail.
+	 */
+	public static final int THUMBNAIL_SAMPLE_SIZE = 2;
+
+	/**
+	 * Identifier for the number of bytes the thumbnails cached by the
+	 * {@link de.deepsource.deepnotes.utilities.ThumbnailLoader} may use,
+	 * about ten thumbnails of a 480x800 device.
+	 */
+	public static final int THUMBNAIL_CACHE_BUDGET = 4 * 1024 * 1024;
+
+	/**
+	 * Identifier for the number of bytes the shared PDFs in
+	 * {@link Deepnotes#SAVE_CACHE} may use.
+	 */
+	public static final int SHARE_CACHE_BUDGET = 16 * 1024 * 1024;
+
+	/**
+	 * Identifier for the number of bytes the exported pages in
+	 * {@link Deepnotes#SAVE_SHARED_PAGES} may use.
+	 */
+	public static final int SHARE_PAGE_CACHE_BUDGET = 8 * 1024 * 1024;
+
 	/**
 	 * <h1>Deepnotes Default Color Black</h1>
 	 *
@@ -142,6 +252,27 @@ public class Deepnotes extends Application {
 	 */
 	public static final float PEN_WIDTH_THIN = 5f;
 
+	/**
+	 * Calculates the number of bytes the undo checkpoints of the displayed
+	 * page may use, a part of the heap of the application.
+	 *
+	 * @return The number of bytes.
+	 */
+	public static long getUndoMemoryBudget() {
+		return Runtime.getRuntime().maxMemory() / UNDO_MEMORY_SHARE;
+	}
+
+	/**
+	 * Calculates the number of bytes free Bitmaps in the
+	 * {@link de.deepsource.deepnotes.utilities.BitmapPool} may use, a part of
+	 * the heap of the application.
+	 *
+	 * @return The number of bytes.
+	 */
+	public static long getBitmapPoolBudget() {
+		return Runtime.getRuntime().maxMemory() / BITMAP_POOL_SHARE;
+	}
+
 	/**
 	 * Getter for {@link Deepnotes#viewportWidth}.
 	 *
@@ -19,8 +19,6 @@ package de.deepsource.deepnotes.dialogs;
 import android.app.Dialog;
 import android.content.Context;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.ColorMatrix;
 import android.graphics.Paint;
 import android.graphics.RectF;
 import android.graphics.Shader;
@@ -28,6 +26,7 @@ import android.graphics.SweepGradient;
 import android.os.Bundle;
 import android.view.MotionEvent;
 import android.view.View;
+import de.deepsource.deepnotes.utilities.ColorMath;
 
 public class ColorPickerDialog extends Dialog {
 
@@ -102,72 +101,6 @@ public class ColorPickerDialog extends Dialog {
         private static final int CENTER_Y = 100;
         private static final int CENTER_RADIUS = 32;
 
-        private int floatToByte(float x) {
-            int n = java.lang.Math.round(x);
-            return n;
-        }
-        private int pinToByte(int n) {
-            if (n < 0) {
-                n = 0;
-            } else if (n > 255) {
-                n = 255;
-            }
-            return n;
-        }
-
-        private int ave(int s, int d, float p) {
-            return s + java.lang.Math.round(p * (d - s));
-        }
-
-        private int interpColor(int colors[], float unit) {
-            if (unit <= 0) {
-                return colors[0];
-            }
-            if (unit >= 1) {
-                return colors[colors.length - 1];
-            }
-
-            float p = unit * (colors.length - 1);
-            int i = (int)p;
-            p -= i;
-
-            // now p is just the fractional part [0...1) and i is the index
-            int c0 = colors[i];
-            int c1 = colors[i+1];
-            int a = ave(Color.alpha(c0), Color.alpha(c1), p);
-            int r = ave(Color.red(c0), Color.red(c1), p);
-            int g = ave(Color.green(c0), Color.green(c1), p);
-            int b = ave(Color.blue(c0), Color.blue(c1), p);
-
-            return Color.argb(a, r, g, b);
-        }
-
-        @SuppressWarnings("unused")
-		private int rotateColor(int color, float rad) {
-            float deg = rad * 180 / 3.1415927f;
-            int r = Color.red(color);
-            int g = Color.green(color);
-            int b = Color.blue(color);
-
-            ColorMatrix cm = new ColorMatrix();
-            ColorMatrix tmp = new ColorMatrix();
-
-            cm.setRGB2YUV();
-            tmp.setRotate(0, deg);
-            cm.postConcat(tmp);
-            tmp.setYUV2RGB();
-            cm.postConcat(tmp);
-
-            final float[] a = cm.getArray();
-
-            int ir = floatToByte(a[0] * r +  a[1] * g +  a[2] * b);
-            int ig = floatToByte(a[5] * r +  a[6] * g +  a[7] * b);
-            int ib = floatToByte(a[10] * r + a[11] * g + a[12] * b);
-
-            return Color.argb(Color.alpha(color), pinToByte(ir),
-                              pinToByte(ig), pinToByte(ib));
-        }
-
         private static final float PI = 3.1415926f;
 
         @Override
@@ -197,7 +130,8 @@ public class ColorPickerDialog extends Dialog {
                         if (unit < 0) {
                             unit += 1;
                         }
-                        mCenterPaint.setColor(interpColor(mColors, unit));
+                        mCenterPaint.setColor(
+                                ColorMath.interpColor(mColors, unit));
                         invalidate();
                     }
                     break;
@@ -7,21 +7,17 @@
 
 package de.deepsource.deepnotes.models;
 
-import java.io.File;
-import java.text.SimpleDateFormat;
+import java.text.DateFormat;
 import java.util.Date;
 
-import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.util.Log;
-import de.deepsource.deepnotes.R;
 import de.deepsource.deepnotes.application.Deepnotes;
+import de.deepsource.deepnotes.utilities.NoteIndex;
 
 /**
  * Simple model class to hold note elements required by MainActivity.
- * It holds the file name, the thumbnail of the note and it convertes
- * the file name to human readable date.
+ * It holds the file name, the index entry used to load the thumbnail of the
+ * note and it convertes the file name to human readable date.
  *
  * @author Jan Pretzel (jan.pretzel@deepsource.de)
  */
@@ -34,67 +30,43 @@ public class Note {
 	private final String created;
 
 	/**
-	 * The thumbnail, which will be displayed
-	 * in MainActivity.
+	 * The entry of the note in the {@link NoteIndex}, which is needed
+	 * to load the thumbnail.
 	 */
-	private Bitmap thumbnail;
+	private final NoteIndex.Entry entry;
 
 	/**
 	 * The file name without suffix, which is mainly
 	 * used to communicate between MainActivity and
 	 * DrawActivity.
 	 */
-	private String fileName;
+	private final String fileName;
 
 	/**
-	 * Constructor saves the file name, a human readable date and the thumbnail.
+	 * Constructor saves the file name, a human readable date and the index
+	 * entry. The thumbnail is not loaded here, see
+	 * {@link de.deepsource.deepnotes.utilities.ThumbnailLoader}.
 	 *
-	 * @param context
-	 *            The context from which we will get the applications directory
-	 *            and resources.
-	 *
-	 * @param name
-	 *            The files name.
+	 * @param indexEntry
+	 *            The entry of the note in the {@link NoteIndex}.
+	 * @param dateFormat
+	 *            Formats the date the note was created, shared by all notes.
 	 */
 	// Author: Jan Pretzel
-	public Note(final Context context, final String name) {
-		if (context == null) {
-			Log.e(Deepnotes.APP_NAME, "context must not be null");
+	public Note(final NoteIndex.Entry indexEntry, final DateFormat dateFormat) {
+		if (indexEntry == null) {
+			Log.e(Deepnotes.APP_NAME, "indexEntry must not be null");
 			throw new IllegalArgumentException();
 		}
 
-		if (name == null) {
-			Log.e(Deepnotes.APP_NAME, "name must not be null");
+		if (dateFormat == null) {
+			Log.e(Deepnotes.APP_NAME, "dateFormat must not be null");
 			throw new IllegalArgumentException();
 		}
 
-		fileName = name;
-
-		// get a date from filename
-		// remove suffix if there is one
-		if (fileName.contains(".")) {
-			fileName = fileName.substring(0, fileName.lastIndexOf('.'));
-		}
-
-		final Date dateCreated = new Date(Long.parseLong(fileName));
-		final SimpleDateFormat sdf = new SimpleDateFormat(context.getString(R.string.date_time_format));
-		created = sdf.format(dateCreated);
-
-		final File imageFile = new File(
-				context.getFilesDir()
-				+ Deepnotes.SAVE_THUMBNAIL + fileName + Deepnotes.JPG_SUFFIX);
-		if (imageFile.exists()) {
-			thumbnail = BitmapFactory.decodeFile(imageFile.toString());
-		}
-	}
-
-	/**
-	 * Recycles the thumbnail bitmap.
-	 * Should only be called when the thumbnail is not needed anymore.
-	 */
-	// Author: Jan Pretzel
-	public final void recycle() {
-		thumbnail.recycle();
+		entry = indexEntry;
+		fileName = indexEntry.getName();
+		created = dateFormat.format(new Date(indexEntry.getCreated()));
 	}
 
 	/**
@@ -108,13 +80,13 @@ public class Note {
 	}
 
 	/**
-	 * Getter for the thumbnail.
+	 * Getter for the entry.
 	 *
-	 * @return The thumbnail as Bitmap.
+	 * @return The entry of the note in the {@link NoteIndex}.
 	 */
 	// Author: Jan Pretzel
-	public final Bitmap getThumbnail() {
-		return thumbnail;
+	public final NoteIndex.Entry getEntry() {
+		return entry;
 	}
 
 	/**
@@ -0,0 +1,334 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simple model class representing one page of a note. It holds everything
+ * that needs to survive while the page is not shown: the strokes, the undone
+ * strokes and the save state. The Bitmaps of a page only exist while it is
+ * bound to one of the few DrawViews, so a note can have many pages without
+ * using more memory.
+ */
+public class NotePage {
+
+	/**
+	 * The position of the page in the note.
+	 */
+	private final int position;
+
+	/**
+	 * The input points of all strokes on this page, oldest first. This is
+	 * what gets saved and the history used for undo.
+	 */
+	private final List<Stroke> strokes = new ArrayList<Stroke>();
+
+	/**
+	 * The strokes that were undone, latest last.
+	 */
+	private final List<Stroke> redoStrokes = new ArrayList<Stroke>();
+
+	/**
+	 * Identifies whether the saved strokes of this page were loaded already.
+	 */
+	private boolean strokesLoaded = false;
+
+	/**
+	 * The number of strokes at the start of {@link NotePage#strokes} that are
+	 * saved in the stroke file of the page and only those. Strokes after them
+	 * can be appended to the file. -1 if the file needs to be written from
+	 * scratch, because saved strokes were undone or the page was cleared.
+	 */
+	private int savedCount = -1;
+
+	/**
+	 * Flag for changes of the foreground.
+	 */
+	private boolean modified = false;
+
+	/**
+	 * Flag for a changed background.
+	 */
+	private boolean bgModified = false;
+
+	/**
+	 * Identifies whether the page was cleared or not.
+	 */
+	private boolean cleared = false;
+
+	/**
+	 * The number of strokes at the start of {@link NotePage#strokes} that
+	 * stayed the same since the last {@link NotePage#snapshotStrokes()}.
+	 */
+	private int unchangedCount = 0;
+
+	/**
+	 * Identifies whether the page changed since the last
+	 * {@link NotePage#snapshotStrokes()}.
+	 */
+	private boolean changedSinceSnapshot = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pagePosition
+	 *            The position of the page in the note.
+	 */
+	public NotePage(final int pagePosition) {
+		position = pagePosition;
+	}
+
+	/**
+	 * Getter for the position.
+	 *
+	 * @return The position of the page in the note.
+	 */
+	public final int getPosition() {
+		return position;
+	}
+
+	/**
+	 * Getter for the strokes.
+	 *
+	 * @return The strokes of this page, oldest first.
+	 */
+	public final List<Stroke> getStrokes() {
+		return strokes;
+	}
+
+	/**
+	 * Adds a stroke that was drawn. Undone strokes can't be redone anymore.
+	 *
+	 * @param stroke
+	 *            The new stroke.
+	 */
+	public final void addStroke(final Stroke stroke) {
+		redoStrokes.clear();
+		strokes.add(stroke);
+		changedSinceSnapshot = true;
+	}
+
+	/**
+	 * Undoes the latest stroke by moving it to the undone strokes.
+	 *
+	 * @return The undone stroke, or null if there is none.
+	 */
+	public final Stroke undoStroke() {
+		if (strokes.isEmpty()) {
+			return null;
+		}
+
+		final Stroke undone = strokes.remove(strokes.size() - 1);
+		redoStrokes.add(undone);
+		unchangedCount = Math.min(unchangedCount, strokes.size());
+		changedSinceSnapshot = true;
+
+		// the stroke file holds a stroke the page does not have anymore
+		if (strokes.size() < savedCount) {
+			savedCount = -1;
+		}
+
+		return undone;
+	}
+
+	/**
+	 * Redoes the latest undone stroke.
+	 *
+	 * @return The redone stroke, or null if there is none.
+	 */
+	public final Stroke redoStroke() {
+		if (redoStrokes.isEmpty()) {
+			return null;
+		}
+
+		final Stroke redone = redoStrokes.remove(redoStrokes.size() - 1);
+		strokes.add(redone);
+		changedSinceSnapshot = true;
+
+		return redone;
+	}
+
+	/**
+	 * Adds the saved strokes to this page. They are older than anything drawn
+	 * since the note was opened.
+	 *
+	 * @param saved
+	 *            The saved strokes, oldest first.
+	 * @param appendable
+	 *            Whether new strokes can be appended to the stroke file, in
+	 *            other words whether the file exists and holds exactly the
+	 *            saved strokes.
+	 */
+	public final void loadStrokes(final List<Stroke> saved,
+			final boolean appendable) {
+		if (saved == null) {
+			throw new IllegalArgumentException("saved must not be null");
+		}
+
+		strokes.addAll(0, saved);
+		strokesLoaded = true;
+		unchangedCount = 0;
+		changedSinceSnapshot = true;
+
+		if (appendable && strokes.size() == saved.size()) {
+			savedCount = saved.size();
+		} else {
+			savedCount = -1;
+		}
+	}
+
+	/**
+	 * Getter for the number of strokes that are saved already.
+	 *
+	 * @return The number of strokes at the start of the strokes of this page
+	 *         that are saved in it's stroke file, the others can be appended.
+	 *         -1 if the file needs to be written from scratch.
+	 */
+	public final int getSavedCount() {
+		return savedCount;
+	}
+
+	/**
+	 * Copies the strokes of this page for a save on another thread. Changes
+	 * made afterwards are tracked, so the page knows what the save missed,
+	 * see {@link NotePage#strokesSaved(int)}. Needs to be called on the
+	 * thread changing the page.
+	 *
+	 * @return The strokes of this page, oldest first.
+	 */
+	public final List<Stroke> snapshotStrokes() {
+		unchangedCount = strokes.size();
+		changedSinceSnapshot = false;
+
+		return new ArrayList<Stroke>(strokes);
+	}
+
+	/**
+	 * Tells the page that the strokes of the last snapshot were saved. If
+	 * the page was cleared before, the saved strokes are all there is to it
+	 * now, so it must not reach the delete status afterwards. If the page
+	 * changed since the snapshot, it stays modified, so the changes are saved
+	 * next time. Needs to be called on the thread changing the page.
+	 *
+	 * @param count
+	 *            The number of strokes that were saved, the size of the
+	 *            snapshot.
+	 */
+	public final void strokesSaved(final int count) {
+		// strokes drawn since can be appended, unless saved ones were undone
+		if (unchangedCount >= count) {
+			savedCount = count;
+		} else {
+			savedCount = -1;
+		}
+
+		if (!changedSinceSnapshot) {
+			modified = false;
+			cleared = false;
+		}
+	}
+
+	/**
+	 * Tells the page that the background of the last snapshot was saved. If
+	 * the page changed since the snapshot, it stays modified.
+	 */
+	public final void backgroundSaved() {
+		if (!changedSinceSnapshot) {
+			bgModified = false;
+		}
+	}
+
+	/**
+	 * Tells if the saved strokes of this page were loaded already.
+	 *
+	 * @return Whether the saved strokes were loaded.
+	 */
+	public final boolean isStrokesLoaded() {
+		return strokesLoaded;
+	}
+
+	/**
+	 * Clears the page. Saved strokes and rasters must not be loaded again
+	 * afterwards.
+	 */
+	public final void clear() {
+		strokes.clear();
+		redoStrokes.clear();
+
+		strokesLoaded = true;
+		savedCount = -1;
+		cleared = true;
+		modified = false;
+		bgModified = false;
+		unchangedCount = 0;
+		changedSinceSnapshot = true;
+	}
+
+	/**
+	 * Tells if the foreground of the page was modified or not.
+	 *
+	 * @return Whether the foreground was modified or not.
+	 */
+	public final boolean isModified() {
+		return modified;
+	}
+
+	/**
+	 * Setter for the modified flag.
+	 *
+	 * @param newModified
+	 *            Whether the foreground was modified or not.
+	 */
+	public final void setModified(final boolean newModified) {
+		modified = newModified;
+		changedSinceSnapshot |= newModified;
+	}
+
+	/**
+	 * Tells if the background of the page was modified or not.
+	 *
+	 * @return Whether the background was modified or not.
+	 */
+	public final boolean isBgModified() {
+		return bgModified;
+	}
+
+	/**
+	 * Setter for the bgModified flag.
+	 *
+	 * @param newBgModified
+	 *            Whether the background was modified or not.
+	 */
+	public final void setBgModified(final boolean newBgModified) {
+		bgModified = newBgModified;
+		changedSinceSnapshot |= newBgModified;
+	}
+
+	/**
+	 * Tells if the page was cleared by the user.
+	 *
+	 * @return Whether the page was cleared.
+	 */
+	public final boolean isCleared() {
+		return cleared;
+	}
+
+	/**
+	 * Checks for the delete status. The files of the page will be deleted when
+	 * modified and bgModified are false and cleared is true and only then.
+	 * This status is only reached by clearing the page and not doing anything
+	 * after that.
+	 *
+	 * @return Whether the files of the page should be deleted or not.
+	 */
+	public final boolean deleteStatus() {
+		return !modified && !bgModified && cleared;
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.models;
+
+import java.util.List;
+
+import android.graphics.Bitmap;
+import de.deepsource.deepnotes.utilities.BitmapPool;
+
+/**
+ * Simple model class holding everything that was read from storage for one
+ * note page, so it can be prepared in the background and handed to a
+ * DrawView later.
+ */
+public class PageContent {
+
+	/**
+	 * The position of the page in the note.
+	 */
+	private final int position;
+
+	/**
+	 * The saved raster of the page (older notes only), or null.
+	 */
+	private Bitmap foreground;
+
+	/**
+	 * The background of the page, or null.
+	 */
+	private Bitmap background;
+
+	/**
+	 * Whether the background was changed since the note was saved.
+	 */
+	private final boolean backgroundModified;
+
+	/**
+	 * The saved strokes of the page, or null.
+	 */
+	private final List<Stroke> strokes;
+
+	/**
+	 * Whether new strokes can be appended to the stroke file of the page.
+	 */
+	private final boolean strokesAppendable;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pagePosition
+	 *            The position of the page in the note.
+	 * @param pageForeground
+	 *            The saved raster of the page, or null.
+	 * @param pageBackground
+	 *            The background of the page, or null.
+	 * @param bgModified
+	 *            Whether the background was changed since the note was saved.
+	 * @param pageStrokes
+	 *            The saved strokes of the page, or null.
+	 * @param appendable
+	 *            Whether new strokes can be appended to the stroke file of the
+	 *            page.
+	 */
+	public PageContent(final int pagePosition, final Bitmap pageForeground,
+			final Bitmap pageBackground, final boolean bgModified,
+			final List<Stroke> pageStrokes, final boolean appendable) {
+		position = pagePosition;
+		foreground = pageForeground;
+		background = pageBackground;
+		backgroundModified = bgModified;
+		strokes = pageStrokes;
+		strokesAppendable = appendable;
+	}
+
+	/**
+	 * Getter for the position.
+	 *
+	 * @return The position of the page in the note.
+	 */
+	public final int getPosition() {
+		return position;
+	}
+
+	/**
+	 * Takes the saved raster of the page. The caller becomes responsible to
+	 * give it back to the {@link BitmapPool}.
+	 *
+	 * @return The saved raster, or null.
+	 */
+	public final Bitmap takeForeground() {
+		final Bitmap taken = foreground;
+		foreground = null;
+		return taken;
+	}
+
+	/**
+	 * Takes the background of the page. The caller becomes responsible to
+	 * give it back to the {@link BitmapPool}.
+	 *
+	 * @return The background, or null.
+	 */
+	public final Bitmap takeBackground() {
+		final Bitmap taken = background;
+		background = null;
+		return taken;
+	}
+
+	/**
+	 * Getter for backgroundModified.
+	 *
+	 * @return Whether the background was changed since the note was saved.
+	 */
+	public final boolean isBackgroundModified() {
+		return backgroundModified;
+	}
+
+	/**
+	 * Getter for the strokes.
+	 *
+	 * @return The saved strokes of the page, or null.
+	 */
+	public final List<Stroke> getStrokes() {
+		return strokes;
+	}
+
+	/**
+	 * Getter for strokesAppendable.
+	 *
+	 * @return Whether new strokes can be appended to the stroke file of the
+	 *         page.
+	 */
+	public final boolean isStrokesAppendable() {
+		return strokesAppendable;
+	}
+
+	/**
+	 * Gives the Bitmaps that were not taken back to the {@link BitmapPool}.
+	 */
+	public final void release() {
+		BitmapPool.release(takeForeground());
+		BitmapPool.release(takeBackground());
+	}
+}
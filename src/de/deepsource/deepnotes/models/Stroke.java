@@ -0,0 +1,385 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.models;
+
+/**
+ * Simple model class holding the input points of a single stroke together
+ * with the color and width it was drawn with. It is plain Java, so it can be
+ * stored, loaded and analysed without the Android graphics stack. Points are
+ * kept in growable primitive arrays. Timestamps and pressure are optional and
+ * only allocated once a point carrying them is added.
+ */
+public class Stroke {
+
+	/**
+	 * The number of points a new stroke can hold before growing.
+	 */
+	private static final int INITIAL_CAPACITY = 32;
+
+	/**
+	 * The color of the stroke (ARGB).
+	 */
+	private final int color;
+
+	/**
+	 * The width of the stroke in pixels.
+	 */
+	private final float width;
+
+	/**
+	 * The x coordinates of the points.
+	 */
+	private float[] xs;
+
+	/**
+	 * The y coordinates of the points.
+	 */
+	private float[] ys;
+
+	/**
+	 * The time of each point in milliseconds relative to
+	 * {@link Stroke#startTime}, or null if the stroke has no timestamps.
+	 */
+	private int[] times;
+
+	/**
+	 * The pressure of each point, or null if the stroke has no pressure.
+	 */
+	private float[] pressures;
+
+	/**
+	 * The time of the first point in milliseconds.
+	 */
+	private long startTime;
+
+	/**
+	 * The number of points stored.
+	 */
+	private int size;
+
+	/**
+	 * The bounds of all points stored.
+	 */
+	private float left, top, right, bottom;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param strokeColor
+	 *            The color of the stroke (ARGB).
+	 * @param strokeWidth
+	 *            The width of the stroke in pixels.
+	 */
+	public Stroke(final int strokeColor, final float strokeWidth) {
+		this(strokeColor, strokeWidth, INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param strokeColor
+	 *            The color of the stroke (ARGB).
+	 * @param strokeWidth
+	 *            The width of the stroke in pixels.
+	 * @param capacity
+	 *            The number of points the stroke can hold before growing.
+	 */
+	public Stroke(final int strokeColor, final float strokeWidth,
+			final int capacity) {
+		if (strokeWidth < 0f) {
+			throw new IllegalArgumentException("strokeWidth must not be negative");
+		}
+
+		color = strokeColor;
+		width = strokeWidth;
+
+		final int initial = Math.max(1, capacity);
+		xs = new float[initial];
+		ys = new float[initial];
+	}
+
+	/**
+	 * Appends a point to the stroke.
+	 *
+	 * @param x
+	 *            The x coordinate.
+	 * @param y
+	 *            The y coordinate.
+	 */
+	public final void addPoint(final float x, final float y) {
+		if (times != null || pressures != null) {
+			throw new IllegalStateException("stroke expects timestamps and pressure");
+		}
+
+		append(x, y);
+	}
+
+	/**
+	 * Appends a point with timestamp and pressure to the stroke. Either all
+	 * or none of the points of a stroke must carry them.
+	 *
+	 * @param x
+	 *            The x coordinate.
+	 * @param y
+	 *            The y coordinate.
+	 * @param time
+	 *            The time of the point in milliseconds, must not be before
+	 *            the time of the previous point.
+	 * @param pressure
+	 *            The pressure of the point.
+	 */
+	public final void addPoint(final float x, final float y, final long time,
+			final float pressure) {
+		if (size == 0) {
+			times = new int[xs.length];
+			pressures = new float[xs.length];
+			startTime = time;
+		} else if (times == null) {
+			throw new IllegalStateException("stroke has no timestamps and pressure");
+		}
+
+		final long relative = time - startTime;
+		if (relative < 0 || relative > Integer.MAX_VALUE
+				|| (size > 0 && relative < times[size - 1])) {
+			throw new IllegalArgumentException("time must not decrease");
+		}
+
+		final int index = size;
+		append(x, y);
+		times[index] = (int) relative;
+		pressures[index] = pressure;
+	}
+
+	/**
+	 * Stores a point and updates the bounds.
+	 *
+	 * @param x
+	 *            The x coordinate.
+	 * @param y
+	 *            The y coordinate.
+	 */
+	private void append(final float x, final float y) {
+		if (size == xs.length) {
+			grow();
+		}
+
+		if (size == 0) {
+			left = x;
+			right = x;
+			top = y;
+			bottom = y;
+		} else {
+			left = Math.min(left, x);
+			right = Math.max(right, x);
+			top = Math.min(top, y);
+			bottom = Math.max(bottom, y);
+		}
+
+		xs[size] = x;
+		ys[size] = y;
+		size++;
+	}
+
+	/**
+	 * Doubles the capacity of the point arrays.
+	 */
+	private void grow() {
+		final int capacity = xs.length * 2;
+		final float[] newXs = new float[capacity];
+		final float[] newYs = new float[capacity];
+		System.arraycopy(xs, 0, newXs, 0, size);
+		System.arraycopy(ys, 0, newYs, 0, size);
+		xs = newXs;
+		ys = newYs;
+
+		if (times != null) {
+			final int[] newTimes = new int[capacity];
+			final float[] newPressures = new float[capacity];
+			System.arraycopy(times, 0, newTimes, 0, size);
+			System.arraycopy(pressures, 0, newPressures, 0, size);
+			times = newTimes;
+			pressures = newPressures;
+		}
+	}
+
+	/**
+	 * Getter for the number of points.
+	 *
+	 * @return The number of points stored.
+	 */
+	public final int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the x coordinate of a point.
+	 *
+	 * @param index
+	 *            The index of the point.
+	 *
+	 * @return The x coordinate.
+	 */
+	public final float getX(final int index) {
+		checkIndex(index);
+		return xs[index];
+	}
+
+	/**
+	 * Gets the y coordinate of a point.
+	 *
+	 * @param index
+	 *            The index of the point.
+	 *
+	 * @return The y coordinate.
+	 */
+	public final float getY(final int index) {
+		checkIndex(index);
+		return ys[index];
+	}
+
+	/**
+	 * Tells if the points of this stroke carry timestamps and pressure.
+	 *
+	 * @return Whether timestamps and pressure are available.
+	 */
+	public final boolean hasTimestamps() {
+		return times != null;
+	}
+
+	/**
+	 * Gets the time of a point.
+	 *
+	 * @param index
+	 *            The index of the point.
+	 *
+	 * @return The time in milliseconds, or 0 if the stroke has no timestamps.
+	 */
+	public final long getTime(final int index) {
+		checkIndex(index);
+		if (times == null) {
+			return 0L;
+		}
+		return startTime + times[index];
+	}
+
+	/**
+	 * Gets the pressure of a point.
+	 *
+	 * @param index
+	 *            The index of the point.
+	 *
+	 * @return The pressure, or 1 if the stroke has no pressure.
+	 */
+	public final float getPressure(final int index) {
+		checkIndex(index);
+		if (pressures == null) {
+			return 1f;
+		}
+		return pressures[index];
+	}
+
+	/**
+	 * Tells if a point lies within a given distance of one of the points of
+	 * this stroke, taking its width into account.
+	 *
+	 * @param x
+	 *            The x coordinate of the point.
+	 * @param y
+	 *            The y coordinate of the point.
+	 * @param tolerance
+	 *            The extra distance that still counts as a hit.
+	 *
+	 * @return Whether the stroke was hit.
+	 */
+	public final boolean hitTest(final float x, final float y,
+			final float tolerance) {
+		final float reach = width / 2 + tolerance;
+		if (size == 0 || x < left - reach || x > right + reach
+				|| y < top - reach || y > bottom + reach) {
+			return false;
+		}
+
+		final float reachSquared = reach * reach;
+		for (int i = 0; i < size; i++) {
+			final float dx = xs[i] - x;
+			final float dy = ys[i] - y;
+			if (dx * dx + dy * dy <= reachSquared) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Getter for the left bound of the points.
+	 *
+	 * @return The smallest x coordinate, or 0 if the stroke is empty.
+	 */
+	public final float getLeft() {
+		return left;
+	}
+
+	/**
+	 * Getter for the top bound of the points.
+	 *
+	 * @return The smallest y coordinate, or 0 if the stroke is empty.
+	 */
+	public final float getTop() {
+		return top;
+	}
+
+	/**
+	 * Getter for the right bound of the points.
+	 *
+	 * @return The biggest x coordinate, or 0 if the stroke is empty.
+	 */
+	public final float getRight() {
+		return right;
+	}
+
+	/**
+	 * Getter for the bottom bound of the points.
+	 *
+	 * @return The biggest y coordinate, or 0 if the stroke is empty.
+	 */
+	public final float getBottom() {
+		return bottom;
+	}
+
+	/**
+	 * Checks whether an index points to a stored point.
+	 *
+	 * @param index
+	 *            The index to check.
+	 */
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index " + index
+					+ " out of bounds for size " + size);
+		}
+	}
+
+	/**
+	 * Getter for the color.
+	 *
+	 * @return The color of the stroke (ARGB).
+	 */
+	public final int getColor() {
+		return color;
+	}
+
+	/**
+	 * Getter for the width.
+	 *
+	 * @return The width of the stroke in pixels.
+	 */
+	public final float getWidth() {
+		return width;
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Replaces a file at once. The new content is written to a temporary file
+ * next to it, synced, and only then renamed to the real name, so a kill while
+ * writing never leaves a truncated file behind: the file either has its old
+ * or its new content. A temporary file left by a kill is replaced by the
+ * next write. The class is plain Java, so it does not depend on the Android
+ * framework.
+ */
+public final class AtomicFile {
+
+	/**
+	 * The suffix of a file while it is written.
+	 */
+	public static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * Writes the content of a file.
+	 */
+	public interface Writer {
+
+		/**
+		 * Writes the content. The stream must not be closed.
+		 *
+		 * @param out
+		 *            The stream to write to.
+		 *
+		 * @throws IOException
+		 *             If the content could not be written.
+		 */
+		void write(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Utility classes should not have public or default constructor.
+	 */
+	private AtomicFile() {
+		// empty
+	}
+
+	/**
+	 * Replaces a file with new content.
+	 *
+	 * @param file
+	 *            The file.
+	 * @param writer
+	 *            Writes the new content.
+	 *
+	 * @throws IOException
+	 *             If the content could not be written. The file keeps its old
+	 *             content then.
+	 */
+	public static void write(final File file, final Writer writer)
+			throws IOException {
+		if (file == null) {
+			throw new IllegalArgumentException("file must not be null");
+		}
+
+		if (writer == null) {
+			throw new IllegalArgumentException("writer must not be null");
+		}
+
+		final File temp = new File(file + TEMP_SUFFIX);
+		boolean written = false;
+
+		try {
+			final FileOutputStream fos = new FileOutputStream(temp);
+			try {
+				writer.write(fos);
+				fos.getFD().sync();
+			} finally {
+				fos.close();
+			}
+
+			if (!temp.renameTo(file)) {
+				throw new IOException("failed to rename " + temp);
+			}
+			written = true;
+		} finally {
+			if (!written) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Replaces a file with new content.
+	 *
+	 * @param file
+	 *            The file.
+	 * @param data
+	 *            The new content.
+	 *
+	 * @throws IOException
+	 *             If the content could not be written. The file keeps its old
+	 *             content then.
+	 */
+	public static void write(final File file, final byte[] data)
+			throws IOException {
+		if (data == null) {
+			throw new IllegalArgumentException("data must not be null");
+		}
+
+		write(file, new Writer() {
+			@Override
+			public void write(final OutputStream out) throws IOException {
+				out.write(data);
+			}
+		});
+	}
+}
@@ -0,0 +1,829 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import android.util.Log;
+import de.deepsource.deepnotes.application.Deepnotes;
+
+/**
+ * Writes a baseline JPEG (JFIF, 4:2:0, standard Huffman tables) from rows of
+ * ARGB pixels, a few rows at a time. Bitmap.compress needs the whole image in
+ * one Bitmap, this writer only buffers one row of MCUs ({@value #MCU_HEIGHT}
+ * pixel rows), so an image can be composited and written band by band. The
+ * memory used depends on the width only. Alpha is ignored.
+ */
+public final class BandedJpegWriter {
+
+	/**
+	 * The number of pixel rows encoded at once.
+	 */
+	public static final int MCU_HEIGHT = 16;
+
+	/**
+	 * The size of the buffer in front of the output stream.
+	 */
+	private static final int OUT_BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * The natural index of every coefficient in zig zag order.
+	 */
+	private static final int[] ZIGZAG = {
+		0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+		12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+		35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+		58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+	};
+
+	/**
+	 * The luminance quantization table of the JPEG standard, natural order.
+	 */
+	private static final int[] LUMINANCE_QUANTIZATION = {
+		16, 11, 10, 16, 24, 40, 51, 61,
+		12, 12, 14, 19, 26, 58, 60, 55,
+		14, 13, 16, 24, 40, 57, 69, 56,
+		14, 17, 22, 29, 51, 87, 80, 62,
+		18, 22, 37, 56, 68, 109, 103, 77,
+		24, 35, 55, 64, 81, 104, 113, 92,
+		49, 64, 78, 87, 103, 121, 120, 101,
+		72, 92, 95, 98, 112, 100, 103, 99
+	};
+
+	/**
+	 * The chrominance quantization table of the JPEG standard, natural order.
+	 */
+	private static final int[] CHROMINANCE_QUANTIZATION = {
+		17, 18, 24, 47, 99, 99, 99, 99,
+		18, 21, 26, 66, 99, 99, 99, 99,
+		24, 26, 56, 99, 99, 99, 99, 99,
+		47, 66, 99, 99, 99, 99, 99, 99,
+		99, 99, 99, 99, 99, 99, 99, 99,
+		99, 99, 99, 99, 99, 99, 99, 99,
+		99, 99, 99, 99, 99, 99, 99, 99,
+		99, 99, 99, 99, 99, 99, 99, 99
+	};
+
+	/**
+	 * The scale factors of the AAN DCT per row and column.
+	 */
+	private static final double[] AAN_SCALE = {
+		1.0, 1.387039845, 1.306562965, 1.175875602,
+		1.0, 0.785694958, 0.541196100, 0.275899379
+	};
+
+	/**
+	 * The code counts per length of the luminance DC table.
+	 */
+	private static final int[] DC_LUMINANCE_BITS = {
+		0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0
+	};
+
+	/**
+	 * The code counts per length of the chrominance DC table.
+	 */
+	private static final int[] DC_CHROMINANCE_BITS = {
+		0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0
+	};
+
+	/**
+	 * The symbols of both DC tables.
+	 */
+	private static final int[] DC_VALUES = {
+		0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11
+	};
+
+	/**
+	 * The code counts per length of the luminance AC table.
+	 */
+	private static final int[] AC_LUMINANCE_BITS = {
+		0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d
+	};
+
+	/**
+	 * The symbols of the luminance AC table.
+	 */
+	private static final int[] AC_LUMINANCE_VALUES = {
+		0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12,
+		0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+		0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08,
+		0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+		0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16,
+		0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+		0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39,
+		0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+		0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59,
+		0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+		0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79,
+		0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+		0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98,
+		0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+		0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6,
+		0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+		0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4,
+		0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+		0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea,
+		0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+		0xf9, 0xfa
+	};
+
+	/**
+	 * The code counts per length of the chrominance AC table.
+	 */
+	private static final int[] AC_CHROMINANCE_BITS = {
+		0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77
+	};
+
+	/**
+	 * The symbols of the chrominance AC table.
+	 */
+	private static final int[] AC_CHROMINANCE_VALUES = {
+		0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21,
+		0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+		0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91,
+		0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+		0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34,
+		0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+		0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38,
+		0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+		0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58,
+		0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+		0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78,
+		0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+		0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96,
+		0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+		0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4,
+		0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+		0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2,
+		0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+		0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9,
+		0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+		0xf9, 0xfa
+	};
+
+	/**
+	 * The Huffman codes of the luminance DC table by symbol, code length in
+	 * the upper 16 bits.
+	 */
+	private static final int[] DC_LUMINANCE_CODES = codes(DC_LUMINANCE_BITS,
+			DC_VALUES);
+
+	/**
+	 * The Huffman codes of the chrominance DC table by symbol.
+	 */
+	private static final int[] DC_CHROMINANCE_CODES = codes(
+			DC_CHROMINANCE_BITS, DC_VALUES);
+
+	/**
+	 * The Huffman codes of the luminance AC table by symbol.
+	 */
+	private static final int[] AC_LUMINANCE_CODES = codes(AC_LUMINANCE_BITS,
+			AC_LUMINANCE_VALUES);
+
+	/**
+	 * The Huffman codes of the chrominance AC table by symbol.
+	 */
+	private static final int[] AC_CHROMINANCE_CODES = codes(
+			AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES);
+
+	/**
+	 * The stream the JPEG is written to.
+	 */
+	private final OutputStream out;
+
+	/**
+	 * The width of the image.
+	 */
+	private final int width;
+
+	/**
+	 * The height of the image.
+	 */
+	private final int height;
+
+	/**
+	 * The width of the image rounded up to whole MCUs.
+	 */
+	private final int paddedWidth;
+
+	/**
+	 * The luminance quantization table, zig zag order.
+	 */
+	private final int[] luminanceTable = new int[64];
+
+	/**
+	 * The chrominance quantization table, zig zag order.
+	 */
+	private final int[] chrominanceTable = new int[64];
+
+	/**
+	 * The luminance divisors including the AAN scaling, natural order.
+	 */
+	private final float[] luminanceDivisors = new float[64];
+
+	/**
+	 * The chrominance divisors including the AAN scaling, natural order.
+	 */
+	private final float[] chrominanceDivisors = new float[64];
+
+	/**
+	 * The luminance of the buffered rows, level shifted.
+	 */
+	private final float[] luminance;
+
+	/**
+	 * The blue chrominance of the buffered rows, level shifted.
+	 */
+	private final float[] blue;
+
+	/**
+	 * The red chrominance of the buffered rows, level shifted.
+	 */
+	private final float[] red;
+
+	/**
+	 * The block being transformed.
+	 */
+	private final float[] block = new float[64];
+
+	/**
+	 * The quantized block in natural order.
+	 */
+	private final int[] quantized = new int[64];
+
+	/**
+	 * The buffer in front of the output stream.
+	 */
+	private final byte[] outBuffer = new byte[OUT_BUFFER_SIZE];
+
+	/**
+	 * The number of bytes in the output buffer.
+	 */
+	private int outLength = 0;
+
+	/**
+	 * The bits not written yet, aligned to the right.
+	 */
+	private int bitBuffer = 0;
+
+	/**
+	 * The number of bits in the bit buffer.
+	 */
+	private int bitCount = 0;
+
+	/**
+	 * The number of buffered rows.
+	 */
+	private int bufferedRows = 0;
+
+	/**
+	 * The number of rows written so far.
+	 */
+	private int writtenRows = 0;
+
+	/**
+	 * The last DC coefficient of every component.
+	 */
+	private final int[] lastDc = new int[3];
+
+	/**
+	 * Constructor, writes the headers.
+	 *
+	 * @param stream
+	 *            The stream the JPEG is written to, it is not closed.
+	 * @param imageWidth
+	 *            The width of the image.
+	 * @param imageHeight
+	 *            The height of the image.
+	 * @param quality
+	 *            The quality, from 1 to 100.
+	 *
+	 * @throws IOException
+	 *             If the headers could not be written.
+	 */
+	public BandedJpegWriter(final OutputStream stream, final int imageWidth,
+			final int imageHeight, final int quality) throws IOException {
+		if (stream == null) {
+			Log.e(Deepnotes.APP_NAME, "stream must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		if (imageWidth <= 0 || imageHeight <= 0 || imageWidth > 0xffff
+				|| imageHeight > 0xffff) {
+			Log.e(Deepnotes.APP_NAME, "invalid size " + imageWidth + "x"
+					+ imageHeight);
+			throw new IllegalArgumentException();
+		}
+
+		out = stream;
+		width = imageWidth;
+		height = imageHeight;
+		paddedWidth = (imageWidth + MCU_HEIGHT - 1) / MCU_HEIGHT * MCU_HEIGHT;
+
+		luminance = new float[paddedWidth * MCU_HEIGHT];
+		blue = new float[paddedWidth * MCU_HEIGHT];
+		red = new float[paddedWidth * MCU_HEIGHT];
+
+		initTables(Math.max(1, Math.min(100, quality)));
+		writeHeaders();
+	}
+
+	/**
+	 * Writes rows of pixels. The rows must be given top to bottom.
+	 *
+	 * @param pixels
+	 *            The pixels as ARGB.
+	 * @param offset
+	 *            The index of the first pixel.
+	 * @param stride
+	 *            The number of pixels from one row to the next.
+	 * @param rows
+	 *            The number of rows.
+	 *
+	 * @throws IOException
+	 *             If the rows could not be written.
+	 */
+	public void writeRows(final int[] pixels, final int offset,
+			final int stride, final int rows) throws IOException {
+		if (pixels == null) {
+			Log.e(Deepnotes.APP_NAME, "pixels must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		if (writtenRows + bufferedRows + rows > height) {
+			Log.e(Deepnotes.APP_NAME, "too many rows");
+			throw new IllegalArgumentException();
+		}
+
+		for (int row = 0; row < rows; row++) {
+			bufferRow(pixels, offset + row * stride);
+
+			if (bufferedRows == MCU_HEIGHT) {
+				encodeRows();
+			}
+		}
+	}
+
+	/**
+	 * Writes the last rows and the end of the image, then flushes the stream.
+	 * All rows must have been written.
+	 *
+	 * @throws IOException
+	 *             If the JPEG could not be finished.
+	 */
+	public void finish() throws IOException {
+		if (writtenRows + bufferedRows != height) {
+			Log.e(Deepnotes.APP_NAME, "missing rows");
+			throw new IllegalStateException();
+		}
+
+		if (bufferedRows > 0) {
+			// repeat the last row to fill the MCUs
+			final int last = (bufferedRows - 1) * paddedWidth;
+			for (int row = bufferedRows; row < MCU_HEIGHT; row++) {
+				System.arraycopy(luminance, last, luminance, row * paddedWidth,
+						paddedWidth);
+				System.arraycopy(blue, last, blue, row * paddedWidth,
+						paddedWidth);
+				System.arraycopy(red, last, red, row * paddedWidth, paddedWidth);
+			}
+
+			encodeRows();
+		}
+
+		// fill the last byte with ones
+		if (bitCount > 0) {
+			writeBits(0x7f, 7);
+		}
+
+		writeByte(0xff);
+		writeByte(0xd9);
+		flush();
+	}
+
+	/**
+	 * Converts one row to YCbCr and buffers it.
+	 *
+	 * @param pixels
+	 *            The pixels as ARGB.
+	 * @param offset
+	 *            The index of the first pixel of the row.
+	 */
+	private void bufferRow(final int[] pixels, final int offset) {
+		final int start = bufferedRows * paddedWidth;
+
+		for (int x = 0; x < paddedWidth; x++) {
+			// repeat the last column to fill the MCUs
+			final int pixel = pixels[offset + Math.min(x, width - 1)];
+			final int r = (pixel >> 16) & 0xff;
+			final int g = (pixel >> 8) & 0xff;
+			final int b = pixel & 0xff;
+
+			luminance[start + x] = 0.299f * r + 0.587f * g + 0.114f * b - 128f;
+			blue[start + x] = -0.168736f * r - 0.331264f * g + 0.5f * b;
+			red[start + x] = 0.5f * r - 0.418688f * g - 0.081312f * b;
+		}
+
+		bufferedRows++;
+	}
+
+	/**
+	 * Encodes the buffered rows as one row of MCUs: four luminance blocks
+	 * and one block of every chrominance, which is subsampled by two.
+	 *
+	 * @throws IOException
+	 *             If the data could not be written.
+	 */
+	private void encodeRows() throws IOException {
+		for (int x = 0; x < paddedWidth; x += MCU_HEIGHT) {
+			for (int by = 0; by < MCU_HEIGHT; by += 8) {
+				for (int bx = 0; bx < MCU_HEIGHT; bx += 8) {
+					for (int i = 0; i < 64; i++) {
+						block[i] = luminance[(by + i / 8) * paddedWidth + x
+								+ bx + i % 8];
+					}
+
+					encodeBlock(0, luminanceDivisors, DC_LUMINANCE_CODES,
+							AC_LUMINANCE_CODES);
+				}
+			}
+
+			subsample(blue, x);
+			encodeBlock(1, chrominanceDivisors, DC_CHROMINANCE_CODES,
+					AC_CHROMINANCE_CODES);
+
+			subsample(red, x);
+			encodeBlock(2, chrominanceDivisors, DC_CHROMINANCE_CODES,
+					AC_CHROMINANCE_CODES);
+		}
+
+		writtenRows += bufferedRows;
+		bufferedRows = 0;
+	}
+
+	/**
+	 * Averages 2x2 pixels of a chrominance into the block.
+	 *
+	 * @param plane
+	 *            The chrominance.
+	 * @param x
+	 *            The first column of the MCU.
+	 */
+	private void subsample(final float[] plane, final int x) {
+		for (int i = 0; i < 64; i++) {
+			final int index = (i / 8) * 2 * paddedWidth + x + (i % 8) * 2;
+			block[i] = (plane[index] + plane[index + 1]
+					+ plane[index + paddedWidth]
+					+ plane[index + paddedWidth + 1]) * 0.25f;
+		}
+	}
+
+	/**
+	 * Transforms, quantizes and writes the block.
+	 *
+	 * @param component
+	 *            The index of the component.
+	 * @param divisors
+	 *            The divisors of the component.
+	 * @param dcCodes
+	 *            The DC Huffman codes of the component.
+	 * @param acCodes
+	 *            The AC Huffman codes of the component.
+	 *
+	 * @throws IOException
+	 *             If the data could not be written.
+	 */
+	private void encodeBlock(final int component, final float[] divisors,
+			final int[] dcCodes, final int[] acCodes) throws IOException {
+		forwardDct(block);
+
+		for (int i = 0; i < 64; i++) {
+			quantized[i] = Math.round(block[i] * divisors[i]);
+		}
+
+		final int dc = quantized[0];
+		final int diff = dc - lastDc[component];
+		lastDc[component] = dc;
+		writeCoefficient(dcCodes, 0, diff);
+
+		int run = 0;
+		for (int k = 1; k < 64; k++) {
+			final int coefficient = quantized[ZIGZAG[k]];
+			if (coefficient == 0) {
+				run++;
+				continue;
+			}
+
+			while (run > 15) {
+				writeCode(acCodes[0xf0]);
+				run -= 16;
+			}
+
+			writeCoefficient(acCodes, run << 4, coefficient);
+			run = 0;
+		}
+
+		if (run > 0) {
+			writeCode(acCodes[0x00]);
+		}
+	}
+
+	/**
+	 * Writes a coefficient as the code of its size category and its bits.
+	 *
+	 * @param codes
+	 *            The Huffman codes.
+	 * @param symbol
+	 *            The symbol without the size category, the run length for
+	 *            AC coefficients.
+	 * @param value
+	 *            The coefficient.
+	 *
+	 * @throws IOException
+	 *             If the data could not be written.
+	 */
+	private void writeCoefficient(final int[] codes, final int symbol,
+			final int value) throws IOException {
+		int magnitude = value < 0 ? -value : value;
+		int size = 0;
+		while (magnitude != 0) {
+			size++;
+			magnitude >>= 1;
+		}
+
+		writeCode(codes[symbol | size]);
+
+		if (size > 0) {
+			final int bits = value < 0 ? value - 1 : value;
+			writeBits(bits & ((1 << size) - 1), size);
+		}
+	}
+
+	/**
+	 * Writes a Huffman code.
+	 *
+	 * @param code
+	 *            The code, its length in the upper 16 bits.
+	 *
+	 * @throws IOException
+	 *             If the data could not be written.
+	 */
+	private void writeCode(final int code) throws IOException {
+		writeBits(code & 0xffff, code >>> 16);
+	}
+
+	/**
+	 * Writes bits of the entropy coded data, 0xff bytes are stuffed.
+	 *
+	 * @param bits
+	 *            The bits, aligned to the right.
+	 * @param count
+	 *            The number of bits, at most 16.
+	 *
+	 * @throws IOException
+	 *             If the data could not be written.
+	 */
+	private void writeBits(final int bits, final int count) throws IOException {
+		bitBuffer = (bitBuffer << count) | bits;
+		bitCount += count;
+
+		while (bitCount >= 8) {
+			final int b = (bitBuffer >> (bitCount - 8)) & 0xff;
+			writeByte(b);
+			if (b == 0xff) {
+				writeByte(0);
+			}
+
+			bitCount -= 8;
+		}
+
+		bitBuffer &= (1 << bitCount) - 1;
+	}
+
+	/**
+	 * Forward DCT of a block, the AAN algorithm. The output is scaled, the
+	 * scaling is part of the divisors.
+	 *
+	 * @param data
+	 *            The block, replaced by its coefficients.
+	 */
+	private static void forwardDct(final float[] data) {
+		for (int pass = 0; pass < 2; pass++) {
+			// rows first, then columns
+			final int step = pass == 0 ? 1 : 8;
+			final int next = pass == 0 ? 8 : 1;
+
+			for (int line = 0; line < 8; line++) {
+				final int o = line * next;
+
+				final float tmp0 = data[o] + data[o + 7 * step];
+				final float tmp7 = data[o] - data[o + 7 * step];
+				final float tmp1 = data[o + step] + data[o + 6 * step];
+				final float tmp6 = data[o + step] - data[o + 6 * step];
+				final float tmp2 = data[o + 2 * step] + data[o + 5 * step];
+				final float tmp5 = data[o + 2 * step] - data[o + 5 * step];
+				final float tmp3 = data[o + 3 * step] + data[o + 4 * step];
+				final float tmp4 = data[o + 3 * step] - data[o + 4 * step];
+
+				// even part
+				float tmp10 = tmp0 + tmp3;
+				final float tmp13 = tmp0 - tmp3;
+				float tmp11 = tmp1 + tmp2;
+				float tmp12 = tmp1 - tmp2;
+
+				data[o] = tmp10 + tmp11;
+				data[o + 4 * step] = tmp10 - tmp11;
+
+				final float z1 = (tmp12 + tmp13) * 0.707106781f;
+				data[o + 2 * step] = tmp13 + z1;
+				data[o + 6 * step] = tmp13 - z1;
+
+				// odd part
+				tmp10 = tmp4 + tmp5;
+				tmp11 = tmp5 + tmp6;
+				tmp12 = tmp6 + tmp7;
+
+				final float z5 = (tmp10 - tmp12) * 0.382683433f;
+				final float z2 = 0.541196100f * tmp10 + z5;
+				final float z4 = 1.306562965f * tmp12 + z5;
+				final float z3 = tmp11 * 0.707106781f;
+
+				final float z11 = tmp7 + z3;
+				final float z13 = tmp7 - z3;
+
+				data[o + 5 * step] = z13 + z2;
+				data[o + 3 * step] = z13 - z2;
+				data[o + step] = z11 + z4;
+				data[o + 7 * step] = z11 - z4;
+			}
+		}
+	}
+
+	/**
+	 * Scales the quantization tables of the JPEG standard like the IJG
+	 * library does and calculates the divisors.
+	 *
+	 * @param quality
+	 *            The quality, from 1 to 100.
+	 */
+	private void initTables(final int quality) {
+		final int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+
+		for (int i = 0; i < 64; i++) {
+			final int natural = ZIGZAG[i];
+			final int lum = Math.max(1, Math.min(255,
+					(LUMINANCE_QUANTIZATION[natural] * scale + 50) / 100));
+			final int chrom = Math.max(1, Math.min(255,
+					(CHROMINANCE_QUANTIZATION[natural] * scale + 50) / 100));
+
+			luminanceTable[i] = lum;
+			chrominanceTable[i] = chrom;
+
+			final double aan = AAN_SCALE[natural / 8] * AAN_SCALE[natural % 8]
+					* 8.0;
+			luminanceDivisors[natural] = (float) (1.0 / (lum * aan));
+			chrominanceDivisors[natural] = (float) (1.0 / (chrom * aan));
+		}
+	}
+
+	/**
+	 * Writes the markers in front of the entropy coded data.
+	 *
+	 * @throws IOException
+	 *             If the headers could not be written.
+	 */
+	private void writeHeaders() throws IOException {
+		// start of image and JFIF 1.1 without thumbnail
+		writeBytes(0xff, 0xd8);
+		writeBytes(0xff, 0xe0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1,
+				0, 1, 0, 0);
+
+		// quantization tables
+		writeBytes(0xff, 0xdb, 0, 2 + 2 * 65);
+		writeByte(0);
+		for (int i = 0; i < 64; i++) {
+			writeByte(luminanceTable[i]);
+		}
+
+		writeByte(1);
+		for (int i = 0; i < 64; i++) {
+			writeByte(chrominanceTable[i]);
+		}
+
+		// baseline frame, luminance sampled 2x2
+		writeBytes(0xff, 0xc0, 0, 17, 8, height >> 8, height & 0xff,
+				width >> 8, width & 0xff, 3, 1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1);
+
+		// Huffman tables
+		writeHuffmanTable(0x00, DC_LUMINANCE_BITS, DC_VALUES);
+		writeHuffmanTable(0x10, AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES);
+		writeHuffmanTable(0x01, DC_CHROMINANCE_BITS, DC_VALUES);
+		writeHuffmanTable(0x11, AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES);
+
+		// start of scan
+		writeBytes(0xff, 0xda, 0, 12, 3, 1, 0x00, 2, 0x11, 3, 0x11, 0, 63, 0);
+	}
+
+	/**
+	 * Writes a DHT marker.
+	 *
+	 * @param id
+	 *            The class and id of the table.
+	 * @param bits
+	 *            The code counts per length.
+	 * @param values
+	 *            The symbols.
+	 *
+	 * @throws IOException
+	 *             If the table could not be written.
+	 */
+	private void writeHuffmanTable(final int id, final int[] bits,
+			final int[] values) throws IOException {
+		final int length = 2 + 1 + bits.length + values.length;
+		writeBytes(0xff, 0xc4, length >> 8, length & 0xff, id);
+
+		for (int count : bits) {
+			writeByte(count);
+		}
+
+		for (int value : values) {
+			writeByte(value);
+		}
+	}
+
+	/**
+	 * Writes bytes.
+	 *
+	 * @param bytes
+	 *            The bytes, the lowest 8 bits of every int.
+	 *
+	 * @throws IOException
+	 *             If the bytes could not be written.
+	 */
+	private void writeBytes(final int... bytes) throws IOException {
+		for (int b : bytes) {
+			writeByte(b);
+		}
+	}
+
+	/**
+	 * Writes a byte through the output buffer.
+	 *
+	 * @param b
+	 *            The byte, the lowest 8 bits.
+	 *
+	 * @throws IOException
+	 *             If the byte could not be written.
+	 */
+	private void writeByte(final int b) throws IOException {
+		if (outLength == outBuffer.length) {
+			flush();
+		}
+
+		outBuffer[outLength++] = (byte) b;
+	}
+
+	/**
+	 * Writes the output buffer to the stream.
+	 *
+	 * @throws IOException
+	 *             If the buffer could not be written.
+	 */
+	private void flush() throws IOException {
+		out.write(outBuffer, 0, outLength);
+		outLength = 0;
+	}
+
+	/**
+	 * Generates the Huffman codes of a table the way the JPEG standard does.
+	 *
+	 * @param bits
+	 *            The code counts per length.
+	 * @param values
+	 *            The symbols.
+	 *
+	 * @return The codes by symbol, the code length in the upper 16 bits.
+	 */
+	private static int[] codes(final int[] bits, final int[] values) {
+		final int[] codes = new int[256];
+
+		int code = 0;
+		int k = 0;
+		for (int length = 1; length <= 16; length++) {
+			for (int i = 0; i < bits[length - 1]; i++) {
+				codes[values[k++]] = (length << 16) | code;
+				code++;
+			}
+
+			code <<= 1;
+		}
+
+		return codes;
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+import de.deepsource.deepnotes.application.Deepnotes;
+
+/**
+ * This utility class pools mutable Bitmaps by size and config, so full
+ * screen buffers can be reused instead of being allocated again and again.
+ * Bitmaps are taken with {@link BitmapPool#acquire(int, int, Bitmap.Config)}
+ * and given back with {@link BitmapPool#release(Bitmap)}. The pool holds at
+ * most {@link Deepnotes#getBitmapPoolBudget()} bytes, the least recently
+ * released Bitmaps are recycled first. All methods are thread safe.
+ */
+public final class BitmapPool {
+
+	/**
+	 * The free Bitmaps per size and config.
+	 */
+	private static final Map<String, List<Bitmap>> FREE = new HashMap<String, List<Bitmap>>();
+
+	/**
+	 * All free Bitmaps, least recently released first.
+	 */
+	private static final LinkedList<Bitmap> ORDER = new LinkedList<Bitmap>();
+
+	/**
+	 * The number of bytes held by free Bitmaps.
+	 */
+	private static long size = 0;
+
+	/**
+	 * The number of acquires served from the pool.
+	 */
+	private static final Metrics.Counter HITS = Metrics
+			.counter("bitmap.pool.hits");
+
+	/**
+	 * The number of acquires that needed a new Bitmap.
+	 */
+	private static final Metrics.Counter MISSES = Metrics
+			.counter("bitmap.pool.misses");
+
+	/**
+	 * Utility classes should not have public or default constructor.
+	 */
+	private BitmapPool() {
+		// empty
+	}
+
+	/**
+	 * Takes a mutable, transparent Bitmap from the pool, or creates a new one
+	 * if there is none of the requested size and config.
+	 *
+	 * @param width
+	 *            The width of the Bitmap.
+	 * @param height
+	 *            The height of the Bitmap.
+	 * @param config
+	 *            The config of the Bitmap.
+	 *
+	 * @return The Bitmap, give it back with
+	 *         {@link BitmapPool#release(Bitmap)}.
+	 */
+	public static Bitmap acquire(final int width, final int height,
+			final Bitmap.Config config) {
+		if (config == null) {
+			Log.e(Deepnotes.APP_NAME, "config must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		Bitmap bitmap = null;
+
+		synchronized (FREE) {
+			final List<Bitmap> free = FREE.get(key(width, height, config));
+			if (free != null && !free.isEmpty()) {
+				bitmap = free.remove(free.size() - 1);
+				ORDER.remove(bitmap);
+				size -= byteCount(bitmap);
+			}
+		}
+
+		if (bitmap == null) {
+			MISSES.increment();
+			return Bitmap.createBitmap(width, height, config);
+		}
+
+		HITS.increment();
+		bitmap.eraseColor(Color.TRANSPARENT);
+
+		return bitmap;
+	}
+
+	/**
+	 * Gives a Bitmap back to the pool. It must not be used by the caller
+	 * afterwards. Immutable and recycled Bitmaps are ignored.
+	 *
+	 * @param bitmap
+	 *            The Bitmap to give back, may be null.
+	 */
+	public static void release(final Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled()) {
+			return;
+		}
+
+		if (!bitmap.isMutable()) {
+			bitmap.recycle();
+			return;
+		}
+
+		final List<Bitmap> evicted = new ArrayList<Bitmap>();
+
+		synchronized (FREE) {
+			if (ORDER.contains(bitmap)) {
+				return;
+			}
+
+			final String key = key(bitmap.getWidth(), bitmap.getHeight(),
+					bitmap.getConfig());
+			List<Bitmap> free = FREE.get(key);
+			if (free == null) {
+				free = new ArrayList<Bitmap>();
+				FREE.put(key, free);
+			}
+
+			free.add(bitmap);
+			ORDER.addLast(bitmap);
+			size += byteCount(bitmap);
+
+			final long budget = Deepnotes.getBitmapPoolBudget();
+			while (size > budget && !ORDER.isEmpty()) {
+				final Bitmap oldest = ORDER.removeFirst();
+				FREE.get(key(oldest.getWidth(), oldest.getHeight(),
+						oldest.getConfig())).remove(oldest);
+				size -= byteCount(oldest);
+				evicted.add(oldest);
+			}
+		}
+
+		for (Bitmap oldest : evicted) {
+			oldest.recycle();
+		}
+	}
+
+	/**
+	 * Recycles all free Bitmaps, for example when the system is low on
+	 * memory.
+	 */
+	public static void clear() {
+		final List<Bitmap> evicted;
+
+		synchronized (FREE) {
+			evicted = new ArrayList<Bitmap>(ORDER);
+			ORDER.clear();
+			FREE.clear();
+			size = 0;
+		}
+
+		for (Bitmap bitmap : evicted) {
+			bitmap.recycle();
+		}
+	}
+
+	/**
+	 * Builds the key Bitmaps are pooled by.
+	 *
+	 * @param width
+	 *            The width of the Bitmap.
+	 * @param height
+	 *            The height of the Bitmap.
+	 * @param config
+	 *            The config of the Bitmap.
+	 *
+	 * @return The key.
+	 */
+	private static String key(final int width, final int height,
+			final Bitmap.Config config) {
+		return width + "x" + height + ":" + config;
+	}
+
+	/**
+	 * Calculates the number of bytes a Bitmap holds.
+	 *
+	 * @param bitmap
+	 *            The Bitmap.
+	 *
+	 * @return The number of bytes.
+	 */
+	private static long byteCount(final Bitmap bitmap) {
+		return (long) bitmap.getRowBytes() * bitmap.getHeight();
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+/**
+ * This utility class holds the color math of the
+ * {@link de.deepsource.deepnotes.dialogs.ColorPickerDialog}. Colors are
+ * packed ARGB ints like {@link android.graphics.Color} uses them, but no
+ * Android class is needed, so the math can be benchmarked on the JVM.
+ */
+public final class ColorMath {
+
+	/**
+	 * Utility classes should not have public or default constructor.
+	 */
+	private ColorMath() {
+		// empty
+	}
+
+	/**
+	 * Interpolates between colors spread evenly over [0, 1], like a
+	 * {@link android.graphics.SweepGradient} does.
+	 *
+	 * @param colors
+	 *            The colors, at least one.
+	 * @param unit
+	 *            The position, values outside [0, 1] are clamped.
+	 *
+	 * @return The interpolated color.
+	 */
+	public static int interpColor(final int[] colors, final float unit) {
+		if (unit <= 0) {
+			return colors[0];
+		}
+
+		if (unit >= 1) {
+			return colors[colors.length - 1];
+		}
+
+		float p = unit * (colors.length - 1);
+		final int i = (int) p;
+		p -= i;
+
+		// now p is just the fractional part [0...1) and i is the index
+		final int c0 = colors[i];
+		final int c1 = colors[i + 1];
+
+		return argb(ave(c0 >>> 24, c1 >>> 24, p),
+				ave((c0 >> 16) & 0xff, (c1 >> 16) & 0xff, p),
+				ave((c0 >> 8) & 0xff, (c1 >> 8) & 0xff, p),
+				ave(c0 & 0xff, c1 & 0xff, p));
+	}
+
+	/**
+	 * Rotates the hue of a color, by rotating it around the Y axis of the YUV
+	 * color space.
+	 *
+	 * @param color
+	 *            The color.
+	 * @param rad
+	 *            The angle in radians.
+	 *
+	 * @return The rotated color, with the alpha of the given color.
+	 */
+	public static int rotateColor(final int color, final float rad) {
+		final int r = (color >> 16) & 0xff;
+		final int g = (color >> 8) & 0xff;
+		final int b = color & 0xff;
+
+		final float y = 0.299f * r + 0.587f * g + 0.114f * b;
+		final float u = -0.16874f * r - 0.33126f * g + 0.5f * b;
+		final float v = 0.5f * r - 0.41869f * g - 0.08131f * b;
+
+		final float cos = (float) Math.cos(rad);
+		final float sin = (float) Math.sin(rad);
+		final float rotatedU = cos * u + sin * v;
+		final float rotatedV = cos * v - sin * u;
+
+		return argb(color >>> 24,
+				pinToByte(Math.round(y + 1.402f * rotatedV)),
+				pinToByte(Math.round(y - 0.34414f * rotatedU - 0.71414f
+						* rotatedV)),
+				pinToByte(Math.round(y + 1.772f * rotatedU)));
+	}
+
+	/**
+	 * Interpolates between two color components.
+	 *
+	 * @param s
+	 *            The start component.
+	 * @param d
+	 *            The end component.
+	 * @param p
+	 *            The position between them, [0, 1].
+	 *
+	 * @return The interpolated component.
+	 */
+	private static int ave(final int s, final int d, final float p) {
+		return s + Math.round(p * (d - s));
+	}
+
+	/**
+	 * Clamps a color component to [0, 255].
+	 *
+	 * @param n
+	 *            The component.
+	 *
+	 * @return The clamped component.
+	 */
+	private static int pinToByte(final int n) {
+		if (n < 0) {
+			return 0;
+		}
+
+		if (n > 255) {
+			return 255;
+		}
+
+		return n;
+	}
+
+	/**
+	 * Packs the components of a color.
+	 *
+	 * @param alpha
+	 *            The alpha component.
+	 * @param red
+	 *            The red component.
+	 * @param green
+	 *            The green component.
+	 * @param blue
+	 *            The blue component.
+	 *
+	 * @return The color.
+	 */
+	private static int argb(final int alpha, final int red, final int green,
+			final int blue) {
+		return (alpha << 24) | (red << 16) | (green << 8) | blue;
+	}
+}
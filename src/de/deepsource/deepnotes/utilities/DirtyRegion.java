@@ -0,0 +1,238 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+/**
+ * The part of a view that has to be drawn again, collected from the segments
+ * drawn since the last frame. It is the bounding rectangle of all segments,
+ * like {@link android.graphics.Rect#union(int, int, int, int)} builds it, but
+ * needs no Android class, so it can be benchmarked on the JVM. The bounds of
+ * a curve are exact, so only the pixels the curve can touch are drawn again.
+ */
+public final class DirtyRegion {
+
+	/**
+	 * The left edge, inclusive.
+	 */
+	private int left;
+
+	/**
+	 * The top edge, inclusive.
+	 */
+	private int top;
+
+	/**
+	 * The right edge, exclusive.
+	 */
+	private int right;
+
+	/**
+	 * The bottom edge, exclusive.
+	 */
+	private int bottom;
+
+	/**
+	 * Adds the bounds of a segment between two points.
+	 *
+	 * @param x0
+	 *            The x coordinate of the first point.
+	 * @param y0
+	 *            The y coordinate of the first point.
+	 * @param x1
+	 *            The x coordinate of the second point.
+	 * @param y1
+	 *            The y coordinate of the second point.
+	 * @param offset
+	 *            The distance the region extends beyond the points, to cover
+	 *            the width of the line and the curve through them.
+	 */
+	public void addSegment(final float x0, final float y0, final float x1,
+			final float y1, final float offset) {
+		union((int) (Math.min(x0, x1) - offset),
+				(int) (Math.min(y0, y1) - offset),
+				(int) (Math.max(x0, x1) + offset),
+				(int) (Math.max(y0, y1) + offset));
+	}
+
+	/**
+	 * Adds the bounds of a quadratic bezier curve, the exact bounds of the
+	 * curve and not of its control point.
+	 *
+	 * @param x0
+	 *            The x coordinate of the start.
+	 * @param y0
+	 *            The y coordinate of the start.
+	 * @param x1
+	 *            The x coordinate of the control point.
+	 * @param y1
+	 *            The y coordinate of the control point.
+	 * @param x2
+	 *            The x coordinate of the end.
+	 * @param y2
+	 *            The y coordinate of the end.
+	 * @param margin
+	 *            The distance the region extends beyond the curve, for
+	 *            example half the width of the line.
+	 */
+	public void addQuad(final float x0, final float y0, final float x1,
+			final float y1, final float x2, final float y2, final float margin) {
+		final float extremumX = extremum(x0, x1, x2);
+		final float extremumY = extremum(y0, y1, y2);
+
+		final float minX = Math.min(Math.min(x0, x2), extremumX);
+		final float minY = Math.min(Math.min(y0, y2), extremumY);
+		final float maxX = Math.max(Math.max(x0, x2), extremumX);
+		final float maxY = Math.max(Math.max(y0, y2), extremumY);
+
+		union((int) Math.floor(minX - margin), (int) Math.floor(minY - margin),
+				(int) Math.ceil(maxX + margin), (int) Math.ceil(maxY + margin));
+	}
+
+	/**
+	 * Adds another region.
+	 *
+	 * @param other
+	 *            The region to add.
+	 */
+	public void union(final DirtyRegion other) {
+		union(other.left, other.top, other.right, other.bottom);
+	}
+
+	/**
+	 * Adds a rectangle, an empty rectangle is ignored.
+	 *
+	 * @param l
+	 *            The left edge.
+	 * @param t
+	 *            The top edge.
+	 * @param r
+	 *            The right edge.
+	 * @param b
+	 *            The bottom edge.
+	 */
+	public void union(final int l, final int t, final int r, final int b) {
+		if (l >= r || t >= b) {
+			return;
+		}
+
+		if (isEmpty()) {
+			left = l;
+			top = t;
+			right = r;
+			bottom = b;
+			return;
+		}
+
+		left = Math.min(left, l);
+		top = Math.min(top, t);
+		right = Math.max(right, r);
+		bottom = Math.max(bottom, b);
+	}
+
+	/**
+	 * Checks whether anything has to be drawn again.
+	 *
+	 * @return Whether the region is empty.
+	 */
+	public boolean isEmpty() {
+		return left >= right || top >= bottom;
+	}
+
+	/**
+	 * Calculates the number of pixels of the region inside a view.
+	 *
+	 * @param width
+	 *            The width of the view.
+	 * @param height
+	 *            The height of the view.
+	 *
+	 * @return The number of pixels.
+	 */
+	public long getArea(final int width, final int height) {
+		final long w = Math.min(right, width) - Math.max(left, 0);
+		final long h = Math.min(bottom, height) - Math.max(top, 0);
+
+		return w > 0 && h > 0 ? w * h : 0L;
+	}
+
+	/**
+	 * Empties the region, after it was drawn.
+	 */
+	public void setEmpty() {
+		left = 0;
+		top = 0;
+		right = 0;
+		bottom = 0;
+	}
+
+	/**
+	 * Getter for the left edge.
+	 *
+	 * @return The left edge, inclusive.
+	 */
+	public int getLeft() {
+		return left;
+	}
+
+	/**
+	 * Getter for the top edge.
+	 *
+	 * @return The top edge, inclusive.
+	 */
+	public int getTop() {
+		return top;
+	}
+
+	/**
+	 * Getter for the right edge.
+	 *
+	 * @return The right edge, exclusive.
+	 */
+	public int getRight() {
+		return right;
+	}
+
+	/**
+	 * Getter for the bottom edge.
+	 *
+	 * @return The bottom edge, exclusive.
+	 */
+	public int getBottom() {
+		return bottom;
+	}
+
+	/**
+	 * Calculates the value of one coordinate of a quadratic bezier curve
+	 * where it turns around.
+	 *
+	 * @param p0
+	 *            The coordinate of the start.
+	 * @param p1
+	 *            The coordinate of the control point.
+	 * @param p2
+	 *            The coordinate of the end.
+	 *
+	 * @return The coordinate where the derivative is 0, or the start if the
+	 *         curve does not turn around between start and end.
+	 */
+	private static float extremum(final float p0, final float p1,
+			final float p2) {
+		final float denominator = p0 - 2 * p1 + p2;
+		if (denominator == 0f) {
+			return p0;
+		}
+
+		final float t = (p0 - p1) / denominator;
+		if (t <= 0f || t >= 1f) {
+			return p0;
+		}
+
+		final float u = 1f - t;
+		return u * u * p0 + 2 * u * t * p1 + t * t * p2;
+	}
+}
@@ -0,0 +1,373 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import android.os.Environment;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+import de.deepsource.deepnotes.application.Deepnotes;
+
+/**
+ * Traces how long a touch takes to reach the screen of a DrawView. The view
+ * tells the tracer when a MotionEvent arrives, when it invalidates itself and
+ * when onDraw starts and ends. From that the tracer builds the distributions
+ * of a session, from resuming the DrawActivity to pausing it:
+ *
+ * <ul>
+ * <li>touch.dispatch: from the time of the event to its arrival.</li>
+ * <li>touch.latency: from the time of the first event not yet drawn to the
+ * end of the frame drawing it.</li>
+ * <li>draw.invalidate: from the first invalidate to the start of the frame.
+ * </li>
+ * <li>draw.frame: the time onDraw takes.</li>
+ * <li>draw.interval: the time between two frames drawing touches, frames of
+ * different strokes are not counted.</li>
+ * </ul>
+ *
+ * The distributions can be shown in an overlay while drawing, and the report
+ * of every session is logged and appended to the external storage, see
+ * {@link Deepnotes#SAVE_FRAME_REPORT}. Nothing is traced unless
+ * {@link Metrics} are enabled. All methods must be called on the UI thread.
+ */
+public final class FrameTracer {
+
+	/**
+	 * The number of nanoseconds per millisecond.
+	 */
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	/**
+	 * Frames further apart than this many nanoseconds belong to different
+	 * strokes, the time between them is not a frame interval.
+	 */
+	private static final long STROKE_GAP = 250 * NANOS_PER_MILLI;
+
+	/**
+	 * The time between two updates of the overlay in milliseconds.
+	 */
+	private static final long OVERLAY_INTERVAL = 500L;
+
+	/**
+	 * From the time of an event to its arrival.
+	 */
+	private Metrics.Histogram dispatch;
+
+	/**
+	 * From the time of the first event not yet drawn to the end of the frame.
+	 */
+	private Metrics.Histogram latency;
+
+	/**
+	 * From the first invalidate to the start of the frame.
+	 */
+	private Metrics.Histogram invalidateDelay;
+
+	/**
+	 * The time onDraw takes.
+	 */
+	private Metrics.Histogram frameTime;
+
+	/**
+	 * The time between two frames drawing touches.
+	 */
+	private Metrics.Histogram frameInterval;
+
+	/**
+	 * The time the session began, in milliseconds since the epoch.
+	 */
+	private long sessionStart;
+
+	/**
+	 * The uptime the session began, in milliseconds.
+	 */
+	private long sessionUptime;
+
+	/**
+	 * The uptime of the first event not yet drawn, in milliseconds, or 0.
+	 */
+	private long pendingInput;
+
+	/**
+	 * The time of the first invalidate not yet drawn, in nanoseconds, or 0.
+	 */
+	private long pendingInvalidate;
+
+	/**
+	 * The time the current frame started, in nanoseconds, or 0.
+	 */
+	private long drawStart;
+
+	/**
+	 * The time the last frame drawing touches started, in nanoseconds, or 0.
+	 */
+	private long lastTouchFrame;
+
+	/**
+	 * Whether the current frame draws touches.
+	 */
+	private boolean touchFrame;
+
+	/**
+	 * Shows the distributions while drawing, or null.
+	 */
+	private TextView overlay;
+
+	/**
+	 * The uptime the overlay was updated last, in milliseconds.
+	 */
+	private long overlayUpdated;
+
+	/**
+	 * Updates the overlay, posted so the text is not changed while drawing.
+	 */
+	private final Runnable updateOverlay = new Runnable() {
+		@Override
+		public void run() {
+			if (overlay != null) {
+				overlay.setText(overlayText());
+			}
+		}
+	};
+
+	/**
+	 * Constructor, begins the first session.
+	 */
+	public FrameTracer() {
+		beginSession();
+	}
+
+	/**
+	 * Setter for the overlay. It is shown if metrics are enabled.
+	 *
+	 * @param view
+	 *            Shows the distributions while drawing, may be null.
+	 */
+	public void setOverlay(final TextView view) {
+		overlay = view;
+
+		if (overlay != null) {
+			overlay.setVisibility(Metrics.isEnabled() ? View.VISIBLE
+					: View.GONE);
+		}
+	}
+
+	/**
+	 * Begins a session, the distributions of the last one are dropped.
+	 */
+	public void beginSession() {
+		dispatch = new Metrics.Histogram(true);
+		latency = new Metrics.Histogram(true);
+		invalidateDelay = new Metrics.Histogram(true);
+		frameTime = new Metrics.Histogram(true);
+		frameInterval = new Metrics.Histogram(true);
+
+		sessionStart = System.currentTimeMillis();
+		sessionUptime = SystemClock.uptimeMillis();
+		pendingInput = 0;
+		pendingInvalidate = 0;
+		drawStart = 0;
+		lastTouchFrame = 0;
+	}
+
+	/**
+	 * Ends a session: its report is logged and appended to the external
+	 * storage, if anything was traced.
+	 */
+	public void endSession() {
+		if (!Metrics.isEnabled() || frameTime.getCount() == 0) {
+			return;
+		}
+
+		final String report = report();
+		for (String line : report.split("\n")) {
+			Log.i(Deepnotes.APP_NAME, "frames: " + line);
+		}
+
+		if (!Environment.getExternalStorageState().equals(
+				Environment.MEDIA_MOUNTED)) {
+			return;
+		}
+
+		final File file = new File(Environment.getExternalStorageDirectory()
+				+ Deepnotes.SAVE_FRAME_REPORT);
+		file.getParentFile().mkdirs();
+
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(file, true);
+			out.write(report.getBytes());
+		} catch (IOException e) {
+			Log.e(Deepnotes.APP_NAME, "failed to write frame report.");
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					Log.e(Deepnotes.APP_NAME, "failed to write frame report.");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates the report of the current session, one line per distribution.
+	 *
+	 * @return The report.
+	 */
+	public String report() {
+		final StringBuilder builder = new StringBuilder();
+		builder.append("session start=").append(new Date(sessionStart))
+				.append(" duration=")
+				.append((SystemClock.uptimeMillis() - sessionUptime) / 1000)
+				.append("s\n");
+
+		appendLine(builder, "touch.dispatch", dispatch);
+		appendLine(builder, "touch.latency", latency);
+		appendLine(builder, "draw.invalidate", invalidateDelay);
+		appendLine(builder, "draw.frame", frameTime);
+		appendLine(builder, "draw.interval", frameInterval);
+
+		return builder.toString();
+	}
+
+	/**
+	 * Tells that a MotionEvent arrived, which will be drawn.
+	 *
+	 * @param eventTime
+	 *            The time of the event, see
+	 *            {@link android.view.MotionEvent#getEventTime()}.
+	 */
+	public void inputReceived(final long eventTime) {
+		if (!Metrics.isEnabled()) {
+			return;
+		}
+
+		dispatch.record((SystemClock.uptimeMillis() - eventTime)
+				* NANOS_PER_MILLI);
+
+		if (pendingInput == 0) {
+			pendingInput = eventTime;
+		}
+	}
+
+	/**
+	 * Tells that the view invalidated itself.
+	 */
+	public void invalidated() {
+		if (!Metrics.isEnabled()) {
+			return;
+		}
+
+		if (pendingInvalidate == 0) {
+			pendingInvalidate = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Tells that onDraw started.
+	 */
+	public void drawStarted() {
+		if (!Metrics.isEnabled()) {
+			return;
+		}
+
+		drawStart = System.nanoTime();
+
+		if (pendingInvalidate != 0) {
+			invalidateDelay.record(drawStart - pendingInvalidate);
+			pendingInvalidate = 0;
+		}
+
+		touchFrame = pendingInput != 0;
+		if (touchFrame) {
+			if (lastTouchFrame != 0 && drawStart - lastTouchFrame < STROKE_GAP) {
+				frameInterval.record(drawStart - lastTouchFrame);
+			}
+
+			lastTouchFrame = drawStart;
+		}
+	}
+
+	/**
+	 * Tells that onDraw ended.
+	 */
+	public void drawFinished() {
+		// metrics may have been enabled while drawing
+		if (drawStart == 0) {
+			return;
+		}
+
+		frameTime.record(System.nanoTime() - drawStart);
+		drawStart = 0;
+
+		final long now = SystemClock.uptimeMillis();
+		if (touchFrame) {
+			latency.record((now - pendingInput) * NANOS_PER_MILLI);
+			pendingInput = 0;
+		}
+
+		if (overlay != null && now - overlayUpdated >= OVERLAY_INTERVAL) {
+			overlayUpdated = now;
+			overlay.post(updateOverlay);
+		}
+	}
+
+	/**
+	 * Creates the text of the overlay: p50 and p95 of the latency, the frame
+	 * time and the frame interval.
+	 *
+	 * @return The text.
+	 */
+	private String overlayText() {
+		final StringBuilder builder = new StringBuilder();
+		appendPercentiles(builder.append("p50/p95\nlatency "), latency);
+		appendPercentiles(builder.append("\nframe "), frameTime);
+		appendPercentiles(builder.append("\ninterval "), frameInterval);
+
+		return builder.toString();
+	}
+
+	/**
+	 * Appends p50 and p95 of a distribution in milliseconds.
+	 *
+	 * @param builder
+	 *            The text being built.
+	 * @param histogram
+	 *            The distribution.
+	 */
+	private static void appendPercentiles(final StringBuilder builder,
+			final Metrics.Histogram histogram) {
+		builder.append(histogram.percentile(50) / NANOS_PER_MILLI).append('/')
+				.append(histogram.percentile(95) / NANOS_PER_MILLI)
+				.append("ms");
+	}
+
+	/**
+	 * Appends the summary of a distribution as a line of the report.
+	 *
+	 * @param builder
+	 *            The report being built.
+	 * @param name
+	 *            The name of the distribution.
+	 * @param histogram
+	 *            The distribution.
+	 */
+	private static void appendLine(final StringBuilder builder,
+			final String name, final Metrics.Histogram histogram) {
+		builder.append(name);
+		histogram.summarize(builder);
+		builder.append('\n');
+	}
+}
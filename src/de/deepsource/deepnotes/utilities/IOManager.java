@@ -7,22 +7,22 @@
 
 package de.deepsource.deepnotes.utilities;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileFilter;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.List;
 
 import android.app.Activity;
 import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Color;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Environment;
@@ -30,6 +30,7 @@ import android.util.Log;
 import android.widget.Toast;
 import de.deepsource.deepnotes.R;
 import de.deepsource.deepnotes.application.Deepnotes;
+import de.deepsource.deepnotes.models.Stroke;
 
 /**
  * This utility class handles the storage of the produced data.
@@ -38,6 +39,16 @@ import de.deepsource.deepnotes.application.Deepnotes;
  */
 public final class IOManager {
 
+	/**
+	 * The shared PDFs on the external storage, created when needed.
+	 */
+	private static ShareCache shareCache;
+
+	/**
+	 * The exported pages of shared notes, created when needed.
+	 */
+	private static ShareCache pageCache;
+
 	/**
 	 * Utility classes should not have public or default constructor.
 	 */
@@ -71,6 +82,38 @@ public final class IOManager {
 
 		boolean deleted = true;
 
+		final File noteFile = getNoteFile(context, noteName);
+		if (noteFile.exists() && !noteFile.delete()) {
+			Log.e(Deepnotes.APP_NAME, Deepnotes.ERROR_FILE);
+			deleted = false;
+		}
+		NoteIndex.remove(context, noteName);
+
+		// files of a note that could not be converted
+		if (!deleteLegacyNote(context, noteName)) {
+			deleted = false;
+		}
+
+		Toast.makeText(context, R.string.note_deleted, Toast.LENGTH_SHORT).show();
+
+		return deleted;
+	}
+
+	/**
+	 * Deletes the files of a note saved before notes were stored in one
+	 * {@link NoteContainer}: a folder with the pages and a thumbnail.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 * @param noteName
+	 *            The name of the note.
+	 *
+	 * @return Whether all files could be deleted.
+	 */
+	private static boolean deleteLegacyNote(final Context context,
+			final String noteName) {
+		boolean deleted = true;
+
 		// delete note images + folder
 		final File notePath = new File(context.getFilesDir() + "/" + noteName + "/");
 		if (notePath.exists()) {
@@ -95,16 +138,149 @@ public final class IOManager {
 		// memory
 		final File thumbnail = new File(context.getFilesDir()
 				+ Deepnotes.SAVE_THUMBNAIL + noteName + Deepnotes.JPG_SUFFIX);
-		if (!thumbnail.delete()) {
+		if (thumbnail.exists() && !thumbnail.delete()) {
 			Log.e(Deepnotes.APP_NAME, Deepnotes.ERROR_FILE);
 			deleted = false;
 		}
 
-		Toast.makeText(context, R.string.note_deleted, Toast.LENGTH_SHORT).show();
-
 		return deleted;
 	}
 
+	/**
+	 * Converts all notes saved as a folder with the pages and a thumbnail to
+	 * {@link NoteContainer}s. See
+	 * {@link IOManager#convertNote(Context, String)}.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 */
+	public static void convertNotes(final Context context) {
+		if (context == null) {
+			Log.e(Deepnotes.APP_NAME, "context must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		final String[] thumbnails = new File(context.getFilesDir()
+				+ Deepnotes.SAVE_THUMBNAIL).list();
+		if (thumbnails == null) {
+			return;
+		}
+
+		for (String thumbnail : thumbnails) {
+			if (thumbnail.endsWith(Deepnotes.JPG_SUFFIX)) {
+				convertNote(context, thumbnail.substring(0, thumbnail.length()
+						- Deepnotes.JPG_SUFFIX.length()));
+			}
+		}
+	}
+
+	/**
+	 * Converts a note saved as a folder with the pages and a thumbnail to a
+	 * {@link NoteContainer}. The old files are only deleted once the
+	 * container is committed, if any of them can't be read the note is not
+	 * converted and they are kept. Stroke files are written again in the current
+	 * {@link StrokeCodec} version, so new strokes can be appended to them.
+	 * Notes are converted one at a time, so a note that is opened while the
+	 * notes are converted in the background is not converted twice.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 * @param noteName
+	 *            The name of the note.
+	 *
+	 * @return Whether the note was converted, or did not need to be.
+	 */
+	public static synchronized boolean convertNote(final Context context,
+			final String noteName) {
+		if (context == null) {
+			Log.e(Deepnotes.APP_NAME, "context must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		if (noteName == null) {
+			Log.e(Deepnotes.APP_NAME, "noteName must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		final File notePath = new File(context.getFilesDir(), noteName);
+		final File thumbnail = new File(context.getFilesDir()
+				+ Deepnotes.SAVE_THUMBNAIL + noteName + Deepnotes.JPG_SUFFIX);
+		if (!notePath.exists() && !thumbnail.exists()) {
+			return true;
+		}
+
+		NoteContainer.Editor editor = null;
+
+		try {
+			editor = NoteContainer.edit(getNoteFile(context, noteName));
+
+			if (thumbnail.exists()) {
+				editor.put(NoteContainer.SECTION_THUMBNAIL, 0,
+						readFile(thumbnail));
+			}
+
+			final int pageCount = getLegacyPageCount(notePath);
+			for (int i = 0; i < pageCount; i++) {
+				File file = new File(notePath, i + Deepnotes.PNG_SUFFIX);
+				if (file.exists()) {
+					editor.put(NoteContainer.SECTION_RASTER, i, readFile(file));
+				}
+
+				file = new File(notePath, i + Deepnotes.STROKE_SUFFIX);
+				if (file.exists()) {
+					final ByteArrayOutputStream out = new ByteArrayOutputStream();
+					StrokeCodec.write(out, readStrokesOrThrow(file));
+					editor.put(NoteContainer.SECTION_STROKES, i,
+							out.toByteArray());
+				}
+
+				file = new File(notePath, "background_" + i
+						+ Deepnotes.JPG_SUFFIX);
+				if (file.exists()) {
+					editor.put(NoteContainer.SECTION_BACKGROUND, i,
+							readFile(file));
+				}
+			}
+
+			editor.setPageCount(pageCount);
+			final boolean committed = editor.commit();
+			editor = null;
+
+			if (!committed) {
+				return false;
+			}
+
+			NoteIndex.update(context, noteName, NoteContainer.open(getNoteFile(
+					context, noteName)));
+		} catch (IOException e) {
+			Log.e(Deepnotes.APP_NAME, "failed to convert note " + noteName);
+
+			if (editor != null) {
+				editor.abort();
+			}
+			return false;
+		}
+
+		Log.d(Deepnotes.APP_NAME, "converted note " + noteName);
+
+		return deleteLegacyNote(context, noteName);
+	}
+
+	/**
+	 * Getter for the file a note is stored in, see {@link NoteContainer}.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 * @param noteName
+	 *            The name of the note.
+	 *
+	 * @return The note file.
+	 */
+	public static File getNoteFile(final Context context, final String noteName) {
+		return new File(context.getFilesDir() + Deepnotes.SAVE_NOTES + noteName
+				+ Deepnotes.NOTE_SUFFIX);
+	}
+
 	/**
 	 * Initiates the cache saving, that is needed for sharing a note.
 	 * To do so an {@link WriteShareCache} Object is created.
@@ -130,17 +306,62 @@ public final class IOManager {
 	}
 
 	/**
-	 * Writes the cache, that is needed for sharing a note. Both fore- and
-	 * background will be saved in one single file to the external storage, so
-	 * that other applications can access them to make sharing possible. The
-	 * Pages will be saved as JPG-Files numbered from 0 - 3. To write the files
-	 * to the storage, it uses
-	 * {@link IOManager#writeFile(Bitmap, String, android.graphics.Bitmap.CompressFormat, int)}.
+	 * Getter for {@link IOManager#shareCache}. The external storage has to be
+	 * mounted.
+	 *
+	 * @return The cache of shared PDFs.
+	 */
+	private static synchronized ShareCache getShareCache() {
+		if (shareCache == null) {
+			shareCache = new ShareCache(new File(
+					Environment.getExternalStorageDirectory()
+					+ Deepnotes.SAVE_CACHE), Deepnotes.SHARE_CACHE_BUDGET);
+		}
+
+		return shareCache;
+	}
+
+	/**
+	 * Getter for {@link IOManager#pageCache}.
+	 *
+	 * @param context
+	 *            The context from which we will get the applications cache
+	 *            directory.
+	 *
+	 * @return The cache of exported pages.
+	 */
+	private static synchronized ShareCache getPageCache(final Context context) {
+		if (pageCache == null) {
+			pageCache = new ShareCache(new File(context.getCacheDir()
+					+ Deepnotes.SAVE_SHARED_PAGES),
+					Deepnotes.SHARE_PAGE_CACHE_BUDGET);
+		}
+
+		return pageCache;
+	}
+
+	/**
+	 * Writes the cache, that is needed for sharing a note. All pages will be
+	 * saved in one single PDF to the external storage, so that other
+	 * applications can access it to make sharing possible. Backgrounds are
+	 * embedded as they are and saved strokes are drawn as vector paths on top.
+	 * To write the file to the storage, it uses
+	 * {@link IOManager#writeFile(PdfExporter, NoteContainer, String)}, so only
+	 * one page is held in memory at once. The PDF is named by the note and
+	 * the time it was saved and kept in a {@link ShareCache}, so an unchanged
+	 * note is shared again right away. Pages are kept in another one, so only
+	 * changed pages are exported again.
 	 *
 	 * @author Jan Pretzel (jan.pretzel@deepsource.de)
 	 */
 	private static class WriteShareCache extends AsyncTask<String, Void, Void> {
 
+		/**
+		 * The time it takes to write the shared PDF.
+		 */
+		private static final Metrics.Histogram SHARE_TIMER = Metrics
+				.timer("share");
+
 		/**
 		 * The ProgressDialog, that will be shown while writing the cache.
 		 */
@@ -152,9 +373,15 @@ public final class IOManager {
 		private final Activity activity;
 
 		/**
-		 * Stores the Uri-objects for the cached files, and will be given to the Intent.
+		 * The Uri of the cached PDF, that will be given to the Intent. Null
+		 * if it could not be written.
 		 */
-		private final ArrayList<Uri> uris;
+		private Uri uri;
+
+		/**
+		 * Whether the external storage was mounted.
+		 */
+		private boolean mounted;
 
 		/**
 		 * Constructor.
@@ -172,138 +399,55 @@ public final class IOManager {
 
 			dialog = new ProgressDialog(initiater);
 			this.activity = initiater;
-			uris = new ArrayList<Uri>();
 		}
 
 		// Author: Jan Pretzel
 		@Override
 		protected Void doInBackground(final String... params) {
-			// check cache before writing new files
-			checkCache();
+			// write to external storage, because other applications
+			// cannot access internal storage of another application
+			mounted = Environment.getExternalStorageState().equals(
+					Environment.MEDIA_MOUNTED);
+			if (!mounted) {
+				return null;
+			}
 
-			// create temp files
+			final long start = Metrics.start();
 			final String noteName = params[0];
-			final File notePath = new File(activity.getFilesDir() + "/" + noteName + "/");
+			final NoteContainer note = NoteContainer.open(getNoteFile(activity,
+					noteName));
 
-			if (notePath.exists()) {
-				final File[] notePages = notePath.listFiles(new FileFilter() {
+			if (note != null) {
+				final ShareCache cache = getShareCache();
 
-					@Override
-					public boolean accept(final File pathname) {
-						if (!pathname.toString().contains("background")) {
-							return true;
-						}
-						return false;
-					}
-				});
-
-				Arrays.sort(notePages);
-
-				Bitmap note = null;
-				Bitmap draw = null;
-				Canvas canvas = null;
-
-				int count = 0;
-				for (File notePage : notePages) {
-					// check for background if there is one draw it
-					// else draw a white background
-					String notePageName = notePage.getName();
-					notePageName = notePageName.substring(0, notePageName.lastIndexOf('.'));
-					final String bgPath = notePath
-							+ "/background_"
-							+ notePageName
-							+ Deepnotes.JPG_SUFFIX;
-					note = BitmapFactory.decodeFile(notePage.toString());
-
-					// create those here, so they can be recycled
-					// for every loop run
-					draw = Bitmap.createBitmap(
+				// a saved note gets a new name, so an outdated PDF is not shared
+				final String name = noteName + "_" + note.getModified()
+						+ Deepnotes.PDF_SUFFIX;
+				File pdf = note.getModified() == 0 ? null : cache.get(name);
+
+				if (pdf == null) {
+					final PdfExporter exporter = new PdfExporter(
 							Deepnotes.getViewportWidth(),
 							Deepnotes.getViewportHeight(),
-							Bitmap.Config.ARGB_8888);
-					canvas = new Canvas(draw);
-
-					if (new File(bgPath).exists()) {
-						final Bitmap temp = BitmapFactory.decodeFile(bgPath);
-						canvas.drawBitmap(temp, 0f, 0f, null);
-
-						temp.recycle();
-					} else {
-						canvas.drawColor(Color.WHITE);
-					}
-
-					canvas.drawBitmap(note, 0f, 0f, null);
-
-					// write to external storage, because other applications
-					// cannot access internal storage of another application
-					if (Environment.getExternalStorageState().equals(
-							Environment.MEDIA_MOUNTED)) {
-						File outPath = new File(Environment.getExternalStorageDirectory()
-								+ Deepnotes.SAVE_CACHE);
-
-						outPath.mkdirs();
-
-						final String outFile = outPath.toString()
-								+ "/" + noteName + "_"
-								+ count++ + Deepnotes.JPG_SUFFIX;
-
-						writeFile(draw, outFile,
-								Bitmap.CompressFormat.JPEG, Deepnotes.JPG_QUALITY);
-
-						outPath = new File(outFile);
-						if (outPath.exists()) {
-							uris.add(Uri.fromFile(outPath));
-						}
-					} else {
-						Toast.makeText(
-								activity.getApplicationContext(),
-								"External Storage not mounted",
-								Toast.LENGTH_SHORT).show();
+							getPageCache(activity));
+					if (writeFile(exporter, note, cache.file(name).toString())) {
+						cache.put(name);
+						pdf = cache.file(name);
 					}
-				}
 
-				// recycle
-				if (note != null) {
-					note.recycle();
+					exporter.release();
+					cache.removeStartingWith(noteName + "_", name);
 				}
 
-				if (draw != null) {
-					draw.recycle();
+				if (pdf != null) {
+					uri = Uri.fromFile(pdf);
 				}
 			}
 
+			SHARE_TIMER.stop(start);
 			return null;
 		}
 
-		/**
-		 * Checks if the cache folder has stored more than 2MB, if that's the
-		 * case it will call {@link IOManager#clearCache()} to clear the
-		 * cache.
-		 */
-		// Author: Jan Pretzel
-		private void checkCache() {
-			if (Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
-				final File cachePath = new File(
-						Environment.getExternalStorageDirectory()
-						+ Deepnotes.SAVE_CACHE);
-				if (cachePath.exists()) {
-					final File[] cacheFiles = cachePath.listFiles();
-
-					long size = 0;
-					for (File cacheFile : cacheFiles) {
-						size += cacheFile.length();
-
-						// 2MB 2097152
-						final int maxSize = 2097152;
-						if (size > maxSize) {
-							clearCache();
-							return;
-						}
-					}
-				}
-			}
-		}
-
 		// Author: Jan Pretzel
 		@Override
 		protected void onPreExecute() {
@@ -321,84 +465,394 @@ public final class IOManager {
 
 			super.onPostExecute(result);
 
-			final Intent intent = new Intent(Intent.ACTION_SEND_MULTIPLE);
-			intent.setType("image/*");
-			intent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, uris);
+			if (!mounted) {
+				Toast.makeText(activity.getApplicationContext(),
+						"External Storage not mounted", Toast.LENGTH_SHORT)
+						.show();
+				return;
+			}
+
+			if (uri == null) {
+				return;
+			}
+
+			final Intent intent = new Intent(Intent.ACTION_SEND);
+			intent.setType("application/pdf");
+			intent.putExtra(Intent.EXTRA_STREAM, uri);
 			activity.startActivityForResult(intent, Deepnotes.REQUEST_SHARE);
 		}
 
 	}
 
 	/**
-	 * Clears the external cache.
+	 * Writes a Bitmap to the file system. The file is replaced atomically,
+	 * see {@link AtomicFile}.
+	 *
+	 * @param bitmap
+	 *            The Bitmap to be saved.
+	 * @param file
+	 *            The path where the Bitmap will be saved.
+	 * @param format
+	 *            The format the file will have.
+	 * @param quality
+	 *            The quality the image will have.
+	 *
+	 * @return Whether the file was written.
 	 */
 	// Author: Jan Pretzel
-	public static void clearCache() {
-		if (Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
-			final File cachePath = new File(
-					Environment.getExternalStorageDirectory()
-					+ Deepnotes.SAVE_CACHE);
-			if (cachePath.exists()) {
-				final File[] cachedImages = cachePath.listFiles();
+	public static boolean writeFile(final Bitmap bitmap, final String file,
+			final Bitmap.CompressFormat format, final int quality) {
+		if (bitmap == null) {
+			Log.e(Deepnotes.APP_NAME, "bitmap must not be null");
+			throw new IllegalArgumentException();
+		}
 
-				for (File cachedImage : cachedImages) {
-					if (!cachedImage.delete()) {
-						Log.e(Deepnotes.APP_NAME, Deepnotes.ERROR_FILE);
+		if (file == null) {
+			Log.e(Deepnotes.APP_NAME, "file must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		if (format == null) {
+			Log.e(Deepnotes.APP_NAME, "format must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		try {
+			AtomicFile.write(new File(file), new AtomicFile.Writer() {
+				@Override
+				public void write(final OutputStream out) throws IOException {
+					if (!bitmap.compress(format, quality, out)) {
+						throw new IOException("failed to compress bitmap");
 					}
 				}
+			});
+		} catch (IOException e) {
+			Log.e(Deepnotes.APP_NAME, "failed to write file.");
+			return false;
+		}
 
-				if (!cachePath.delete()) {
-					Log.e(Deepnotes.APP_NAME, Deepnotes.ERROR_FILE);
+		return true;
+	}
+
+	/**
+	 * Exports a page of a note as JPEG to the file system, see
+	 * {@link PageExporter}. The file is replaced atomically, see
+	 * {@link AtomicFile}.
+	 *
+	 * @param exporter
+	 *            The exporter to use.
+	 * @param note
+	 *            The note.
+	 * @param page
+	 *            The number of the page.
+	 * @param file
+	 *            The path where the JPEG will be saved.
+	 *
+	 * @return Whether the file was written.
+	 */
+	public static boolean writeFile(final PageExporter exporter,
+			final NoteContainer note, final int page, final String file) {
+		if (exporter == null) {
+			Log.e(Deepnotes.APP_NAME, "exporter must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		if (file == null) {
+			Log.e(Deepnotes.APP_NAME, "file must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		try {
+			AtomicFile.write(new File(file), new AtomicFile.Writer() {
+				@Override
+				public void write(final OutputStream out) throws IOException {
+					exporter.export(note, page, out);
 				}
+			});
+		} catch (IOException e) {
+			Log.e(Deepnotes.APP_NAME, "failed to write file.");
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Exports a note as PDF to the file system, see {@link PdfExporter}. The
+	 * file is replaced atomically, see {@link AtomicFile}.
+	 *
+	 * @param exporter
+	 *            The exporter to use.
+	 * @param note
+	 *            The note.
+	 * @param file
+	 *            The path where the PDF will be saved.
+	 *
+	 * @return Whether the file was written.
+	 */
+	public static boolean writeFile(final PdfExporter exporter,
+			final NoteContainer note, final String file) {
+		if (exporter == null) {
+			Log.e(Deepnotes.APP_NAME, "exporter must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		if (file == null) {
+			Log.e(Deepnotes.APP_NAME, "file must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		try {
+			AtomicFile.write(new File(file), new AtomicFile.Writer() {
+				@Override
+				public void write(final OutputStream out) throws IOException {
+					exporter.export(note, out);
+				}
+			});
+		} catch (IOException e) {
+			Log.e(Deepnotes.APP_NAME, "failed to write file.");
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Writes data to the file system, for example an index. The file is
+	 * replaced atomically, see {@link AtomicFile}.
+	 *
+	 * @param data
+	 *            The data to be saved.
+	 * @param file
+	 *            The path where the data will be saved.
+	 *
+	 * @return Whether the file was written.
+	 */
+	public static boolean writeFile(final byte[] data, final String file) {
+		if (data == null) {
+			Log.e(Deepnotes.APP_NAME, "data must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		if (file == null) {
+			Log.e(Deepnotes.APP_NAME, "file must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		try {
+			AtomicFile.write(new File(file), data);
+		} catch (IOException e) {
+			Log.e(Deepnotes.APP_NAME, "failed to write file.");
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads the strokes of a note page from the file system, using
+	 * {@link StrokeCodec}. Only used for notes saved before notes were stored
+	 * in one {@link NoteContainer}.
+	 *
+	 * @param file
+	 *            The path of the stroke file.
+	 *
+	 * @return The strokes, or an empty list if the file could not be read.
+	 */
+	public static List<Stroke> readStrokes(final String file) {
+		if (file == null) {
+			Log.e(Deepnotes.APP_NAME, "file must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		try {
+			return readStrokesOrThrow(new File(file));
+		} catch (IOException e) {
+			Log.e(Deepnotes.APP_NAME, "failed to read file.");
+		}
+
+		return new ArrayList<Stroke>();
+	}
+
+	/**
+	 * Reads the strokes of a note page from the file system, using
+	 * {@link StrokeCodec}. Unlike {@link IOManager#readStrokes(String)} a
+	 * file that can't be read is reported, so it is not taken for a page
+	 * without strokes.
+	 *
+	 * @param file
+	 *            The stroke file.
+	 *
+	 * @return The strokes.
+	 *
+	 * @throws IOException
+	 *             If the file could not be read or is damaged.
+	 */
+	private static List<Stroke> readStrokesOrThrow(final File file)
+			throws IOException {
+		final List<Stroke> strokes = new ArrayList<Stroke>();
+		final InputStream in = new BufferedInputStream(new FileInputStream(
+				file));
+
+		try {
+			StrokeCodec.read(in, file.length(), strokes);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				Log.e(Deepnotes.APP_NAME, "failed to read file.");
 			}
 		}
+
+		return strokes;
+	}
+
+	/**
+	 * Reads the strokes of a note page from its {@link NoteContainer} into a
+	 * list, using {@link StrokeCodec}.
+	 *
+	 * @param note
+	 *            The note.
+	 * @param page
+	 *            The position of the page.
+	 * @param strokes
+	 *            The list the strokes will be added to. It stays empty if the
+	 *            strokes could not be read.
+	 *
+	 * @return Whether strokes can be appended to the section later.
+	 */
+	public static boolean readStrokes(final NoteContainer note,
+			final int page, final List<Stroke> strokes) {
+		if (note == null) {
+			Log.e(Deepnotes.APP_NAME, "note must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		if (strokes == null) {
+			Log.e(Deepnotes.APP_NAME, "strokes must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		final InputStream in = note.openStream(NoteContainer.SECTION_STROKES,
+				page);
+		if (in == null) {
+			return false;
+		}
+
+		try {
+			return StrokeCodec.read(in, note.getLength(
+					NoteContainer.SECTION_STROKES, page), strokes);
+		} catch (IOException e) {
+			Log.e(Deepnotes.APP_NAME, "failed to read strokes.");
+			strokes.clear();
+		}
+
+		return false;
 	}
 
 	/**
-	 * Writes a Bitmap to the file system.
+	 * Encodes a Bitmap, to store it in a {@link NoteContainer}.
 	 *
 	 * @param bitmap
-	 *            The Bitmap to be saved.
-	 * @param file
-	 *            The path where the Bitmap will be saved.
+	 *            The Bitmap to be encoded.
 	 * @param format
-	 *            The format the file will have.
+	 *            The format of the encoded image.
 	 * @param quality
 	 *            The quality the image will have.
+	 *
+	 * @return The encoded image, or null if it could not be encoded.
 	 */
-	// Author: Jan Pretzel
-	public static void writeFile(final Bitmap bitmap, final String file,
+	public static byte[] compress(final Bitmap bitmap,
 			final Bitmap.CompressFormat format, final int quality) {
 		if (bitmap == null) {
 			Log.e(Deepnotes.APP_NAME, "bitmap must not be null");
 			throw new IllegalArgumentException();
 		}
 
-		if (file == null) {
-			Log.e(Deepnotes.APP_NAME, "file must not be null");
+		if (format == null) {
+			Log.e(Deepnotes.APP_NAME, "format must not be null");
 			throw new IllegalArgumentException();
 		}
 
-		if (format == null) {
-			Log.e(Deepnotes.APP_NAME, "format must not be null");
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if (!bitmap.compress(format, quality, out)) {
+			Log.e(Deepnotes.APP_NAME, "failed to compress bitmap.");
+			return null;
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reads a whole file, for example a cached background to store it in a
+	 * {@link NoteContainer}.
+	 *
+	 * @param file
+	 *            The file to read.
+	 *
+	 * @return The content of the file.
+	 *
+	 * @throws IOException
+	 *             If the file could not be read.
+	 */
+	public static byte[] readFile(final File file) throws IOException {
+		if (file == null) {
+			Log.e(Deepnotes.APP_NAME, "file must not be null");
 			throw new IllegalArgumentException();
 		}
 
-		FileOutputStream fos = null;
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
 
 		try {
-			fos = new FileOutputStream(file);
-			bitmap.compress(format, quality, fos);
-		} catch (FileNotFoundException e) {
-			Log.e(Deepnotes.APP_NAME, "failed to write file.");
+			final byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			return data;
 		} finally {
-			if (fos != null) {
-				try {
-					fos.close();
-				} catch (IOException e) {
-					Log.e(Deepnotes.APP_NAME, "failed to write file.");
-				}
+			raf.close();
+		}
+	}
+
+	/**
+	 * Counts the pages of a note saved before notes were stored in one
+	 * {@link NoteContainer}, by looking for the highest page number among its
+	 * files. Notes have at least
+	 * {@link Deepnotes#NOTEPAGE_COUNT} and at most
+	 * {@link Deepnotes#MAX_NOTEPAGE_COUNT} pages.
+	 *
+	 * @param notePath
+	 *            The folder of the note.
+	 *
+	 * @return The number of pages.
+	 */
+	private static int getLegacyPageCount(final File notePath) {
+		int count = Deepnotes.NOTEPAGE_COUNT;
+
+		final String[] files = notePath.list();
+		if (files == null) {
+			return count;
+		}
+
+		// page files are named <i>.png, <i>.strokes and background_<i>.jpg
+		for (String name : files) {
+			String page = name;
+			if (page.startsWith("background_")) {
+				page = page.substring("background_".length());
+			}
+
+			final int dot = page.indexOf('.');
+			if (dot <= 0) {
+				continue;
+			}
+
+			try {
+				count = Math.max(count,
+						Integer.parseInt(page.substring(0, dot)) + 1);
+			} catch (NumberFormatException e) {
+				// not a page file
+				continue;
 			}
 		}
+
+		return Math.min(count, Deepnotes.MAX_NOTEPAGE_COUNT);
 	}
 }
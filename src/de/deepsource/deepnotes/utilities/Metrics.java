@@ -0,0 +1,488 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.os.Environment;
+import android.util.Log;
+import de.deepsource.deepnotes.application.Deepnotes;
+
+/**
+ * This utility class collects named counters, timers and histograms from the
+ * hot paths of the app: touch handling, rendering, loading pages, saving and
+ * sharing. Instruments are looked up once, usually into a static field, and
+ * can be updated from any thread without locking. Metrics are disabled by
+ * default, then updating an instrument only reads a flag and timers do not
+ * even read the clock. A snapshot with percentiles can be logged and written
+ * to the external storage, see {@link Metrics#export()}.
+ */
+public final class Metrics {
+
+	/**
+	 * The number of buckets per power of two, as a power of two. Values are
+	 * recorded with a precision of about 6%.
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+
+	/**
+	 * The number of buckets per power of two.
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * The number of buckets of a histogram, enough for every long.
+	 */
+	private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+	/**
+	 * The number of nanoseconds per millisecond.
+	 */
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	/**
+	 * A value that only grows, for example the number of pages exported.
+	 */
+	public static final class Counter {
+
+		/**
+		 * The value.
+		 */
+		private final AtomicLong value = new AtomicLong();
+
+		/**
+		 * Constructor.
+		 */
+		private Counter() {
+			// empty
+		}
+
+		/**
+		 * Adds one, if metrics are enabled.
+		 */
+		public void increment() {
+			if (enabled) {
+				value.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Adds a number, if metrics are enabled.
+		 *
+		 * @param delta
+		 *            The number to add.
+		 */
+		public void add(final long delta) {
+			if (enabled) {
+				value.addAndGet(delta);
+			}
+		}
+
+		/**
+		 * Getter for the value.
+		 *
+		 * @return The value.
+		 */
+		public long get() {
+			return value.get();
+		}
+	}
+
+	/**
+	 * The distribution of recorded values, in buckets growing with the value
+	 * so the relative precision is the same for every value. A timer is a
+	 * histogram of nanoseconds.
+	 */
+	public static final class Histogram {
+
+		/**
+		 * Whether the values are nanoseconds, shown as milliseconds.
+		 */
+		private final boolean timer;
+
+		/**
+		 * The number of values per bucket.
+		 */
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+		/**
+		 * The number of values.
+		 */
+		private final AtomicLong count = new AtomicLong();
+
+		/**
+		 * The sum of the values.
+		 */
+		private final AtomicLong sum = new AtomicLong();
+
+		/**
+		 * The largest value.
+		 */
+		private final AtomicLong max = new AtomicLong();
+
+		/**
+		 * Constructor. Histograms that are not registered, for example the
+		 * ones of a {@link FrameTracer} session, are created directly.
+		 *
+		 * @param isTimer
+		 *            Whether the values are nanoseconds.
+		 */
+		Histogram(final boolean isTimer) {
+			timer = isTimer;
+		}
+
+		/**
+		 * Records a value, if metrics are enabled. Negative values are
+		 * recorded as 0.
+		 *
+		 * @param value
+		 *            The value.
+		 */
+		public void record(final long value) {
+			if (!enabled) {
+				return;
+			}
+
+			final long positive = Math.max(0L, value);
+			buckets.incrementAndGet(bucket(positive));
+			count.incrementAndGet();
+			sum.addAndGet(positive);
+
+			long current = max.get();
+			while (positive > current && !max.compareAndSet(current, positive)) {
+				current = max.get();
+			}
+		}
+
+		/**
+		 * Records the time since {@link Metrics#start()}.
+		 *
+		 * @param start
+		 *            The value returned by {@link Metrics#start()}, nothing is
+		 *            recorded if it is 0.
+		 */
+		public void stop(final long start) {
+			if (start != 0) {
+				record(System.nanoTime() - start);
+			}
+		}
+
+		/**
+		 * Getter for the number of values.
+		 *
+		 * @return The number of values recorded.
+		 */
+		public long getCount() {
+			return count.get();
+		}
+
+		/**
+		 * Estimates a percentile from the buckets.
+		 *
+		 * @param percent
+		 *            The percentile, from 0 to 100.
+		 *
+		 * @return The value below which the given percent of the values are,
+		 *         0 if nothing was recorded.
+		 */
+		public long percentile(final double percent) {
+			final long total = count.get();
+			if (total == 0) {
+				return 0L;
+			}
+
+			final long rank = Math.max(1L, (long) Math.ceil(total * percent
+					/ 100.0));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += buckets.get(i);
+				if (seen >= rank) {
+					return Math.min(max.get(), upperBound(i));
+				}
+			}
+
+			return max.get();
+		}
+
+		/**
+		 * Appends a summary of the values: their number, mean, p50, p95, p99
+		 * and maximum.
+		 *
+		 * @param builder
+		 *            The summary being built.
+		 */
+		void summarize(final StringBuilder builder) {
+			final long total = count.get();
+			builder.append(" count=").append(total);
+			builder.append(" mean=").append(
+					format(total == 0 ? 0L : sum.get() / total));
+			builder.append(" p50=").append(format(percentile(50)));
+			builder.append(" p95=").append(format(percentile(95)));
+			builder.append(" p99=").append(format(percentile(99)));
+			builder.append(" max=").append(format(max.get()));
+		}
+
+		/**
+		 * Formats a value, timers in milliseconds.
+		 *
+		 * @param value
+		 *            The value.
+		 *
+		 * @return The formatted value.
+		 */
+		private String format(final long value) {
+			if (!timer) {
+				return Long.toString(value);
+			}
+
+			return Math.round(value / NANOS_PER_MILLI * 1000) / 1000.0 + "ms";
+		}
+
+		/**
+		 * Resets the histogram.
+		 */
+		private void reset() {
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets.set(i, 0L);
+			}
+
+			count.set(0L);
+			sum.set(0L);
+			max.set(0L);
+		}
+	}
+
+	/**
+	 * Whether metrics are recorded.
+	 */
+	private static volatile boolean enabled = false;
+
+	/**
+	 * The counters by name.
+	 */
+	private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentHashMap<String, Counter>();
+
+	/**
+	 * The timers and histograms by name.
+	 */
+	private static final ConcurrentMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<String, Histogram>();
+
+	/**
+	 * Utility classes should not have public or default constructor.
+	 */
+	private Metrics() {
+		// empty
+	}
+
+	/**
+	 * Getter for {@link Metrics#enabled}.
+	 *
+	 * @return Whether metrics are recorded.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Setter for {@link Metrics#enabled}.
+	 *
+	 * @param enable
+	 *            Whether metrics are recorded.
+	 */
+	public static void setEnabled(final boolean enable) {
+		enabled = enable;
+	}
+
+	/**
+	 * Gets a counter, it is created when it is asked for the first time.
+	 *
+	 * @param name
+	 *            The name of the counter.
+	 *
+	 * @return The counter.
+	 */
+	public static Counter counter(final String name) {
+		final Counter counter = COUNTERS.get(name);
+		if (counter != null) {
+			return counter;
+		}
+
+		final Counter created = new Counter();
+		final Counter raced = COUNTERS.putIfAbsent(name, created);
+
+		return raced == null ? created : raced;
+	}
+
+	/**
+	 * Gets a timer, it is created when it is asked for the first time.
+	 * Measure with {@link Metrics#start()} and
+	 * {@link Histogram#stop(long)}.
+	 *
+	 * @param name
+	 *            The name of the timer.
+	 *
+	 * @return The timer.
+	 */
+	public static Histogram timer(final String name) {
+		return histogram(name, true);
+	}
+
+	/**
+	 * Gets a histogram, it is created when it is asked for the first time.
+	 *
+	 * @param name
+	 *            The name of the histogram.
+	 *
+	 * @return The histogram.
+	 */
+	public static Histogram histogram(final String name) {
+		return histogram(name, false);
+	}
+
+	/**
+	 * Starts a measurement.
+	 *
+	 * @return The current time in nanoseconds, or 0 if metrics are disabled.
+	 */
+	public static long start() {
+		return enabled ? System.nanoTime() : 0L;
+	}
+
+	/**
+	 * Creates a snapshot of all instruments, one line per instrument sorted by
+	 * name.
+	 *
+	 * @return The snapshot.
+	 */
+	public static String snapshot() {
+		final StringBuilder builder = new StringBuilder();
+
+		for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(
+				COUNTERS).entrySet()) {
+			builder.append(entry.getKey()).append(" value=")
+					.append(entry.getValue().get()).append('\n');
+		}
+
+		for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(
+				HISTOGRAMS).entrySet()) {
+			builder.append(entry.getKey());
+			entry.getValue().summarize(builder);
+			builder.append('\n');
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Logs a snapshot and writes it to the external storage, if metrics are
+	 * enabled.
+	 */
+	public static void export() {
+		if (!enabled) {
+			return;
+		}
+
+		final String snapshot = snapshot();
+		for (String line : snapshot.split("\n")) {
+			Log.i(Deepnotes.APP_NAME, "metrics: " + line);
+		}
+
+		if (Environment.getExternalStorageState().equals(
+				Environment.MEDIA_MOUNTED)) {
+			final File file = new File(Environment.getExternalStorageDirectory()
+					+ Deepnotes.SAVE_METRICS);
+			file.getParentFile().mkdirs();
+
+			IOManager.writeFile(snapshot.getBytes(), file.toString());
+		}
+	}
+
+	/**
+	 * Resets all instruments.
+	 */
+	public static void reset() {
+		for (Counter counter : COUNTERS.values()) {
+			counter.value.set(0L);
+		}
+
+		for (Histogram histogram : HISTOGRAMS.values()) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * Gets a timer or histogram, it is created when it is asked for the
+	 * first time.
+	 *
+	 * @param name
+	 *            The name of the histogram.
+	 * @param timer
+	 *            Whether the values are nanoseconds.
+	 *
+	 * @return The histogram.
+	 */
+	private static Histogram histogram(final String name, final boolean timer) {
+		final Histogram histogram = HISTOGRAMS.get(name);
+		if (histogram != null) {
+			return histogram;
+		}
+
+		final Histogram created = new Histogram(timer);
+		final Histogram raced = HISTOGRAMS.putIfAbsent(name, created);
+
+		return raced == null ? created : raced;
+	}
+
+	/**
+	 * Calculates the bucket of a value. Values below
+	 * {@link Metrics#SUB_BUCKETS} have a bucket of their own, larger values
+	 * share a bucket with the values having the same highest bits.
+	 *
+	 * @param value
+	 *            The value, not negative.
+	 *
+	 * @return The index of the bucket.
+	 */
+	static int bucket(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int shift = exponent - SUB_BUCKET_BITS;
+		final int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Calculates the largest value of a bucket.
+	 *
+	 * @param bucket
+	 *            The index of the bucket.
+	 *
+	 * @return The largest value falling into the bucket.
+	 */
+	static long upperBound(final int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		final int shift = bucket / SUB_BUCKETS - 1;
+		final long sub = bucket % SUB_BUCKETS;
+		final long lower = (SUB_BUCKETS + sub) << shift;
+
+		return lower + (1L << shift) - 1;
+	}
+}
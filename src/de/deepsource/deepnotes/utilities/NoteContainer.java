@@ -0,0 +1,1052 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+import de.deepsource.deepnotes.application.Deepnotes;
+
+/**
+ * A note stored in one single file. The file holds sections (the thumbnail,
+ * the metadata and the raster, strokes and background of every page) and an
+ * index telling where they are. Sections are never changed in place: a save
+ * appends the new sections and a new index to the end of the file and only
+ * then points the header at the new index, so a save is committed or not at
+ * all, even if the app is killed while saving. The header has two slots that
+ * are used in turns, so the old index stays valid while the new one is
+ * written. Space of replaced sections is given back by rewriting the file
+ * once it is mostly unused. This is what makes a save of several pages
+ * crash safe, single files that are replaced as a whole are written with
+ * {@link AtomicFile}.
+ *
+ * A NoteContainer is a read only snapshot of the file, opened with one open
+ * and one mapped read (see {@link NoteContainer#open(File)}). Changes are
+ * made with an {@link Editor}.
+ */
+public final class NoteContainer {
+
+	/**
+	 * Section type of the metadata: the number of pages and the time of the
+	 * last save.
+	 */
+	public static final int SECTION_METADATA = 0;
+
+	/**
+	 * Section type of the thumbnail, a JPEG.
+	 */
+	public static final int SECTION_THUMBNAIL = 1;
+
+	/**
+	 * Section type of the raster of a page, a PNG (older notes only).
+	 */
+	public static final int SECTION_RASTER = 2;
+
+	/**
+	 * Section type of the strokes of a page, see {@link StrokeCodec}. Strokes
+	 * can be appended to this section.
+	 */
+	public static final int SECTION_STROKES = 3;
+
+	/**
+	 * Section type of the background of a page, a JPEG.
+	 */
+	public static final int SECTION_BACKGROUND = 4;
+
+	/**
+	 * Identifies a note file ("DNNC").
+	 */
+	private static final int MAGIC = 0x444E4E43;
+
+	/**
+	 * The version of the file format.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The size of one header slot: sequence number, index offset, index
+	 * length, index checksum and slot checksum, padded.
+	 */
+	private static final int SLOT_SIZE = 32;
+
+	/**
+	 * The number of bytes of a slot covered by the slot checksum.
+	 */
+	private static final int SLOT_DATA_SIZE = 24;
+
+	/**
+	 * The offset of the first header slot, after magic and version.
+	 */
+	private static final int SLOT_OFFSET = 8;
+
+	/**
+	 * Sections start after the header.
+	 */
+	private static final int DATA_OFFSET = SLOT_OFFSET + 2 * SLOT_SIZE;
+
+	/**
+	 * The size of one index entry: type, page, offset and length.
+	 */
+	private static final int ENTRY_SIZE = 17;
+
+	/**
+	 * Files with less unused space than this are never rewritten.
+	 */
+	private static final int COMPACT_MIN = 256 * 1024;
+
+	/**
+	 * The version of the metadata section.
+	 */
+	private static final int METADATA_VERSION = 1;
+
+	/**
+	 * Where a part of a section is stored. Sections that were appended to
+	 * consist of several extents.
+	 */
+	private static final class Extent {
+
+		/**
+		 * The offset in the file.
+		 */
+		private final long offset;
+
+		/**
+		 * The length in bytes.
+		 */
+		private final int length;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param extentOffset
+		 *            The offset in the file.
+		 * @param extentLength
+		 *            The length in bytes.
+		 */
+		private Extent(final long extentOffset, final int extentLength) {
+			offset = extentOffset;
+			length = extentLength;
+		}
+	}
+
+	/**
+	 * The state of the file described by one header slot.
+	 */
+	private static final class Header {
+
+		/**
+		 * The sequence number of the save, the valid slot with the higher one
+		 * is used.
+		 */
+		private long sequence = 0;
+
+		/**
+		 * The offset of the index.
+		 */
+		private long indexOffset = DATA_OFFSET;
+
+		/**
+		 * The length of the index.
+		 */
+		private int indexLength = 0;
+
+		/**
+		 * The sections by key, see {@link NoteContainer#key(int, int)}.
+		 */
+		private final Map<Long, List<Extent>> sections = new LinkedHashMap<Long, List<Extent>>();
+	}
+
+	/**
+	 * The mapped file.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * The sections of the snapshot.
+	 */
+	private final Map<Long, List<Extent>> sections;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param mapped
+	 *            The mapped file.
+	 * @param header
+	 *            The committed state of the file.
+	 */
+	private NoteContainer(final ByteBuffer mapped, final Header header) {
+		buffer = mapped;
+		sections = header.sections;
+	}
+
+	/**
+	 * Opens a snapshot of a note file. Changes that are committed later are
+	 * not visible to it.
+	 *
+	 * @param file
+	 *            The note file.
+	 *
+	 * @return The snapshot, or null if there is no note file or it could not
+	 *         be read.
+	 */
+	public static NoteContainer open(final File file) {
+		if (file == null) {
+			Log.e(Deepnotes.APP_NAME, "file must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		if (!file.exists()) {
+			return null;
+		}
+
+		RandomAccessFile raf = null;
+
+		try {
+			raf = new RandomAccessFile(file, "r");
+
+			// the mapping stays valid after the file is closed
+			final MappedByteBuffer mapped = raf.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0, raf.length());
+
+			final Header header = readHeader(mapped);
+			if (header == null) {
+				Log.e(Deepnotes.APP_NAME, "not a note file " + file);
+				return null;
+			}
+
+			return new NoteContainer(mapped, header);
+		} catch (IOException e) {
+			Log.e(Deepnotes.APP_NAME, "failed to read file.");
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					Log.e(Deepnotes.APP_NAME, "failed to read file.");
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Starts changing a note file, the file is created if it does not exist.
+	 * Only one {@link Editor} must be used per file at a time.
+	 *
+	 * @param file
+	 *            The note file.
+	 *
+	 * @return The Editor, it has to be committed or aborted.
+	 *
+	 * @throws IOException
+	 *             If the file could not be opened or is not a note file.
+	 */
+	public static Editor edit(final File file) throws IOException {
+		if (file == null) {
+			Log.e(Deepnotes.APP_NAME, "file must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		return new Editor(file);
+	}
+
+	/**
+	 * Tells if the note has a section.
+	 *
+	 * @param type
+	 *            The type of the section.
+	 * @param page
+	 *            The position of the page, 0 for sections of the note.
+	 *
+	 * @return Whether the section exists.
+	 */
+	public boolean has(final int type, final int page) {
+		return sections.containsKey(key(type, page));
+	}
+
+	/**
+	 * Reads a section.
+	 *
+	 * @param type
+	 *            The type of the section.
+	 * @param page
+	 *            The position of the page, 0 for sections of the note.
+	 *
+	 * @return The content of the section, or null if there is none.
+	 */
+	public byte[] read(final int type, final int page) {
+		final List<Extent> extents = sections.get(key(type, page));
+		if (extents == null) {
+			return null;
+		}
+
+		final byte[] data = new byte[getLength(type, page)];
+		final ByteBuffer source = buffer.duplicate();
+		int offset = 0;
+		for (Extent extent : extents) {
+			source.position((int) extent.offset);
+			source.get(data, offset, extent.length);
+			offset += extent.length;
+		}
+
+		return data;
+	}
+
+	/**
+	 * Getter for the offset of a section in the file, so it can be read later
+	 * without opening the whole note, like the thumbnail by
+	 * {@link NoteIndex}. Only valid until the note is saved again.
+	 *
+	 * @param type
+	 *            The type of the section.
+	 * @param page
+	 *            The position of the page, 0 for sections of the note.
+	 *
+	 * @return The offset, or -1 if there is no such section or it was
+	 *         appended to.
+	 */
+	public long getOffset(final int type, final int page) {
+		final List<Extent> extents = sections.get(key(type, page));
+		if (extents == null || extents.size() != 1) {
+			return -1L;
+		}
+
+		return extents.get(0).offset;
+	}
+
+	/**
+	 * Getter for the length of a section.
+	 *
+	 * @param type
+	 *            The type of the section.
+	 * @param page
+	 *            The position of the page, 0 for sections of the note.
+	 *
+	 * @return The length in bytes, 0 if there is no such section.
+	 */
+	public int getLength(final int type, final int page) {
+		final List<Extent> extents = sections.get(key(type, page));
+		if (extents == null) {
+			return 0;
+		}
+
+		int length = 0;
+		for (Extent extent : extents) {
+			length += extent.length;
+		}
+
+		return length;
+	}
+
+	/**
+	 * Opens a section as stream, without copying it.
+	 *
+	 * @param type
+	 *            The type of the section.
+	 * @param page
+	 *            The position of the page, 0 for sections of the note.
+	 *
+	 * @return The stream, or null if there is no such section.
+	 */
+	public InputStream openStream(final int type, final int page) {
+		final List<Extent> extents = sections.get(key(type, page));
+		if (extents == null) {
+			return null;
+		}
+
+		final List<ByteBuffer> parts = new ArrayList<ByteBuffer>(extents.size());
+		for (Extent extent : extents) {
+			final ByteBuffer part = buffer.duplicate();
+			part.position((int) extent.offset);
+			part.limit((int) extent.offset + extent.length);
+			parts.add(part);
+		}
+
+		return new SectionInputStream(parts);
+	}
+
+	/**
+	 * Getter for the number of pages. Notes have at least
+	 * {@link Deepnotes#NOTEPAGE_COUNT} and at most
+	 * {@link Deepnotes#MAX_NOTEPAGE_COUNT} pages.
+	 *
+	 * @return The number of pages, as saved in the metadata or else the
+	 *         highest page with a section.
+	 */
+	public int getPageCount() {
+		int count = Deepnotes.NOTEPAGE_COUNT;
+
+		final byte[] metadata = read(SECTION_METADATA, 0);
+		if (metadata != null && metadata.length >= 8) {
+			count = Math.max(count, ByteBuffer.wrap(metadata).getInt(4));
+		}
+
+		for (Long key : sections.keySet()) {
+			final int type = (int) (key.longValue() >>> 32);
+			if (type != SECTION_METADATA && type != SECTION_THUMBNAIL) {
+				count = Math.max(count, (int) key.longValue() + 1);
+			}
+		}
+
+		return Math.min(count, Deepnotes.MAX_NOTEPAGE_COUNT);
+	}
+
+	/**
+	 * Getter for the time of the last save.
+	 *
+	 * @return The time of the last save in milliseconds, 0 if unknown.
+	 */
+	public long getModified() {
+		final byte[] metadata = read(SECTION_METADATA, 0);
+		if (metadata == null || metadata.length < 16) {
+			return 0L;
+		}
+
+		return ByteBuffer.wrap(metadata).getLong(8);
+	}
+
+	/**
+	 * Changes a note file. New sections are written to the end of the file
+	 * right away, but only become part of the note on
+	 * {@link Editor#commit()}. An Editor must not be used by several threads
+	 * at a time.
+	 */
+	public static final class Editor {
+
+		/**
+		 * The note file.
+		 */
+		private final File file;
+
+		/**
+		 * The opened note file.
+		 */
+		private final RandomAccessFile raf;
+
+		/**
+		 * The committed state the changes are based on.
+		 */
+		private final Header header;
+
+		/**
+		 * The end of the committed state, everything behind it is unused.
+		 */
+		private final long committedEnd;
+
+		/**
+		 * The number of pages to save in the metadata, or -1 to keep it.
+		 */
+		private int pageCount = -1;
+
+		/**
+		 * Whether the Editor was committed or aborted.
+		 */
+		private boolean closed = false;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param noteFile
+		 *            The note file.
+		 *
+		 * @throws IOException
+		 *             If the file could not be opened or is not a note file.
+		 */
+		private Editor(final File noteFile) throws IOException {
+			file = noteFile;
+
+			final File parent = file.getParentFile();
+			if (parent != null) {
+				parent.mkdirs();
+			}
+
+			raf = new RandomAccessFile(file, "rw");
+
+			try {
+				if (raf.length() < DATA_OFFSET) {
+					// a new file, or one that was never committed
+					raf.setLength(0);
+					raf.writeInt(MAGIC);
+					raf.writeInt(VERSION);
+					raf.write(new byte[2 * SLOT_SIZE]);
+					header = new Header();
+				} else {
+					final byte[] headerData = new byte[DATA_OFFSET];
+					raf.readFully(headerData);
+					final Header read = readSlots(ByteBuffer.wrap(headerData),
+							raf);
+					if (read == null) {
+						throw new IOException("not a note file " + file);
+					}
+					header = read;
+				}
+
+				// drop sections of a save that was not committed
+				committedEnd = header.indexOffset + header.indexLength;
+				raf.setLength(committedEnd);
+				raf.seek(committedEnd);
+			} catch (IOException e) {
+				raf.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Tells if the note has a section, including uncommitted changes.
+		 *
+		 * @param type
+		 *            The type of the section.
+		 * @param page
+		 *            The position of the page, 0 for sections of the note.
+		 *
+		 * @return Whether the section exists.
+		 */
+		public boolean has(final int type, final int page) {
+			return header.sections.containsKey(key(type, page));
+		}
+
+		/**
+		 * Replaces a section or adds a new one.
+		 *
+		 * @param type
+		 *            The type of the section.
+		 * @param page
+		 *            The position of the page, 0 for sections of the note.
+		 * @param data
+		 *            The content of the section.
+		 *
+		 * @throws IOException
+		 *             If the section could not be written.
+		 */
+		public void put(final int type, final int page, final byte[] data)
+				throws IOException {
+			final List<Extent> extents = new ArrayList<Extent>(1);
+			extents.add(write(data));
+			header.sections.put(key(type, page), extents);
+		}
+
+		/**
+		 * Appends data to a section, for example new strokes. If there is no
+		 * such section it is added.
+		 *
+		 * @param type
+		 *            The type of the section.
+		 * @param page
+		 *            The position of the page, 0 for sections of the note.
+		 * @param data
+		 *            The data to append.
+		 *
+		 * @throws IOException
+		 *             If the data could not be written.
+		 */
+		public void append(final int type, final int page, final byte[] data)
+				throws IOException {
+			final Long key = key(type, page);
+			final List<Extent> old = header.sections.get(key);
+			if (old == null) {
+				put(type, page, data);
+				return;
+			}
+
+			// committed extents are shared with the old state, so copy
+			final List<Extent> extents = new ArrayList<Extent>(old);
+			extents.add(write(data));
+			header.sections.put(key, extents);
+		}
+
+		/**
+		 * Removes a section, if it exists.
+		 *
+		 * @param type
+		 *            The type of the section.
+		 * @param page
+		 *            The position of the page, 0 for sections of the note.
+		 */
+		public void remove(final int type, final int page) {
+			header.sections.remove(key(type, page));
+		}
+
+		/**
+		 * Setter for the number of pages saved in the metadata.
+		 *
+		 * @param count
+		 *            The number of pages of the note.
+		 */
+		public void setPageCount(final int count) {
+			pageCount = count;
+		}
+
+		/**
+		 * Makes the changes part of the note: the new index is written and
+		 * synced, then the header is pointed at it and synced. If the file is
+		 * mostly unused afterwards, it is rewritten.
+		 *
+		 * @return Whether the changes were committed. If not, the note is
+		 *         unchanged.
+		 */
+		public boolean commit() {
+			if (closed) {
+				throw new IllegalStateException("editor is closed");
+			}
+
+			try {
+				if (pageCount >= 0) {
+					final ByteArrayOutputStream out = new ByteArrayOutputStream();
+					final DataOutputStream data = new DataOutputStream(out);
+					data.writeInt(METADATA_VERSION);
+					data.writeInt(pageCount);
+					data.writeLong(System.currentTimeMillis());
+					put(SECTION_METADATA, 0, out.toByteArray());
+				}
+
+				final long indexOffset = raf.getFilePointer();
+				final byte[] index = writeIndex(header.sections);
+				raf.write(index);
+				raf.getFD().sync();
+
+				// the slot of the older save is overwritten
+				final long sequence = header.sequence + 1;
+				final ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+				slot.putLong(sequence);
+				slot.putLong(indexOffset);
+				slot.putInt(index.length);
+				slot.putInt(crc(index, 0, index.length));
+				slot.putInt(crc(slot.array(), 0, SLOT_DATA_SIZE));
+
+				raf.seek(SLOT_OFFSET + (sequence % 2) * SLOT_SIZE);
+				raf.write(slot.array());
+				raf.getFD().sync();
+
+				header.sequence = sequence;
+				header.indexOffset = indexOffset;
+				header.indexLength = index.length;
+			} catch (IOException e) {
+				Log.e(Deepnotes.APP_NAME, "failed to commit " + file);
+				abort();
+				return false;
+			}
+
+			closed = true;
+			close();
+
+			if (isMostlyUnused()) {
+				compact();
+			}
+
+			return true;
+		}
+
+		/**
+		 * Drops the changes, the note stays unchanged.
+		 */
+		public void abort() {
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+
+			try {
+				raf.setLength(committedEnd);
+			} catch (IOException e) {
+				Log.e(Deepnotes.APP_NAME, "failed to restore file.");
+			}
+
+			close();
+		}
+
+		/**
+		 * Writes data to the end of the file.
+		 *
+		 * @param data
+		 *            The data to write.
+		 *
+		 * @return Where the data was written.
+		 *
+		 * @throws IOException
+		 *             If the data could not be written.
+		 */
+		private Extent write(final byte[] data) throws IOException {
+			if (closed) {
+				throw new IllegalStateException("editor is closed");
+			}
+
+			if (data == null) {
+				Log.e(Deepnotes.APP_NAME, "data must not be null");
+				throw new IllegalArgumentException();
+			}
+
+			final long offset = raf.getFilePointer();
+			raf.write(data);
+
+			return new Extent(offset, data.length);
+		}
+
+		/**
+		 * Closes the file.
+		 */
+		private void close() {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				Log.e(Deepnotes.APP_NAME, "failed to close file.");
+			}
+		}
+
+		/**
+		 * Tells if most of the file is taken up by replaced sections and old
+		 * indexes.
+		 *
+		 * @return Whether the file should be rewritten.
+		 */
+		private boolean isMostlyUnused() {
+			long used = DATA_OFFSET + header.indexLength;
+			for (List<Extent> extents : header.sections.values()) {
+				for (Extent extent : extents) {
+					used += extent.length;
+				}
+			}
+
+			final long unused = header.indexOffset + header.indexLength - used;
+			return unused > COMPACT_MIN && unused > used;
+		}
+
+		/**
+		 * Rewrites the file with the sections of the note only. The new file
+		 * is written next to the note file and renamed to it, so snapshots
+		 * that are open keep reading the old one.
+		 */
+		private void compact() {
+			final NoteContainer old = open(file);
+			if (old == null) {
+				return;
+			}
+
+			final File temp = new File(file + ".tmp");
+			if (temp.exists() && !temp.delete()) {
+				Log.e(Deepnotes.APP_NAME, Deepnotes.ERROR_FILE);
+				return;
+			}
+
+			try {
+				final Editor editor = new Editor(temp);
+				for (Long key : old.sections.keySet()) {
+					final int type = (int) (key.longValue() >>> 32);
+					final int page = (int) key.longValue();
+					editor.put(type, page, old.read(type, page));
+				}
+
+				if (editor.commit() && temp.renameTo(file)) {
+					return;
+				}
+			} catch (IOException e) {
+				Log.e(Deepnotes.APP_NAME, "failed to compact " + file);
+			}
+
+			if (temp.exists() && !temp.delete()) {
+				Log.e(Deepnotes.APP_NAME, Deepnotes.ERROR_FILE);
+			}
+		}
+	}
+
+	/**
+	 * Reads the committed state from the header of a mapped file.
+	 *
+	 * @param mapped
+	 *            The mapped file.
+	 *
+	 * @return The committed state, or null if the file is not a note file.
+	 */
+	private static Header readHeader(final ByteBuffer mapped) {
+		if (mapped.capacity() < DATA_OFFSET) {
+			return null;
+		}
+
+		try {
+			return readSlots(mapped, null);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the header slots and the index of the valid slot with the higher
+	 * sequence number. Slots that are torn or point at a damaged index are
+	 * skipped, so the older save is used. The index is either read from the buffer, if it holds
+	 * the whole file, or from the opened file.
+	 *
+	 * @param headerData
+	 *            The header, or the whole mapped file.
+	 * @param raf
+	 *            The opened file, or null if headerData holds the whole file.
+	 *
+	 * @return The committed state, an empty one if no save was committed yet.
+	 *         Null if this is not a note file.
+	 *
+	 * @throws IOException
+	 *             If the index could not be read.
+	 */
+	private static Header readSlots(final ByteBuffer headerData,
+			final RandomAccessFile raf) throws IOException {
+		if (headerData.getInt(0) != MAGIC || headerData.getInt(4) != VERSION) {
+			return null;
+		}
+
+		final long fileLength = raf != null ? raf.length() : headerData
+				.capacity();
+
+		Header best = null;
+		for (int i = 0; i < 2; i++) {
+			final int slot = SLOT_OFFSET + i * SLOT_SIZE;
+			final byte[] slotData = new byte[SLOT_SIZE];
+			final ByteBuffer source = headerData.duplicate();
+			source.position(slot);
+			source.get(slotData);
+
+			final ByteBuffer slotBuffer = ByteBuffer.wrap(slotData);
+			final long sequence = slotBuffer.getLong(0);
+			final long indexOffset = slotBuffer.getLong(8);
+			final int indexLength = slotBuffer.getInt(16);
+			final int indexCrc = slotBuffer.getInt(20);
+
+			// slots that were never written or torn are ignored
+			if (sequence <= 0
+					|| slotBuffer.getInt(SLOT_DATA_SIZE) != crc(slotData, 0,
+							SLOT_DATA_SIZE)
+					|| indexOffset < DATA_OFFSET || indexLength < 4
+					|| indexOffset + indexLength > fileLength
+					|| (best != null && best.sequence > sequence)) {
+				continue;
+			}
+
+			final byte[] index = new byte[indexLength];
+			if (raf != null) {
+				raf.seek(indexOffset);
+				raf.readFully(index);
+			} else {
+				final ByteBuffer indexSource = headerData.duplicate();
+				indexSource.position((int) indexOffset);
+				indexSource.get(index);
+			}
+
+			if (crc(index, 0, indexLength) != indexCrc) {
+				continue;
+			}
+
+			final Header read = readIndex(index, indexOffset);
+			if (read == null) {
+				continue;
+			}
+
+			read.sequence = sequence;
+			read.indexOffset = indexOffset;
+			read.indexLength = indexLength;
+			best = read;
+		}
+
+		if (best == null) {
+			return new Header();
+		}
+
+		return best;
+	}
+
+	/**
+	 * Reads the sections of an index. Sections are always written before
+	 * their index, so an index pointing behind itself is damaged.
+	 *
+	 * @param index
+	 *            The index.
+	 * @param indexOffset
+	 *            The offset of the index in the file.
+	 *
+	 * @return The sections, or null if the index is damaged.
+	 */
+	private static Header readIndex(final byte[] index, final long indexOffset) {
+		final ByteBuffer entries = ByteBuffer.wrap(index);
+		final int count = entries.getInt();
+		if (count < 0 || count != entries.remaining() / ENTRY_SIZE
+				|| entries.remaining() % ENTRY_SIZE != 0) {
+			return null;
+		}
+
+		final Header header = new Header();
+		for (int i = 0; i < count; i++) {
+			final int type = entries.get();
+			final int page = entries.getInt();
+			final long offset = entries.getLong();
+			final int length = entries.getInt();
+
+			if (offset < DATA_OFFSET || length < 0
+					|| offset + length > indexOffset) {
+				return null;
+			}
+
+			final Long key = key(type, page);
+			List<Extent> extents = header.sections.get(key);
+			if (extents == null) {
+				extents = new ArrayList<Extent>(1);
+				header.sections.put(key, extents);
+			}
+			extents.add(new Extent(offset, length));
+		}
+
+		return header;
+	}
+
+	/**
+	 * Serializes an index.
+	 *
+	 * @param sections
+	 *            The sections by key.
+	 *
+	 * @return The index.
+	 */
+	private static byte[] writeIndex(final Map<Long, List<Extent>> sections) {
+		int count = 0;
+		for (List<Extent> extents : sections.values()) {
+			count += extents.size();
+		}
+
+		final ByteBuffer index = ByteBuffer.allocate(4 + count * ENTRY_SIZE);
+		index.putInt(count);
+		for (Map.Entry<Long, List<Extent>> section : sections.entrySet()) {
+			final long key = section.getKey().longValue();
+			for (Extent extent : section.getValue()) {
+				index.put((byte) (key >>> 32));
+				index.putInt((int) key);
+				index.putLong(extent.offset);
+				index.putInt(extent.length);
+			}
+		}
+
+		return index.array();
+	}
+
+	/**
+	 * Builds the key of a section.
+	 *
+	 * @param type
+	 *            The type of the section.
+	 * @param page
+	 *            The position of the page.
+	 *
+	 * @return The key.
+	 */
+	private static Long key(final int type, final int page) {
+		return Long.valueOf(((long) type << 32) | (page & 0xFFFFFFFFL));
+	}
+
+	/**
+	 * Calculates a checksum.
+	 *
+	 * @param data
+	 *            The data.
+	 * @param offset
+	 *            The start of the checksummed bytes.
+	 * @param length
+	 *            The number of checksummed bytes.
+	 *
+	 * @return The CRC32 of the bytes.
+	 */
+	private static int crc(final byte[] data, final int offset, final int length) {
+		final CRC32 crc = new CRC32();
+		crc.update(data, offset, length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Reads the extents of a section one after another.
+	 */
+	private static final class SectionInputStream extends InputStream {
+
+		/**
+		 * The extents that are left, the current one first.
+		 */
+		private final List<ByteBuffer> parts;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param sectionParts
+		 *            The extents of the section.
+		 */
+		private SectionInputStream(final List<ByteBuffer> sectionParts) {
+			parts = new ArrayList<ByteBuffer>(sectionParts);
+			Collections.reverse(parts);
+		}
+
+		/**
+		 * Getter for the extent to read from.
+		 *
+		 * @return The extent, or null at the end of the section.
+		 */
+		private ByteBuffer current() {
+			while (!parts.isEmpty()) {
+				final ByteBuffer part = parts.get(parts.size() - 1);
+				if (part.hasRemaining()) {
+					return part;
+				}
+				parts.remove(parts.size() - 1);
+			}
+
+			return null;
+		}
+
+		@Override
+		public int read() {
+			final ByteBuffer part = current();
+			if (part == null) {
+				return -1;
+			}
+
+			return part.get() & 0xFF;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) {
+			if (len == 0) {
+				return 0;
+			}
+
+			final ByteBuffer part = current();
+			if (part == null) {
+				return -1;
+			}
+
+			final int count = Math.min(len, part.remaining());
+			part.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			int available = 0;
+			for (ByteBuffer part : parts) {
+				available += part.remaining();
+			}
+
+			return available;
+		}
+	}
+}
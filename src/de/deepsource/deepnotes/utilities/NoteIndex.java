@@ -0,0 +1,1354 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import android.content.Context;
+import android.util.Log;
+import de.deepsource.deepnotes.application.Deepnotes;
+
+/**
+ * An index of all saved notes, so the list of notes can be shown by reading
+ * one small file instead of opening every note. For every note it holds the
+ * times it was created and last saved, the number of pages and where the
+ * thumbnail is stored in its {@link NoteContainer}. The index is kept up to
+ * date by the save and delete paths, which tell a {@link ChangeListener}
+ * about every change. It is built again from the notes if it
+ * is missing, broken, or the notes folder changed behind its back, for
+ * example because the app was killed between saving a note and updating the
+ * index. The list of notes reads the index through a {@link Listing}, which
+ * decodes only the entries that are shown, so it does not matter how many
+ * notes there are.
+ *
+ * Saving or deleting a note does not write the index file. The change is
+ * appended to a journal as one record with a checksum of its own, so it costs
+ * the same however many notes there are. The journal is applied on top of the
+ * index file when it is read, and is folded into it once it holds
+ * {@link NoteIndex#JOURNAL_LIMIT} records. A record torn by a kill is
+ * dropped by the next append.
+ */
+public final class NoteIndex {
+
+	/**
+	 * Identifies an index file ("DNNI").
+	 */
+	private static final int MAGIC = 0x444E4E49;
+
+	/**
+	 * The version of the file format.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The size of the header: magic, version, modification time of the notes
+	 * folder and number of entries.
+	 */
+	private static final int HEADER_SIZE = 20;
+
+	/**
+	 * The offset of the number of entries in the header.
+	 */
+	private static final int COUNT_OFFSET = 16;
+
+	/**
+	 * The size of one entry.
+	 */
+	private static final int ENTRY_SIZE = 40;
+
+	/**
+	 * The size of the checksum at the end.
+	 */
+	private static final int CRC_SIZE = 4;
+
+	/**
+	 * The number of entries a {@link Listing} decodes at once.
+	 */
+	private static final int WINDOW_SIZE = 64;
+
+	/**
+	 * The number of decoded windows a {@link Listing} keeps.
+	 */
+	private static final int WINDOW_COUNT = 4;
+
+	/**
+	 * The size of the chunks the checksum of a mapped index is calculated in.
+	 */
+	private static final int CRC_CHUNK_SIZE = 8 * 1024;
+
+	/**
+	 * The size of one journal record: type, modification time of the notes
+	 * folder, entry and checksum.
+	 */
+	private static final int RECORD_SIZE = 4 + 8 + ENTRY_SIZE + CRC_SIZE;
+
+	/**
+	 * The type of a journal record of a saved note.
+	 */
+	private static final int RECORD_SAVED = 1;
+
+	/**
+	 * The type of a journal record of a deleted note.
+	 */
+	private static final int RECORD_REMOVED = 2;
+
+	/**
+	 * The number of journal records after which the journal is folded into
+	 * the index file.
+	 */
+	private static final int JOURNAL_LIMIT = 64;
+
+	/**
+	 * The name of the index file.
+	 */
+	private static final String INDEX_FILE = "/notes.index";
+
+	/**
+	 * The name of the journal of changes made since the index file was
+	 * written.
+	 */
+	private static final String JOURNAL_FILE = "/notes.journal";
+
+	/**
+	 * Sorts entries newest first.
+	 */
+	private static final Comparator<Entry> NEWEST_FIRST = new Comparator<Entry>() {
+		@Override
+		public int compare(final Entry lhs, final Entry rhs) {
+			if (lhs.created == rhs.created) {
+				return 0;
+			}
+
+			return lhs.created > rhs.created ? -1 : 1;
+		}
+	};
+
+	/**
+	 * The indexed information about one note.
+	 */
+	public static final class Entry {
+
+		/**
+		 * The id of the note, it's name is the id as string.
+		 */
+		private final long id;
+
+		/**
+		 * The time the note was created.
+		 */
+		private final long created;
+
+		/**
+		 * The time the note was saved last.
+		 */
+		private final long modified;
+
+		/**
+		 * The number of pages.
+		 */
+		private final int pageCount;
+
+		/**
+		 * The offset of the thumbnail in the note file, or -1.
+		 */
+		private final long thumbnailOffset;
+
+		/**
+		 * The length of the thumbnail.
+		 */
+		private final int thumbnailLength;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param noteId
+		 *            The id of the note.
+		 * @param noteCreated
+		 *            The time the note was created.
+		 * @param noteModified
+		 *            The time the note was saved last.
+		 * @param notePageCount
+		 *            The number of pages.
+		 * @param offset
+		 *            The offset of the thumbnail in the note file, or -1.
+		 * @param length
+		 *            The length of the thumbnail.
+		 */
+		Entry(final long noteId, final long noteCreated,
+				final long noteModified, final int notePageCount,
+				final long offset, final int length) {
+			id = noteId;
+			created = noteCreated;
+			modified = noteModified;
+			pageCount = notePageCount;
+			thumbnailOffset = offset;
+			thumbnailLength = length;
+		}
+
+		/**
+		 * Getter for the name of the note.
+		 *
+		 * @return The name of the note used in the file system.
+		 */
+		public String getName() {
+			return String.valueOf(id);
+		}
+
+		/**
+		 * Getter for created.
+		 *
+		 * @return The time the note was created in milliseconds.
+		 */
+		public long getCreated() {
+			return created;
+		}
+
+		/**
+		 * Getter for modified.
+		 *
+		 * @return The time the note was saved last in milliseconds, 0 if
+		 *         unknown.
+		 */
+		public long getModified() {
+			return modified;
+		}
+
+		/**
+		 * Getter for pageCount.
+		 *
+		 * @return The number of pages.
+		 */
+		public int getPageCount() {
+			return pageCount;
+		}
+	}
+
+	/**
+	 * Is told about changes to the index, see
+	 * {@link NoteIndex#addChangeListener(ChangeListener)}. Listeners are
+	 * called on the thread that changed the index.
+	 */
+	public interface ChangeListener {
+		/**
+		 * Called after a note was saved, the note might be new.
+		 *
+		 * @param entry
+		 *            The new entry of the note.
+		 */
+		void onNoteSaved(Entry entry);
+
+		/**
+		 * Called after a note was deleted.
+		 *
+		 * @param noteName
+		 *            The name of the note.
+		 */
+		void onNoteRemoved(String noteName);
+	}
+
+	/**
+	 * A read only view of the index, which decodes the entries when they are
+	 * asked for, {@link NoteIndex#WINDOW_SIZE} neighbouring entries at a time.
+	 * Only the last {@link NoteIndex#WINDOW_COUNT} windows are kept, the rest
+	 * of the index stays in the mapped file. Changes made after the listing
+	 * was opened can be applied with {@link Listing#put(Entry)} and
+	 * {@link Listing#remove(String)}, they are kept on top of the mapped file,
+	 * so applying them costs nothing like opening the index again. All methods
+	 * are meant to be called from the UI thread.
+	 */
+	public static final class Listing {
+
+		/**
+		 * The index file, checked already.
+		 */
+		private final ByteBuffer buffer;
+
+		/**
+		 * The number of entries in the index file.
+		 */
+		private final int count;
+
+		/**
+		 * The decoded windows of entries.
+		 */
+		private final Entry[][] windows = new Entry[WINDOW_COUNT][];
+
+		/**
+		 * The position of the first entry of every decoded window.
+		 */
+		private final int[] windowStarts = new int[WINDOW_COUNT];
+
+		/**
+		 * The window to be replaced next.
+		 */
+		private int nextWindow = 0;
+
+		/**
+		 * Saved entries of the index file by their position in it.
+		 */
+		private final Map<Integer, Entry> saved = new HashMap<Integer, Entry>();
+
+		/**
+		 * The positions of removed entries of the index file, ascending.
+		 */
+		private final List<Integer> removed = new ArrayList<Integer>();
+
+		/**
+		 * Entries that are not in the index file, newest first.
+		 */
+		private final List<Entry> inserted = new ArrayList<Entry>();
+
+		/**
+		 * The number of remaining entries of the index file newer than each
+		 * inserted entry.
+		 */
+		private int[] insertedRanks = new int[0];
+
+		/**
+		 * Constructor.
+		 *
+		 * @param index
+		 *            The index file, checked already.
+		 */
+		private Listing(final ByteBuffer index) {
+			buffer = index;
+			count = index.getInt(COUNT_OFFSET);
+		}
+
+		/**
+		 * Getter for count.
+		 *
+		 * @return The number of notes.
+		 */
+		public int getCount() {
+			return count - removed.size() + inserted.size();
+		}
+
+		/**
+		 * Gets an entry, the window around it is decoded if needed.
+		 *
+		 * @param position
+		 *            The position of the entry, newest note first.
+		 *
+		 * @return The entry.
+		 */
+		public Entry get(final int position) {
+			if (position < 0 || position >= getCount()) {
+				Log.e(Deepnotes.APP_NAME, "position out of range " + position);
+				throw new IllegalArgumentException();
+			}
+
+			// inserted entries sit between the remaining ones by their rank
+			int before = 0;
+			for (int i = 0; i < inserted.size(); i++) {
+				final int at = insertedRanks[i] + i;
+				if (at == position) {
+					return inserted.get(i);
+				}
+
+				if (at > position) {
+					break;
+				}
+
+				before++;
+			}
+
+			// skip the removed entries of the index file
+			int filePosition = position - before;
+			for (Integer removedPosition : removed) {
+				if (removedPosition.intValue() > filePosition) {
+					break;
+				}
+
+				filePosition++;
+			}
+
+			final Entry changed = saved.get(Integer.valueOf(filePosition));
+			if (changed != null) {
+				return changed;
+			}
+
+			return read(filePosition);
+		}
+
+		/**
+		 * Applies the entry of a saved note. The note keeps its position, a new
+		 * note is inserted by the time it was created.
+		 *
+		 * @param entry
+		 *            The new entry of the note.
+		 */
+		public void put(final Entry entry) {
+			if (entry == null) {
+				Log.e(Deepnotes.APP_NAME, "entry must not be null");
+				throw new IllegalArgumentException();
+			}
+
+			final int filePosition = find(entry.id);
+			if (filePosition >= 0) {
+				saved.put(Integer.valueOf(filePosition), entry);
+				return;
+			}
+
+			removeInserted(entry.id);
+
+			int i = 0;
+			while (i < inserted.size()
+					&& NEWEST_FIRST.compare(inserted.get(i), entry) <= 0) {
+				i++;
+			}
+
+			inserted.add(i, entry);
+			updateRanks();
+		}
+
+		/**
+		 * Applies the removal of a deleted note.
+		 *
+		 * @param noteName
+		 *            The name of the note.
+		 */
+		public void remove(final String noteName) {
+			if (noteName == null) {
+				Log.e(Deepnotes.APP_NAME, "noteName must not be null");
+				throw new IllegalArgumentException();
+			}
+
+			final long id;
+			try {
+				id = Long.parseLong(noteName);
+			} catch (NumberFormatException e) {
+				Log.e(Deepnotes.APP_NAME, "not a note " + noteName);
+				return;
+			}
+
+			if (removeInserted(id)) {
+				updateRanks();
+				return;
+			}
+
+			final int filePosition = find(id);
+			if (filePosition < 0) {
+				return;
+			}
+
+			final Integer key = Integer.valueOf(filePosition);
+			saved.remove(key);
+
+			int i = 0;
+			while (i < removed.size() && removed.get(i).intValue() < filePosition) {
+				i++;
+			}
+
+			removed.add(i, key);
+			updateRanks();
+		}
+
+		/**
+		 * Removes an inserted entry.
+		 *
+		 * @param id
+		 *            The id of the note.
+		 *
+		 * @return Whether there was an inserted entry for the note.
+		 */
+		private boolean removeInserted(final long id) {
+			for (int i = 0; i < inserted.size(); i++) {
+				if (inserted.get(i).id == id) {
+					inserted.remove(i);
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * Calculates where the inserted entries sit between the remaining
+		 * entries of the index file.
+		 */
+		private void updateRanks() {
+			insertedRanks = new int[inserted.size()];
+
+			for (int i = 0; i < insertedRanks.length; i++) {
+				final int rank = rank(inserted.get(i).created);
+
+				int removedBefore = 0;
+				while (removedBefore < removed.size()
+						&& removed.get(removedBefore).intValue() < rank) {
+					removedBefore++;
+				}
+
+				insertedRanks[i] = rank - removedBefore;
+			}
+		}
+
+		/**
+		 * Finds the entry of a note in the index file, by a binary search on
+		 * the time the notes were created. Nothing is decoded.
+		 *
+		 * @param id
+		 *            The id of the note.
+		 *
+		 * @return The position of the entry in the index file, or -1.
+		 */
+		private int find(final long id) {
+			for (int i = rank(id); i < count; i++) {
+				final int offset = HEADER_SIZE + i * ENTRY_SIZE;
+				if (buffer.getLong(offset) == id) {
+					return Collections.binarySearch(removed, Integer.valueOf(i)) < 0 ? i
+							: -1;
+				}
+
+				// notes are created when they get their id
+				if (buffer.getLong(offset + 8) != id) {
+					break;
+				}
+			}
+
+			return -1;
+		}
+
+		/**
+		 * Counts the entries of the index file that were created after the
+		 * given time, by a binary search. Nothing is decoded.
+		 *
+		 * @param created
+		 *            The time.
+		 *
+		 * @return The number of newer entries.
+		 */
+		private int rank(final long created) {
+			int low = 0;
+			int high = count;
+
+			while (low < high) {
+				final int middle = (low + high) >>> 1;
+				if (buffer.getLong(HEADER_SIZE + middle * ENTRY_SIZE + 8) > created) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+
+			return low;
+		}
+
+		/**
+		 * Reads an entry of the index file, the window around it is decoded if
+		 * needed.
+		 *
+		 * @param position
+		 *            The position of the entry in the index file.
+		 *
+		 * @return The entry.
+		 */
+		private Entry read(final int position) {
+			final int start = position - position % WINDOW_SIZE;
+
+			for (int i = 0; i < WINDOW_COUNT; i++) {
+				if (windows[i] != null && windowStarts[i] == start) {
+					return windows[i][position - start];
+				}
+			}
+
+			final Entry[] window = new Entry[Math.min(WINDOW_SIZE, count - start)];
+			for (int i = 0; i < window.length; i++) {
+				window[i] = readEntry(buffer, HEADER_SIZE + (start + i)
+						* ENTRY_SIZE);
+			}
+
+			windows[nextWindow] = window;
+			windowStarts[nextWindow] = start;
+			nextWindow = (nextWindow + 1) % WINDOW_COUNT;
+
+			return window[position - start];
+		}
+	}
+
+	/**
+	 * A change recorded in the journal.
+	 */
+	private static final class Record {
+
+		/**
+		 * Whether the note was deleted rather than saved.
+		 */
+		private final boolean removed;
+
+		/**
+		 * The modification time of the notes folder after the change.
+		 */
+		private final long folderModified;
+
+		/**
+		 * The new entry of the note, only the id is set if it was deleted.
+		 */
+		private final Entry entry;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param noteRemoved
+		 *            Whether the note was deleted rather than saved.
+		 * @param modified
+		 *            The modification time of the notes folder after the
+		 *            change.
+		 * @param noteEntry
+		 *            The new entry of the note.
+		 */
+		Record(final boolean noteRemoved, final long modified,
+				final Entry noteEntry) {
+			removed = noteRemoved;
+			folderModified = modified;
+			entry = noteEntry;
+		}
+	}
+
+	/**
+	 * The listeners told about changes.
+	 */
+	private static final List<ChangeListener> LISTENERS = new ArrayList<ChangeListener>();
+
+	/**
+	 * Utility classes should not have public or default constructor.
+	 */
+	private NoteIndex() {
+		// empty
+	}
+
+	/**
+	 * Registers a listener, which is told when notes are saved or deleted.
+	 *
+	 * @param listener
+	 *            The listener.
+	 */
+	public static synchronized void addChangeListener(
+			final ChangeListener listener) {
+		if (listener == null) {
+			Log.e(Deepnotes.APP_NAME, "listener must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		LISTENERS.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener.
+	 *
+	 * @param listener
+	 *            The listener.
+	 */
+	public static synchronized void removeChangeListener(
+			final ChangeListener listener) {
+		LISTENERS.remove(listener);
+	}
+
+	/**
+	 * Opens the index for the list of notes, it is built again if it is not
+	 * up to date.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 *
+	 * @return A listing of all notes, newest first.
+	 */
+	public static synchronized Listing open(final Context context) {
+		if (context == null) {
+			Log.e(Deepnotes.APP_NAME, "context must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		final ByteBuffer mapped = map(getIndexFile(context), -1);
+		if (mapped != null) {
+			final List<Record> journal = readJournal(context);
+			if (getFolderModified(mapped, journal) == getNotesFolder(context)
+					.lastModified()) {
+				final Listing listing = new Listing(mapped);
+				for (Record record : journal) {
+					if (record.removed) {
+						listing.remove(record.entry.getName());
+					} else {
+						listing.put(record.entry);
+					}
+				}
+
+				return listing;
+			}
+		}
+
+		Log.d(Deepnotes.APP_NAME, "rebuilding note index.");
+
+		final List<Entry> rebuilt = rebuild(context);
+		final ByteBuffer encoded = encode(rebuilt, getNotesFolder(context)
+				.lastModified());
+		write(context, encoded);
+
+		return new Listing(encoded);
+	}
+
+	/**
+	 * Opens an index file without checking the notes folder, for example one
+	 * written by a benchmark.
+	 *
+	 * @param indexFile
+	 *            The index file.
+	 *
+	 * @return The listing, or null if the index is missing or broken.
+	 */
+	static Listing open(final File indexFile) {
+		final ByteBuffer mapped = map(indexFile, -1);
+		if (mapped == null) {
+			return null;
+		}
+
+		return new Listing(mapped);
+	}
+
+	/**
+	 * Reads the index and applies the journal, it is built again if it is
+	 * broken. The notes folder is not checked, the caller is about to record
+	 * its changes.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 *
+	 * @return The entries of all notes.
+	 */
+	private static List<Entry> load(final Context context) {
+		final List<Entry> entries = read(context);
+		if (entries != null) {
+			return entries;
+		}
+
+		Log.d(Deepnotes.APP_NAME, "rebuilding note index.");
+
+		final List<Entry> rebuilt = rebuild(context);
+		write(context, encode(rebuilt, getNotesFolder(context).lastModified()));
+
+		return rebuilt;
+	}
+
+	/**
+	 * Updates the entry of a note after it was saved, by appending it to the
+	 * journal.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 * @param noteName
+	 *            The name of the note.
+	 * @param note
+	 *            The saved note, opened after the save.
+	 */
+	public static synchronized void update(final Context context,
+			final String noteName, final NoteContainer note) {
+		if (context == null) {
+			Log.e(Deepnotes.APP_NAME, "context must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		if (noteName == null) {
+			Log.e(Deepnotes.APP_NAME, "noteName must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		final Entry entry = createEntry(noteName, note);
+		if (entry != null) {
+			append(context, false, entry);
+		} else {
+			appendRemoved(context, noteName);
+		}
+
+		for (ChangeListener listener : LISTENERS) {
+			if (entry != null) {
+				listener.onNoteSaved(entry);
+			} else {
+				listener.onNoteRemoved(noteName);
+			}
+		}
+	}
+
+	/**
+	 * Removes the entry of a deleted note, by appending the removal to the
+	 * journal.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 * @param noteName
+	 *            The name of the note.
+	 */
+	public static synchronized void remove(final Context context,
+			final String noteName) {
+		if (context == null) {
+			Log.e(Deepnotes.APP_NAME, "context must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		if (noteName == null) {
+			Log.e(Deepnotes.APP_NAME, "noteName must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		appendRemoved(context, noteName);
+
+		// a rebuilt index might not have known the note anymore
+		for (ChangeListener listener : LISTENERS) {
+			listener.onNoteRemoved(noteName);
+		}
+	}
+
+	/**
+	 * Reads the thumbnail of a note with one read at the indexed offset. If
+	 * the note was saved without updating the index, the thumbnail is read
+	 * from the note instead.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 * @param entry
+	 *            The entry of the note.
+	 *
+	 * @return The encoded thumbnail, or null if there is none.
+	 */
+	public static byte[] readThumbnail(final Context context, final Entry entry) {
+		if (context == null) {
+			Log.e(Deepnotes.APP_NAME, "context must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		if (entry == null) {
+			Log.e(Deepnotes.APP_NAME, "entry must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		final File noteFile = IOManager.getNoteFile(context, entry.getName());
+
+		if (entry.thumbnailOffset >= 0
+				&& entry.thumbnailOffset + entry.thumbnailLength <= noteFile
+						.length()) {
+			RandomAccessFile raf = null;
+
+			try {
+				raf = new RandomAccessFile(noteFile, "r");
+				raf.seek(entry.thumbnailOffset);
+
+				final byte[] data = new byte[entry.thumbnailLength];
+				raf.readFully(data);
+				return data;
+			} catch (IOException e) {
+				Log.e(Deepnotes.APP_NAME, "failed to read thumbnail.");
+			} finally {
+				if (raf != null) {
+					try {
+						raf.close();
+					} catch (IOException e) {
+						Log.e(Deepnotes.APP_NAME, "failed to read thumbnail.");
+					}
+				}
+			}
+		}
+
+		final NoteContainer note = NoteContainer.open(noteFile);
+		if (note == null) {
+			return null;
+		}
+
+		return note.read(NoteContainer.SECTION_THUMBNAIL, 0);
+	}
+
+	/**
+	 * Reads all entries of the index file and applies the journal.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 *
+	 * @return The entries, or null if the index is missing or broken.
+	 */
+	private static List<Entry> read(final Context context) {
+		final ByteBuffer mapped = map(getIndexFile(context), -1);
+		if (mapped == null) {
+			return null;
+		}
+
+		final int count = mapped.getInt(COUNT_OFFSET);
+		final List<Entry> entries = new ArrayList<Entry>(count);
+		for (int i = 0; i < count; i++) {
+			entries.add(readEntry(mapped, HEADER_SIZE + i * ENTRY_SIZE));
+		}
+
+		for (Record record : readJournal(context)) {
+			removeEntry(entries, record.entry.getName());
+			if (!record.removed) {
+				entries.add(record.entry);
+			}
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Reads the journal, up to the first record that is torn or broken.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 *
+	 * @return The records, oldest first.
+	 */
+	private static List<Record> readJournal(final Context context) {
+		final List<Record> records = new ArrayList<Record>();
+		final byte[] data;
+
+		RandomAccessFile raf = null;
+
+		try {
+			raf = new RandomAccessFile(getJournalFile(context), "r");
+			data = new byte[(int) raf.length()];
+			raf.readFully(data);
+		} catch (FileNotFoundException e) {
+			return records;
+		} catch (IOException e) {
+			Log.e(Deepnotes.APP_NAME, "failed to read note journal.");
+			return records;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					Log.e(Deepnotes.APP_NAME, "failed to read note journal.");
+				}
+			}
+		}
+
+		final ByteBuffer journal = ByteBuffer.wrap(data);
+		for (int offset = 0; offset + RECORD_SIZE <= data.length;
+				offset += RECORD_SIZE) {
+			final ByteBuffer record = ByteBuffer.wrap(data, offset,
+					RECORD_SIZE).slice();
+			final int type = record.getInt(0);
+			if ((type != RECORD_SAVED && type != RECORD_REMOVED)
+					|| record.getInt(RECORD_SIZE - CRC_SIZE) != crc(record,
+							RECORD_SIZE - CRC_SIZE)) {
+				break;
+			}
+
+			records.add(new Record(type == RECORD_REMOVED, journal
+					.getLong(offset + 4), readEntry(journal, offset + 12)));
+		}
+
+		return records;
+	}
+
+	/**
+	 * Appends the removal of a note to the journal.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 * @param noteName
+	 *            The name of the note.
+	 */
+	private static void appendRemoved(final Context context,
+			final String noteName) {
+		final long id;
+		try {
+			id = Long.parseLong(noteName);
+		} catch (NumberFormatException e) {
+			Log.e(Deepnotes.APP_NAME, "not a note " + noteName);
+			return;
+		}
+
+		append(context, true, new Entry(id, id, 0L, 0, -1L, 0));
+	}
+
+	/**
+	 * Appends a change to the journal, with the current modification time of
+	 * the notes folder. Records torn by a kill are dropped first. A full
+	 * journal is folded into the index file.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 * @param removed
+	 *            Whether the note was deleted rather than saved.
+	 * @param entry
+	 *            The new entry of the note.
+	 */
+	private static void append(final Context context, final boolean removed,
+			final Entry entry) {
+		final int count = readJournal(context).size();
+
+		final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+		record.putInt(removed ? RECORD_REMOVED : RECORD_SAVED);
+		record.putLong(getNotesFolder(context).lastModified());
+		putEntry(record, entry);
+		record.putInt(crc(record, record.position()));
+
+		RandomAccessFile raf = null;
+
+		try {
+			raf = new RandomAccessFile(getJournalFile(context), "rw");
+			raf.setLength((long) count * RECORD_SIZE);
+			raf.seek((long) count * RECORD_SIZE);
+			raf.write(record.array());
+			raf.getFD().sync();
+		} catch (IOException e) {
+			Log.e(Deepnotes.APP_NAME, "failed to write note journal.");
+
+			// the index misses the change, so it is built again
+			getIndexFile(context).delete();
+			return;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					Log.e(Deepnotes.APP_NAME, "failed to write note journal.");
+				}
+			}
+		}
+
+		if (count + 1 >= JOURNAL_LIMIT) {
+			write(context, encode(load(context), getNotesFolder(context)
+					.lastModified()));
+		}
+	}
+
+	/**
+	 * Gets the modification time of the notes folder the index was last
+	 * changed for.
+	 *
+	 * @param index
+	 *            The index file, checked already.
+	 * @param journal
+	 *            The records of the journal.
+	 *
+	 * @return The modification time of the notes folder.
+	 */
+	private static long getFolderModified(final ByteBuffer index,
+			final List<Record> journal) {
+		if (journal.isEmpty()) {
+			return index.getLong(8);
+		}
+
+		return journal.get(journal.size() - 1).folderModified;
+	}
+
+	/**
+	 * Maps the index file and checks it. Entries are not decoded.
+	 *
+	 * @param indexFile
+	 *            The index file.
+	 * @param folderModified
+	 *            The modification time of the notes folder the index must
+	 *            have been written for, or -1 to not check it.
+	 *
+	 * @return The mapped index, or null if it is missing, broken or not up to
+	 *         date.
+	 */
+	private static ByteBuffer map(final File indexFile,
+			final long folderModified) {
+		if (!indexFile.exists()) {
+			return null;
+		}
+
+		RandomAccessFile raf = null;
+		final MappedByteBuffer mapped;
+
+		try {
+			raf = new RandomAccessFile(indexFile, "r");
+
+			// the mapping stays valid after the file is closed
+			mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					raf.length());
+		} catch (IOException e) {
+			Log.e(Deepnotes.APP_NAME, "failed to read note index.");
+			return null;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					Log.e(Deepnotes.APP_NAME, "failed to read note index.");
+				}
+			}
+		}
+
+		final int length = mapped.capacity();
+		if (length < HEADER_SIZE + CRC_SIZE
+				|| mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+			return null;
+		}
+
+		// notes were added, deleted or rewritten behind the index' back
+		if (folderModified != -1 && mapped.getLong(8) != folderModified) {
+			return null;
+		}
+
+		final int count = mapped.getInt(COUNT_OFFSET);
+		if (count < 0
+				|| length != HEADER_SIZE + count * ENTRY_SIZE + CRC_SIZE
+				|| mapped.getInt(length - CRC_SIZE) != crc(mapped, length
+						- CRC_SIZE)) {
+			return null;
+		}
+
+		return mapped;
+	}
+
+	/**
+	 * Decodes one entry.
+	 *
+	 * @param index
+	 *            The index file.
+	 * @param offset
+	 *            The offset of the entry.
+	 *
+	 * @return The entry.
+	 */
+	private static Entry readEntry(final ByteBuffer index, final int offset) {
+		return new Entry(index.getLong(offset), index.getLong(offset + 8),
+				index.getLong(offset + 16), index.getInt(offset + 24),
+				index.getLong(offset + 28), index.getInt(offset + 36));
+	}
+
+	/**
+	 * Encodes the index file, sorted newest first.
+	 *
+	 * @param entries
+	 *            The entries of all notes.
+	 * @param folderModified
+	 *            The modification time of the notes folder.
+	 *
+	 * @return The encoded index, positioned at the start.
+	 */
+	static ByteBuffer encode(final List<Entry> entries,
+			final long folderModified) {
+		Collections.sort(entries, NEWEST_FIRST);
+
+		final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE
+				+ entries.size() * ENTRY_SIZE + CRC_SIZE);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(folderModified);
+		buffer.putInt(entries.size());
+
+		for (Entry entry : entries) {
+			putEntry(buffer, entry);
+		}
+
+		buffer.putInt(crc(buffer, buffer.position()));
+		buffer.rewind();
+
+		return buffer;
+	}
+
+	/**
+	 * Encodes one entry.
+	 *
+	 * @param buffer
+	 *            The buffer to encode it to, at its position.
+	 * @param entry
+	 *            The entry.
+	 */
+	private static void putEntry(final ByteBuffer buffer, final Entry entry) {
+		buffer.putLong(entry.id);
+		buffer.putLong(entry.created);
+		buffer.putLong(entry.modified);
+		buffer.putInt(entry.pageCount);
+		buffer.putLong(entry.thumbnailOffset);
+		buffer.putInt(entry.thumbnailLength);
+	}
+
+	/**
+	 * Writes the index file, it holds all changes of the journal, so the
+	 * journal is deleted afterwards.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 * @param encoded
+	 *            The encoded index.
+	 */
+	private static void write(final Context context, final ByteBuffer encoded) {
+		if (!IOManager.writeFile(encoded.array(), getIndexFile(context)
+				.toString())) {
+			Log.e(Deepnotes.APP_NAME, "failed to write note index.");
+			return;
+		}
+
+		getJournalFile(context).delete();
+	}
+
+	/**
+	 * Builds the index by opening every note.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 *
+	 * @return The entries of all notes.
+	 */
+	private static List<Entry> rebuild(final Context context) {
+		final List<Entry> entries = new ArrayList<Entry>();
+
+		final String[] files = getNotesFolder(context).list();
+		if (files == null) {
+			return entries;
+		}
+
+		for (String file : files) {
+			// skip files of unfinished saves
+			if (!file.endsWith(Deepnotes.NOTE_SUFFIX)) {
+				continue;
+			}
+
+			final String noteName = file.substring(0, file.length()
+					- Deepnotes.NOTE_SUFFIX.length());
+			final Entry entry = createEntry(noteName, NoteContainer
+					.open(IOManager.getNoteFile(context, noteName)));
+			if (entry != null) {
+				entries.add(entry);
+			}
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Creates the entry of a note.
+	 *
+	 * @param noteName
+	 *            The name of the note.
+	 * @param note
+	 *            The note, or null if it could not be opened.
+	 *
+	 * @return The entry, or null if the note can't be indexed.
+	 */
+	private static Entry createEntry(final String noteName,
+			final NoteContainer note) {
+		if (note == null) {
+			return null;
+		}
+
+		// notes are named by the time they were created
+		final long id;
+		try {
+			id = Long.parseLong(noteName);
+		} catch (NumberFormatException e) {
+			Log.e(Deepnotes.APP_NAME, "not a note " + noteName);
+			return null;
+		}
+
+		return new Entry(id, id, note.getModified(), note.getPageCount(),
+				note.getOffset(NoteContainer.SECTION_THUMBNAIL, 0),
+				note.getLength(NoteContainer.SECTION_THUMBNAIL, 0));
+	}
+
+	/**
+	 * Removes the entry of a note from a list.
+	 *
+	 * @param entries
+	 *            The entries.
+	 * @param noteName
+	 *            The name of the note.
+	 *
+	 * @return Whether there was an entry for the note.
+	 */
+	private static boolean removeEntry(final List<Entry> entries,
+			final String noteName) {
+		for (int i = 0; i < entries.size(); i++) {
+			if (entries.get(i).getName().equals(noteName)) {
+				entries.remove(i);
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Getter for the folder the notes are saved in.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 *
+	 * @return The notes folder.
+	 */
+	private static File getNotesFolder(final Context context) {
+		return new File(context.getFilesDir() + Deepnotes.SAVE_NOTES);
+	}
+
+	/**
+	 * Getter for the index file. It is kept outside of the notes folder, so
+	 * writing it does not change the folder.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 *
+	 * @return The index file.
+	 */
+	private static File getIndexFile(final Context context) {
+		return new File(context.getFilesDir() + INDEX_FILE);
+	}
+
+	/**
+	 * Getter for the journal file. It is kept outside of the notes folder,
+	 * like the index file.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 *
+	 * @return The journal file.
+	 */
+	private static File getJournalFile(final Context context) {
+		return new File(context.getFilesDir() + JOURNAL_FILE);
+	}
+
+	/**
+	 * Calculates a checksum. Mapped buffers are copied in small chunks, so
+	 * the index is never read into memory as a whole.
+	 *
+	 * @param data
+	 *            The data.
+	 * @param length
+	 *            The number of checksummed bytes from the start.
+	 *
+	 * @return The CRC32 of the bytes.
+	 */
+	private static int crc(final ByteBuffer data, final int length) {
+		final CRC32 crc = new CRC32();
+
+		if (data.hasArray()) {
+			crc.update(data.array(), data.arrayOffset(), length);
+			return (int) crc.getValue();
+		}
+
+		final ByteBuffer source = data.duplicate();
+		source.rewind();
+
+		final byte[] chunk = new byte[Math.min(CRC_CHUNK_SIZE, length)];
+		int remaining = length;
+
+		while (remaining > 0) {
+			final int size = Math.min(chunk.length, remaining);
+			source.get(chunk, 0, size);
+			crc.update(chunk, 0, size);
+			remaining -= size;
+		}
+
+		return (int) crc.getValue();
+	}
+}
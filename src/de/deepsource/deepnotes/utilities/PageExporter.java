@@ -0,0 +1,402 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.Log;
+import de.deepsource.deepnotes.application.Deepnotes;
+import de.deepsource.deepnotes.models.Stroke;
+
+/**
+ * Exports the pages of a note as JPEG, like they are shown in the
+ * DrawActivity: a white page, the background, the raster of older notes and
+ * the strokes on top. A page is composited band by band, every band is
+ * {@link PageExporter#BAND_HEIGHT} rows high, and written by a
+ * {@link BandedJpegWriter} right away. The band and its pixels are allocated
+ * once and reused for every band of every page, so the memory used does not
+ * depend on the size or the number of pages. Backgrounds and rasters are
+ * decoded one band at a time by a BitmapRegionDecoder, on versions without it
+ * they are decoded as a whole, one page at a time.
+ */
+public final class PageExporter {
+
+	/**
+	 * The number of rows composited at once, a multiple of
+	 * {@link BandedJpegWriter#MCU_HEIGHT}.
+	 */
+	public static final int BAND_HEIGHT = 64;
+
+	/**
+	 * The first SDK version supporting BitmapRegionDecoder (Gingerbread).
+	 */
+	private static final int SDK_REGION_DECODER = 10;
+
+	/**
+	 * An image section of a page, drawn band by band.
+	 */
+	private abstract static class Layer {
+
+		/**
+		 * Draws the rows of the image belonging to a band at the top left of
+		 * the canvas.
+		 *
+		 * @param canvas
+		 *            The Canvas of the band.
+		 * @param top
+		 *            The first row of the band.
+		 * @param bottom
+		 *            The row after the last row of the band.
+		 */
+		abstract void draw(Canvas canvas, int top, int bottom);
+
+		/**
+		 * Frees the decoder or the decoded image.
+		 */
+		abstract void recycle();
+	}
+
+	/**
+	 * A layer decoding only the rows of a band, using a BitmapRegionDecoder.
+	 * This class is only loaded on versions supporting it.
+	 */
+	private static final class RegionLayer extends Layer {
+
+		/**
+		 * The decoder of the image.
+		 */
+		private final BitmapRegionDecoder decoder;
+
+		/**
+		 * The part of the image to decode.
+		 */
+		private final Rect region = new Rect();
+
+		/**
+		 * Constructor.
+		 *
+		 * @param data
+		 *            The encoded image.
+		 *
+		 * @throws IOException
+		 *             If the image could not be read.
+		 */
+		private RegionLayer(final byte[] data) throws IOException {
+			decoder = BitmapRegionDecoder.newInstance(data, 0, data.length,
+					false);
+		}
+
+		@Override
+		void draw(final Canvas canvas, final int top, final int bottom) {
+			region.set(0, top, decoder.getWidth(),
+					Math.min(bottom, decoder.getHeight()));
+			if (region.isEmpty()) {
+				return;
+			}
+
+			final Bitmap rows = decoder.decodeRegion(region, null);
+			if (rows != null) {
+				canvas.drawBitmap(rows, 0f, 0f, null);
+				rows.recycle();
+			}
+		}
+
+		@Override
+		void recycle() {
+			decoder.recycle();
+		}
+	}
+
+	/**
+	 * A layer decoding the whole image, for versions without
+	 * BitmapRegionDecoder.
+	 */
+	private static final class FullLayer extends Layer {
+
+		/**
+		 * The decoded image, from the {@link BitmapPool}.
+		 */
+		private final Bitmap image;
+
+		/**
+		 * The rows of the image to draw.
+		 */
+		private final Rect source = new Rect();
+
+		/**
+		 * Where to draw the rows.
+		 */
+		private final Rect destination = new Rect();
+
+		/**
+		 * Constructor.
+		 *
+		 * @param decoded
+		 *            The decoded image, from the {@link BitmapPool}.
+		 */
+		private FullLayer(final Bitmap decoded) {
+			image = decoded;
+		}
+
+		@Override
+		void draw(final Canvas canvas, final int top, final int bottom) {
+			source.set(0, top, image.getWidth(), bottom);
+			destination.set(0, 0, image.getWidth(), bottom - top);
+			canvas.drawBitmap(image, source, destination, null);
+		}
+
+		@Override
+		void recycle() {
+			BitmapPool.release(image);
+		}
+	}
+
+	/**
+	 * The width of the pages.
+	 */
+	private final int width;
+
+	/**
+	 * The height of the pages.
+	 */
+	private final int height;
+
+	/**
+	 * The quality of the JPEGs.
+	 */
+	private final int quality;
+
+	/**
+	 * The band the page is composited in, from the {@link BitmapPool}.
+	 */
+	private Bitmap band;
+
+	/**
+	 * The Canvas of the band.
+	 */
+	private final Canvas canvas;
+
+	/**
+	 * The pixels of the band handed to the writer.
+	 */
+	private final int[] pixels;
+
+	/**
+	 * The strokes of the page being exported.
+	 */
+	private final List<Stroke> strokes = new ArrayList<Stroke>();
+
+	/**
+	 * The Path reused for every stroke.
+	 */
+	private final Path path = new Path();
+
+	/**
+	 * The Paint reused for every stroke.
+	 */
+	private final Paint paint = new Paint();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pageWidth
+	 *            The width of the pages.
+	 * @param pageHeight
+	 *            The height of the pages.
+	 * @param jpgQuality
+	 *            The quality of the JPEGs.
+	 */
+	public PageExporter(final int pageWidth, final int pageHeight,
+			final int jpgQuality) {
+		if (pageWidth <= 0 || pageHeight <= 0) {
+			Log.e(Deepnotes.APP_NAME, "invalid page size " + pageWidth + "x"
+					+ pageHeight);
+			throw new IllegalArgumentException();
+		}
+
+		width = pageWidth;
+		height = pageHeight;
+		quality = jpgQuality;
+
+		band = BitmapPool.acquire(width, BAND_HEIGHT, Bitmap.Config.ARGB_8888);
+		canvas = new Canvas(band);
+		pixels = new int[width * BAND_HEIGHT];
+	}
+
+	/**
+	 * Checks whether a page of a note has anything to export.
+	 *
+	 * @param note
+	 *            The note.
+	 * @param page
+	 *            The number of the page.
+	 *
+	 * @return Whether the page has a background, a raster or strokes.
+	 */
+	public static boolean hasContent(final NoteContainer note, final int page) {
+		return note.has(NoteContainer.SECTION_BACKGROUND, page)
+				|| note.has(NoteContainer.SECTION_RASTER, page)
+				|| note.has(NoteContainer.SECTION_STROKES, page);
+	}
+
+	/**
+	 * Exports a page of a note as JPEG.
+	 *
+	 * @param note
+	 *            The note.
+	 * @param page
+	 *            The number of the page.
+	 * @param out
+	 *            The stream the JPEG is written to, it is not closed.
+	 *
+	 * @throws IOException
+	 *             If the JPEG could not be written.
+	 */
+	public void export(final NoteContainer note, final int page,
+			final OutputStream out) throws IOException {
+		if (note == null) {
+			Log.e(Deepnotes.APP_NAME, "note must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		if (band == null) {
+			Log.e(Deepnotes.APP_NAME, "exporter was released");
+			throw new IllegalStateException();
+		}
+
+		final Layer background = open(note, NoteContainer.SECTION_BACKGROUND,
+				page);
+		final Layer raster = open(note, NoteContainer.SECTION_RASTER, page);
+
+		strokes.clear();
+		IOManager.readStrokes(note, page, strokes);
+
+		try {
+			final BandedJpegWriter writer = new BandedJpegWriter(out, width,
+					height, quality);
+
+			for (int top = 0; top < height; top += BAND_HEIGHT) {
+				final int rows = Math.min(BAND_HEIGHT, height - top);
+
+				canvas.drawColor(Color.WHITE);
+
+				if (background != null) {
+					background.draw(canvas, top, top + rows);
+				}
+
+				if (raster != null) {
+					raster.draw(canvas, top, top + rows);
+				}
+
+				drawStrokes(top, top + rows);
+
+				band.getPixels(pixels, 0, width, 0, 0, width, rows);
+				writer.writeRows(pixels, 0, width, rows);
+			}
+
+			writer.finish();
+		} finally {
+			strokes.clear();
+
+			if (background != null) {
+				background.recycle();
+			}
+
+			if (raster != null) {
+				raster.recycle();
+			}
+		}
+	}
+
+	/**
+	 * Gives the band back to the {@link BitmapPool}. The exporter must not be
+	 * used afterwards.
+	 */
+	public void release() {
+		BitmapPool.release(band);
+		band = null;
+	}
+
+	/**
+	 * Draws the strokes reaching into a band.
+	 *
+	 * @param top
+	 *            The first row of the band.
+	 * @param bottom
+	 *            The row after the last row of the band.
+	 */
+	private void drawStrokes(final int top, final int bottom) {
+		canvas.save();
+		canvas.translate(0f, -top);
+
+		for (Stroke stroke : strokes) {
+			final float halfWidth = stroke.getWidth() / 2f;
+			if (stroke.getBottom() + halfWidth < top
+					|| stroke.getTop() - halfWidth >= bottom) {
+				continue;
+			}
+
+			StrokeRenderer.buildPath(stroke, path);
+			StrokeRenderer.applyPaint(stroke, paint);
+			canvas.drawPath(path, paint);
+		}
+
+		canvas.restore();
+	}
+
+	/**
+	 * Opens an image section of a page for drawing band by band.
+	 *
+	 * @param note
+	 *            The note.
+	 * @param type
+	 *            The type of the section.
+	 * @param page
+	 *            The number of the page.
+	 *
+	 * @return The layer, or null if the page has no such section or it could
+	 *         not be decoded.
+	 */
+	private Layer open(final NoteContainer note, final int type,
+			final int page) {
+		final byte[] data = note.read(type, page);
+		if (data == null) {
+			return null;
+		}
+
+		if (Build.VERSION.SDK_INT >= SDK_REGION_DECODER) {
+			try {
+				return new RegionLayer(data);
+			} catch (IOException e) {
+				Log.e(Deepnotes.APP_NAME, "failed to decode section " + type
+						+ " of page " + page);
+				return null;
+			}
+		}
+
+		final Bitmap decoded = PageLoader.decode(data, width, height);
+		if (decoded == null) {
+			Log.e(Deepnotes.APP_NAME, "failed to decode section " + type
+					+ " of page " + page);
+			return null;
+		}
+
+		return new FullLayer(decoded);
+	}
+}
@@ -0,0 +1,361 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.lang.reflect.Field;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.os.Build;
+import android.util.Log;
+import de.deepsource.deepnotes.application.Deepnotes;
+
+/**
+ * This utility class decodes saved pages and backgrounds into mutable Bitmaps
+ * from the {@link BitmapPool}. On Honeycomb and newer the pooled Bitmap is
+ * handed to the decoder through BitmapFactory.Options.inBitmap and
+ * inMutable, so nothing is allocated. Our target SDK does not know those
+ * fields, so they are set by reflection. On older versions the page is
+ * decoded with a shared temp storage and drawn into the pooled Bitmap, and the
+ * decoded Bitmap is recycled right away. Thumbnails are decoded downsampled
+ * by a power of two instead, straight at about the size they are shown at.
+ */
+public final class PageLoader {
+
+	/**
+	 * The first SDK version supporting inBitmap and inMutable (Honeycomb).
+	 */
+	private static final int SDK_REUSE = 11;
+
+	/**
+	 * The size of the temp storage used by the decoder.
+	 */
+	private static final int TEMP_STORAGE_SIZE = 16 * 1024;
+
+	/**
+	 * BitmapFactory.Options.inBitmap, or null if not supported.
+	 */
+	private static final Field IN_BITMAP;
+
+	/**
+	 * BitmapFactory.Options.inMutable, or null if not supported.
+	 */
+	private static final Field IN_MUTABLE;
+
+	/**
+	 * The temp storage for the decoder, one per thread.
+	 */
+	private static final ThreadLocal<byte[]> TEMP_STORAGE = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[TEMP_STORAGE_SIZE];
+		}
+	};
+
+	static {
+		Field inBitmap = null;
+		Field inMutable = null;
+
+		if (Build.VERSION.SDK_INT >= SDK_REUSE) {
+			try {
+				inBitmap = BitmapFactory.Options.class.getField("inBitmap");
+				inMutable = BitmapFactory.Options.class.getField("inMutable");
+			} catch (NoSuchFieldException e) {
+				inBitmap = null;
+				inMutable = null;
+			}
+		}
+
+		IN_BITMAP = inBitmap;
+		IN_MUTABLE = inMutable;
+	}
+
+	/**
+	 * Utility classes should not have public or default constructor.
+	 */
+	private PageLoader() {
+		// empty
+	}
+
+	/**
+	 * Decodes an image file into a mutable Bitmap of the given size, taken
+	 * from the {@link BitmapPool}. Images of another size will be drawn to its
+	 * top left corner.
+	 *
+	 * @param path
+	 *            The path of the image file.
+	 * @param width
+	 *            The width of the resulting Bitmap.
+	 * @param height
+	 *            The height of the resulting Bitmap.
+	 *
+	 * @return The Bitmap, give it back to the {@link BitmapPool} when it is no
+	 *         longer needed. Null if the file could not be decoded.
+	 */
+	public static Bitmap decode(final String path, final int width,
+			final int height) {
+		if (path == null) {
+			Log.e(Deepnotes.APP_NAME, "path must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		return decode(path, null, width, height);
+	}
+
+	/**
+	 * Decodes an image, for example a section of a {@link NoteContainer},
+	 * into a mutable Bitmap of the given size, taken from the
+	 * {@link BitmapPool}. Images of another size will be drawn to its top left
+	 * corner.
+	 *
+	 * @param data
+	 *            The encoded image.
+	 * @param width
+	 *            The width of the resulting Bitmap.
+	 * @param height
+	 *            The height of the resulting Bitmap.
+	 *
+	 * @return The Bitmap, give it back to the {@link BitmapPool} when it is no
+	 *         longer needed. Null if the image could not be decoded.
+	 */
+	public static Bitmap decode(final byte[] data, final int width,
+			final int height) {
+		if (data == null) {
+			Log.e(Deepnotes.APP_NAME, "data must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		return decode(null, data, width, height);
+	}
+
+	/**
+	 * Calculates the largest power of two an image can be downsampled by while
+	 * it still covers the given size.
+	 *
+	 * @param data
+	 *            The encoded image.
+	 * @param width
+	 *            The width the image is shown at.
+	 * @param height
+	 *            The height the image is shown at.
+	 *
+	 * @return The sample size, at least 1.
+	 */
+	public static int sampleSize(final byte[] data, final int width,
+			final int height) {
+		if (data == null) {
+			Log.e(Deepnotes.APP_NAME, "data must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		final BitmapFactory.Options bounds = new BitmapFactory.Options();
+		bounds.inJustDecodeBounds = true;
+		bounds.inTempStorage = TEMP_STORAGE.get();
+		decodeSource(null, data, bounds);
+
+		int sampleSize = 1;
+		while (bounds.outWidth / (sampleSize * 2) >= width
+				&& bounds.outHeight / (sampleSize * 2) >= height) {
+			sampleSize *= 2;
+		}
+
+		return sampleSize;
+	}
+
+	/**
+	 * Decodes an image file downsampled by the given sample size. The Bitmap
+	 * is not taken from the {@link BitmapPool}.
+	 *
+	 * @param path
+	 *            The path of the image file.
+	 * @param sampleSize
+	 *            The power of two to downsample by.
+	 *
+	 * @return The Bitmap, or null if the file could not be decoded.
+	 */
+	public static Bitmap decodeSampled(final String path, final int sampleSize) {
+		if (path == null) {
+			Log.e(Deepnotes.APP_NAME, "path must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		return decodeSampled(path, null, sampleSize);
+	}
+
+	/**
+	 * Decodes an encoded image downsampled by the given sample size. The
+	 * Bitmap is not taken from the {@link BitmapPool}.
+	 *
+	 * @param data
+	 *            The encoded image.
+	 * @param sampleSize
+	 *            The power of two to downsample by.
+	 *
+	 * @return The Bitmap, or null if the image could not be decoded.
+	 */
+	public static Bitmap decodeSampled(final byte[] data, final int sampleSize) {
+		if (data == null) {
+			Log.e(Deepnotes.APP_NAME, "data must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		return decodeSampled(null, data, sampleSize);
+	}
+
+	/**
+	 * Decodes an image file or an encoded image downsampled.
+	 *
+	 * @param path
+	 *            The path of the image file, or null.
+	 * @param data
+	 *            The encoded image, if there is no path.
+	 * @param sampleSize
+	 *            The power of two to downsample by.
+	 *
+	 * @return The Bitmap, or null if the image could not be decoded.
+	 */
+	private static Bitmap decodeSampled(final String path, final byte[] data,
+			final int sampleSize) {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+		options.inTempStorage = TEMP_STORAGE.get();
+		options.inSampleSize = sampleSize;
+
+		final Bitmap decoded = decodeSource(path, data, options);
+		if (decoded == null) {
+			Log.e(Deepnotes.APP_NAME, "failed to decode image.");
+		}
+
+		return decoded;
+	}
+
+	/**
+	 * Decodes an image file or an encoded image into a pooled Bitmap.
+	 *
+	 * @param path
+	 *            The path of the image file, or null.
+	 * @param data
+	 *            The encoded image, if there is no path.
+	 * @param width
+	 *            The width of the resulting Bitmap.
+	 * @param height
+	 *            The height of the resulting Bitmap.
+	 *
+	 * @return The Bitmap, or null if the image could not be decoded.
+	 */
+	private static Bitmap decode(final String path, final byte[] data,
+			final int width, final int height) {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+		options.inTempStorage = TEMP_STORAGE.get();
+
+		final Bitmap pooled = BitmapPool.acquire(width, height,
+				Bitmap.Config.ARGB_8888);
+
+		if (IN_BITMAP != null && sameSize(path, data, width, height)) {
+			try {
+				IN_MUTABLE.setBoolean(options, true);
+				IN_BITMAP.set(options, pooled);
+
+				final Bitmap decoded = decodeSource(path, data, options);
+				if (decoded == pooled) {
+					return pooled;
+				}
+
+				if (decoded != null) {
+					// the decoder could not reuse the Bitmap
+					return drawInto(decoded, pooled);
+				}
+			} catch (IllegalAccessException e) {
+				Log.e(Deepnotes.APP_NAME, "failed to reuse bitmap.");
+			} catch (IllegalArgumentException e) {
+				Log.e(Deepnotes.APP_NAME, "failed to reuse bitmap.");
+			}
+
+			// try again without reusing
+			try {
+				IN_BITMAP.set(options, null);
+			} catch (IllegalAccessException e) {
+				Log.e(Deepnotes.APP_NAME, "failed to reuse bitmap.");
+			}
+		}
+
+		final Bitmap decoded = decodeSource(path, data, options);
+		if (decoded == null) {
+			Log.e(Deepnotes.APP_NAME, "failed to decode image.");
+			BitmapPool.release(pooled);
+			return null;
+		}
+
+		return drawInto(decoded, pooled);
+	}
+
+	/**
+	 * Decodes an image file or an encoded image.
+	 *
+	 * @param path
+	 *            The path of the image file, or null.
+	 * @param data
+	 *            The encoded image, if there is no path.
+	 * @param options
+	 *            The options for the decoder.
+	 *
+	 * @return The decoded Bitmap, or null.
+	 */
+	private static Bitmap decodeSource(final String path, final byte[] data,
+			final BitmapFactory.Options options) {
+		if (path != null) {
+			return BitmapFactory.decodeFile(path, options);
+		}
+
+		return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+	}
+
+	/**
+	 * Checks if an image has the given size, by decoding its bounds only.
+	 *
+	 * @param path
+	 *            The path of the image file, or null.
+	 * @param data
+	 *            The encoded image, if there is no path.
+	 * @param width
+	 *            The expected width.
+	 * @param height
+	 *            The expected height.
+	 *
+	 * @return Whether the image has the expected size.
+	 */
+	private static boolean sameSize(final String path, final byte[] data,
+			final int width, final int height) {
+		final BitmapFactory.Options bounds = new BitmapFactory.Options();
+		bounds.inJustDecodeBounds = true;
+		bounds.inTempStorage = TEMP_STORAGE.get();
+		decodeSource(path, data, bounds);
+
+		return bounds.outWidth == width && bounds.outHeight == height;
+	}
+
+	/**
+	 * Draws a decoded Bitmap into a pooled one and recycles the decoded
+	 * Bitmap.
+	 *
+	 * @param decoded
+	 *            The decoded Bitmap.
+	 * @param pooled
+	 *            The Bitmap taken from the {@link BitmapPool}.
+	 *
+	 * @return The pooled Bitmap.
+	 */
+	private static Bitmap drawInto(final Bitmap decoded, final Bitmap pooled) {
+		new Canvas(pooled).drawBitmap(decoded, 0f, 0f, null);
+		decoded.recycle();
+
+		return pooled;
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Process;
+import android.util.Log;
+import de.deepsource.deepnotes.application.Deepnotes;
+import de.deepsource.deepnotes.models.PageContent;
+
+/**
+ * Loads note pages ahead of time on a background thread, so a page flip only
+ * needs to swap in Bitmaps that are ready. Pages are requested with
+ * {@link PagePrefetcher#prefetch(int)} and picked up with
+ * {@link PagePrefetcher#take(int)}. Prefetched pages that are no longer
+ * needed give their Bitmaps back to the {@link BitmapPool}. All methods are
+ * meant to be called from the UI thread.
+ */
+public final class PagePrefetcher {
+
+	/**
+	 * Reads a note page from storage.
+	 */
+	public interface PageSource {
+		/**
+		 * Reads a page. Will be called on a background thread.
+		 *
+		 * @param position
+		 *            The position of the page in the note.
+		 *
+		 * @return The content of the page.
+		 */
+		PageContent load(int position);
+	}
+
+	/**
+	 * Loads one page and takes care of its Bitmaps if it was discarded while
+	 * loading.
+	 */
+	private final class PrefetchTask implements Callable<PageContent> {
+
+		/**
+		 * The position of the page to load.
+		 */
+		private final int position;
+
+		/**
+		 * The loaded page, once it is done.
+		 */
+		private PageContent content;
+
+		/**
+		 * Whether nobody is interested in the page anymore.
+		 */
+		private boolean discarded = false;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param pagePosition
+		 *            The position of the page to load.
+		 */
+		private PrefetchTask(final int pagePosition) {
+			position = pagePosition;
+		}
+
+		@Override
+		public PageContent call() {
+			final PageContent loaded = source.load(position);
+
+			synchronized (this) {
+				if (discarded) {
+					loaded.release();
+					return null;
+				}
+
+				content = loaded;
+			}
+
+			return loaded;
+		}
+
+		/**
+		 * Marks the page as not needed and releases it if it was loaded
+		 * already.
+		 */
+		private synchronized void discard() {
+			discarded = true;
+
+			if (content != null) {
+				content.release();
+				content = null;
+			}
+		}
+	}
+
+	/**
+	 * Reads the pages.
+	 */
+	private final PageSource source;
+
+	/**
+	 * Loads the pages one after another, with background priority.
+	 */
+	private final ExecutorService executor = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							runnable.run();
+						}
+					}, "PagePrefetcher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * The requested pages by position.
+	 */
+	private final Map<Integer, PrefetchTask> tasks = new HashMap<Integer, PrefetchTask>();
+
+	/**
+	 * The pending results by position.
+	 */
+	private final Map<Integer, Future<PageContent>> futures = new HashMap<Integer, Future<PageContent>>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pageSource
+	 *            Reads the pages.
+	 */
+	public PagePrefetcher(final PageSource pageSource) {
+		if (pageSource == null) {
+			Log.e(Deepnotes.APP_NAME, "pageSource must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		source = pageSource;
+	}
+
+	/**
+	 * Starts loading a page in the background, unless it is requested already.
+	 *
+	 * @param position
+	 *            The position of the page in the note.
+	 */
+	public void prefetch(final int position) {
+		final Integer key = Integer.valueOf(position);
+		if (tasks.containsKey(key)) {
+			return;
+		}
+
+		final PrefetchTask task = new PrefetchTask(position);
+		tasks.put(key, task);
+		futures.put(key, executor.submit(task));
+	}
+
+	/**
+	 * Takes a page. If it was prefetched the result is returned as soon as it
+	 * is ready, else the page is loaded right away on the calling thread.
+	 *
+	 * @param position
+	 *            The position of the page in the note.
+	 *
+	 * @return The content of the page.
+	 */
+	public PageContent take(final int position) {
+		final Integer key = Integer.valueOf(position);
+		final PrefetchTask task = tasks.remove(key);
+		final Future<PageContent> future = futures.remove(key);
+
+		if (task != null) {
+			// don't wait for pages that did not start loading yet
+			if (future.cancel(false)) {
+				return source.load(position);
+			}
+
+			try {
+				final PageContent content = future.get();
+				if (content != null) {
+					return content;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				Log.e(Deepnotes.APP_NAME, "failed to prefetch page " + position);
+			}
+		}
+
+		return source.load(position);
+	}
+
+	/**
+	 * Discards every requested page except the given ones.
+	 *
+	 * @param positions
+	 *            The positions of the pages to keep.
+	 */
+	public void retain(final Collection<Integer> positions) {
+		final List<Integer> keys = new ArrayList<Integer>(tasks.keySet());
+		for (Integer key : keys) {
+			if (!positions.contains(key)) {
+				discard(key);
+			}
+		}
+	}
+
+	/**
+	 * Discards a requested page, for example because its files changed.
+	 *
+	 * @param position
+	 *            The position of the page in the note.
+	 */
+	public void invalidate(final int position) {
+		discard(Integer.valueOf(position));
+	}
+
+	/**
+	 * Discards every requested page and stops the background thread.
+	 */
+	public void shutdown() {
+		final List<Integer> keys = new ArrayList<Integer>(tasks.keySet());
+		for (Integer key : keys) {
+			discard(key);
+		}
+
+		executor.shutdown();
+	}
+
+	/**
+	 * Discards a requested page.
+	 *
+	 * @param key
+	 *            The position of the page in the note.
+	 */
+	private void discard(final Integer key) {
+		final PrefetchTask task = tasks.remove(key);
+		final Future<PageContent> future = futures.remove(key);
+
+		if (task != null) {
+			future.cancel(false);
+			task.discard();
+		}
+	}
+}
@@ -0,0 +1,728 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import android.graphics.Color;
+import android.util.Log;
+import de.deepsource.deepnotes.application.Deepnotes;
+import de.deepsource.deepnotes.models.Stroke;
+
+/**
+ * Exports a note as one PDF with a page for every page of the note that has
+ * any content, written by a {@link PdfWriter} while it is exported. The
+ * background of a page is embedded as the JPEG it is saved as, without
+ * decoding it, and the strokes are drawn on top as vector paths, smoothed
+ * like {@link StrokeRenderer} does. Pages of older notes, with a raster
+ * instead of strokes, are composited by a {@link PageExporter} and embedded
+ * as one JPEG. Only one page is held in memory at a time. What a page turns
+ * into can be kept in a {@link ShareCache}, named by a hash of the content of
+ * the page, so pages that did not change since the last export are copied
+ * instead of exported again.
+ */
+public final class PdfExporter {
+
+	/**
+	 * The number of content bytes collected before they are written.
+	 */
+	private static final int CONTENT_CHUNK_SIZE = 4 * 1024;
+
+	/**
+	 * The time it takes to write one page.
+	 */
+	private static final Metrics.Histogram PAGE_TIMER = Metrics
+			.timer("share.page");
+
+	/**
+	 * The number of pages exported.
+	 */
+	private static final Metrics.Counter EXPORTED_PAGES = Metrics
+			.counter("share.pages.exported");
+
+	/**
+	 * The number of pages taken from the cache.
+	 */
+	private static final Metrics.Counter REUSED_PAGES = Metrics
+			.counter("share.pages.reused");
+
+	/**
+	 * The version of the pages kept in the cache, part of their names.
+	 */
+	private static final int PAGE_VERSION = 1;
+
+	/**
+	 * The suffix of the pages kept in the cache.
+	 */
+	private static final String PAGE_SUFFIX = ".page";
+
+	/**
+	 * The name of the image of a page in its resources.
+	 */
+	private static final String IMAGE_NAME = "/Im0";
+
+	/**
+	 * The marker starting a JPEG segment.
+	 */
+	private static final int JPEG_MARKER = 0xff;
+
+	/**
+	 * The first start of frame marker of a JPEG.
+	 */
+	private static final int JPEG_SOF_FIRST = 0xc0;
+
+	/**
+	 * The last start of frame marker of a JPEG.
+	 */
+	private static final int JPEG_SOF_LAST = 0xcf;
+
+	/**
+	 * What a page of a note turns into, which does not have to be exported
+	 * again as long as the page does not change.
+	 */
+	private static final class ExportedPage {
+
+		/**
+		 * The composited page as JPEG, or null if the background of the page
+		 * is embedded as it is.
+		 */
+		private final byte[] image;
+
+		/**
+		 * The compressed content stream.
+		 */
+		private final byte[] content;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param compositedImage
+		 *            The composited page as JPEG, or null.
+		 * @param compressedContent
+		 *            The compressed content stream.
+		 */
+		private ExportedPage(final byte[] compositedImage,
+				final byte[] compressedContent) {
+			image = compositedImage;
+			content = compressedContent;
+		}
+	}
+
+	/**
+	 * The width of the pages.
+	 */
+	private final int width;
+
+	/**
+	 * The height of the pages.
+	 */
+	private final int height;
+
+	/**
+	 * The cache of exported pages, or null.
+	 */
+	private final ShareCache pageCache;
+
+	/**
+	 * Compresses the content streams.
+	 */
+	private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+
+	/**
+	 * Composites pages that cannot be drawn as vectors, created when needed.
+	 */
+	private PageExporter compositor;
+
+	/**
+	 * The strokes of the page being exported.
+	 */
+	private final List<Stroke> strokes = new ArrayList<Stroke>();
+
+	/**
+	 * The content stream being built.
+	 */
+	private final StringBuilder content = new StringBuilder(
+			CONTENT_CHUNK_SIZE * 2);
+
+	/**
+	 * The content stream as bytes.
+	 */
+	private byte[] contentBytes = new byte[CONTENT_CHUNK_SIZE * 2];
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pageWidth
+	 *            The width of the pages, in pixels and points.
+	 * @param pageHeight
+	 *            The height of the pages, in pixels and points.
+	 * @param cache
+	 *            The cache of exported pages, or null to export every page.
+	 */
+	public PdfExporter(final int pageWidth, final int pageHeight,
+			final ShareCache cache) {
+		if (pageWidth <= 0 || pageHeight <= 0) {
+			Log.e(Deepnotes.APP_NAME, "invalid page size " + pageWidth + "x"
+					+ pageHeight);
+			throw new IllegalArgumentException();
+		}
+
+		width = pageWidth;
+		height = pageHeight;
+		pageCache = cache;
+	}
+
+	/**
+	 * Exports a note.
+	 *
+	 * @param note
+	 *            The note.
+	 * @param out
+	 *            The stream the PDF is written to, it is not closed.
+	 *
+	 * @return The number of pages exported.
+	 *
+	 * @throws IOException
+	 *             If the PDF could not be written.
+	 */
+	public int export(final NoteContainer note, final OutputStream out)
+			throws IOException {
+		if (note == null) {
+			Log.e(Deepnotes.APP_NAME, "note must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		final PdfWriter pdf = new PdfWriter(out);
+		final int catalog = pdf.reserve();
+		final int pages = pdf.reserve();
+		final StringBuilder kids = new StringBuilder();
+
+		int count = 0;
+		final int pageCount = note.getPageCount();
+		for (int i = 0; i < pageCount; i++) {
+			if (!PageExporter.hasContent(note, i)) {
+				continue;
+			}
+
+			final int page = pdf.reserve();
+			writePage(pdf, page, pages, note, i);
+			kids.append(page).append(" 0 R ");
+			count++;
+		}
+
+		pdf.writeObject(pages, "<< /Type /Pages /Kids [ " + kids
+				+ "] /Count " + count + " >>");
+		pdf.writeObject(catalog, "<< /Type /Catalog /Pages " + pages
+				+ " 0 R >>");
+		pdf.finish(catalog);
+
+		return count;
+	}
+
+	/**
+	 * Frees the compressor and the buffers of the compositor. The exporter
+	 * must not be used afterwards.
+	 */
+	public void release() {
+		deflater.end();
+
+		if (compositor != null) {
+			compositor.release();
+			compositor = null;
+		}
+	}
+
+	/**
+	 * Writes a page, its image and its content. The page is taken from the
+	 * cache if it did not change, else it is exported and cached.
+	 *
+	 * @param pdf
+	 *            The PDF being written.
+	 * @param number
+	 *            The reserved number of the page object.
+	 * @param parent
+	 *            The number of the page tree.
+	 * @param note
+	 *            The note.
+	 * @param page
+	 *            The number of the page in the note.
+	 *
+	 * @throws IOException
+	 *             If the page could not be written.
+	 */
+	private void writePage(final PdfWriter pdf, final int number,
+			final int parent, final NoteContainer note, final int page)
+			throws IOException {
+		final long start = Metrics.start();
+		final byte[] background = note.read(NoteContainer.SECTION_BACKGROUND,
+				page);
+		final byte[] raster = note.read(NoteContainer.SECTION_RASTER, page);
+		final byte[] strokeData = note.read(NoteContainer.SECTION_STROKES, page);
+		final int[] size = background == null ? null : readJpegSize(background);
+
+		// a raster or an image we cannot embed is composited into one JPEG
+		final boolean composite = raster != null
+				|| (background != null && size == null);
+
+		final String name = pageCache == null ? null : pageName(composite,
+				background, raster, strokeData);
+		ExportedPage exported = name == null ? null : readPage(name);
+
+		if (exported == null) {
+			exported = exportPage(note, page, composite, size, strokeData);
+			EXPORTED_PAGES.increment();
+
+			if (name != null) {
+				writePage(name, exported);
+			}
+		} else {
+			REUSED_PAGES.increment();
+		}
+
+		int image = 0;
+		if (composite) {
+			image = pdf.reserve();
+			pdf.beginStream(image, imageDictionary(width, height, 3), false)
+					.write(exported.image);
+			pdf.endStream();
+		} else if (background != null) {
+			image = pdf.reserve();
+			pdf.beginStream(image, imageDictionary(size[0], size[1], size[2]),
+					false).write(background);
+			pdf.endStream();
+		}
+
+		final int contents = pdf.reserve();
+		pdf.beginStream(contents, "/Filter /FlateDecode", false).write(
+				exported.content);
+		pdf.endStream();
+
+		pdf.writeObject(number, "<< /Type /Page /Parent " + parent
+				+ " 0 R /MediaBox [0 0 " + width + " " + height + "]"
+				+ " /Resources << "
+				+ (image != 0 ? "/XObject << " + IMAGE_NAME + " " + image
+						+ " 0 R >> " : "")
+				+ ">> /Contents " + contents + " 0 R >>");
+		PAGE_TIMER.stop(start);
+	}
+
+	/**
+	 * Exports a page: composites it, or draws its strokes as paths on top of
+	 * its background.
+	 *
+	 * @param note
+	 *            The note.
+	 * @param page
+	 *            The number of the page in the note.
+	 * @param composite
+	 *            Whether the page is composited into one JPEG.
+	 * @param size
+	 *            The size of the background, or null if there is none.
+	 * @param strokeData
+	 *            The encoded strokes of the page, or null.
+	 *
+	 * @return The exported page.
+	 *
+	 * @throws IOException
+	 *             If the page could not be exported.
+	 */
+	private ExportedPage exportPage(final NoteContainer note, final int page,
+			final boolean composite, final int[] size, final byte[] strokeData)
+			throws IOException {
+		byte[] image = null;
+		int imageWidth = 0;
+		int imageHeight = 0;
+
+		if (composite) {
+			if (compositor == null) {
+				compositor = new PageExporter(width, height,
+						Deepnotes.JPG_QUALITY);
+			}
+
+			final ByteArrayOutputStream composited = new ByteArrayOutputStream();
+			compositor.export(note, page, composited);
+			image = composited.toByteArray();
+			imageWidth = width;
+			imageHeight = height;
+		} else if (size != null) {
+			imageWidth = size[0];
+			imageHeight = size[1];
+		}
+
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		deflater.reset();
+		final DeflaterOutputStream stream = new DeflaterOutputStream(
+				compressed, deflater);
+
+		content.setLength(0);
+		if (imageWidth > 0) {
+			// images are drawn at their size to the top left, like on screen
+			content.append("q ").append(imageWidth).append(" 0 0 ")
+					.append(imageHeight).append(" 0 ")
+					.append(height - imageHeight).append(" cm ")
+					.append(IMAGE_NAME).append(" Do Q\n");
+		}
+
+		if (!composite && strokeData != null) {
+			strokes.clear();
+
+			try {
+				StrokeCodec.read(new ByteArrayInputStream(strokeData),
+						strokeData.length, strokes);
+			} catch (IOException e) {
+				Log.e(Deepnotes.APP_NAME, "failed to read strokes.");
+				strokes.clear();
+			}
+
+			writeStrokes(stream);
+			strokes.clear();
+		}
+
+		flushContent(stream);
+		stream.finish();
+
+		return new ExportedPage(image, compressed.toByteArray());
+	}
+
+	/**
+	 * Names a page by a hash of everything it is exported from, so a page
+	 * with another content gets another name.
+	 *
+	 * @param composite
+	 *            Whether the page is composited into one JPEG.
+	 * @param background
+	 *            The background of the page, or null.
+	 * @param raster
+	 *            The raster of the page, or null.
+	 * @param strokeData
+	 *            The encoded strokes of the page, or null.
+	 *
+	 * @return The name of the page in the cache, or null if it cannot be
+	 *         hashed.
+	 */
+	private String pageName(final boolean composite, final byte[] background,
+			final byte[] raster, final byte[] strokeData) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			Log.e(Deepnotes.APP_NAME, "no SHA-1, pages are not cached.");
+			return null;
+		}
+
+		final ByteArrayOutputStream settings = new ByteArrayOutputStream();
+		final DataOutputStream data = new DataOutputStream(settings);
+		try {
+			data.writeInt(PAGE_VERSION);
+			data.writeInt(width);
+			data.writeInt(height);
+			data.writeInt(Deepnotes.JPG_QUALITY);
+			data.writeBoolean(composite);
+			data.writeInt(background == null ? -1 : background.length);
+			data.writeInt(raster == null ? -1 : raster.length);
+			data.writeInt(strokeData == null ? -1 : strokeData.length);
+		} catch (IOException e) {
+			// a ByteArrayOutputStream does not throw
+			return null;
+		}
+
+		digest.update(settings.toByteArray());
+
+		// the background is embedded as it is, only a composite depends on it
+		if (composite && background != null) {
+			digest.update(background);
+		}
+
+		if (raster != null) {
+			digest.update(raster);
+		}
+
+		if (strokeData != null) {
+			digest.update(strokeData);
+		}
+
+		final StringBuilder name = new StringBuilder();
+		for (byte b : digest.digest()) {
+			name.append(Character.forDigit((b >> 4) & 0xf, 16));
+			name.append(Character.forDigit(b & 0xf, 16));
+		}
+
+		return name.append(PAGE_SUFFIX).toString();
+	}
+
+	/**
+	 * Reads a page from the cache.
+	 *
+	 * @param name
+	 *            The name of the page in the cache.
+	 *
+	 * @return The page, or null if it is not cached or could not be read.
+	 */
+	private ExportedPage readPage(final String name) {
+		final File file = pageCache.get(name);
+		if (file == null) {
+			return null;
+		}
+
+		try {
+			final DataInputStream data = new DataInputStream(
+					new ByteArrayInputStream(IOManager.readFile(file)));
+
+			byte[] image = null;
+			final int imageLength = data.readInt();
+			if (imageLength >= 0) {
+				image = new byte[imageLength];
+				data.readFully(image);
+			}
+
+			final byte[] compressed = new byte[data.readInt()];
+			data.readFully(compressed);
+
+			return new ExportedPage(image, compressed);
+		} catch (IOException e) {
+			Log.e(Deepnotes.APP_NAME, "failed to read cached page " + name);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Writes a page to the cache.
+	 *
+	 * @param name
+	 *            The name of the page in the cache.
+	 * @param exported
+	 *            The page.
+	 */
+	private void writePage(final String name, final ExportedPage exported) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final DataOutputStream data = new DataOutputStream(out);
+
+		try {
+			if (exported.image == null) {
+				data.writeInt(-1);
+			} else {
+				data.writeInt(exported.image.length);
+				data.write(exported.image);
+			}
+
+			data.writeInt(exported.content.length);
+			data.write(exported.content);
+		} catch (IOException e) {
+			// a ByteArrayOutputStream does not throw
+			return;
+		}
+
+		if (IOManager.writeFile(out.toByteArray(), pageCache.file(name)
+				.toString())) {
+			pageCache.put(name);
+		}
+	}
+
+	/**
+	 * Appends the strokes of the page to the content as paths. The y axis is
+	 * flipped, so the coordinates of the strokes can be used as they are.
+	 * Every quadratic curve of the smoothed path is written as the cubic curve
+	 * it equals. The alpha of the colors is ignored, pens are opaque.
+	 *
+	 * @param stream
+	 *            The content stream.
+	 *
+	 * @throws IOException
+	 *             If the content could not be written.
+	 */
+	private void writeStrokes(final OutputStream stream) throws IOException {
+		if (strokes.isEmpty()) {
+			return;
+		}
+
+		content.append("q 1 0 0 -1 0 ").append(height)
+				.append(" cm 1 J 1 j\n");
+
+		int color = 0;
+		float strokeWidth = -1f;
+
+		for (Stroke stroke : strokes) {
+			final int size = stroke.size();
+			if (size == 0) {
+				continue;
+			}
+
+			if (stroke.getColor() != color || strokeWidth < 0) {
+				color = stroke.getColor();
+				PdfWriter.appendNumber(content, Color.red(color) / 255f)
+						.append(' ');
+				PdfWriter.appendNumber(content, Color.green(color) / 255f)
+						.append(' ');
+				PdfWriter.appendNumber(content, Color.blue(color) / 255f)
+						.append(" RG\n");
+			}
+
+			if (stroke.getWidth() != strokeWidth) {
+				strokeWidth = stroke.getWidth();
+				PdfWriter.appendNumber(content, strokeWidth).append(" w\n");
+			}
+
+			float lastX = stroke.getX(0);
+			float lastY = stroke.getY(0);
+			float currentX = lastX;
+			float currentY = lastY;
+			appendPoint(lastX, lastY).append("m\n");
+
+			for (int i = 1; i < size; i++) {
+				final float x = stroke.getX(i);
+				final float y = stroke.getY(i);
+				final float endX = (x + lastX) / 2;
+				final float endY = (y + lastY) / 2;
+
+				// quadTo(last, end) from current as a cubic curve
+				appendPoint(currentX + (lastX - currentX) * 2 / 3,
+						currentY + (lastY - currentY) * 2 / 3);
+				appendPoint(endX + (lastX - endX) * 2 / 3,
+						endY + (lastY - endY) * 2 / 3);
+				appendPoint(endX, endY).append("c\n");
+
+				currentX = endX;
+				currentY = endY;
+				lastX = x;
+				lastY = y;
+			}
+
+			appendPoint(lastX, lastY).append("l S\n");
+
+			if (content.length() >= CONTENT_CHUNK_SIZE) {
+				flushContent(stream);
+			}
+		}
+
+		content.append("Q\n");
+	}
+
+	/**
+	 * Appends the coordinates of a point to the content.
+	 *
+	 * @param x
+	 *            The x coordinate.
+	 * @param y
+	 *            The y coordinate.
+	 *
+	 * @return The content.
+	 */
+	private StringBuilder appendPoint(final float x, final float y) {
+		PdfWriter.appendNumber(content, x).append(' ');
+		return PdfWriter.appendNumber(content, y).append(' ');
+	}
+
+	/**
+	 * Writes the content built so far to the content stream.
+	 *
+	 * @param stream
+	 *            The content stream.
+	 *
+	 * @throws IOException
+	 *             If the content could not be written.
+	 */
+	private void flushContent(final OutputStream stream) throws IOException {
+		final int length = content.length();
+		if (contentBytes.length < length) {
+			contentBytes = new byte[length];
+		}
+
+		// the content is ASCII only
+		for (int i = 0; i < length; i++) {
+			contentBytes[i] = (byte) content.charAt(i);
+		}
+
+		stream.write(contentBytes, 0, length);
+		content.setLength(0);
+	}
+
+	/**
+	 * Creates the dictionary of a JPEG image.
+	 *
+	 * @param imageWidth
+	 *            The width of the image.
+	 * @param imageHeight
+	 *            The height of the image.
+	 * @param components
+	 *            The number of color components, 1 or 3.
+	 *
+	 * @return The entries of the dictionary.
+	 */
+	private static String imageDictionary(final int imageWidth,
+			final int imageHeight, final int components) {
+		return "/Type /XObject /Subtype /Image /Width " + imageWidth
+				+ " /Height " + imageHeight + " /ColorSpace "
+				+ (components == 1 ? "/DeviceGray" : "/DeviceRGB")
+				+ " /BitsPerComponent 8 /Filter /DCTDecode";
+	}
+
+	/**
+	 * Reads the size of a JPEG from its start of frame, without decoding it.
+	 *
+	 * @param data
+	 *            The encoded image.
+	 *
+	 * @return The width, the height and the number of color components, or
+	 *         null if the data is no JPEG a PDF reader can show as it is.
+	 */
+	static int[] readJpegSize(final byte[] data) {
+		if (data.length < 4 || (data[0] & 0xff) != JPEG_MARKER
+				|| (data[1] & 0xff) != 0xd8) {
+			return null;
+		}
+
+		int offset = 2;
+		while (offset + 9 < data.length) {
+			if ((data[offset] & 0xff) != JPEG_MARKER) {
+				return null;
+			}
+
+			final int marker = data[offset + 1] & 0xff;
+			if (marker == JPEG_MARKER) {
+				// fill byte
+				offset++;
+				continue;
+			}
+
+			// DHT, JPG and DAC share the range of the start of frame markers
+			if (marker >= JPEG_SOF_FIRST && marker <= JPEG_SOF_LAST
+					&& marker != 0xc4 && marker != 0xc8 && marker != 0xcc) {
+				final int imageHeight = ((data[offset + 5] & 0xff) << 8)
+						| (data[offset + 6] & 0xff);
+				final int imageWidth = ((data[offset + 7] & 0xff) << 8)
+						| (data[offset + 8] & 0xff);
+				final int components = data[offset + 9] & 0xff;
+
+				if (imageWidth == 0 || imageHeight == 0
+						|| (components != 1 && components != 3)) {
+					return null;
+				}
+
+				return new int[] {imageWidth, imageHeight, components};
+			}
+
+			offset += 2 + (((data[offset + 2] & 0xff) << 8)
+					| (data[offset + 3] & 0xff));
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,350 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import android.util.Log;
+import de.deepsource.deepnotes.application.Deepnotes;
+
+/**
+ * Writes a PDF file object by object to a stream. Nothing but the byte offsets
+ * of the objects is kept, so the memory used does not depend on the size of
+ * the document. Objects may be written in any order, a number can be reserved
+ * before the object is written to reference it. The length of a stream is
+ * written as an object of its own after the stream, so streams do not have to
+ * be held in memory either.
+ */
+public final class PdfWriter {
+
+	/**
+	 * The size of the buffer in front of the output stream.
+	 */
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * The header of the file, the comment marks the file as binary.
+	 */
+	private static final String HEADER = "%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n";
+
+	/**
+	 * Counts the bytes written, to know the offsets of the objects.
+	 */
+	private final class CountingStream extends OutputStream {
+
+		/**
+		 * The stream the bytes are written to.
+		 */
+		private final OutputStream target;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param stream
+		 *            The stream the bytes are written to.
+		 */
+		private CountingStream(final OutputStream stream) {
+			target = stream;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			target.write(b);
+			position++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len)
+				throws IOException {
+			target.write(b, off, len);
+			position += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			target.flush();
+		}
+	}
+
+	/**
+	 * The stream the file is written to.
+	 */
+	private final CountingStream out;
+
+	/**
+	 * The compressor of the streams, reused for every stream.
+	 */
+	private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+
+	/**
+	 * The number of bytes written so far.
+	 */
+	private long position = 0;
+
+	/**
+	 * The offsets of the objects by number, 0 for objects not written yet.
+	 */
+	private long[] offsets = new long[64];
+
+	/**
+	 * The highest object number reserved so far.
+	 */
+	private int lastNumber = 0;
+
+	/**
+	 * The stream being written, or null.
+	 */
+	private DeflaterOutputStream deflating;
+
+	/**
+	 * The number of the length object of the stream being written.
+	 */
+	private int lengthNumber;
+
+	/**
+	 * The offset the stream being written started at.
+	 */
+	private long streamStart;
+
+	/**
+	 * Constructor, writes the header.
+	 *
+	 * @param stream
+	 *            The stream the file is written to, it is not closed.
+	 *
+	 * @throws IOException
+	 *             If the header could not be written.
+	 */
+	public PdfWriter(final OutputStream stream) throws IOException {
+		if (stream == null) {
+			Log.e(Deepnotes.APP_NAME, "stream must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		out = new CountingStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+		write(HEADER);
+	}
+
+	/**
+	 * Reserves the number of an object, so it can be referenced before it is
+	 * written.
+	 *
+	 * @return The object number.
+	 */
+	public int reserve() {
+		lastNumber++;
+
+		if (lastNumber == offsets.length) {
+			final long[] grown = new long[offsets.length * 2];
+			System.arraycopy(offsets, 0, grown, 0, offsets.length);
+			offsets = grown;
+		}
+
+		return lastNumber;
+	}
+
+	/**
+	 * Writes a whole object.
+	 *
+	 * @param number
+	 *            The reserved number of the object.
+	 * @param content
+	 *            The content of the object, for example a dictionary.
+	 *
+	 * @throws IOException
+	 *             If the object could not be written.
+	 */
+	public void writeObject(final int number, final String content)
+			throws IOException {
+		beginObject(number);
+		write(content);
+		write("\nendobj\n");
+	}
+
+	/**
+	 * Starts a stream object. The data is written to the returned stream,
+	 * then {@link PdfWriter#endStream()} has to be called. The /Length entry
+	 * is added to the dictionary.
+	 *
+	 * @param number
+	 *            The reserved number of the object.
+	 * @param dictionary
+	 *            The entries of the stream dictionary, without /Length and
+	 *            without the brackets.
+	 * @param deflate
+	 *            Whether the data will be compressed, the filter is added to
+	 *            the dictionary then.
+	 *
+	 * @return The stream to write the data to, it must not be closed.
+	 *
+	 * @throws IOException
+	 *             If the stream could not be started.
+	 */
+	public OutputStream beginStream(final int number, final String dictionary,
+			final boolean deflate) throws IOException {
+		if (streamStart > 0) {
+			Log.e(Deepnotes.APP_NAME, "a stream is already open");
+			throw new IllegalStateException();
+		}
+
+		lengthNumber = reserve();
+
+		beginObject(number);
+		write("<< " + dictionary + (deflate ? " /Filter /FlateDecode" : "")
+				+ " /Length " + lengthNumber + " 0 R >>\nstream\n");
+		streamStart = position;
+
+		if (!deflate) {
+			return out;
+		}
+
+		deflater.reset();
+		deflating = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+
+		return deflating;
+	}
+
+	/**
+	 * Ends the stream started by
+	 * {@link PdfWriter#beginStream(int, String, boolean)} and writes its
+	 * length.
+	 *
+	 * @throws IOException
+	 *             If the stream could not be ended.
+	 */
+	public void endStream() throws IOException {
+		if (streamStart == 0) {
+			Log.e(Deepnotes.APP_NAME, "no stream is open");
+			throw new IllegalStateException();
+		}
+
+		if (deflating != null) {
+			deflating.finish();
+			deflating = null;
+		}
+
+		final long length = position - streamStart;
+		streamStart = 0;
+
+		write("\nendstream\nendobj\n");
+		writeObject(lengthNumber, Long.toString(length));
+	}
+
+	/**
+	 * Writes the cross reference table and the trailer and flushes the
+	 * stream. Every reserved object must have been written.
+	 *
+	 * @param catalog
+	 *            The number of the document catalog.
+	 *
+	 * @throws IOException
+	 *             If the end of the file could not be written.
+	 */
+	public void finish(final int catalog) throws IOException {
+		final long xref = position;
+		final StringBuilder table = new StringBuilder(20 * (lastNumber + 1));
+
+		table.append("xref\n0 ").append(lastNumber + 1).append('\n');
+		table.append("0000000000 65535 f \n");
+
+		for (int i = 1; i <= lastNumber; i++) {
+			if (offsets[i] == 0) {
+				Log.e(Deepnotes.APP_NAME, "object " + i + " was not written");
+				throw new IllegalStateException();
+			}
+
+			final String offset = Long.toString(offsets[i]);
+			for (int pad = offset.length(); pad < 10; pad++) {
+				table.append('0');
+			}
+
+			table.append(offset).append(" 00000 n \n");
+		}
+
+		table.append("trailer\n<< /Size ").append(lastNumber + 1)
+				.append(" /Root ").append(catalog).append(" 0 R >>\n")
+				.append("startxref\n").append(xref).append("\n%%EOF\n");
+
+		write(table);
+		out.flush();
+		deflater.end();
+	}
+
+	/**
+	 * Appends a number to a content stream, with at most two decimals, which
+	 * is more than a screen pixel can show.
+	 *
+	 * @param builder
+	 *            The content being built.
+	 * @param value
+	 *            The number.
+	 *
+	 * @return The builder.
+	 */
+	public static StringBuilder appendNumber(final StringBuilder builder,
+			final float value) {
+		long hundredths = Math.round(value * 100.0);
+		if (hundredths < 0) {
+			builder.append('-');
+			hundredths = -hundredths;
+		}
+
+		builder.append(hundredths / 100);
+
+		final long fraction = hundredths % 100;
+		if (fraction != 0) {
+			builder.append('.');
+			if (fraction < 10) {
+				builder.append('0');
+			}
+
+			builder.append(fraction % 10 == 0 ? fraction / 10 : fraction);
+		}
+
+		return builder;
+	}
+
+	/**
+	 * Writes text as ISO 8859-1, which maps every char below 256 to one byte.
+	 *
+	 * @param text
+	 *            The text.
+	 *
+	 * @throws IOException
+	 *             If the text could not be written.
+	 */
+	public void write(final CharSequence text) throws IOException {
+		final int length = text.length();
+		for (int i = 0; i < length; i++) {
+			out.write(text.charAt(i));
+		}
+	}
+
+	/**
+	 * Records the offset of an object and writes its beginning.
+	 *
+	 * @param number
+	 *            The reserved number of the object.
+	 *
+	 * @throws IOException
+	 *             If the object could not be started.
+	 */
+	private void beginObject(final int number) throws IOException {
+		if (number <= 0 || number > lastNumber) {
+			Log.e(Deepnotes.APP_NAME, "object " + number + " was not reserved");
+			throw new IllegalArgumentException();
+		}
+
+		offsets[number] = position;
+		write(number + " 0 obj\n");
+	}
+}
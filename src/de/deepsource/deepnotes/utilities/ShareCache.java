@@ -0,0 +1,179 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import de.deepsource.deepnotes.application.Deepnotes;
+
+/**
+ * A folder of files created for sharing notes, named by what they were
+ * created from, so a file that exists can be used again as it is. The files
+ * use at most a given number of bytes, the least recently used files are
+ * deleted first. Files found in the folder when the cache is created are
+ * ordered by their modification time. A file larger than the whole budget is
+ * not kept track of until the cache is created again, so it is not deleted
+ * while it is shared.
+ */
+public final class ShareCache {
+
+	/**
+	 * The suffix of files being written, see {@link IOManager}.
+	 */
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * The folder of the cache.
+	 */
+	private final File directory;
+
+	/**
+	 * The cached files by name, in order of use.
+	 */
+	private final LruCache<String, File> files;
+
+	/**
+	 * Constructor, creates the folder or takes over the files in it.
+	 *
+	 * @param folder
+	 *            The folder of the cache.
+	 * @param budget
+	 *            The number of bytes the files may use.
+	 */
+	public ShareCache(final File folder, final int budget) {
+		if (folder == null) {
+			Log.e(Deepnotes.APP_NAME, "folder must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		directory = folder;
+		files = new LruCache<String, File>(budget) {
+			@Override
+			protected int sizeOf(final String name, final File file) {
+				return (int) Math.min(Integer.MAX_VALUE, file.length());
+			}
+
+			@Override
+			protected void entryRemoved(final boolean evicted,
+					final String name, final File oldFile, final File newFile) {
+				// a file written again under the same name is kept
+				if (!oldFile.equals(newFile) && !oldFile.delete()) {
+					Log.e(Deepnotes.APP_NAME, Deepnotes.ERROR_FILE);
+				}
+			}
+		};
+
+		directory.mkdirs();
+
+		final File[] found = directory.listFiles();
+		if (found == null) {
+			return;
+		}
+
+		// the least recently written files are used first, so evicted first
+		Arrays.sort(found, new Comparator<File>() {
+			@Override
+			public int compare(final File a, final File b) {
+				final long difference = a.lastModified() - b.lastModified();
+				return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+			}
+		});
+
+		for (File file : found) {
+			if (file.getName().endsWith(TEMP_SUFFIX)) {
+				// left over by a kill while writing
+				if (!file.delete()) {
+					Log.e(Deepnotes.APP_NAME, Deepnotes.ERROR_FILE);
+				}
+			} else {
+				files.put(file.getName(), file);
+			}
+		}
+	}
+
+	/**
+	 * Looks up a cached file and marks it as used.
+	 *
+	 * @param name
+	 *            The name of the file.
+	 *
+	 * @return The file, or null if it is not cached.
+	 */
+	public File get(final String name) {
+		final File file = files.get(name);
+		if (file == null) {
+			return null;
+		}
+
+		if (!file.exists()) {
+			// deleted by someone else, the folder is on the external storage
+			files.remove(name);
+			return null;
+		}
+
+		return file;
+	}
+
+	/**
+	 * Gives the path to write a file to, before it is added with
+	 * {@link ShareCache#put(String)}.
+	 *
+	 * @param name
+	 *            The name of the file.
+	 *
+	 * @return The path of the file.
+	 */
+	public File file(final String name) {
+		return new File(directory, name);
+	}
+
+	/**
+	 * Adds a written file to the cache. The least recently used files are
+	 * deleted if the budget is exceeded.
+	 *
+	 * @param name
+	 *            The name of the file.
+	 */
+	public void put(final String name) {
+		final File file = file(name);
+		if (!file.exists()) {
+			return;
+		}
+
+		if (file.length() > files.maxSize()) {
+			Log.w(Deepnotes.APP_NAME, name + " exceeds the share cache");
+			return;
+		}
+
+		files.put(name, file);
+		Log.d(Deepnotes.APP_NAME, directory + " holds " + files.size()
+				+ " bytes, " + files.hitCount() + " hits, "
+				+ files.missCount() + " misses");
+	}
+
+	/**
+	 * Deletes the cached files whose names start with a prefix, for example
+	 * the older versions of a note.
+	 *
+	 * @param prefix
+	 *            The start of the names to delete.
+	 * @param except
+	 *            The name of a file to keep, may be null.
+	 */
+	public void removeStartingWith(final String prefix, final String except) {
+		for (String name : files.snapshot().keySet()) {
+			if (name.startsWith(prefix) && !name.equals(except)) {
+				files.remove(name);
+			}
+		}
+	}
+}
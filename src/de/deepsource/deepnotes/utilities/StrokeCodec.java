@@ -0,0 +1,569 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.deepsource.deepnotes.models.Stroke;
+
+/**
+ * Reads and writes the strokes of a note page in a compact binary format.
+ * The codec is plain Java, so it does not depend on the Android framework.
+ *
+ * <p>
+ * Layout (all numbers big endian):
+ * </p>
+ *
+ * <pre>
+ * file   := magic("DNSK") version(u8) chunk*
+ * chunk  := count(varint) stroke*
+ * stroke := color(i32) width(varint, 1/16 px) flags(u8) points(varint)
+ *           [start(i64, ms)] point*
+ * point  := dx(zigzag varint, 1/8 px) dy(zigzag varint, 1/8 px)
+ *           [dt(varint, ms) pressure(u8, 1/128)]
+ * </pre>
+ *
+ * Point coordinates and times are stored as deltas to the previous point of
+ * the same stroke, so a typical point takes two or three bytes. Time and
+ * pressure are only present if {@link StrokeCodec#FLAG_TIMESTAMPS} is set.
+ * New strokes can be appended to a file as another chunk with
+ * {@link StrokeCodec#append(OutputStream, List)}, so saving a page does not
+ * need to rewrite the strokes that were saved before. A chunk that was cut
+ * off, because appending it did not finish, is ignored when reading. Version
+ * 2 files have exactly one chunk, version 1 files have no flags and no times
+ * either.
+ */
+public final class StrokeCodec {
+
+	/**
+	 * Identifies a stroke file.
+	 */
+	private static final int MAGIC = 0x444E534B;
+
+	/**
+	 * The current version of the format.
+	 */
+	public static final int VERSION = 3;
+
+	/**
+	 * The version with a single chunk only.
+	 */
+	private static final int VERSION_SINGLE_CHUNK = 2;
+
+	/**
+	 * The first version, without flags, times and pressure.
+	 */
+	private static final int VERSION_POINTS_ONLY = 1;
+
+	/**
+	 * Stroke flag telling that points carry time and pressure.
+	 */
+	private static final int FLAG_TIMESTAMPS = 0x01;
+
+	/**
+	 * Pressure is quantized to 1/128, so values up to ~2 can be stored.
+	 */
+	private static final float PRESSURE_SCALE = 128f;
+
+	/**
+	 * The biggest quantized pressure that fits in a byte.
+	 */
+	private static final int PRESSURE_MAX = 0xFF;
+
+	/**
+	 * The fewest bytes a point takes: one for each delta.
+	 */
+	private static final int MIN_POINT_BYTES = 2;
+
+	/**
+	 * The fewest bytes a point with time and pressure takes.
+	 */
+	private static final int MIN_TIMED_POINT_BYTES = 4;
+
+	/**
+	 * Coordinates are quantized to 1/8 pixel.
+	 */
+	private static final float POINT_SCALE = 8f;
+
+	/**
+	 * Widths are quantized to 1/16 pixel.
+	 */
+	private static final float WIDTH_SCALE = 16f;
+
+	/**
+	 * Utility classes should not have public or default constructor.
+	 */
+	private StrokeCodec() {
+		// empty
+	}
+
+	/**
+	 * Writes strokes to a stream. The stream will not be closed.
+	 *
+	 * @param out
+	 *            The stream to write to.
+	 * @param strokes
+	 *            The strokes to write.
+	 *
+	 * @throws IOException
+	 *             If writing to the stream fails.
+	 */
+	public static void write(final OutputStream out, final List<Stroke> strokes)
+			throws IOException {
+		if (out == null) {
+			throw new IllegalArgumentException("out must not be null");
+		}
+
+		if (strokes == null) {
+			throw new IllegalArgumentException("strokes must not be null");
+		}
+
+		final DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeByte(VERSION);
+		writeChunk(data, strokes);
+		data.flush();
+	}
+
+	/**
+	 * Appends strokes to a stream positioned at the end of a stroke file of
+	 * the current version, as a new chunk. The stream will not be closed.
+	 *
+	 * @param out
+	 *            The stream to write to.
+	 * @param strokes
+	 *            The strokes to append.
+	 *
+	 * @throws IOException
+	 *             If writing to the stream fails.
+	 */
+	public static void append(final OutputStream out, final List<Stroke> strokes)
+			throws IOException {
+		if (out == null) {
+			throw new IllegalArgumentException("out must not be null");
+		}
+
+		if (strokes == null) {
+			throw new IllegalArgumentException("strokes must not be null");
+		}
+
+		final DataOutputStream data = new DataOutputStream(out);
+		writeChunk(data, strokes);
+		data.flush();
+	}
+
+	/**
+	 * Writes one chunk of strokes.
+	 *
+	 * @param data
+	 *            The stream to write to.
+	 * @param strokes
+	 *            The strokes to write.
+	 *
+	 * @throws IOException
+	 *             If writing to the stream fails.
+	 */
+	private static void writeChunk(final DataOutputStream data,
+			final List<Stroke> strokes) throws IOException {
+		writeVarInt(data, strokes.size());
+
+		for (Stroke stroke : strokes) {
+			data.writeInt(stroke.getColor());
+			writeVarInt(data, Math.round(stroke.getWidth() * WIDTH_SCALE));
+
+			final boolean timed = stroke.hasTimestamps();
+			data.writeByte(timed ? FLAG_TIMESTAMPS : 0);
+
+			final int points = stroke.size();
+			writeVarInt(data, points);
+
+			int lastX = 0;
+			int lastY = 0;
+			long lastTime = points > 0 ? stroke.getTime(0) : 0L;
+			if (timed) {
+				data.writeLong(lastTime);
+			}
+
+			for (int i = 0; i < points; i++) {
+				final int x = Math.round(stroke.getX(i) * POINT_SCALE);
+				final int y = Math.round(stroke.getY(i) * POINT_SCALE);
+				writeVarInt(data, zigzag(x - lastX));
+				writeVarInt(data, zigzag(y - lastY));
+				lastX = x;
+				lastY = y;
+
+				if (timed) {
+					final long time = stroke.getTime(i);
+					writeVarInt(data, (int) (time - lastTime));
+					lastTime = time;
+
+					final int pressure = Math.round(stroke.getPressure(i)
+							* PRESSURE_SCALE);
+					data.writeByte(Math.max(0, Math.min(PRESSURE_MAX, pressure)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads strokes from a stream. The stream will not be closed.
+	 *
+	 * @param in
+	 *            The stream to read from.
+	 * @param length
+	 *            The number of bytes of the stroke file.
+	 *
+	 * @return The strokes in the order they were written.
+	 *
+	 * @throws IOException
+	 *             If reading fails or the data is not a valid stroke file.
+	 */
+	public static List<Stroke> read(final InputStream in, final long length)
+			throws IOException {
+		final List<Stroke> strokes = new ArrayList<Stroke>();
+		read(in, length, strokes);
+		return strokes;
+	}
+
+	/**
+	 * Reads strokes from a stream into a list. The stream will not be closed.
+	 * Strokes of a chunk that was cut off are not added. The length of the
+	 * stroke file is needed to detect a damaged point count before the points
+	 * are allocated.
+	 *
+	 * @param in
+	 *            The stream to read from.
+	 * @param length
+	 *            The number of bytes of the stroke file.
+	 * @param strokes
+	 *            The list the strokes will be added to, in the order they were
+	 *            written.
+	 *
+	 * @return Whether the stream is of the current version and ended after a
+	 *         complete chunk. If not, new strokes must not be appended to it.
+	 *
+	 * @throws IOException
+	 *             If reading fails or the data is not a valid stroke file.
+	 */
+	public static boolean read(final InputStream in, final long length,
+			final List<Stroke> strokes) throws IOException {
+		if (in == null) {
+			throw new IllegalArgumentException("in must not be null");
+		}
+
+		if (length < 0) {
+			throw new IllegalArgumentException("length must not be negative");
+		}
+
+		if (strokes == null) {
+			throw new IllegalArgumentException("strokes must not be null");
+		}
+
+		final CountingInputStream data = new CountingInputStream(in, length);
+		if (data.readInt() != MAGIC) {
+			throw new IOException("not a stroke file");
+		}
+
+		final int version = data.readUnsignedByte();
+		if (version != VERSION && version != VERSION_SINGLE_CHUNK
+				&& version != VERSION_POINTS_ONLY) {
+			throw new IOException("unsupported stroke file version " + version);
+		}
+
+		// older versions end after their only chunk, so nothing can be
+		// appended to them
+		if (version != VERSION) {
+			readChunk(data, version, readVarInt(data), strokes);
+			return false;
+		}
+
+		final List<Stroke> chunk = new ArrayList<Stroke>();
+		int first = data.read();
+		while (first >= 0) {
+			try {
+				readChunk(data, version, readVarInt(data, first), chunk);
+			} catch (EOFException e) {
+				// the chunk was cut off while it was appended
+				return false;
+			}
+
+			strokes.addAll(chunk);
+			chunk.clear();
+			first = data.read();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads one chunk of strokes.
+	 *
+	 * @param data
+	 *            The stream to read from.
+	 * @param version
+	 *            The version of the file.
+	 * @param count
+	 *            The number of strokes in the chunk.
+	 * @param strokes
+	 *            The list the strokes will be added to.
+	 *
+	 * @throws IOException
+	 *             If reading fails or the data is not a valid stroke file.
+	 */
+	private static void readChunk(final CountingInputStream data,
+			final int version, final int count, final List<Stroke> strokes)
+			throws IOException {
+		for (int s = 0; s < count; s++) {
+			final int color = data.readInt();
+			final float width = readVarInt(data) / WIDTH_SCALE;
+			if (width < 0f || Float.isNaN(width)) {
+				throw new IOException("invalid stroke width " + width);
+			}
+
+			int flags = 0;
+			if (version != VERSION_POINTS_ONLY) {
+				flags = data.readUnsignedByte();
+			}
+
+			final boolean timed = (flags & FLAG_TIMESTAMPS) != 0;
+			final int points = readVarInt(data);
+			if (points < 0) {
+				throw new IOException("invalid point count " + points);
+			}
+
+			// a stroke with more points than bytes left was cut off, or its
+			// count is damaged; both must not allocate the points
+			final int pointBytes = timed ? MIN_TIMED_POINT_BYTES
+					: MIN_POINT_BYTES;
+			if (points > data.remaining() / pointBytes) {
+				throw new EOFException("stroke has more points than bytes left");
+			}
+
+			final Stroke stroke = new Stroke(color, width, points);
+
+			int x = 0;
+			int y = 0;
+			long time = 0L;
+			if (timed && points > 0) {
+				time = data.readLong();
+			}
+			final long start = time;
+
+			for (int i = 0; i < points; i++) {
+				x += unzigzag(readVarInt(data));
+				y += unzigzag(readVarInt(data));
+
+				if (timed) {
+					// a damaged delta must not make the time go backwards or
+					// out of the range a stroke can hold
+					final int delta = readVarInt(data);
+					if (delta < 0) {
+						throw new IOException("invalid time delta " + delta);
+					}
+
+					time += delta;
+					if (time - start > Integer.MAX_VALUE) {
+						throw new IOException("invalid point time " + time);
+					}
+
+					final float pressure = data.readUnsignedByte() / PRESSURE_SCALE;
+					stroke.addPoint(x / POINT_SCALE, y / POINT_SCALE, time, pressure);
+				} else {
+					stroke.addPoint(x / POINT_SCALE, y / POINT_SCALE);
+				}
+			}
+
+			strokes.add(stroke);
+		}
+	}
+
+	/**
+	 * Reads a stroke file and keeps track of how many of its bytes are left.
+	 */
+	private static final class CountingInputStream extends DataInputStream {
+
+		/**
+		 * Counts the bytes read from the stream.
+		 */
+		private static final class Counter extends FilterInputStream {
+
+			/**
+			 * The number of bytes read.
+			 */
+			private long count = 0L;
+
+			/**
+			 * Constructor.
+			 *
+			 * @param in
+			 *            The stream to read from.
+			 */
+			private Counter(final InputStream in) {
+				super(in);
+			}
+
+			@Override
+			public int read() throws IOException {
+				final int b = super.read();
+				if (b >= 0) {
+					count++;
+				}
+				return b;
+			}
+
+			@Override
+			public int read(final byte[] b, final int off, final int len)
+					throws IOException {
+				final int read = super.read(b, off, len);
+				if (read > 0) {
+					count += read;
+				}
+				return read;
+			}
+
+			@Override
+			public long skip(final long n) throws IOException {
+				final long skipped = super.skip(n);
+				count += skipped;
+				return skipped;
+			}
+		}
+
+		/**
+		 * The number of bytes of the stroke file.
+		 */
+		private final long length;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param in
+		 *            The stream to read from.
+		 * @param fileLength
+		 *            The number of bytes of the stroke file.
+		 */
+		private CountingInputStream(final InputStream in, final long fileLength) {
+			super(new Counter(in));
+			length = fileLength;
+		}
+
+		/**
+		 * Getter for the number of bytes left.
+		 *
+		 * @return The bytes of the stroke file that were not read yet.
+		 */
+		private long remaining() {
+			return Math.max(0L, length - ((Counter) in).count);
+		}
+	}
+
+	/**
+	 * Maps signed integers to unsigned ones, so small negative values stay
+	 * small.
+	 *
+	 * @param value
+	 *            The signed value.
+	 *
+	 * @return The encoded value.
+	 */
+	private static int zigzag(final int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	/**
+	 * Reverts {@link StrokeCodec#zigzag(int)}.
+	 *
+	 * @param value
+	 *            The encoded value.
+	 *
+	 * @return The signed value.
+	 */
+	private static int unzigzag(final int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Writes an unsigned integer using 7 bits per byte.
+	 *
+	 * @param out
+	 *            The stream to write to.
+	 * @param value
+	 *            The value to write.
+	 *
+	 * @throws IOException
+	 *             If writing to the stream fails.
+	 */
+	private static void writeVarInt(final DataOutputStream out, final int value)
+			throws IOException {
+		int remaining = value;
+		while ((remaining & ~0x7F) != 0) {
+			out.writeByte((remaining & 0x7F) | 0x80);
+			remaining >>>= 7;
+		}
+		out.writeByte(remaining);
+	}
+
+	/**
+	 * Reads an integer written by
+	 * {@link StrokeCodec#writeVarInt(DataOutputStream, int)}.
+	 *
+	 * @param in
+	 *            The stream to read from.
+	 *
+	 * @return The value read.
+	 *
+	 * @throws IOException
+	 *             If reading fails or the value is malformed.
+	 */
+	private static int readVarInt(final DataInputStream in) throws IOException {
+		return readVarInt(in, in.read());
+	}
+
+	/**
+	 * Reads an integer written by
+	 * {@link StrokeCodec#writeVarInt(DataOutputStream, int)}, whose first byte
+	 * was read already.
+	 *
+	 * @param in
+	 *            The stream to read the remaining bytes from.
+	 * @param first
+	 *            The first byte of the value.
+	 *
+	 * @return The value read.
+	 *
+	 * @throws IOException
+	 *             If reading fails or the value is malformed.
+	 */
+	private static int readVarInt(final DataInputStream in, final int first)
+			throws IOException {
+		int value = 0;
+		int b = first;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (b < 0) {
+				throw new EOFException();
+			}
+
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+
+			b = in.read();
+		}
+
+		throw new IOException("malformed varint");
+	}
+}
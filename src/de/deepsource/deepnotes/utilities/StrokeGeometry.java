@@ -0,0 +1,119 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import de.deepsource.deepnotes.models.Stroke;
+
+/**
+ * This utility class smoothes the points of a {@link Stroke} into quadratic
+ * bezier curves. Every point becomes the control point of a curve that ends
+ * halfway to the next point, so the curves join without corners. The DrawView
+ * smoothes the stroke being drawn point by point, the {@link StrokeRenderer}
+ * smoothes whole strokes, both through this class, so a loaded stroke looks
+ * exactly like the one that was drawn. No Android class is needed, so the
+ * smoothing can be benchmarked on the JVM.
+ */
+public final class StrokeGeometry {
+
+	/**
+	 * Receives the segments of a smoothed stroke, for example to build an
+	 * {@link android.graphics.Path}.
+	 */
+	public interface PathBuilder {
+		/**
+		 * Starts the path.
+		 *
+		 * @param x
+		 *            The x coordinate of the start.
+		 * @param y
+		 *            The y coordinate of the start.
+		 */
+		void moveTo(float x, float y);
+
+		/**
+		 * Adds a quadratic bezier curve.
+		 *
+		 * @param x1
+		 *            The x coordinate of the control point.
+		 * @param y1
+		 *            The y coordinate of the control point.
+		 * @param x2
+		 *            The x coordinate of the end.
+		 * @param y2
+		 *            The y coordinate of the end.
+		 */
+		void quadTo(float x1, float y1, float x2, float y2);
+
+		/**
+		 * Adds a line.
+		 *
+		 * @param x
+		 *            The x coordinate of the end.
+		 * @param y
+		 *            The y coordinate of the end.
+		 */
+		void lineTo(float x, float y);
+	}
+
+	/**
+	 * Utility classes should not have public or default constructor.
+	 */
+	private StrokeGeometry() {
+		// empty
+	}
+
+	/**
+	 * Smoothes a whole stroke.
+	 *
+	 * @param stroke
+	 *            The stroke.
+	 * @param builder
+	 *            Receives the segments, nothing if the stroke has no points.
+	 */
+	public static void smooth(final Stroke stroke, final PathBuilder builder) {
+		final int size = stroke.size();
+
+		if (size == 0) {
+			return;
+		}
+
+		float lastX = stroke.getX(0);
+		float lastY = stroke.getY(0);
+		builder.moveTo(lastX, lastY);
+
+		for (int i = 1; i < size; i++) {
+			final float x = stroke.getX(i);
+			final float y = stroke.getY(i);
+			continuePath(builder, lastX, lastY, x, y);
+			lastX = x;
+			lastY = y;
+		}
+
+		builder.lineTo(lastX, lastY);
+	}
+
+	/**
+	 * Smoothes one more point of a stroke: the last point becomes the control
+	 * point of a curve ending halfway to the new point.
+	 *
+	 * @param builder
+	 *            Receives the curve.
+	 * @param lastX
+	 *            The x coordinate of the last point.
+	 * @param lastY
+	 *            The y coordinate of the last point.
+	 * @param x
+	 *            The x coordinate of the new point.
+	 * @param y
+	 *            The y coordinate of the new point.
+	 */
+	public static void continuePath(final PathBuilder builder,
+			final float lastX, final float lastY, final float x, final float y) {
+		builder.quadTo(lastX, lastY, (x + lastX) / 2, (y + lastY) / 2);
+	}
+}
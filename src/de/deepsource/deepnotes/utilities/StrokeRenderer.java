@@ -0,0 +1,165 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.util.List;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import de.deepsource.deepnotes.models.Stroke;
+
+/**
+ * This utility class rasterizes {@link Stroke}s. Paths are built with the
+ * same quadratic bezier smoothing the DrawView uses while drawing, see
+ * {@link StrokeGeometry}, so a loaded stroke looks exactly like the one that
+ * was drawn.
+ */
+public final class StrokeRenderer {
+
+	/**
+	 * Utility classes should not have public or default constructor.
+	 */
+	private StrokeRenderer() {
+		// empty
+	}
+
+	/**
+	 * Builds a Path from the points of a stroke.
+	 *
+	 * @param stroke
+	 *            The stroke to convert.
+	 *
+	 * @return The smoothed Path.
+	 */
+	public static Path toPath(final Stroke stroke) {
+		final Path path = new Path();
+		buildPath(stroke, path);
+
+		return path;
+	}
+
+	/**
+	 * Builds the smoothed Path of a stroke into an existing Path, which will
+	 * be reset first. Use this to avoid creating a Path for every stroke.
+	 *
+	 * @param stroke
+	 *            The stroke to convert.
+	 * @param path
+	 *            The Path to fill.
+	 */
+	public static void buildPath(final Stroke stroke, final Path path) {
+		path.reset();
+		StrokeGeometry.smooth(stroke, asBuilder(path));
+	}
+
+	/**
+	 * Lets the {@link StrokeGeometry} build a Path.
+	 *
+	 * @param path
+	 *            The Path to add the segments to.
+	 *
+	 * @return The builder adding to the Path.
+	 */
+	public static StrokeGeometry.PathBuilder asBuilder(final Path path) {
+		return new StrokeGeometry.PathBuilder() {
+			@Override
+			public void moveTo(final float x, final float y) {
+				path.moveTo(x, y);
+			}
+
+			@Override
+			public void quadTo(final float x1, final float y1, final float x2,
+					final float y2) {
+				path.quadTo(x1, y1, x2, y2);
+			}
+
+			@Override
+			public void lineTo(final float x, final float y) {
+				path.lineTo(x, y);
+			}
+		};
+	}
+
+	/**
+	 * Creates a Paint configured like the pen of the DrawView, with the
+	 * color and width of the stroke.
+	 *
+	 * @param stroke
+	 *            The stroke to create the Paint for.
+	 *
+	 * @return The Paint.
+	 */
+	public static Paint toPaint(final Stroke stroke) {
+		final Paint paint = new Paint();
+		applyPaint(stroke, paint);
+
+		return paint;
+	}
+
+	/**
+	 * Configures an existing Paint like the pen of the DrawView, with the
+	 * color and width of the stroke.
+	 *
+	 * @param stroke
+	 *            The stroke to configure the Paint for.
+	 * @param paint
+	 *            The Paint to configure.
+	 */
+	public static void applyPaint(final Stroke stroke, final Paint paint) {
+		paint.setStyle(Paint.Style.STROKE);
+		paint.setStrokeCap(Paint.Cap.ROUND);
+		paint.setStrokeJoin(Paint.Join.ROUND);
+		paint.setAntiAlias(true);
+		paint.setDither(true);
+		paint.setColor(stroke.getColor());
+		paint.setStrokeWidth(stroke.getWidth());
+	}
+
+	/**
+	 * Draws strokes to a Canvas.
+	 *
+	 * @param canvas
+	 *            The Canvas to draw on.
+	 * @param strokes
+	 *            The strokes to draw.
+	 */
+	public static void draw(final Canvas canvas, final List<Stroke> strokes) {
+		draw(canvas, strokes, 0, strokes.size());
+	}
+
+	/**
+	 * Draws a range of strokes to a Canvas. One Path and one Paint are reused
+	 * for all strokes.
+	 *
+	 * @param canvas
+	 *            The Canvas to draw on.
+	 * @param strokes
+	 *            The strokes to draw.
+	 * @param from
+	 *            The index of the first stroke to draw.
+	 * @param to
+	 *            The index after the last stroke to draw.
+	 */
+	public static void draw(final Canvas canvas, final List<Stroke> strokes,
+			final int from, final int to) {
+		if (from >= to) {
+			return;
+		}
+
+		final Path path = new Path();
+		final Paint paint = new Paint();
+
+		for (int i = from; i < to; i++) {
+			final Stroke stroke = strokes.get(i);
+			buildPath(stroke, path);
+			applyPaint(stroke, paint);
+			canvas.drawPath(path, paint);
+		}
+	}
+}
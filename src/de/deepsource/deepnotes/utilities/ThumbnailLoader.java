@@ -0,0 +1,347 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.widget.ImageView;
+import de.deepsource.deepnotes.application.Deepnotes;
+
+/**
+ * This utility class loads the thumbnails of notes into ImageViews on a
+ * background thread. Thumbnails are decoded downsampled to about the size
+ * they are shown at, every size that is asked for is cached on it's own.
+ * Decoded thumbnails are kept in a memory cache of at most
+ * {@link Deepnotes#THUMBNAIL_CACHE_BUDGET} bytes, which outlives the
+ * activity, so showing the notes again does not decode them again. Several
+ * views waiting for the same thumbnail share one load, and a load nobody
+ * waits for anymore is cancelled. All methods are meant to be called from
+ * the UI thread.
+ */
+public final class ThumbnailLoader {
+
+	/**
+	 * The time it takes to read and decode a thumbnail.
+	 */
+	private static final Metrics.Histogram DECODE_TIMER = Metrics
+			.timer("list.thumbnail.decode");
+
+	/**
+	 * The sample size thumbnails are decoded with.
+	 */
+	private static final Metrics.Histogram SAMPLE_SIZE = Metrics
+			.histogram("list.thumbnail.sample");
+
+	/**
+	 * The number of bytes of a decoded thumbnail.
+	 */
+	private static final Metrics.Histogram THUMBNAIL_BYTES = Metrics
+			.histogram("list.thumbnail.bytes");
+
+	/**
+	 * The number of bytes the cache holds after a thumbnail was added.
+	 */
+	private static final Metrics.Histogram CACHE_BYTES = Metrics
+			.histogram("list.thumbnail.cache.bytes");
+
+	/**
+	 * The number of thumbnails shown from the cache.
+	 */
+	private static final Metrics.Counter CACHE_HITS = Metrics
+			.counter("list.thumbnail.cache.hits");
+
+	/**
+	 * The number of thumbnails that were not in the cache.
+	 */
+	private static final Metrics.Counter CACHE_MISSES = Metrics
+			.counter("list.thumbnail.cache.misses");
+
+	/**
+	 * Decodes one thumbnail and hands it to the views waiting for it.
+	 */
+	private static final class LoadTask implements Runnable {
+
+		/**
+		 * The key of the thumbnail in the cache.
+		 */
+		private final String key;
+
+		/**
+		 * The context from which we will get the applications directory.
+		 */
+		private final Context context;
+
+		/**
+		 * The entry of the note in the {@link NoteIndex}.
+		 */
+		private final NoteIndex.Entry entry;
+
+		/**
+		 * The width the thumbnail is shown at.
+		 */
+		private final int width;
+
+		/**
+		 * The height the thumbnail is shown at.
+		 */
+		private final int height;
+
+		/**
+		 * The views waiting for the thumbnail.
+		 */
+		private final List<ImageView> views = new ArrayList<ImageView>();
+
+		/**
+		 * The pending result of the task.
+		 */
+		private Future<?> future;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param thumbnailKey
+		 *            The key of the thumbnail in the cache.
+		 * @param appContext
+		 *            The context from which we will get the applications
+		 *            directory.
+		 * @param noteEntry
+		 *            The entry of the note in the {@link NoteIndex}.
+		 * @param thumbnailWidth
+		 *            The width the thumbnail is shown at.
+		 * @param thumbnailHeight
+		 *            The height the thumbnail is shown at.
+		 */
+		private LoadTask(final String thumbnailKey, final Context appContext,
+				final NoteIndex.Entry noteEntry, final int thumbnailWidth,
+				final int thumbnailHeight) {
+			key = thumbnailKey;
+			context = appContext;
+			entry = noteEntry;
+			width = thumbnailWidth;
+			height = thumbnailHeight;
+		}
+
+		@Override
+		public void run() {
+			final long start = Metrics.start();
+			Bitmap thumbnail = null;
+
+			final byte[] image = NoteIndex.readThumbnail(context, entry);
+			if (image != null) {
+				final int sampleSize = PageLoader.sampleSize(image, width, height);
+				thumbnail = PageLoader.decodeSampled(image, sampleSize);
+
+				if (thumbnail != null) {
+					DECODE_TIMER.stop(start);
+					SAMPLE_SIZE.record(sampleSize);
+					THUMBNAIL_BYTES.record(sizeOf(thumbnail));
+				}
+			}
+
+			final Bitmap loaded = thumbnail;
+			HANDLER.post(new Runnable() {
+				@Override
+				public void run() {
+					deliver(LoadTask.this, loaded);
+				}
+			});
+		}
+	}
+
+	/**
+	 * The decoded thumbnails by note name, modification time and size. Evicted
+	 * thumbnails are not recycled, because a view might still show them.
+	 */
+	private static final LruCache<String, Bitmap> CACHE = new LruCache<String, Bitmap>(
+			Deepnotes.THUMBNAIL_CACHE_BUDGET) {
+		@Override
+		protected int sizeOf(final String key, final Bitmap value) {
+			return ThumbnailLoader.sizeOf(value);
+		}
+	};
+
+	/**
+	 * The loads that did not deliver yet, by key.
+	 */
+	private static final Map<String, LoadTask> PENDING = new HashMap<String, LoadTask>();
+
+	/**
+	 * Hands decoded thumbnails over to the UI thread.
+	 */
+	private static final Handler HANDLER = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Decodes the thumbnails one after another, with background priority.
+	 */
+	private static final ExecutorService EXECUTOR = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							runnable.run();
+						}
+					}, "ThumbnailLoader");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Utility classes should not have public or default constructor.
+	 */
+	private ThumbnailLoader() {
+		// empty
+	}
+
+	/**
+	 * Shows the thumbnail of a note in a view. A cached thumbnail is shown
+	 * right away, else the view is cleared until the thumbnail is loaded. A
+	 * load the view was waiting for before is given up. The thumbnail is
+	 * downsampled as far as it still covers the given size.
+	 *
+	 * @param context
+	 *            The context from which we will get the applications directory.
+	 * @param entry
+	 *            The entry of the note in the {@link NoteIndex}.
+	 * @param view
+	 *            The view to show the thumbnail in.
+	 * @param width
+	 *            The width the thumbnail is shown at.
+	 * @param height
+	 *            The height the thumbnail is shown at.
+	 */
+	public static void load(final Context context,
+			final NoteIndex.Entry entry, final ImageView view,
+			final int width, final int height) {
+		if (context == null) {
+			Log.e(Deepnotes.APP_NAME, "context must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		if (entry == null) {
+			Log.e(Deepnotes.APP_NAME, "entry must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		if (view == null) {
+			Log.e(Deepnotes.APP_NAME, "view must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		// a saved note gets a new key, so an outdated thumbnail is not shown
+		final String key = entry.getName() + '@' + entry.getModified() + '@'
+				+ width + 'x' + height;
+		if (key.equals(view.getTag()) && PENDING.containsKey(key)) {
+			return;
+		}
+
+		cancel(view);
+
+		final Bitmap cached = CACHE.get(key);
+		if (cached != null) {
+			CACHE_HITS.increment();
+			view.setImageBitmap(cached);
+			return;
+		}
+
+		CACHE_MISSES.increment();
+
+		view.setImageBitmap(null);
+		view.setTag(key);
+
+		LoadTask task = PENDING.get(key);
+		if (task == null) {
+			task = new LoadTask(key, context.getApplicationContext(), entry,
+					width, height);
+			PENDING.put(key, task);
+			task.future = EXECUTOR.submit(task);
+		}
+
+		task.views.add(view);
+	}
+
+	/**
+	 * Stops a view from waiting for a thumbnail. The load is cancelled if no
+	 * other view waits for it and it did not start yet.
+	 *
+	 * @param view
+	 *            The view that does not need its thumbnail anymore.
+	 */
+	public static void cancel(final ImageView view) {
+		final Object key = view.getTag();
+		view.setTag(null);
+
+		final LoadTask task = PENDING.get(key);
+		if (task == null) {
+			return;
+		}
+
+		task.views.remove(view);
+
+		// a running load is finished anyway, so it's result gets cached
+		if (task.views.isEmpty() && task.future.cancel(false)) {
+			PENDING.remove(key);
+		}
+	}
+
+	/**
+	 * Calculates the number of bytes a thumbnail uses.
+	 *
+	 * @param thumbnail
+	 *            The thumbnail.
+	 *
+	 * @return The size in bytes.
+	 */
+	private static int sizeOf(final Bitmap thumbnail) {
+		return thumbnail.getRowBytes() * thumbnail.getHeight();
+	}
+
+	/**
+	 * Caches a loaded thumbnail and shows it in the views that still wait
+	 * for it.
+	 *
+	 * @param task
+	 *            The finished load.
+	 * @param thumbnail
+	 *            The thumbnail, or null if the note has none.
+	 */
+	private static void deliver(final LoadTask task, final Bitmap thumbnail) {
+		PENDING.remove(task.key);
+
+		if (thumbnail == null) {
+			Log.w(Deepnotes.APP_NAME, "no thumbnail for " + task.key);
+		} else {
+			CACHE.put(task.key, thumbnail);
+			CACHE_BYTES.record(CACHE.size());
+		}
+
+		for (ImageView view : task.views) {
+			if (task.key.equals(view.getTag())) {
+				view.setTag(null);
+				view.setImageBitmap(thumbnail);
+			}
+		}
+	}
+}
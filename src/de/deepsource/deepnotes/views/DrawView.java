@@ -7,20 +7,26 @@
 
 package de.deepsource.deepnotes.views;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 import de.deepsource.deepnotes.application.Deepnotes;
+import de.deepsource.deepnotes.models.NotePage;
+import de.deepsource.deepnotes.models.Stroke;
+import de.deepsource.deepnotes.utilities.BitmapPool;
+import de.deepsource.deepnotes.utilities.DirtyRegion;
+import de.deepsource.deepnotes.utilities.FrameTracer;
+import de.deepsource.deepnotes.utilities.Metrics;
+import de.deepsource.deepnotes.utilities.StrokeGeometry;
+import de.deepsource.deepnotes.utilities.StrokeRenderer;
 
 /**
  * Custom View class that implements all the drawing magic.
@@ -30,44 +36,62 @@ import de.deepsource.deepnotes.application.Deepnotes;
 public class DrawView extends View implements View.OnTouchListener {
 
 	/**
-	 * The foreground bitmap to paint on.
+	 * The time it takes to handle a touch event.
 	 */
-	private Bitmap bitmap;
+	private static final Metrics.Histogram TOUCH_TIMER = Metrics
+			.timer("draw.touch");
 
 	/**
-	 * The background bitmap to set images on.
+	 * The number of points delivered by a touch event.
 	 */
-	private Bitmap backgroundBitmap;
+	private static final Metrics.Histogram TOUCH_POINTS = Metrics
+			.histogram("draw.touch.points");
 
 	/**
-	 * The parent canvas.
+	 * The time it takes to draw the view.
 	 */
-	private Canvas canvas;
+	private static final Metrics.Histogram RENDER_TIMER = Metrics
+			.timer("draw.render");
 
 	/**
-	 * The painter object.
+	 * The number of pixels a frame of the stroke in progress draws again.
 	 */
-	private Paint paint = new Paint();
+	private static final Metrics.Histogram DIRTY_PIXELS = Metrics
+			.histogram("draw.dirty.pixels");
 
 	/**
-	 * Flag for changes.
+	 * The number of pixels the same frame would draw again, if every segment
+	 * was padded by {@link DrawView#PADDED_OFFSET}, to measure what the tight
+	 * bounds save.
+	 */
+	private static final Metrics.Histogram PADDED_PIXELS = Metrics
+			.histogram("draw.dirty.padded");
+
+	/**
+	 * The foreground bitmap to paint on.
+	 */
+	private Bitmap bitmap;
+
+	/**
+	 * The background bitmap to set images on.
 	 */
-	private boolean modified = false;
+	private Bitmap backgroundBitmap;
 
 	/**
-	 * Flag for modified background.
+	 * The parent canvas.
 	 */
-	private boolean bgModified = false;
+	private Canvas canvas;
 
 	/**
-	 * Identifies whether the view was cleared or not.
+	 * The painter object.
 	 */
-	private boolean isCleared = false;
+	private Paint paint = new Paint();
 
 	/**
-	 * Holds a flag neither the note is new or loaded.
+	 * The page this DrawView presents, it holds the strokes and the save
+	 * state. Null while no page is bound.
 	 */
-	private boolean isNewNote = true;
+	private NotePage page;
 
 	/**
 	 * An interface that should handle changes of the DrawView.
@@ -80,16 +104,10 @@ public class DrawView extends View implements View.OnTouchListener {
 		 * {@link DrawActivity}.
 		 */
 		void changed();
-
-		/**
-		 * Needs to be called when an user input was undone so that the
-		 * {@link DrawActivity} can initiate reloading.
-		 */
-		void undone();
 	}
 
 	/**
-	 * Will listen for changes and undone user inputs.
+	 * Will listen for changes.
 	 */
 	private final DrawViewListener dvListener;
 
@@ -97,7 +115,7 @@ public class DrawView extends View implements View.OnTouchListener {
 	 * Constructor of DrawView.
 	 *
 	 * @param listener
-	 *            Will listen for changes and undone user inputs.
+	 *            Will listen for changes.
 	 *
 	 * @param context
 	 *            The Context in which the DrawView was created.
@@ -110,14 +128,27 @@ public class DrawView extends View implements View.OnTouchListener {
 	}
 
 	/**
-	 * Will hold a history of previous paths to enable undo functionality.
+	 * Snapshots of {@link DrawView#bitmap} that keep undo and redo from
+	 * replaying all strokes of the page.
 	 */
-	private final List<Path> pathList = new ArrayList<Path>();
+	private final StrokeCheckpoints checkpoints = new StrokeCheckpoints(
+			Deepnotes.UNDO_CHECKPOINT_INTERVAL, Deepnotes.getUndoMemoryBudget());
 
 	/**
-	 * Will hold a history of previous colors to enable undo functionality.
+	 * The background and {@link DrawView#bitmap} flattened for drawing
+	 * frames, may be shared with other DrawViews.
 	 */
-	private final List<Paint> paintList = new ArrayList<Paint>();
+	private PageLayer pageLayer = new PageLayer();
+
+	/**
+	 * The stroke currently being drawn.
+	 */
+	private Stroke stroke;
+
+	/**
+	 * Traces the time from touches to frames, or null.
+	 */
+	private FrameTracer frameTracer;
 
 	/**
 	 * Initializes the DrawView.
@@ -141,31 +172,57 @@ public class DrawView extends View implements View.OnTouchListener {
 	// Author: Sebastian Ullrich
 	@Override
 	public final void onDraw(final Canvas drawCanvas) {
+		final long start = Metrics.start();
+		if (frameTracer != null) {
+			frameTracer.drawStarted();
+		}
 
-		// fill the bitmap with default background color
-		drawCanvas.drawColor(Color.WHITE);
+		if (!frameDirty.isEmpty()) {
+			DIRTY_PIXELS.record(frameDirty.getArea(getWidth(), getHeight()));
+			PADDED_PIXELS.record(paddedDirty.getArea(getWidth(), getHeight()));
+			frameDirty.setEmpty();
+			paddedDirty.setEmpty();
+		}
 
-		// check if there is a background set
-		if (backgroundBitmap != null) {
+		// only the dirty part of the flattened page is copied, the white
+		// paper is the background of the view; the bitmap is gone while the
+		// page is recycled
+		if (bitmap != null) {
+			pageLayer.draw(this, drawCanvas, backgroundBitmap, bitmap);
+		} else if (backgroundBitmap != null) {
 			drawCanvas.drawBitmap(backgroundBitmap, 0f, 0f, paint);
 		}
-
-		drawCanvas.drawBitmap(bitmap, 0f, 0f, paint);
 		drawCanvas.drawPath(path, paint);
 
+		RENDER_TIMER.stop(start);
+		if (frameTracer != null) {
+			frameTracer.drawFinished();
+		}
 	}
 
 	/**
-	 * Current path for drawing. A copy of this objekt will be stored in
-	 * {@link DrawView#pathList}.
+	 * Current path for drawing. It is only used to render the stroke in
+	 * progress, the points are captured in {@link DrawView#stroke}.
 	 */
 	private final Path path = new Path();
 
+	/**
+	 * Adds the smoothed segments of the stroke in progress to
+	 * {@link DrawView#path}.
+	 */
+	private final StrokeGeometry.PathBuilder pathBuilder = StrokeRenderer
+			.asBuilder(path);
+
 	/**
 	 * Stores the last coordinates for building a path.
 	 */
 	private float lastX, lastY;
 
+	/**
+	 * Stores the end of {@link DrawView#path}, where the next curve starts.
+	 */
+	private float endX, endY;
+
 	/**
 	 * This Method starts drawing on a new path.
 	 *
@@ -173,69 +230,115 @@ public class DrawView extends View implements View.OnTouchListener {
 	 *            Initial startpoint x.
 	 * @param y
 	 *            Initial startpoint y.
+	 * @param time
+	 *            The time of the point in milliseconds.
+	 * @param pressure
+	 *            The pressure of the point.
 	 */
 	// Author: Sebastian Ullrich
-	public final void startDraw(final float x, final float y) {
+	public final void startDraw(final float x, final float y, final long time,
+			final float pressure) {
 		path.reset();
 		path.moveTo(x, y);
 		lastX = x;
 		lastY = y;
+		endX = x;
+		endY = y;
+
+		stroke = new Stroke(paint.getColor(), paint.getStrokeWidth());
+		stroke.addPoint(x, y, time, pressure);
 
-		modified = true;
+		page.setModified(true);
 		dvListener.changed();
 	}
 
 	/**
-	 * This offsets extends the rerender-frame to avoid render artefacts while
-	 * drawing a path.
+	 * The number of pixels anti-aliasing draws beyond the edge of a line,
+	 * which also covers rounding the rerender-frame to whole pixels.
 	 */
-	private static final float INVALIDATE_OFFSET = 50f;
+	private static final float ANTI_ALIAS_MARGIN = 2f;
+
+	/**
+	 * The offset every segment was padded by before the rerender-frame was
+	 * calculated from the bounds of the curve, only used to measure the
+	 * saving.
+	 */
+	private static final float PADDED_OFFSET = 50f;
+
+	/**
+	 * Collects the rerender-frames of all points of one touch event, so the
+	 * view is invalidated once per event instead of once per point.
+	 */
+	private final DirtyRegion dirtyRect = new DirtyRegion();
+
+	/**
+	 * Collects the rerender-frames of all events drawn by the next frame, if
+	 * metrics are enabled.
+	 */
+	private final DirtyRegion frameDirty = new DirtyRegion();
+
+	/**
+	 * Collects the padded rerender-frames of all events drawn by the next
+	 * frame, if metrics are enabled.
+	 */
+	private final DirtyRegion paddedDirty = new DirtyRegion();
 
 	/**
 	 * Continues drawing a path. Is called by an ACTION_MOVE event. This method
 	 * draws a cubic bezier-curve to smooth the entered Inut, while afterwards
-	 * the rerender-frame is calculated.
+	 * the rerender-frame is calculated and added to {@link DrawView#dirtyRect}.
+	 * Call {@link DrawView#invalidateDirty()} to rerender it.
 	 *
 	 * @param x
 	 *            Continious point x.
 	 * @param y
 	 *            Continious point y.
+	 * @param time
+	 *            The time of the point in milliseconds.
+	 * @param pressure
+	 *            The pressure of the point.
 	 */
 	// Author: Sebastian Ullrich
-	public final void continueDraw(final float x, final float y) {
+	public final void continueDraw(final float x, final float y,
+			final long time, final float pressure) {
 		// Bezier Smoothing
-		path.quadTo(lastX, lastY, (x + lastX) / 2, (y + lastY) / 2);
-
-		// calculate rerender-frame
-		if (y < lastY) {
-			if (x < lastX) {
-				invalidate((int) (x - INVALIDATE_OFFSET),
-						(int) (y - INVALIDATE_OFFSET),
-						(int) (lastX + INVALIDATE_OFFSET),
-						(int) (lastY + INVALIDATE_OFFSET));
-			} else {
-				invalidate((int) (lastX - INVALIDATE_OFFSET),
-						(int) (y - INVALIDATE_OFFSET),
-						(int) (x + INVALIDATE_OFFSET),
-						(int) (lastY + INVALIDATE_OFFSET));
-			}
-		} else {
-			if (x < lastX) {
-				invalidate((int) (x - INVALIDATE_OFFSET),
-						(int) (lastY - INVALIDATE_OFFSET),
-						(int) (lastX + INVALIDATE_OFFSET),
-						(int) (y + INVALIDATE_OFFSET));
-			} else {
-				invalidate((int) (lastX - INVALIDATE_OFFSET),
-						(int) (lastY - INVALIDATE_OFFSET),
-						(int) (x + INVALIDATE_OFFSET),
-						(int) (y + INVALIDATE_OFFSET));
-			}
+		StrokeGeometry.continuePath(pathBuilder, lastX, lastY, x, y);
+		stroke.addPoint(x, y, time, pressure);
+
+		// calculate rerender-frame: the bounds of the new curve, the round
+		// joins and caps stay within half the width of the line
+		final float midX = (x + lastX) / 2;
+		final float midY = (y + lastY) / 2;
+		dirtyRect.addQuad(endX, endY, lastX, lastY, midX, midY,
+				paint.getStrokeWidth() / 2 + ANTI_ALIAS_MARGIN);
+
+		if (Metrics.isEnabled()) {
+			paddedDirty.addSegment(lastX, lastY, x, y, PADDED_OFFSET);
 		}
 
 		// store points for next cycle
 		lastX = x;
 		lastY = y;
+		endX = midX;
+		endY = midY;
+	}
+
+	/**
+	 * Rerenders the frames collected by {@link DrawView#continueDraw} since
+	 * the last call, with a single invalidate.
+	 */
+	public final void invalidateDirty() {
+		if (!dirtyRect.isEmpty()) {
+			invalidate(dirtyRect.getLeft(), dirtyRect.getTop(),
+					dirtyRect.getRight(), dirtyRect.getBottom());
+			if (frameTracer != null) {
+				frameTracer.invalidated();
+			}
+			if (Metrics.isEnabled()) {
+				frameDirty.union(dirtyRect);
+			}
+			dirtyRect.setEmpty();
+		}
 	}
 
 	/**
@@ -248,127 +351,184 @@ public class DrawView extends View implements View.OnTouchListener {
 		path.lineTo(lastX, lastY);
 		canvas.drawPath(path, paint);
 
-		// storing undo information
-		pathList.add(new Path(path));
-		paintList.add(new Paint(paint));
+		final Canvas layerCanvas = pageLayer.getCanvas(this);
+		if (layerCanvas != null) {
+			layerCanvas.drawPath(path, paint);
+		}
+
+		// storing undo information, strokes undone before can't be
+		// redone anymore
+		final List<Stroke> strokeList = page.getStrokes();
+		checkpoints.truncate(strokeList.size());
+		page.addStroke(stroke);
+		checkpoints.strokeDrawn(strokeList.size(), bitmap);
+		stroke = null;
 
 		// clear the path
 		path.reset();
+		dirtyRect.setEmpty();
+
+		// the whole view is drawn again, that frame is not measured
+		frameDirty.setEmpty();
+		paddedDirty.setEmpty();
 
 		// call rerender
 		invalidate();
+		if (frameTracer != null) {
+			frameTracer.invalidated();
+		}
 	}
 
 	/**
-	 * Undoes an user input. Removes the last stored path and color and calls
-	 * {@link DrawView#redraw()} .
+	 * Undoes an user input. Moves the last stored stroke to the undone
+	 * strokes of the page, restores the nearest checkpoint and only
+	 * replays the strokes drawn after it. Checkpoints missing on the way are
+	 * taken again.
 	 */
 	// Author: Sebastian Ullrich
 	public final void undo() {
-		Log.e("undo", "called");
-		if (pathList.isEmpty()) {
+		if (page.undoStroke() == null) {
 			return;
 		}
 
-		clearView(true);
+		final List<Stroke> strokeList = page.getStrokes();
+		final int count = strokeList.size();
+		final int interval = Deepnotes.UNDO_CHECKPOINT_INTERVAL;
+		int from = checkpoints.restore(count, bitmap);
+		while (from < count) {
+			final int to = Math.min(count, (from / interval + 1) * interval);
+			StrokeRenderer.draw(canvas, strokeList, from, to);
+			checkpoints.strokeDrawn(to, bitmap);
+			from = to;
+		}
+		pageLayer.invalidate(this);
 
-		pathList.remove(pathList.size() - 1);
-		paintList.remove(paintList.size() - 1);
+		page.setModified(true);
+		dvListener.changed();
+		invalidate();
+	}
 
-		redraw();
+	/**
+	 * Redoes the last undone user input, by drawing it on top of the page.
+	 */
+	public final void redo() {
+		if (page.redoStroke() == null) {
+			return;
+		}
+
+		final List<Stroke> strokeList = page.getStrokes();
+		StrokeRenderer.draw(canvas, strokeList, strokeList.size() - 1,
+				strokeList.size());
+		checkpoints.strokeDrawn(strokeList.size(), bitmap);
+
+		final Canvas layerCanvas = pageLayer.getCanvas(this);
+		if (layerCanvas != null) {
+			StrokeRenderer.draw(layerCanvas, strokeList,
+					strokeList.size() - 1, strokeList.size());
+		}
+
+		page.setModified(true);
+		dvListener.changed();
+		invalidate();
 	}
 
 	/**
-	 * Redraws the saved Paths. See {@link DrawView#undo()} for further
-	 * information.
+	 * Redraws the saved strokes on top of the current bitmap, which becomes
+	 * the base for undo. Checkpoints are taken along the way. Needs to be
+	 * called after the page was loaded.
 	 */
 	// Author: Sebastian Ullrich
 	public final void redraw() {
-		// check if there is a path queue.
-		if (pathList.isEmpty()) {
+		final List<Stroke> strokeList = page.getStrokes();
+
+		// check if there is a stroke queue.
+		if (strokeList.isEmpty()) {
 			return;
 		}
 
-		final int pls = pathList.size();
-		for (int i = 0; i < pls; i++) {
-			canvas.drawPath(pathList.get(i), paintList.get(i));
+		pageLayer.invalidate(this);
+
+		final int count = strokeList.size();
+		final int interval = Deepnotes.UNDO_CHECKPOINT_INTERVAL;
+		for (int from = 0; from < count; from += interval) {
+			final int to = Math.min(count, from + interval);
+			StrokeRenderer.draw(canvas, strokeList, from, to);
+			checkpoints.strokeDrawn(to, bitmap);
 		}
 	}
 
 	/**
 	 * Clears the current page and post an invalidate state to force an update.
-	 *
-	 * @param undo
-	 *            Identifies whether the method was called from
-	 *            {@link DrawView#undo()} or not.
 	 */
 	// Author: Jan Pretzel
 	// Author: Sebastian Ullrich
-	public final void clearView(final boolean undo) {
+	public final void clearView() {
 
 		// clear the hole bitmap
-		bitmap = Bitmap.createBitmap(Deepnotes.getViewportWidth(),
+		BitmapPool.release(bitmap);
+		bitmap = BitmapPool.acquire(Deepnotes.getViewportWidth(),
 				Deepnotes.getViewportHeight(), Bitmap.Config.ARGB_8888);
 
 		canvas = new Canvas(bitmap);
+		pageLayer.invalidate(this);
 		invalidate();
 
-		if (undo) {
-			// check if we have to reload a given bmp.
-			if (!isNewNote) {
-				Log.e("clear", "reloadNotePage");
-				dvListener.undone();
-			}
-
-		} else {
-			backgroundBitmap = null;
-			clearUndoCache();
+		BitmapPool.release(backgroundBitmap);
+		backgroundBitmap = null;
+		checkpoints.reset(null);
 
-			// set delete status
-			isCleared = true;
-			bgModified = false;
-			modified = false;
+		// forget the strokes and set delete status, saved strokes are gone
+		// too, so they will not be loaded again
+		page.clear();
 
-			dvListener.changed();
-		}
+		dvListener.changed();
 	}
 
 	/**
-	 * Getter for {@link DrawView#bitmap}.
+	 * Tells if the page holds its Bitmaps, in other words if it was loaded
+	 * and not recycled since.
 	 *
-	 * @return {@link DrawView#bitmap}.
+	 * @return Whether the page is loaded.
 	 */
-	// Author: Sebastian Ullrich
-	public final Bitmap getBitmap() {
-		return bitmap;
+	public final boolean isLoaded() {
+		return bitmap != null;
 	}
 
 	/**
-	 * Loads {@link DrawView#bitmap}.
+	 * Getter for {@link DrawView#bitmap}.
 	 *
-	 * @param newBitmap
-	 *            current foreground bitmap to set.
+	 * @return {@link DrawView#bitmap}.
 	 */
 	// Author: Sebastian Ullrich
-	public final void loadBitmap(final Bitmap newBitmap) {
-		canvas.drawBitmap(newBitmap, new Matrix(), paint);
-
-		// set flag isNewNote to false, because it's loaded
-		Log.e("loading note", "setting isNewNote to false");
-		isNewNote = false;
+	public final Bitmap getBitmap() {
+		return bitmap;
 	}
 
 	/**
-	 * Setter for {@link DrawView#bitmap}.
+	 * Setter for {@link DrawView#bitmap}. The strokes of the page are not
+	 * drawn yet, so the bitmap becomes the base for undo.
 	 *
 	 * @param newBitmap
 	 *            The new {@link DrawView#bitmap}.
+	 * @param loaded
+	 *            Whether the bitmap was loaded from memory (true) or is
+	 *            empty (false).
 	 */
 	// Author: Jan Pretzel
-	public final void setBitmap(final Bitmap newBitmap) {
+	public final void setBitmap(final Bitmap newBitmap, final boolean loaded) {
+		if (bitmap != newBitmap) {
+			BitmapPool.release(bitmap);
+		}
+
 		this.bitmap = newBitmap;
 		canvas = new Canvas(this.bitmap);
-		isNewNote = false;
+		pageLayer.invalidate(this);
+
+		if (loaded) {
+			checkpoints.reset(newBitmap);
+		} else {
+			checkpoints.reset(null);
+		}
 	}
 
 	/**
@@ -457,91 +617,127 @@ public class DrawView extends View implements View.OnTouchListener {
 	// Author: Jan Pretzel
 	public final void setBackgroundBitmap(final Bitmap bgBitmap,
 			final boolean newModified) {
+		if (backgroundBitmap != bgBitmap) {
+			BitmapPool.release(backgroundBitmap);
+		}
+
 		backgroundBitmap = bgBitmap;
-		bgModified = newModified;
+		page.setBgModified(newModified);
+		pageLayer.invalidate(this);
 	}
 
 	/**
-	 * Tells if the foreground of the note the DrawView presents was modified or
-	 * not.
+	 * Binds a page to this DrawView. Its Bitmaps need to be set afterwards.
 	 *
-	 * @return Whether the foreground was modified or not.
+	 * @param notePage
+	 *            The page to present, or null to unbind the current one.
 	 */
 	// Author: Jan Pretzel
-	public final boolean isModified() {
-		return modified;
+	public final void bindPage(final NotePage notePage) {
+		page = notePage;
 	}
 
 	/**
-	 * Tells if the background of the note the DrawView presents was modified or
-	 * not.
+	 * Getter for {@link DrawView#page}.
 	 *
-	 * @return Whether the background was modified or not.
+	 * @return The page this DrawView presents, or null.
 	 */
 	// Author: Jan Pretzel
-	public final boolean isBgModified() {
-		return bgModified;
+	public final NotePage getPage() {
+		return page;
 	}
 
 	/**
-	 * Setter {@link DrawView#modified}.
+	 * Setter for the {@link PageLayer}, to share one with the other DrawViews
+	 * of a flipper. Needs to be called before the DrawView is drawn.
 	 *
-	 * @param newModified
-	 *            The new {@link DrawView#modified}.
+	 * @param layer
+	 *            The layer to draw frames from.
 	 */
-	// Author: Jan Pretzel
-	public final void setModified(final boolean newModified) {
-		this.modified = newModified;
+	public final void setPageLayer(final PageLayer layer) {
+		if (layer == null) {
+			Log.e(Deepnotes.APP_NAME, "layer must not be null");
+			throw new IllegalArgumentException();
+		}
+
+		pageLayer.release(this);
+		pageLayer = layer;
 	}
 
 	/**
-	 * Setter {@link DrawView#bgModified}.
+	 * Setter for the {@link FrameTracer}.
 	 *
-	 * @param bgmodified
-	 *            The new {@link DrawView#bgModified}.
+	 * @param tracer
+	 *            Traces the time from touches to frames, may be null.
 	 */
-	// Author: Jan Pretzel
-	public final void setBgModified(final boolean bgmodified) {
-		bgModified = bgmodified;
+	public final void setFrameTracer(final FrameTracer tracer) {
+		frameTracer = tracer;
 	}
 
 	/**
-	 * Checks for the delete status. The note will be marked to be deleted when
-	 * modified and bgModified are false and cleared is true and only then. This
-	 * status is only reached by clearing the note and not doing anything after
-	 * that. With the help of this method we prevent setting extra statuses on
-	 * drawing actions and background changes.
-	 *
-	 * @return whether the note should be deleted or not.
+	 * Drops the undo checkpoints of the page but its base, while the page is
+	 * not displayed, so the displayed page can use the whole budget.
 	 */
-	// Author: Jan Pretzel
-	public final boolean deleteStatus() {
-		return !modified && !bgModified && isCleared;
+	public final void trimCheckpoints() {
+		checkpoints.trim();
 	}
 
 	/**
-	 * Recycles the DrawView, to make sure it gets collected by the GC.
+	 * Recycles the DrawView, by giving its Bitmaps back to the
+	 * {@link BitmapPool}. The strokes are kept by the bound
+	 * {@link NotePage}, so the page can be loaded again.
 	 */
 	// Author: Jan Pretzel
 	public final void recycle() {
-		if (bitmap != null) {
-			bitmap.recycle();
-		}
-		if (backgroundBitmap != null) {
-			backgroundBitmap.recycle();
-		}
+		checkpoints.clear();
+		pageLayer.release(this);
+
+		BitmapPool.release(bitmap);
+		bitmap = null;
+		canvas = null;
+
+		BitmapPool.release(backgroundBitmap);
+		backgroundBitmap = null;
 	}
 
 	// Author: Sebastian Ullrich
 	@Override
 	public final boolean onTouch(final View view, final MotionEvent event) {
+		// nothing to draw on while no page is loaded, and strokes started
+		// before the page was loaded can't be continued
+		if (bitmap == null || page == null || stroke == null
+				&& event.getAction() != MotionEvent.ACTION_DOWN) {
+			return true;
+		}
+
+		final long start = Metrics.start();
+
+		// a down event is drawn with the first move
+		if (frameTracer != null
+				&& event.getAction() != MotionEvent.ACTION_DOWN) {
+			frameTracer.inputReceived(event.getEventTime());
+		}
+
 		switch (event.getAction()) {
 		case MotionEvent.ACTION_DOWN:
-			startDraw(event.getX(), event.getY());
+			startDraw(event.getX(), event.getY(), event.getEventTime(),
+					event.getPressure());
 			break;
 
 		case MotionEvent.ACTION_MOVE:
-			continueDraw(event.getX(), event.getY());
+			// move events are batched, so consume all historical samples
+			// before the current one to keep fast strokes smooth
+			final int history = event.getHistorySize();
+			for (int h = 0; h < history; h++) {
+				continueDraw(event.getHistoricalX(h), event.getHistoricalY(h),
+						event.getHistoricalEventTime(h),
+						event.getHistoricalPressure(h));
+			}
+
+			continueDraw(event.getX(), event.getY(), event.getEventTime(),
+					event.getPressure());
+			invalidateDirty();
+			TOUCH_POINTS.record(history + 1);
 			break;
 
 		case MotionEvent.ACTION_UP:
@@ -551,15 +747,8 @@ public class DrawView extends View implements View.OnTouchListener {
 		default:
 			break;
 		}
-		return true;
-	}
 
-	/**
-	 * This will clear the undo cache.
-	 */
-	// Author: Sebastian Ullrich
-	public final void clearUndoCache() {
-		pathList.clear();
-		paintList.clear();
+		TOUCH_TIMER.stop(start);
+		return true;
 	}
 }
@@ -0,0 +1,163 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.views;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import de.deepsource.deepnotes.utilities.BitmapPool;
+
+/**
+ * The flattened page of a {@link DrawView}: the white paper, the background
+ * and the committed strokes composited into one cached Bitmap. A frame then
+ * only copies the part of the layer inside the clip of the canvas, so the
+ * cost of a frame depends on the size of the dirty region, not of the page.
+ * The layer is composited again when it was invalidated, strokes committed
+ * on top of the page can be drawn into it directly instead, see
+ * {@link PageLayer#getCanvas(DrawView)}. Only one page is displayed at a
+ * time, so the DrawViews of a flipper share one layer: it shows the page of
+ * the view that drew last, a view taking it over composites it again. The
+ * Bitmap is taken from and given back to the {@link BitmapPool}.
+ */
+public final class PageLayer {
+
+	/**
+	 * The flattened page, or null until the first frame.
+	 */
+	private Bitmap layer;
+
+	/**
+	 * Draws into {@link PageLayer#layer}.
+	 */
+	private Canvas layerCanvas;
+
+	/**
+	 * Whether {@link PageLayer#layer} shows the current page of
+	 * {@link PageLayer#owner}.
+	 */
+	private boolean valid = false;
+
+	/**
+	 * The view whose page the layer shows, or null.
+	 */
+	private DrawView owner;
+
+	/**
+	 * Copies the layer to the screen, dithered like the page was drawn
+	 * before, for screens with less colors.
+	 */
+	private final Paint blitPaint = new Paint(Paint.DITHER_FLAG);
+
+	/**
+	 * The clip of the frame being drawn, reused for every frame.
+	 */
+	private final Rect clip = new Rect();
+
+	/**
+	 * Tells the layer that the background or the foreground of a view changed
+	 * in a way it can't follow, so it is composited again for the next frame.
+	 *
+	 * @param view
+	 *            The view that changed, nothing happens if the layer shows
+	 *            the page of another view.
+	 */
+	public void invalidate(final DrawView view) {
+		if (owner == view) {
+			valid = false;
+		}
+	}
+
+	/**
+	 * Gives the canvas to draw committed strokes into the layer, the same
+	 * way they are drawn into the foreground. Drawing a stroke over the
+	 * flattened page gives the same pixels as drawing it over the foreground
+	 * and flattening it again.
+	 *
+	 * @param view
+	 *            The view drawing the strokes.
+	 *
+	 * @return The canvas of the layer, or null if the layer will be
+	 *         composited again anyway or shows the page of another view.
+	 */
+	public Canvas getCanvas(final DrawView view) {
+		return valid && owner == view ? layerCanvas : null;
+	}
+
+	/**
+	 * Draws the part of the page inside the clip of a canvas. The layer is
+	 * composited first if it was invalidated or showed the page of another
+	 * view.
+	 *
+	 * @param view
+	 *            The view being drawn.
+	 * @param target
+	 *            The canvas of the frame.
+	 * @param background
+	 *            The background of the page, may be null.
+	 * @param foreground
+	 *            The committed strokes of the page.
+	 */
+	public void draw(final DrawView view, final Canvas target,
+			final Bitmap background, final Bitmap foreground) {
+		if (owner != view) {
+			owner = view;
+			valid = false;
+		}
+
+		if (layer == null || layer.getWidth() != foreground.getWidth()
+				|| layer.getHeight() != foreground.getHeight()) {
+			release(view);
+			owner = view;
+			layer = BitmapPool.acquire(foreground.getWidth(),
+					foreground.getHeight(), Bitmap.Config.ARGB_8888);
+			layerCanvas = new Canvas(layer);
+		}
+
+		if (!valid) {
+			layerCanvas.drawColor(Color.WHITE);
+
+			if (background != null) {
+				layerCanvas.drawBitmap(background, 0f, 0f, null);
+			}
+
+			layerCanvas.drawBitmap(foreground, 0f, 0f, null);
+			valid = true;
+		}
+
+		if (!target.getClipBounds(clip)) {
+			return;
+		}
+
+		// parts of the clip outside of the page are left to the view
+		if (clip.intersect(0, 0, layer.getWidth(), layer.getHeight())) {
+			target.drawBitmap(layer, clip, clip, blitPaint);
+		}
+	}
+
+	/**
+	 * Gives the layer back to the {@link BitmapPool}, for example while the
+	 * page of a view is recycled.
+	 *
+	 * @param view
+	 *            The view being recycled, nothing happens if the layer shows
+	 *            the page of another view.
+	 */
+	public void release(final DrawView view) {
+		if (owner != view) {
+			return;
+		}
+
+		BitmapPool.release(layer);
+		layer = null;
+		layerCanvas = null;
+		valid = false;
+		owner = null;
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.views;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import de.deepsource.deepnotes.utilities.BitmapPool;
+
+/**
+ * Keeps raster snapshots of a page, taken every few strokes, so undo and
+ * redo only need to replay the strokes drawn since the nearest snapshot
+ * instead of the whole history. The snapshots share a memory budget, the
+ * base of the page is not part of it, as the page can't be restored without
+ * it. When the budget is exceeded, the snapshot whose gap matters least is
+ * dropped and its Bitmap reused: older snapshots are thinned out, recent ones
+ * are kept, so the gaps grow about geometrically with the distance to the
+ * last stroke. Bitmaps are taken from and given back to the
+ * {@link BitmapPool}.
+ *
+ * <p>
+ * Undoing to a given number of strokes replays the strokes since the
+ * nearest snapshot before it. The newest snapshot is at most interval
+ * strokes behind the last stroke, so undoing the last strokes replays at
+ * most interval strokes. Undoing d strokes back replays at most the gap
+ * around that point, roughly (n / interval)^(1 / k) * (d + interval) strokes
+ * for k snapshots and n strokes, for example 7 * (d + 10) with 3 snapshots
+ * and 1000 strokes. In the worst case, undoing past the oldest snapshot
+ * replays all strokes from the base, and without a single snapshot fitting
+ * the budget every undo does. With one snapshot only, it always is the
+ * newest.
+ * </p>
+ */
+public final class StrokeCheckpoints {
+
+	/**
+	 * A snapshot of the page after a given number of strokes.
+	 */
+	private static final class Checkpoint {
+
+		/**
+		 * The number of strokes drawn to {@link Checkpoint#bitmap}.
+		 */
+		private final int strokeCount;
+
+		/**
+		 * The raster of the page.
+		 */
+		private final Bitmap bitmap;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param count
+		 *            The number of strokes drawn to the raster.
+		 * @param raster
+		 *            The raster of the page.
+		 */
+		private Checkpoint(final int count, final Bitmap raster) {
+			strokeCount = count;
+			bitmap = raster;
+		}
+	}
+
+	/**
+	 * The number of strokes between two snapshots.
+	 */
+	private final int interval;
+
+	/**
+	 * The number of bytes all snapshots, without the base, may use.
+	 */
+	private final long budget;
+
+	/**
+	 * The raster the page started with, before any stroke. Null if the page
+	 * started empty.
+	 */
+	private Bitmap base;
+
+	/**
+	 * The snapshots ordered by their stroke count.
+	 */
+	private final List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param strokeInterval
+	 *            The number of strokes between two snapshots.
+	 * @param budgetBytes
+	 *            The number of bytes all snapshots, without the base, may
+	 *            use.
+	 */
+	public StrokeCheckpoints(final int strokeInterval, final long budgetBytes) {
+		if (strokeInterval < 1) {
+			throw new IllegalArgumentException("strokeInterval must be positive");
+		}
+
+		interval = strokeInterval;
+		budget = budgetBytes;
+	}
+
+	/**
+	 * Drops all snapshots and sets the raster the page starts with.
+	 *
+	 * @param pageBase
+	 *            The raster before any stroke was drawn, it will be copied.
+	 *            Null if the page starts empty.
+	 */
+	public void reset(final Bitmap pageBase) {
+		clear();
+
+		if (pageBase != null) {
+			base = copy(pageBase);
+		}
+	}
+
+	/**
+	 * Tells the checkpoints that a stroke was drawn to the page. Every
+	 * {@link StrokeCheckpoints#interval} strokes a snapshot is taken.
+	 *
+	 * @param strokeCount
+	 *            The number of strokes drawn to the page now.
+	 * @param page
+	 *            The raster of the page.
+	 */
+	public void strokeDrawn(final int strokeCount, final Bitmap page) {
+		if (strokeCount % interval != 0) {
+			return;
+		}
+
+		final int last = checkpoints.size() - 1;
+		if (last >= 0 && checkpoints.get(last).strokeCount >= strokeCount) {
+			return;
+		}
+
+		final long size = (long) page.getRowBytes() * page.getHeight();
+		final long slots = budget / size;
+		if (slots == 0) {
+			// not even one snapshot fits
+			return;
+		}
+
+		Bitmap snapshot = null;
+		if (checkpoints.size() >= slots) {
+			// reuse the bitmap of the snapshot that is missed least
+			snapshot = checkpoints.remove(thin(strokeCount)).bitmap;
+			snapshot.eraseColor(Color.TRANSPARENT);
+			new Canvas(snapshot).drawBitmap(page, 0f, 0f, null);
+		} else {
+			snapshot = copy(page);
+		}
+
+		checkpoints.add(new Checkpoint(strokeCount, snapshot));
+	}
+
+	/**
+	 * Chooses the snapshot to drop for a new one. Dropping a snapshot merges
+	 * the gaps before and after it, the snapshot whose merged gap is the
+	 * smallest compared to its distance to the new snapshot is chosen.
+	 *
+	 * @param strokeCount
+	 *            The number of strokes of the new snapshot.
+	 *
+	 * @return The index of the snapshot to drop.
+	 */
+	private int thin(final int strokeCount) {
+		int index = 0;
+		float least = Float.MAX_VALUE;
+
+		final int size = checkpoints.size();
+		for (int i = 0; i < size; i++) {
+			final int previous = i > 0 ? checkpoints.get(i - 1).strokeCount
+					: 0;
+			final int next = i + 1 < size ? checkpoints.get(i + 1).strokeCount
+					: strokeCount;
+			final float cost = (float) (next - previous)
+					/ (strokeCount - next + interval);
+			if (cost < least) {
+				least = cost;
+				index = i;
+			}
+		}
+
+		return index;
+	}
+
+	/**
+	 * Drops all snapshots taken after a given number of strokes. Needs to be
+	 * called when strokes were undone and a new stroke replaces them.
+	 *
+	 * @param strokeCount
+	 *            The number of strokes still valid.
+	 */
+	public void truncate(final int strokeCount) {
+		for (int i = checkpoints.size() - 1; i >= 0; i--) {
+			final Checkpoint checkpoint = checkpoints.get(i);
+			if (checkpoint.strokeCount <= strokeCount) {
+				break;
+			}
+
+			BitmapPool.release(checkpoint.bitmap);
+			checkpoints.remove(i);
+		}
+	}
+
+	/**
+	 * Restores the nearest snapshot at or before a given number of strokes
+	 * to a page. The caller has to draw the strokes from the returned index up
+	 * to strokeCount afterwards.
+	 *
+	 * @param strokeCount
+	 *            The number of strokes the page should show.
+	 * @param page
+	 *            The raster of the page, will be overwritten.
+	 *
+	 * @return The number of strokes already contained in the page.
+	 */
+	public int restore(final int strokeCount, final Bitmap page) {
+		page.eraseColor(Color.TRANSPARENT);
+
+		for (int i = checkpoints.size() - 1; i >= 0; i--) {
+			final Checkpoint checkpoint = checkpoints.get(i);
+			if (checkpoint.strokeCount <= strokeCount) {
+				new Canvas(page).drawBitmap(checkpoint.bitmap, 0f, 0f, null);
+				return checkpoint.strokeCount;
+			}
+		}
+
+		if (base != null) {
+			new Canvas(page).drawBitmap(base, 0f, 0f, null);
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Drops all snapshots but keeps the base, for example while the page is
+	 * not displayed. The next undo replays from the base and can take the
+	 * snapshots again on the way.
+	 */
+	public void trim() {
+		for (Checkpoint checkpoint : checkpoints) {
+			BitmapPool.release(checkpoint.bitmap);
+		}
+		checkpoints.clear();
+	}
+
+	/**
+	 * Drops all snapshots and the base, and gives their Bitmaps back to the
+	 * {@link BitmapPool}.
+	 */
+	public void clear() {
+		trim();
+
+		BitmapPool.release(base);
+		base = null;
+	}
+
+	/**
+	 * Copies a page into a Bitmap taken from the {@link BitmapPool}.
+	 *
+	 * @param page
+	 *            The page to copy.
+	 *
+	 * @return The copy.
+	 */
+	private static Bitmap copy(final Bitmap page) {
+		final Bitmap copy = BitmapPool.acquire(page.getWidth(),
+				page.getHeight(), Bitmap.Config.ARGB_8888);
+		new Canvas(copy).drawBitmap(page, 0f, 0f, null);
+
+		return copy;
+	}
+}
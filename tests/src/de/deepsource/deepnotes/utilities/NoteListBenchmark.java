@@ -0,0 +1,163 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import de.deepsource.deepnotes.application.Deepnotes;
+
+/**
+ * This utility class measures how the list of notes scales with the number of
+ * notes. For every size in {@link NoteListBenchmark#NOTE_COUNTS} an index of
+ * synthetic notes is written to the cache folder. It is opened like
+ * MainActivity opens the real one and the first screen of notes is read from
+ * it, then every note is read once, like scrolling to the end. The time and
+ * the heap it takes are logged. The benchmark is run as instrumentation, see
+ * tests/AndroidManifest.xml.
+ */
+public final class NoteListBenchmark extends InstrumentationTestCase {
+
+	/**
+	 * The numbers of notes to measure.
+	 */
+	private static final int[] NOTE_COUNTS = {50, 500, 2000, 10000};
+
+	/**
+	 * The number of notes on the first screen.
+	 */
+	private static final int SCREEN_SIZE = 12;
+
+	/**
+	 * The number of times every size is measured, the best time is logged.
+	 */
+	private static final int ROUNDS = 5;
+
+	/**
+	 * The name of the synthetic index file in the cache folder.
+	 */
+	private static final String INDEX_FILE = "/benchmark.index";
+
+	/**
+	 * The time between two synthetic notes, one minute.
+	 */
+	private static final long NOTE_INTERVAL = 60L * 1000;
+
+	/**
+	 * Runs the benchmark in the app under test.
+	 */
+	public void testNoteList() {
+		run(getInstrumentation().getTargetContext());
+	}
+
+	/**
+	 * Measures every size and logs the results.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 */
+	private static void run(final Context context) {
+		final File indexFile = new File(context.getCacheDir() + INDEX_FILE);
+
+		for (int count : NOTE_COUNTS) {
+			if (!IOManager.writeFile(createIndex(count).array(),
+					indexFile.toString())) {
+				Log.e(Deepnotes.APP_NAME, "failed to write benchmark index.");
+				return;
+			}
+
+			long firstScreen = Long.MAX_VALUE;
+			long scroll = Long.MAX_VALUE;
+			long firstScreenHeap = 0;
+			long scrollHeap = 0;
+
+			for (int round = 0; round < ROUNDS; round++) {
+				final long heap = usedHeap();
+				final long start = SystemClock.uptimeMillis();
+
+				final NoteIndex.Listing listing = NoteIndex.open(indexFile);
+				if (listing == null || listing.getCount() != count) {
+					Log.e(Deepnotes.APP_NAME, "broken benchmark index.");
+					return;
+				}
+
+				for (int i = 0; i < Math.min(SCREEN_SIZE, count); i++) {
+					listing.get(i);
+				}
+
+				firstScreen = Math.min(firstScreen,
+						SystemClock.uptimeMillis() - start);
+				firstScreenHeap = usedHeap() - heap;
+
+				final long scrollStart = SystemClock.uptimeMillis();
+				for (int i = 0; i < count; i++) {
+					listing.get(i);
+				}
+
+				scroll = Math.min(scroll, SystemClock.uptimeMillis()
+						- scrollStart);
+				scrollHeap = usedHeap() - heap;
+
+				// keep the listing alive while the heap is measured
+				if (listing.getCount() != count) {
+					return;
+				}
+			}
+
+			Log.i(Deepnotes.APP_NAME, "note list with " + count
+					+ " notes: first screen in " + firstScreen + "ms ("
+					+ firstScreenHeap + " bytes heap), scrolled through in "
+					+ scroll + "ms (" + scrollHeap + " bytes heap)");
+		}
+
+		if (!indexFile.delete()) {
+			Log.e(Deepnotes.APP_NAME, Deepnotes.ERROR_FILE);
+		}
+	}
+
+	/**
+	 * Creates an index of synthetic notes, one created every minute with
+	 * three pages and no thumbnail.
+	 *
+	 * @param count
+	 *            The number of notes.
+	 *
+	 * @return The encoded index.
+	 */
+	private static ByteBuffer createIndex(final int count) {
+		final long newest = System.currentTimeMillis();
+		final List<NoteIndex.Entry> entries = new ArrayList<NoteIndex.Entry>(
+				count);
+
+		for (int i = 0; i < count; i++) {
+			final long created = newest - i * NOTE_INTERVAL;
+			entries.add(new NoteIndex.Entry(created, created, created,
+					Deepnotes.NOTEPAGE_COUNT, -1, 0));
+		}
+
+		return NoteIndex.encode(entries, 0);
+	}
+
+	/**
+	 * Measures the heap in use after a garbage collection.
+	 *
+	 * @return The used heap in bytes.
+	 */
+	private static long usedHeap() {
+		final Runtime runtime = Runtime.getRuntime();
+		System.gc();
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
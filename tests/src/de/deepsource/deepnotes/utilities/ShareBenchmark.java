@@ -0,0 +1,379 @@
+/*
+ * Deepnotes - Note Application for Android
+ *
+ * Copyright (C) 2011 Sebastian Ullrich & Jan Pretzel
+ * http://www.deepsource.de
+ */
+
+package de.deepsource.deepnotes.utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import de.deepsource.deepnotes.application.Deepnotes;
+import de.deepsource.deepnotes.models.Stroke;
+
+/**
+ * This utility class measures how sharing a note scales with the number of
+ * pages. For every size in {@link ShareBenchmark#PAGE_COUNTS} a note of
+ * synthetic pages, each with a background and strokes, is written to the
+ * cache folder. It is exported as one PDF, like
+ * {@link IOManager#shareNote(android.app.Activity, String)} does, and as a set
+ * of JPEGs, like notes were shared before. The PDF is exported a second time
+ * from a {@link ShareCache} of its pages, like an unchanged note is shared
+ * again. The time per page, the peak memory, Java heap and native heap, above
+ * the memory used before and the number of bytes written are logged. The benchmark is run as
+ * instrumentation, see tests/AndroidManifest.xml.
+ */
+public final class ShareBenchmark extends InstrumentationTestCase {
+
+	/**
+	 * The numbers of pages to measure.
+	 */
+	private static final int[] PAGE_COUNTS = {3, 30, 150};
+
+	/**
+	 * The width of a synthetic page, like a 480x800 device.
+	 */
+	private static final int PAGE_WIDTH = 480;
+
+	/**
+	 * The height of a synthetic page.
+	 */
+	private static final int PAGE_HEIGHT = 800;
+
+	/**
+	 * The number of strokes on a synthetic page.
+	 */
+	private static final int STROKE_COUNT = 200;
+
+	/**
+	 * The number of points of a synthetic stroke.
+	 */
+	private static final int POINT_COUNT = 20;
+
+	/**
+	 * The number of milliseconds between two memory samples.
+	 */
+	private static final long SAMPLE_INTERVAL = 2;
+
+	/**
+	 * The name of the synthetic note in the cache folder.
+	 */
+	private static final String NOTE_FILE = "/benchmark" + Deepnotes.NOTE_SUFFIX;
+
+	/**
+	 * The name of the exported page in the cache folder.
+	 */
+	private static final String PAGE_FILE = "/benchmark" + Deepnotes.JPG_SUFFIX;
+
+	/**
+	 * The name of the exported PDF in the cache folder.
+	 */
+	private static final String PDF_FILE = "/benchmark" + Deepnotes.PDF_SUFFIX;
+
+	/**
+	 * The folder of the cached benchmark pages in the cache folder.
+	 */
+	private static final String PAGES_FOLDER = "/benchmark-pages/";
+
+	/**
+	 * The memory used at most while a sampler was running.
+	 */
+	private static volatile long peakMemory;
+
+	/**
+	 * The thread sampling the memory in use, or null.
+	 */
+	private static Thread sampler;
+
+	/**
+	 * Runs the benchmark in the app under test.
+	 */
+	public void testShare() {
+		run(getInstrumentation().getTargetContext());
+	}
+
+	/**
+	 * Measures every size and logs the results.
+	 *
+	 * @param context
+	 *            The Context in which the method is called.
+	 */
+	private static void run(final Context context) {
+		final File noteFile = new File(context.getCacheDir() + NOTE_FILE);
+		final String pageFile = context.getCacheDir() + PAGE_FILE;
+		final String pdfFile = context.getCacheDir() + PDF_FILE;
+		final ShareCache pageCache = new ShareCache(new File(
+				context.getCacheDir() + PAGES_FOLDER),
+				Deepnotes.SHARE_PAGE_CACHE_BUDGET);
+
+		final byte[] background = createBackground();
+		if (background == null) {
+			return;
+		}
+
+		for (int count : PAGE_COUNTS) {
+			if (!createNote(noteFile, count, background)) {
+				Log.e(Deepnotes.APP_NAME, "failed to write benchmark note.");
+				return;
+			}
+
+			final NoteContainer note = NoteContainer.open(noteFile);
+			if (note == null || note.getPageCount() != count) {
+				Log.e(Deepnotes.APP_NAME, "broken benchmark note.");
+				return;
+			}
+
+			// the pages as JPEG set, like notes were shared before
+			long memory = beginMeasure();
+			long start = SystemClock.uptimeMillis();
+			long jpegSize = 0;
+
+			final PageExporter pageExporter = new PageExporter(PAGE_WIDTH,
+					PAGE_HEIGHT, Deepnotes.JPG_QUALITY);
+			for (int i = 0; i < count; i++) {
+				if (!IOManager.writeFile(pageExporter, note, i, pageFile)) {
+					Log.e(Deepnotes.APP_NAME, "failed to export benchmark page.");
+					break;
+				}
+
+				jpegSize += new File(pageFile).length();
+			}
+
+			pageExporter.release();
+
+			long time = SystemClock.uptimeMillis() - start;
+			if (!endMeasure()) {
+				return;
+			}
+
+			Log.i(Deepnotes.APP_NAME, "shared note with " + count
+					+ " pages as JPEG: " + (time / count)
+					+ "ms per page, peak memory " + (peakMemory - memory)
+					+ " bytes, " + jpegSize + " bytes written");
+
+			// the pages as one PDF, like notes are shared now
+			memory = beginMeasure();
+			start = SystemClock.uptimeMillis();
+
+			// every page is cached, so the next export only copies them
+			PdfExporter pdfExporter = new PdfExporter(PAGE_WIDTH, PAGE_HEIGHT,
+					pageCache);
+			if (!IOManager.writeFile(pdfExporter, note, pdfFile)) {
+				Log.e(Deepnotes.APP_NAME, "failed to export benchmark pdf.");
+			}
+
+			pdfExporter.release();
+
+			time = SystemClock.uptimeMillis() - start;
+			if (!endMeasure()) {
+				return;
+			}
+
+			Log.i(Deepnotes.APP_NAME, "shared note with " + count
+					+ " pages as PDF: " + (time / count)
+					+ "ms per page, peak memory " + (peakMemory - memory)
+					+ " bytes, " + new File(pdfFile).length()
+					+ " bytes written");
+
+			// the same pages again, like sharing a note a second time
+			memory = beginMeasure();
+			start = SystemClock.uptimeMillis();
+
+			pdfExporter = new PdfExporter(PAGE_WIDTH, PAGE_HEIGHT, pageCache);
+			if (!IOManager.writeFile(pdfExporter, note, pdfFile)) {
+				Log.e(Deepnotes.APP_NAME, "failed to export benchmark pdf.");
+			}
+
+			pdfExporter.release();
+
+			time = SystemClock.uptimeMillis() - start;
+			if (!endMeasure()) {
+				return;
+			}
+
+			Log.i(Deepnotes.APP_NAME, "shared unchanged note with " + count
+					+ " pages as PDF: " + (time / count)
+					+ "ms per page, peak memory " + (peakMemory - memory)
+					+ " bytes");
+		}
+
+		pageCache.removeStartingWith("", null);
+
+		if (!noteFile.delete() || !new File(pageFile).delete()
+				|| !new File(pdfFile).delete()) {
+			Log.e(Deepnotes.APP_NAME, Deepnotes.ERROR_FILE);
+		}
+	}
+
+	/**
+	 * Creates the background of the synthetic pages, stripes in every color
+	 * of the pen.
+	 *
+	 * @return The background as JPEG, or null if it could not be encoded.
+	 */
+	private static byte[] createBackground() {
+		final Bitmap bitmap = Bitmap.createBitmap(PAGE_WIDTH, PAGE_HEIGHT,
+				Bitmap.Config.ARGB_8888);
+		final Canvas canvas = new Canvas(bitmap);
+		final Paint paint = new Paint();
+		final int[] colors = {Deepnotes.WHITE, Deepnotes.YELLOW, Deepnotes.RED,
+				Deepnotes.BLACK};
+
+		final int stripe = PAGE_HEIGHT / colors.length;
+		for (int i = 0; i < colors.length; i++) {
+			paint.setColor(colors[i]);
+			canvas.drawRect(0, i * stripe, PAGE_WIDTH, (i + 1) * stripe, paint);
+		}
+
+		final byte[] data = IOManager.compress(bitmap,
+				Bitmap.CompressFormat.JPEG, Deepnotes.JPG_QUALITY);
+		bitmap.recycle();
+
+		return data;
+	}
+
+	/**
+	 * Writes a note of synthetic pages, with the same background and random
+	 * strokes on every page.
+	 *
+	 * @param file
+	 *            The note file, it is replaced.
+	 * @param count
+	 *            The number of pages.
+	 * @param background
+	 *            The background of every page.
+	 *
+	 * @return Whether the note was written.
+	 */
+	private static boolean createNote(final File file, final int count,
+			final byte[] background) {
+		if (file.exists() && !file.delete()) {
+			Log.e(Deepnotes.APP_NAME, Deepnotes.ERROR_FILE);
+			return false;
+		}
+
+		final Random random = new Random(count);
+		final List<Stroke> strokes = new ArrayList<Stroke>(STROKE_COUNT);
+		NoteContainer.Editor editor = null;
+
+		try {
+			editor = NoteContainer.edit(file);
+
+			for (int i = 0; i < count; i++) {
+				strokes.clear();
+				for (int s = 0; s < STROKE_COUNT; s++) {
+					final Stroke stroke = new Stroke(Deepnotes.BLACK,
+							Deepnotes.PEN_WIDTH_NORMAL);
+					float x = random.nextFloat() * PAGE_WIDTH;
+					float y = random.nextFloat() * PAGE_HEIGHT;
+
+					for (int p = 0; p < POINT_COUNT; p++) {
+						stroke.addPoint(x, y);
+						x += random.nextFloat() * 10f - 5f;
+						y += random.nextFloat() * 10f - 5f;
+					}
+
+					strokes.add(stroke);
+				}
+
+				final ByteArrayOutputStream out = new ByteArrayOutputStream();
+				StrokeCodec.write(out, strokes);
+
+				editor.put(NoteContainer.SECTION_BACKGROUND, i, background);
+				editor.put(NoteContainer.SECTION_STROKES, i, out.toByteArray());
+			}
+
+			editor.setPageCount(count);
+			final boolean committed = editor.commit();
+			editor = null;
+
+			return committed;
+		} catch (IOException e) {
+			Log.e(Deepnotes.APP_NAME, "failed to write benchmark note.");
+		} finally {
+			if (editor != null) {
+				editor.abort();
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Starts a thread raising {@link ShareBenchmark#peakMemory} to the memory
+	 * in use, until {@link ShareBenchmark#endMeasure()} is called.
+	 *
+	 * @return The memory in use before, in bytes.
+	 */
+	private static long beginMeasure() {
+		final long memory = usedMemory();
+		peakMemory = memory;
+
+		sampler = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!Thread.currentThread().isInterrupted()) {
+					peakMemory = Math.max(peakMemory, usedMemory());
+
+					try {
+						Thread.sleep(SAMPLE_INTERVAL);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}, "ShareBenchmarkSampler");
+
+		sampler.setDaemon(true);
+		sampler.start();
+
+		return memory;
+	}
+
+	/**
+	 * Stops the thread started by {@link ShareBenchmark#beginMeasure()}.
+	 *
+	 * @return Whether the benchmark may go on, false if it was interrupted.
+	 */
+	private static boolean endMeasure() {
+		sampler.interrupt();
+
+		try {
+			sampler.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		sampler = null;
+
+		return true;
+	}
+
+	/**
+	 * Measures the memory in use, Java heap and native heap. Bitmaps are
+	 * allocated on the native heap on our versions.
+	 *
+	 * @return The used memory in bytes.
+	 */
+	private static long usedMemory() {
+		final Runtime runtime = Runtime.getRuntime();
+
+		return runtime.totalMemory() - runtime.freeMemory()
+				+ Debug.getNativeHeapAllocatedSize();
+	}
+}